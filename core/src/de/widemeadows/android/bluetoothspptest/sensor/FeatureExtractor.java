@@ -0,0 +1,474 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Verdichtet Sensorwerte zu Merkmalen über ein gleitendes Fenster und gibt nur
+ * diese mit niedriger Rate weiter.
+ *
+ * <p/>
+ *
+ * Je Kanal werden über die letzten <i>N</i> Werte Effektivwert, Minimum, Maximum,
+ * Spitzenwert (größter Betrag) und die Energie in gleich breiten Frequenzbändern
+ * bestimmt. Jeder Wert aktualisiert die Merkmale schrittweise: die Quadratsumme
+ * gleitend, Minimum und Maximum über monotone Warteschlangen und das Spektrum über
+ * eine gleitende DFT (O(<i>N</i>/2) je Wert). Beim Ausgeben wird das Spektrum im
+ * Frequenzbereich mit einem Hann-Fenster gefaltet.
+ *
+ * <p/>
+ *
+ * Ein Merkmals-Frame enthält je Kanal {@link #getFeaturesPerChannel()} Werte in der
+ * Reihenfolge {@link #FEATURE_RMS}, {@link #FEATURE_MIN}, {@link #FEATURE_MAX},
+ * {@link #FEATURE_PEAK}, gefolgt von den Bändern ab {@link #FEATURE_BANDS}. Die
+ * Bandenergien sind mittlere Quadrate ohne Gleichanteil; ihre Summe entspricht
+ * näherungsweise dem Quadrat des Effektivwertes ohne Mittelwert. Kanäle ohne
+ * bisherigen Wert sind <code>NaN</code>.
+ *
+ * <p/>
+ *
+ * Alle Puffer werden beim Erzeugen angelegt und liegen kanalweise hintereinander
+ * in je einem Array. Instanzen sind nicht threadsicher.
+ */
+public final class FeatureExtractor implements ISensorSampleListener {
+
+	/**
+	 * Merkmal: Effektivwert
+	 */
+	public static final int FEATURE_RMS = 0;
+
+	/**
+	 * Merkmal: Minimum
+	 */
+	public static final int FEATURE_MIN = 1;
+
+	/**
+	 * Merkmal: Maximum
+	 */
+	public static final int FEATURE_MAX = 2;
+
+	/**
+	 * Merkmal: Größter Betrag
+	 */
+	public static final int FEATURE_PEAK = 3;
+
+	/**
+	 * Merkmal: Energie des ersten Frequenzbandes; die weiteren folgen
+	 */
+	public static final int FEATURE_BANDS = 4;
+
+	/**
+	 * Rauschleistungsfaktor des Hann-Fensters
+	 */
+	private static final double HANN_POWER_GAIN = 0.375;
+
+	/**
+	 * Der Empfänger der Merkmals-Frames
+	 */
+	@NotNull
+	private final ISensorSampleListener listener;
+
+	/**
+	 * Der erste ausgewertete Eingangskanal
+	 */
+	private final int firstChannel;
+
+	/**
+	 * Die Anzahl der ausgewerteten Kanäle
+	 */
+	private final int channelCount;
+
+	/**
+	 * Die Fensterlänge in Werten
+	 */
+	private final int window;
+
+	/**
+	 * Die Anzahl der DFT-Bins von 0 bis <code>window / 2</code>
+	 */
+	private final int binCount;
+
+	/**
+	 * Die Anzahl der Frequenzbänder
+	 */
+	private final int bandCount;
+
+	/**
+	 * Der Abstand der Merkmals-Frames in Nanosekunden
+	 */
+	private final long interval;
+
+	/**
+	 * Die Werte im Fenster; <code>window</code> je Kanal
+	 */
+	@NotNull
+	private final float[] history;
+
+	/**
+	 * Die Anzahl aller bisherigen Werte je Kanal
+	 */
+	@NotNull
+	private final long[] sampleCount;
+
+	/**
+	 * Die Quadratsumme im Fenster je Kanal
+	 */
+	@NotNull
+	private final double[] sumOfSquares;
+
+	/**
+	 * Die Indizes der Minimumkandidaten; <code>window</code> je Kanal, aufsteigende Werte
+	 */
+	@NotNull
+	private final long[] minQueue;
+
+	/**
+	 * Der Anfang der Minimumkandidaten je Kanal
+	 */
+	@NotNull
+	private final int[] minHead;
+
+	/**
+	 * Die Anzahl der Minimumkandidaten je Kanal
+	 */
+	@NotNull
+	private final int[] minSize;
+
+	/**
+	 * Die Indizes der Maximumkandidaten; <code>window</code> je Kanal, absteigende Werte
+	 */
+	@NotNull
+	private final long[] maxQueue;
+
+	/**
+	 * Der Anfang der Maximumkandidaten je Kanal
+	 */
+	@NotNull
+	private final int[] maxHead;
+
+	/**
+	 * Die Anzahl der Maximumkandidaten je Kanal
+	 */
+	@NotNull
+	private final int[] maxSize;
+
+	/**
+	 * Realteile der DFT-Bins; <code>binCount</code> je Kanal
+	 */
+	@NotNull
+	private final double[] binReal;
+
+	/**
+	 * Imaginärteile der DFT-Bins; <code>binCount</code> je Kanal
+	 */
+	@NotNull
+	private final double[] binImaginary;
+
+	/**
+	 * Kosinus der Drehung je Bin
+	 */
+	@NotNull
+	private final double[] twiddleCos;
+
+	/**
+	 * Sinus der Drehung je Bin
+	 */
+	@NotNull
+	private final double[] twiddleSin;
+
+	/**
+	 * Der erste Bin je Band; der letzte Eintrag ist das Ende des letzten Bandes
+	 */
+	@NotNull
+	private final int[] bandStart;
+
+	/**
+	 * Der ausgegebene Merkmals-Frame
+	 */
+	@NotNull
+	private final float[] features;
+
+	/**
+	 * Gibt an, ob das Ausgaberaster festgelegt ist
+	 */
+	private boolean started;
+
+	/**
+	 * Der Zeitstempel, ab dem der nächste Merkmals-Frame ausgegeben wird
+	 */
+	private long nextFrameTime;
+
+	/**
+	 * Die Anzahl der ausgegebenen Merkmals-Frames
+	 */
+	private long framesEmitted;
+
+	/**
+	 * Erzeugt einen neuen Merkmalsextraktor
+	 *
+	 * @param firstChannel Der erste ausgewertete Eingangskanal
+	 * @param channelCount Die Anzahl der ausgewerteten Kanäle
+	 * @param window Die Fensterlänge in Werten (gerade, mindestens 4)
+	 * @param bandCount Die Anzahl der Frequenzbänder (höchstens <code>window / 2</code>)
+	 * @param rate Die Ausgaberate in Merkmals-Frames je Sekunde
+	 * @param listener Der Empfänger der Merkmals-Frames
+	 */
+	public FeatureExtractor(int firstChannel, int channelCount, int window, int bandCount, double rate, @NotNull ISensorSampleListener listener) {
+		if (firstChannel < 0) throw new IllegalArgumentException("firstChannel");
+		if (channelCount <= 0) throw new IllegalArgumentException("channelCount");
+		if (window < 4 || window % 2 != 0) throw new IllegalArgumentException("window");
+		if (bandCount < 0 || bandCount > window / 2) throw new IllegalArgumentException("bandCount");
+		if (rate <= 0) throw new IllegalArgumentException("rate");
+
+		this.firstChannel = firstChannel;
+		this.channelCount = channelCount;
+		this.window = window;
+		this.binCount = window / 2 + 1;
+		this.bandCount = bandCount;
+		this.interval = Math.max(1, Math.round(1E9 / rate));
+		this.listener = listener;
+
+		this.history = new float[channelCount * window];
+		this.sampleCount = new long[channelCount];
+		this.sumOfSquares = new double[channelCount];
+		this.minQueue = new long[channelCount * window];
+		this.minHead = new int[channelCount];
+		this.minSize = new int[channelCount];
+		this.maxQueue = new long[channelCount * window];
+		this.maxHead = new int[channelCount];
+		this.maxSize = new int[channelCount];
+		this.binReal = new double[channelCount * binCount];
+		this.binImaginary = new double[channelCount * binCount];
+		this.features = new float[channelCount * getFeaturesPerChannel()];
+
+		this.twiddleCos = new double[binCount];
+		this.twiddleSin = new double[binCount];
+		for (int k = 0; k < binCount; ++k) {
+			twiddleCos[k] = Math.cos(2 * Math.PI * k / window);
+			twiddleSin[k] = Math.sin(2 * Math.PI * k / window);
+		}
+
+		// Bänder teilen die Bins 1 .. window/2 gleichmäßig auf
+		this.bandStart = new int[bandCount + 1];
+		for (int b = 0; b <= bandCount; ++b) {
+			bandStart[b] = 1 + b * (binCount - 1) / Math.max(1, bandCount);
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der Merkmale je Kanal
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getFeaturesPerChannel() {
+		return FEATURE_BANDS + bandCount;
+	}
+
+	/**
+	 * Liefert die Anzahl der Werte je Merkmals-Frame
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getFeatureCount() {
+		return channelCount * getFeaturesPerChannel();
+	}
+
+	/**
+	 * Liefert die untere Grenze eines Frequenzbandes
+	 *
+	 * @param band Das Band
+	 * @param sampleRate Die Rate der Eingangswerte in Hz
+	 * @return Die Frequenz in Hz
+	 */
+	public double getBandFrequency(int band, double sampleRate) {
+		return (bandStart[band] - 0.5) * sampleRate / window;
+	}
+
+	/**
+	 * Liefert die Anzahl der ausgegebenen Merkmals-Frames
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getFramesEmitted() {
+		return framesEmitted;
+	}
+
+	/**
+	 * Verwirft alle Fenster und das Ausgaberaster
+	 */
+	public void reset() {
+		for (int c = 0; c < channelCount; ++c) {
+			sampleCount[c] = 0;
+			sumOfSquares[c] = 0;
+			minSize[c] = 0;
+			maxSize[c] = 0;
+		}
+		Arrays.fill(history, 0);
+		Arrays.fill(binReal, 0);
+		Arrays.fill(binImaginary, 0);
+		started = false;
+	}
+
+	@Override
+	public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+		final int from = Math.max(firstChannel, this.firstChannel);
+		final int to = Math.min(firstChannel + count, this.firstChannel + channelCount);
+		for (int channel = from; channel < to; ++channel) {
+			final float value = values[channel - firstChannel];
+			if (!Float.isNaN(value)) update(channel - this.firstChannel, value);
+		}
+
+		if (!started) {
+			started = true;
+			nextFrameTime = timestamp + interval;
+			return;
+		}
+		if (timestamp < nextFrameTime) return;
+
+		// Nach einer Lücke nicht aufholen
+		nextFrameTime = timestamp - nextFrameTime >= interval
+				? timestamp + interval
+				: nextFrameTime + interval;
+		emit(timestamp);
+	}
+
+	/**
+	 * Nimmt einen Wert in das Fenster eines Kanals auf
+	 *
+	 * @param c Der Kanal relativ zu {@link #firstChannel}
+	 * @param value Der Wert
+	 */
+	private void update(int c, float value) {
+		final long index = sampleCount[c];
+		final int base = c * window;
+		final int slot = base + (int) (index % window);
+		final float oldest = index >= window ? history[slot] : 0;
+		history[slot] = value;
+		sampleCount[c] = index + 1;
+
+		// Quadratsumme; nach jedem Umlauf neu aufsummiert, damit sich keine Rundungsfehler ansammeln
+		if (slot == base + window - 1) {
+			double sum = 0;
+			for (int i = base; i < base + window; ++i) {
+				sum += (double) history[i] * history[i];
+			}
+			sumOfSquares[c] = sum;
+		}
+		else {
+			sumOfSquares[c] += (double) value * value - (double) oldest * oldest;
+		}
+
+		// Monotone Warteschlangen: abgelaufene Indizes vorn, dominierte hinten entfernen
+		final long expired = index - window;
+		if (minSize[c] > 0 && minQueue[base + minHead[c]] <= expired) {
+			minHead[c] = (minHead[c] + 1) % window;
+			--minSize[c];
+		}
+		while (minSize[c] > 0 && valueOf(c, minQueue[base + (minHead[c] + minSize[c] - 1) % window]) >= value) {
+			--minSize[c];
+		}
+		minQueue[base + (minHead[c] + minSize[c]) % window] = index;
+		++minSize[c];
+
+		if (maxSize[c] > 0 && maxQueue[base + maxHead[c]] <= expired) {
+			maxHead[c] = (maxHead[c] + 1) % window;
+			--maxSize[c];
+		}
+		while (maxSize[c] > 0 && valueOf(c, maxQueue[base + (maxHead[c] + maxSize[c] - 1) % window]) <= value) {
+			--maxSize[c];
+		}
+		maxQueue[base + (maxHead[c] + maxSize[c]) % window] = index;
+		++maxSize[c];
+
+		// Gleitende DFT: X_k <- (X_k + neu - alt) * e^(j 2 pi k / N)
+		final double delta = (double) value - oldest;
+		final int bins = c * binCount;
+		for (int k = 0; k < binCount; ++k) {
+			final double re = binReal[bins + k] + delta;
+			final double im = binImaginary[bins + k];
+			binReal[bins + k] = re * twiddleCos[k] - im * twiddleSin[k];
+			binImaginary[bins + k] = re * twiddleSin[k] + im * twiddleCos[k];
+		}
+	}
+
+	/**
+	 * Liefert einen Wert aus dem Fenster eines Kanals
+	 *
+	 * @param c Der Kanal relativ zu {@link #firstChannel}
+	 * @param index Der fortlaufende Index des Wertes
+	 * @return Der Wert
+	 */
+	private float valueOf(int c, long index) {
+		return history[c * window + (int) (index % window)];
+	}
+
+	/**
+	 * Bestimmt die Merkmale aller Kanäle und gibt den Frame weiter
+	 *
+	 * @param timestamp Der Zeitstempel des Frames
+	 */
+	private void emit(long timestamp) {
+		final int perChannel = getFeaturesPerChannel();
+		for (int c = 0; c < channelCount; ++c) {
+			final int offset = c * perChannel;
+			final long count = Math.min(sampleCount[c], window);
+			if (count == 0) {
+				for (int f = 0; f < perChannel; ++f) {
+					features[offset + f] = Float.NaN;
+				}
+				continue;
+			}
+
+			final int base = c * window;
+			final float minimum = valueOf(c, minQueue[base + minHead[c]]);
+			final float maximum = valueOf(c, maxQueue[base + maxHead[c]]);
+			features[offset + FEATURE_RMS] = (float) Math.sqrt(Math.max(0, sumOfSquares[c]) / count);
+			features[offset + FEATURE_MIN] = minimum;
+			features[offset + FEATURE_MAX] = maximum;
+			features[offset + FEATURE_PEAK] = Math.max(Math.abs(minimum), Math.abs(maximum));
+
+			for (int b = 0; b < bandCount; ++b) {
+				double energy = 0;
+				for (int k = bandStart[b]; k < bandStart[b + 1]; ++k) {
+					energy += hannPower(c, k);
+				}
+				features[offset + FEATURE_BANDS + b] = (float) energy;
+			}
+		}
+
+		++framesEmitted;
+		listener.sampleAvailable(0, timestamp, features, features.length);
+	}
+
+	/**
+	 * Bestimmt das mittlere Quadrat eines Bins nach Hann-Fensterung
+	 *
+	 * <p/>
+	 *
+	 * Das Hann-Fenster entspricht im Frequenzbereich der Faltung
+	 * <code>0.5 X_k - 0.25 (X_k-1 + X_k+1)</code>. Der Gleichanteil wird dabei als
+	 * <code>0</code> angenommen, damit ein Mittelwert nicht in das unterste Band streut;
+	 * der Nachbar oberhalb von N/2 ist der konjugierte Spiegelbin.
+	 *
+	 * @param c Der Kanal relativ zu {@link #firstChannel}
+	 * @param k Der Bin, 1 .. N/2
+	 * @return Das mittlere Quadrat
+	 */
+	private double hannPower(int c, int k) {
+		final int bins = c * binCount;
+		final boolean nyquist = k == binCount - 1;
+
+		final double belowReal = k == 1 ? 0 : binReal[bins + k - 1];
+		final double belowImaginary = k == 1 ? 0 : binImaginary[bins + k - 1];
+		final double aboveReal = nyquist ? binReal[bins + k - 1] : binReal[bins + k + 1];
+		final double aboveImaginary = nyquist ? -binImaginary[bins + k - 1] : binImaginary[bins + k + 1];
+
+		final double re = 0.5 * binReal[bins + k] - 0.25 * (belowReal + aboveReal);
+		final double im = 0.5 * binImaginary[bins + k] - 0.25 * (belowImaginary + aboveImaginary);
+
+		// Einseitiges Spektrum: außer dem Nyquist-Bin doppelt zählen
+		final double scale = nyquist ? 1 : 2;
+		return scale * (re * re + im * im) / (HANN_POWER_GAIN * window * window);
+	}
+}
@@ -0,0 +1,380 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Richtet unabhängig eintreffende Sensorwerte zeitlich aus und gibt sie
+ * als vollständige Frames mit fester Rate weiter.
+ *
+ * <p/>
+ *
+ * Je Kanal werden die letzten Werte mit ihrem Zeitstempel gepuffert. Ein
+ * Frame zum Rasterzeitpunkt <i>t</i> wird erst erzeugt, wenn jeder aktive
+ * Kanal einen Wert nach <i>t</i> geliefert hat (oder {@link #setMaxWait(long)}
+ * verstrichen ist), und enthält für jeden Kanal den Wert zum Zeitpunkt <i>t</i>,
+ * linear interpoliert oder gehalten. Kanäle ohne bisherigen Wert sind
+ * <code>NaN</code>.
+ *
+ * <p/>
+ *
+ * Alle Puffer werden beim Erzeugen angelegt. Instanzen sind nicht threadsicher.
+ */
+public final class FrameSynchronizer implements ISensorSampleListener {
+
+	/**
+	 * Die Art, Werte zwischen zwei Messungen zu bestimmen
+	 */
+	public enum Mode {
+
+		/**
+		 * Linear zwischen den beiden umgebenden Messungen interpolieren
+		 */
+		INTERPOLATE,
+
+		/**
+		 * Die letzte Messung vor dem Rasterzeitpunkt halten
+		 */
+		HOLD
+	}
+
+	/**
+	 * Die kleinste Anzahl gepufferter Werte je Kanal
+	 */
+	private static final int MIN_HISTORY = 32;
+
+	/**
+	 * Die Standard-Wartezeit auf langsame Kanäle in Nanosekunden
+	 */
+	public static final long DEFAULT_MAX_WAIT = 100000000L;
+
+	/**
+	 * Die standardmäßig erwartete höchste Eingangsrate je Kanal in Werten je Sekunde,
+	 * etwa <code>SENSOR_DELAY_FASTEST</code> schneller Geräte
+	 */
+	public static final double DEFAULT_MAX_INPUT_RATE = 500;
+
+	/**
+	 * Der Empfänger der Frames
+	 */
+	@NotNull
+	private final ISensorSampleListener listener;
+
+	/**
+	 * Die Anzahl der Kanäle
+	 */
+	private final int channelCount;
+
+	/**
+	 * Der Abstand der Rasterzeitpunkte in Nanosekunden
+	 */
+	private final long period;
+
+	/**
+	 * Die Art der Wertbestimmung
+	 */
+	@NotNull
+	private final Mode mode;
+
+	/**
+	 * Die Anzahl gepufferter Werte je Kanal
+	 */
+	private final int history;
+
+	/**
+	 * Die längste Wartezeit in Nanosekunden, die der Puffer bei der höchsten Eingangsrate abdeckt
+	 */
+	private final long maxCoveredWait;
+
+	/**
+	 * Die Zeitstempel je Kanal als Ringpuffer
+	 */
+	@NotNull
+	private final long[][] times;
+
+	/**
+	 * Die Werte je Kanal als Ringpuffer
+	 */
+	@NotNull
+	private final float[][] values;
+
+	/**
+	 * Der Index des neuesten Wertes je Kanal
+	 */
+	@NotNull
+	private final int[] newest;
+
+	/**
+	 * Die Anzahl gepufferter Werte je Kanal
+	 */
+	@NotNull
+	private final int[] filled;
+
+	/**
+	 * Die Periode kreisförmiger Kanäle (z.B. 360 für Winkel) oder <code>0</code>
+	 */
+	@NotNull
+	private final float[] circularPeriod;
+
+	/**
+	 * Der kleinste Wert kreisförmiger Kanäle
+	 */
+	@NotNull
+	private final float[] circularMinimum;
+
+	/**
+	 * Der ausgegebene Frame
+	 */
+	@NotNull
+	private final float[] frame;
+
+	/**
+	 * Die Wartezeit auf langsame Kanäle in Nanosekunden
+	 */
+	private long maxWait = DEFAULT_MAX_WAIT;
+
+	/**
+	 * Gibt an, ob das Raster bereits festgelegt ist
+	 */
+	private boolean started;
+
+	/**
+	 * Der nächste Rasterzeitpunkt
+	 */
+	private long nextFrameTime;
+
+	/**
+	 * Die Anzahl der ausgegebenen Frames
+	 */
+	private long framesEmitted;
+
+	/**
+	 * Erzeugt einen neuen Synchronisierer für Eingangsraten bis {@link #DEFAULT_MAX_INPUT_RATE}
+	 *
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @param rate Die Ausgaberate in Frames je Sekunde
+	 * @param mode Die Art der Wertbestimmung
+	 * @param listener Der Empfänger der Frames
+	 */
+	public FrameSynchronizer(int channelCount, double rate, @NotNull Mode mode, @NotNull ISensorSampleListener listener) {
+		this(channelCount, rate, DEFAULT_MAX_INPUT_RATE, mode, listener);
+	}
+
+	/**
+	 * Erzeugt einen neuen Synchronisierer
+	 *
+	 * <p/>
+	 *
+	 * Der Puffer je Kanal wird so bemessen, dass er bei der höchsten Eingangsrate
+	 * {@link #DEFAULT_MAX_WAIT} abdeckt; sonst wären die Werte schneller Kanäle bereits
+	 * überschrieben, wenn ein langsamer Kanal den Rasterzeitpunkt erreicht.
+	 *
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @param rate Die Ausgaberate in Frames je Sekunde
+	 * @param maxInputRate Die höchste erwartete Eingangsrate je Kanal in Werten je Sekunde
+	 * @param mode Die Art der Wertbestimmung
+	 * @param listener Der Empfänger der Frames
+	 */
+	public FrameSynchronizer(int channelCount, double rate, double maxInputRate, @NotNull Mode mode, @NotNull ISensorSampleListener listener) {
+		if (channelCount <= 0) throw new IllegalArgumentException("channelCount");
+		if (rate <= 0) throw new IllegalArgumentException("rate");
+		if (maxInputRate <= 0) throw new IllegalArgumentException("maxInputRate");
+
+		this.channelCount = channelCount;
+		this.period = Math.max(1, Math.round(1E9 / rate));
+		this.mode = mode;
+		this.listener = listener;
+
+		// Je ein Wert vor und nach dem Wartefenster für die Interpolation
+		this.history = Math.max(MIN_HISTORY, (int) Math.ceil(DEFAULT_MAX_WAIT * maxInputRate / 1E9) + 2);
+		this.maxCoveredWait = (long) ((history - 2) * 1E9 / maxInputRate);
+		this.times = new long[channelCount][history];
+		this.values = new float[channelCount][history];
+		this.newest = new int[channelCount];
+		this.filled = new int[channelCount];
+		this.circularPeriod = new float[channelCount];
+		this.circularMinimum = new float[channelCount];
+		this.frame = new float[channelCount];
+	}
+
+	/**
+	 * Kennzeichnet Kanäle als kreisförmig, z.B. Winkel, die bei 360° umlaufen
+	 *
+	 * <p/>
+	 *
+	 * Zwischen zwei Werten wird dann über den kürzeren Weg interpoliert.
+	 *
+	 * @param firstChannel Der erste Kanal
+	 * @param count Die Anzahl der Kanäle
+	 * @param minimum Der kleinste Wert, z.B. <code>0</code> oder <code>-180</code>
+	 * @param maximum Der Wert, der wieder dem kleinsten entspricht, z.B. <code>360</code> oder <code>180</code>
+	 */
+	public void setCircular(int firstChannel, int count, float minimum, float maximum) {
+		if (maximum <= minimum) throw new IllegalArgumentException("maximum");
+		for (int c = firstChannel; c < firstChannel + count; ++c) {
+			circularMinimum[c] = minimum;
+			circularPeriod[c] = maximum - minimum;
+		}
+	}
+
+	/**
+	 * Setzt die Zeit, die auf Kanäle ohne neuen Wert gewartet wird, bevor deren letzter Wert gehalten wird
+	 *
+	 * <p/>
+	 *
+	 * Die Zeit wird auf das begrenzt, was der Puffer bei der höchsten Eingangsrate abdeckt
+	 * (siehe {@link #getMaxWait()}).
+	 *
+	 * @param maxWait Die Zeit in Nanosekunden
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = Math.min(maxWait, maxCoveredWait);
+	}
+
+	/**
+	 * Liefert die Zeit, die auf Kanäle ohne neuen Wert gewartet wird
+	 *
+	 * @return Die Zeit in Nanosekunden
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * Liefert die Anzahl der ausgegebenen Frames
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getFramesEmitted() {
+		return framesEmitted;
+	}
+
+	/**
+	 * Verwirft alle gepufferten Werte und das Raster
+	 */
+	public void reset() {
+		for (int c = 0; c < channelCount; ++c) {
+			filled[c] = 0;
+		}
+		started = false;
+	}
+
+	@Override
+	public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+		// Werte puffern
+		for (int i = 0; i < count; ++i) {
+			final int c = firstChannel + i;
+			final int index = (newest[c] + 1) % history;
+			this.times[c][index] = timestamp;
+			this.values[c][index] = values[i];
+			newest[c] = index;
+			if (filled[c] < history) ++filled[c];
+		}
+
+		// Raster am ersten Wert ausrichten
+		if (!started) {
+			started = true;
+			nextFrameTime = alignUp(timestamp);
+		}
+
+		// Jüngsten Zeitpunkt ermitteln, den alle aktiven Kanäle überschritten haben
+		long newestTime = Long.MIN_VALUE;
+		for (int c = 0; c < channelCount; ++c) {
+			if (filled[c] > 0) newestTime = Math.max(newestTime, times[c][newest[c]]);
+		}
+		long coveredTime = Long.MAX_VALUE;
+		for (int c = 0; c < channelCount; ++c) {
+			if (filled[c] == 0) continue;
+			final long last = times[c][newest[c]];
+			if (newestTime - last < maxWait) coveredTime = Math.min(coveredTime, last);
+		}
+
+		// Nach einer Lücke nicht aufholen
+		if (coveredTime - nextFrameTime > history * period) {
+			nextFrameTime = alignUp(coveredTime - period);
+		}
+
+		while (nextFrameTime <= coveredTime) {
+			emit(nextFrameTime);
+			nextFrameTime += period;
+		}
+	}
+
+	/**
+	 * Bestimmt alle Kanäle zum angegebenen Zeitpunkt und gibt den Frame weiter
+	 *
+	 * @param time Der Rasterzeitpunkt
+	 */
+	private void emit(long time) {
+		for (int c = 0; c < channelCount; ++c) {
+			frame[c] = valueAt(c, time);
+		}
+		++framesEmitted;
+		listener.sampleAvailable(0, time, frame, channelCount);
+	}
+
+	/**
+	 * Bestimmt den Wert eines Kanals zu einem Zeitpunkt
+	 *
+	 * @param c Der Kanal
+	 * @param time Der Zeitpunkt
+	 * @return Der Wert oder <code>NaN</code>, wenn der Kanal noch keinen Wert hat
+	 */
+	private float valueAt(int c, long time) {
+		final int count = filled[c];
+		if (count == 0) return Float.NaN;
+
+		final long[] t = times[c];
+		final float[] v = values[c];
+
+		// Vom neuesten Wert rückwärts den letzten Wert vor dem Zeitpunkt suchen
+		int after = newest[c];
+		if (t[after] <= time) return v[after];
+
+		for (int i = 1; i < count; ++i) {
+			final int before = (after + history - 1) % history;
+			if (t[before] <= time) {
+				if (mode == Mode.HOLD) return v[before];
+				return interpolate(c, v[before], v[after], (float) (time - t[before]) / (t[after] - t[before]));
+			}
+			after = before;
+		}
+
+		// Zeitpunkt liegt vor dem ältesten gepufferten Wert
+		return v[after];
+	}
+
+	/**
+	 * Interpoliert linear, bei kreisförmigen Kanälen über den kürzeren Weg
+	 *
+	 * @param c Der Kanal
+	 * @param a Der Wert vorher
+	 * @param b Der Wert nachher
+	 * @param fraction Der Anteil zwischen 0 und 1
+	 * @return Der Wert
+	 */
+	private float interpolate(int c, float a, float b, float fraction) {
+		final float circular = circularPeriod[c];
+		if (circular == 0) return a + (b - a) * fraction;
+
+		float delta = b - a;
+		if (delta > circular / 2) delta -= circular;
+		else if (delta < -circular / 2) delta += circular;
+
+		float value = a + delta * fraction;
+		final float minimum = circularMinimum[c];
+		if (value < minimum) value += circular;
+		else if (value >= minimum + circular) value -= circular;
+		return value;
+	}
+
+	/**
+	 * Rundet einen Zeitpunkt auf das nächste Vielfache der Periode auf
+	 *
+	 * @param time Der Zeitpunkt
+	 * @return Der Rasterzeitpunkt
+	 */
+	private long alignUp(long time) {
+		final long remainder = time % period;
+		return remainder == 0 ? time : time - remainder + period;
+	}
+}
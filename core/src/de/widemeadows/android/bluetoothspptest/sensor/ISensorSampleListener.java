@@ -0,0 +1,23 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger von Sensorwerten
+ */
+public interface ISensorSampleListener {
+
+	/**
+	 * Neue Sensorwerte liegen vor
+	 *
+	 * <p/>
+	 *
+	 * Das Array gehört der Quelle und ist nur während des Aufrufs gültig.
+	 *
+	 * @param firstChannel Der erste Kanal, den die Werte belegen
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 * @param values Die Werte
+	 * @param count Die Anzahl der Werte
+	 */
+	public void sampleAvailable(final int firstChannel, final long timestamp, @NotNull final float[] values, final int count);
+}
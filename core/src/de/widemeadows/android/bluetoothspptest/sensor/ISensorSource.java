@@ -0,0 +1,28 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Quellen von Sensorwerten
+ */
+public interface ISensorSource {
+
+	/**
+	 * Liefert die Anzahl der Kanäle, die diese Quelle belegt
+	 *
+	 * @return Die Kanalanzahl
+	 */
+	public int getChannelCount();
+
+	/**
+	 * Startet die Quelle
+	 *
+	 * @param listener Der Empfänger der Werte
+	 */
+	public void start(@NotNull final ISensorSampleListener listener);
+
+	/**
+	 * Stoppt die Quelle
+	 */
+	public void stop();
+}
@@ -0,0 +1,326 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lageschätzung nach Madgwick aus Drehrate, Beschleunigung und optional
+ * Magnetfeld.
+ *
+ * <p/>
+ *
+ * Der Zustand besteht nur aus dem Quaternion und einigen Parametern; jede
+ * Aktualisierung rechnet eine feste Anzahl Gleitkommaoperationen ohne
+ * Schleifen und ohne Allokationen. Das Erdkoordinatensystem hat die X-Achse
+ * in Richtung magnetisch Nord und die Z-Achse nach oben; ohne Magnetfeld
+ * driftet der Gierwinkel.
+ *
+ * <p/>
+ *
+ * Instanzen sind nicht threadsicher.
+ *
+ * @see <a href="http://www.x-io.co.uk/open-source-imu-and-ahrs-algorithms/">Madgwick, Open source IMU and AHRS algorithms</a>
+ */
+public final class MadgwickFilter {
+
+	/**
+	 * Die Standard-Verstärkung des Gradientenschritts
+	 */
+	public static final float DEFAULT_BETA = 0.1f;
+
+	/**
+	 * Die Verstärkung während des Einschwingens
+	 */
+	public static final float INITIAL_BETA = 2.5f;
+
+	/**
+	 * Die Dauer des Einschwingens in Sekunden
+	 */
+	public static final float INITIAL_DURATION = 2f;
+
+	/**
+	 * Umrechnung von Bogenmaß in Grad
+	 */
+	private static final float RAD_TO_DEG = (float) (180 / Math.PI);
+
+	/**
+	 * Die Verstärkung des Gradientenschritts
+	 */
+	private float beta = DEFAULT_BETA;
+
+	/**
+	 * Die seit dem Zurücksetzen vergangene Filterzeit in Sekunden
+	 */
+	private float elapsed;
+
+	/**
+	 * Das Quaternion (Realteil)
+	 */
+	private float q0 = 1;
+
+	/**
+	 * Das Quaternion (i)
+	 */
+	private float q1;
+
+	/**
+	 * Das Quaternion (j)
+	 */
+	private float q2;
+
+	/**
+	 * Das Quaternion (k)
+	 */
+	private float q3;
+
+	/**
+	 * Setzt die Verstärkung des Gradientenschritts
+	 *
+	 * <p/>
+	 *
+	 * Größere Werte folgen Beschleunigung und Magnetfeld schneller,
+	 * übernehmen aber auch mehr von deren Rauschen.
+	 *
+	 * @param beta Die Verstärkung
+	 */
+	public void setBeta(float beta) {
+		if (beta < 0) throw new IllegalArgumentException("beta");
+		this.beta = beta;
+	}
+
+	/**
+	 * Setzt die Lage zurück; das Filter schwingt danach erneut ein
+	 */
+	public void reset() {
+		q0 = 1;
+		q1 = q2 = q3 = 0;
+		elapsed = 0;
+	}
+
+	/**
+	 * Aktualisiert die Lage aus Drehrate, Beschleunigung und Magnetfeld
+	 *
+	 * @param gx Drehrate um X in rad/s
+	 * @param gy Drehrate um Y in rad/s
+	 * @param gz Drehrate um Z in rad/s
+	 * @param ax Beschleunigung in X (beliebige Einheit)
+	 * @param ay Beschleunigung in Y
+	 * @param az Beschleunigung in Z
+	 * @param mx Magnetfeld in X (beliebige Einheit); alle drei <code>0</code> für keine Messung
+	 * @param my Magnetfeld in Y
+	 * @param mz Magnetfeld in Z
+	 * @param dt Der Zeitschritt in Sekunden
+	 */
+	public void update(float gx, float gy, float gz, float ax, float ay, float az,
+	                   float mx, float my, float mz, float dt) {
+		if (mx == 0f && my == 0f && mz == 0f) {
+			updateImu(gx, gy, gz, ax, ay, az, dt);
+			return;
+		}
+
+		float q0 = this.q0, q1 = this.q1, q2 = this.q2, q3 = this.q3;
+
+		// Änderung des Quaternions aus der Drehrate
+		float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+		float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+		float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+		float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+		// Korrektur nur mit gültiger Beschleunigung
+		if (!(ax == 0f && ay == 0f && az == 0f)) {
+			float recipNorm = invSqrt(ax * ax + ay * ay + az * az);
+			ax *= recipNorm;
+			ay *= recipNorm;
+			az *= recipNorm;
+
+			recipNorm = invSqrt(mx * mx + my * my + mz * mz);
+			mx *= recipNorm;
+			my *= recipNorm;
+			mz *= recipNorm;
+
+			final float _2q0mx = 2f * q0 * mx;
+			final float _2q0my = 2f * q0 * my;
+			final float _2q0mz = 2f * q0 * mz;
+			final float _2q1mx = 2f * q1 * mx;
+			final float _2q0 = 2f * q0;
+			final float _2q1 = 2f * q1;
+			final float _2q2 = 2f * q2;
+			final float _2q3 = 2f * q3;
+			final float _2q0q2 = 2f * q0 * q2;
+			final float _2q2q3 = 2f * q2 * q3;
+			final float q0q0 = q0 * q0;
+			final float q0q1 = q0 * q1;
+			final float q0q2 = q0 * q2;
+			final float q0q3 = q0 * q3;
+			final float q1q1 = q1 * q1;
+			final float q1q2 = q1 * q2;
+			final float q1q3 = q1 * q3;
+			final float q2q2 = q2 * q2;
+			final float q2q3 = q2 * q3;
+			final float q3q3 = q3 * q3;
+
+			// Richtung des Erdmagnetfelds
+			final float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3 - mx * q2q2 - mx * q3q3;
+			final float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2 + _2q2 * mz * q3 - my * q3q3;
+			final float _2bx = (float) Math.sqrt(hx * hx + hy * hy);
+			final float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3 - mz * q2q2 + mz * q3q3;
+			final float _4bx = 2f * _2bx;
+			final float _4bz = 2f * _2bz;
+
+			// Gradientenschritt
+			final float ex = 2f * q1q3 - _2q0q2 - ax;
+			final float ey = 2f * q0q1 + _2q2q3 - ay;
+			final float ez = 1f - 2f * q1q1 - 2f * q2q2 - az;
+			final float fx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+			final float fy = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+			final float fz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+
+			float s0 = -_2q2 * ex + _2q1 * ey - _2bz * q2 * fx + (-_2bx * q3 + _2bz * q1) * fy + _2bx * q2 * fz;
+			float s1 = _2q3 * ex + _2q0 * ey - 4f * q1 * ez + _2bz * q3 * fx + (_2bx * q2 + _2bz * q0) * fy + (_2bx * q3 - _4bz * q1) * fz;
+			float s2 = -_2q0 * ex + _2q3 * ey - 4f * q2 * ez + (-_4bx * q2 - _2bz * q0) * fx + (_2bx * q1 + _2bz * q3) * fy + (_2bx * q0 - _4bz * q2) * fz;
+			float s3 = _2q1 * ex + _2q2 * ey + (-_4bx * q3 + _2bz * q1) * fx + (-_2bx * q0 + _2bz * q2) * fy + _2bx * q1 * fz;
+
+			final float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+			if (sNorm > 0f) {
+				final float b = currentBeta() * invSqrt(sNorm);
+				qDot1 -= b * s0;
+				qDot2 -= b * s1;
+				qDot3 -= b * s2;
+				qDot4 -= b * s3;
+			}
+		}
+
+		integrate(q0, q1, q2, q3, qDot1, qDot2, qDot3, qDot4, dt);
+	}
+
+	/**
+	 * Aktualisiert die Lage aus Drehrate und Beschleunigung
+	 *
+	 * @param gx Drehrate um X in rad/s
+	 * @param gy Drehrate um Y in rad/s
+	 * @param gz Drehrate um Z in rad/s
+	 * @param ax Beschleunigung in X (beliebige Einheit)
+	 * @param ay Beschleunigung in Y
+	 * @param az Beschleunigung in Z
+	 * @param dt Der Zeitschritt in Sekunden
+	 */
+	public void updateImu(float gx, float gy, float gz, float ax, float ay, float az, float dt) {
+		float q0 = this.q0, q1 = this.q1, q2 = this.q2, q3 = this.q3;
+
+		// Änderung des Quaternions aus der Drehrate
+		float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+		float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+		float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+		float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+		// Korrektur nur mit gültiger Beschleunigung
+		if (!(ax == 0f && ay == 0f && az == 0f)) {
+			final float recipNorm = invSqrt(ax * ax + ay * ay + az * az);
+			ax *= recipNorm;
+			ay *= recipNorm;
+			az *= recipNorm;
+
+			final float _2q0 = 2f * q0;
+			final float _2q1 = 2f * q1;
+			final float _2q2 = 2f * q2;
+			final float _2q3 = 2f * q3;
+			final float _4q0 = 4f * q0;
+			final float _4q1 = 4f * q1;
+			final float _4q2 = 4f * q2;
+			final float _8q1 = 8f * q1;
+			final float _8q2 = 8f * q2;
+			final float q0q0 = q0 * q0;
+			final float q1q1 = q1 * q1;
+			final float q2q2 = q2 * q2;
+			final float q3q3 = q3 * q3;
+
+			// Gradientenschritt
+			final float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+			final float s1 = _4q1 * q3q3 - _2q3 * ax + 4f * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+			final float s2 = 4f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+			final float s3 = 4f * q1q1 * q3 - _2q1 * ax + 4f * q2q2 * q3 - _2q2 * ay;
+
+			final float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+			if (sNorm > 0f) {
+				final float b = currentBeta() * invSqrt(sNorm);
+				qDot1 -= b * s0;
+				qDot2 -= b * s1;
+				qDot3 -= b * s2;
+				qDot4 -= b * s3;
+			}
+		}
+
+		integrate(q0, q1, q2, q3, qDot1, qDot2, qDot3, qDot4, dt);
+	}
+
+	/**
+	 * Schreibt das Quaternion (w, x, y, z)
+	 *
+	 * @param target Das Ziel
+	 * @param offset Der Index des ersten Wertes
+	 */
+	public void getQuaternion(@NotNull float[] target, int offset) {
+		target[offset] = q0;
+		target[offset + 1] = q1;
+		target[offset + 2] = q2;
+		target[offset + 3] = q3;
+	}
+
+	/**
+	 * Schreibt die Euler-Winkel in Grad: Gieren (0 bis 360, entgegen dem
+	 * Uhrzeigersinn ab magnetisch Nord), Nicken (-90 bis 90) und Rollen (-180 bis 180)
+	 *
+	 * @param target Das Ziel
+	 * @param offset Der Index des ersten Wertes
+	 */
+	public void getEulerAngles(@NotNull float[] target, int offset) {
+		final float q0 = this.q0, q1 = this.q1, q2 = this.q2, q3 = this.q3;
+
+		float yaw = (float) Math.atan2(q1 * q2 + q0 * q3, 0.5f - q2 * q2 - q3 * q3) * RAD_TO_DEG;
+		if (yaw < 0) yaw += 360f;
+
+		float sinPitch = -2f * (q1 * q3 - q0 * q2);
+		if (sinPitch > 1f) sinPitch = 1f;
+		else if (sinPitch < -1f) sinPitch = -1f;
+
+		target[offset] = yaw;
+		target[offset + 1] = (float) Math.asin(sinPitch) * RAD_TO_DEG;
+		target[offset + 2] = (float) Math.atan2(q0 * q1 + q2 * q3, 0.5f - q1 * q1 - q2 * q2) * RAD_TO_DEG;
+	}
+
+	/**
+	 * Liefert die Verstärkung, während des Einschwingens erhöht
+	 *
+	 * @return Die Verstärkung
+	 */
+	private float currentBeta() {
+		return elapsed < INITIAL_DURATION ? INITIAL_BETA : beta;
+	}
+
+	/**
+	 * Integriert die Änderung und normiert das Quaternion
+	 */
+	private void integrate(float q0, float q1, float q2, float q3,
+	                       float qDot1, float qDot2, float qDot3, float qDot4, float dt) {
+		q0 += qDot1 * dt;
+		q1 += qDot2 * dt;
+		q2 += qDot3 * dt;
+		q3 += qDot4 * dt;
+
+		final float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+		this.q0 = q0 * recipNorm;
+		this.q1 = q1 * recipNorm;
+		this.q2 = q2 * recipNorm;
+		this.q3 = q3 * recipNorm;
+		elapsed += dt;
+	}
+
+	/**
+	 * Berechnet den Kehrwert der Quadratwurzel
+	 *
+	 * @param x Der Wert
+	 * @return <code>1/sqrt(x)</code>
+	 */
+	private static float invSqrt(float x) {
+		return (float) (1.0 / Math.sqrt(x));
+	}
+}
@@ -0,0 +1,178 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sensorquelle, die deterministische Signalformen mit fester Rate erzeugt.
+ *
+ * <p/>
+ *
+ * Die Werte werden in einem eigenen Thread erzeugt. Kann der Empfänger nicht
+ * mithalten, werden die fälligen Werte ohne Pause nachgeliefert, sodass die
+ * Anzahl der Werte pro Zeit und die Zeitstempel unabhängig von der Last sind.
+ */
+public final class SyntheticSensorSource implements ISensorSource, Runnable {
+
+	/**
+	 * Unterhalb dieser Wartezeit wird aktiv gewartet statt geparkt
+	 */
+	private static final long SPIN_THRESHOLD_NS = 50000;
+
+	/**
+	 * Die Signalformen je Kanal
+	 */
+	@NotNull
+	private final Waveform[] waveforms;
+
+	/**
+	 * Die Rate in Hz
+	 */
+	private final double rate;
+
+	/**
+	 * Die maximale Anzahl Werte oder <code>0</code> für unbegrenzt
+	 */
+	private final long sampleLimit;
+
+	/**
+	 * Die aktuellen Werte
+	 */
+	@NotNull
+	private final float[] values;
+
+	/**
+	 * Der Empfänger
+	 */
+	@Nullable
+	private volatile ISensorSampleListener listener;
+
+	/**
+	 * Der Erzeugerthread
+	 */
+	@Nullable
+	private Thread thread;
+
+	/**
+	 * Die Anzahl der erzeugten Werte
+	 */
+	private volatile long sampleCount;
+
+	/**
+	 * Der Tracer für die Latenz einzelner Frames oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Erzeugt eine neue Quelle
+	 *
+	 * @param rate Die Rate in Hz
+	 * @param waveforms Die Signalformen je Kanal
+	 * @param sampleLimit Die maximale Anzahl Werte oder <code>0</code> für unbegrenzt
+	 */
+	public SyntheticSensorSource(double rate, @NotNull Waveform[] waveforms, long sampleLimit) {
+		if (rate <= 0) throw new IllegalArgumentException("rate");
+		if (waveforms.length == 0) throw new IllegalArgumentException("waveforms");
+		this.rate = rate;
+		this.waveforms = waveforms;
+		this.sampleLimit = sampleLimit;
+		this.values = new float[waveforms.length];
+	}
+
+	/**
+	 * Setzt den Tracer für die Latenz einzelner Frames
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+	}
+
+	@Override
+	public int getChannelCount() {
+		return waveforms.length;
+	}
+
+	/**
+	 * Liefert die Anzahl der bisher erzeugten Werte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	@Override
+	public synchronized void start(@NotNull ISensorSampleListener listener) {
+		if (thread != null) return;
+		this.listener = listener;
+		thread = new Thread(this, "SyntheticSensorSource");
+		thread.start();
+	}
+
+	@Override
+	public synchronized void stop() {
+		Thread thread = this.thread;
+		if (thread == null) return;
+
+		this.listener = null;
+		this.thread = null;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wartet, bis die Quelle die maximale Anzahl Werte erzeugt hat
+	 *
+	 * @throws InterruptedException Wenn der wartende Thread unterbrochen wurde
+	 */
+	public void join() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+		if (thread != null) thread.join();
+	}
+
+	/**
+	 * Erzeugt die Werte
+	 */
+	@Override
+	public void run() {
+		final long start = System.nanoTime();
+		final double periodNs = 1e9 / rate;
+
+		for (long index = 0; sampleLimit == 0 || index < sampleLimit; ++index) {
+			final long timestamp = start + (long) (index * periodNs);
+
+			// Bis zum Fälligkeitszeitpunkt warten
+			long remaining;
+			while ((remaining = timestamp - System.nanoTime()) > 0) {
+				if (remaining > SPIN_THRESHOLD_NS) LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NS);
+				if (Thread.interrupted()) return;
+			}
+
+			final ISensorSampleListener listener = this.listener;
+			if (listener == null) return;
+
+			final LatencyTracer tracer = latencyTracer;
+			if (tracer != null) tracer.sensorCallback(timestamp);
+
+			final double time = index / rate;
+			for (int i = 0; i < waveforms.length; ++i) {
+				values[i] = waveforms[i].valueAt(time);
+			}
+
+			listener.sampleAvailable(0, timestamp, values, values.length);
+			sampleCount = index + 1;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Deterministische Signalform für einen synthetischen Kanal
+ *
+ * <p/>
+ *
+ * Der Wert hängt nur vom Zeitpunkt ab (bzw. beim Rauschen vom Seed und der
+ * Anzahl bisheriger Aufrufe), sodass wiederholte Läufe identische Daten liefern.
+ */
+public final class Waveform {
+
+	/**
+	 * Die verfügbaren Signalformen
+	 */
+	public enum Shape {
+		SINE, SQUARE, TRIANGLE, SAWTOOTH, NOISE, CONSTANT
+	}
+
+	/**
+	 * Die Signalform
+	 */
+	@NotNull
+	private final Shape shape;
+
+	/**
+	 * Die Frequenz in Hz
+	 */
+	private final double frequency;
+
+	/**
+	 * Die Amplitude
+	 */
+	private final double amplitude;
+
+	/**
+	 * Der Gleichanteil
+	 */
+	private final double offset;
+
+	/**
+	 * Die Phase in Perioden (0..1)
+	 */
+	private final double phase;
+
+	/**
+	 * Zufallsgenerator für {@link Shape#NOISE}
+	 */
+	@NotNull
+	private final Random random;
+
+	/**
+	 * Erzeugt eine neue Signalform
+	 *
+	 * @param shape Die Signalform
+	 * @param frequency Die Frequenz in Hz
+	 * @param amplitude Die Amplitude
+	 * @param offset Der Gleichanteil
+	 * @param phase Die Phase in Perioden (0..1)
+	 * @param seed Der Seed für {@link Shape#NOISE}
+	 */
+	public Waveform(@NotNull Shape shape, double frequency, double amplitude, double offset, double phase, long seed) {
+		this.shape = shape;
+		this.frequency = frequency;
+		this.amplitude = amplitude;
+		this.offset = offset;
+		this.phase = phase;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Erzeugt eine Signalform aus einer Beschreibung
+	 *
+	 * <p/>
+	 *
+	 * Format: <code>form[:frequenz[:amplitude[:gleichanteil[:phase]]]]</code>, z.B. <code>sine:2:9.81</code>.
+	 *
+	 * @param description Die Beschreibung
+	 * @param seed Der Seed für {@link Shape#NOISE}
+	 * @return Die Signalform
+	 */
+	@NotNull
+	public static Waveform parse(@NotNull String description, long seed) {
+		final String[] parts = description.split(":");
+		final Shape shape = Shape.valueOf(parts[0].toUpperCase());
+		final double frequency = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+		final double amplitude = parts.length > 2 ? Double.parseDouble(parts[2]) : 1;
+		final double offset = parts.length > 3 ? Double.parseDouble(parts[3]) : 0;
+		final double phase = parts.length > 4 ? Double.parseDouble(parts[4]) : 0;
+		return new Waveform(shape, frequency, amplitude, offset, phase, seed);
+	}
+
+	/**
+	 * Berechnet den Wert zum angegebenen Zeitpunkt
+	 *
+	 * @param time Die Zeit in Sekunden seit dem Start
+	 * @return Der Wert
+	 */
+	public float valueAt(double time) {
+		final double cycle = time * frequency + phase;
+		final double fraction = cycle - Math.floor(cycle);
+
+		double value;
+		switch (shape) {
+			case SINE:
+				value = Math.sin(2 * Math.PI * fraction);
+				break;
+			case SQUARE:
+				value = fraction < 0.5 ? 1 : -1;
+				break;
+			case TRIANGLE:
+				value = fraction < 0.5 ? 4 * fraction - 1 : 3 - 4 * fraction;
+				break;
+			case SAWTOOTH:
+				value = 2 * fraction - 1;
+				break;
+			case NOISE:
+				value = random.nextGaussian();
+				break;
+			default:
+				value = 0;
+				break;
+		}
+
+		return (float) (offset + amplitude * value);
+	}
+}
@@ -0,0 +1,252 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+/**
+ * Regelt Senderate und Blockgröße nach dem AIMD-Verfahren
+ * (additive increase, multiplicative decrease).
+ *
+ * <p/>
+ *
+ * In jedem Regelintervall wird der tatsächliche Durchsatz des Schreibers und
+ * das Wachstum seiner Warteschlange gemessen. Wächst die Warteschlange oder
+ * gehen Frames verloren, ist der Transportweg überlastet: die Rate wird
+ * multiplikativ auf höchstens den gemessenen Durchsatz gesenkt und die
+ * Blockgröße verdoppelt, damit weniger Schreibaufrufe nötig sind. Andernfalls
+ * steigt die Rate additiv und die Blockgröße sinkt schrittweise, um die Latenz
+ * zu verringern. So pendelt sich die höchste Rate ein, die der Transportweg
+ * ohne Rückstau trägt.
+ *
+ * <p/>
+ *
+ * Instanzen sind nicht threadsicher; {@link #update} allokiert nicht.
+ */
+public final class AimdRateController {
+
+	/**
+	 * Das Standard-Regelintervall in Nanosekunden
+	 */
+	public static final long DEFAULT_INTERVAL = 250000000L;
+
+	/**
+	 * Der Standard-Faktor der multiplikativen Verringerung
+	 */
+	public static final double DEFAULT_DECREASE_FACTOR = 0.5;
+
+	/**
+	 * Ab dieser Länge gilt eine wachsende Warteschlange als Überlast
+	 */
+	private static final int QUEUE_THRESHOLD = 2;
+
+	/**
+	 * Die kleinste Rate in Frames je Sekunde
+	 */
+	private final double minRate;
+
+	/**
+	 * Die größte Rate in Frames je Sekunde
+	 */
+	private final double maxRate;
+
+	/**
+	 * Die kleinste Blockgröße
+	 */
+	private final int minBatchSize;
+
+	/**
+	 * Die größte Blockgröße
+	 */
+	private final int maxBatchSize;
+
+	/**
+	 * Die additive Erhöhung der Rate je Regelintervall in Frames je Sekunde
+	 */
+	private double rateIncrease;
+
+	/**
+	 * Der Faktor der multiplikativen Verringerung
+	 */
+	private double decreaseFactor = DEFAULT_DECREASE_FACTOR;
+
+	/**
+	 * Das Regelintervall in Nanosekunden
+	 */
+	private long interval = DEFAULT_INTERVAL;
+
+	/**
+	 * Die aktuelle Rate in Frames je Sekunde
+	 */
+	private volatile double rate;
+
+	/**
+	 * Die aktuelle Blockgröße
+	 */
+	private volatile int batchSize;
+
+	/**
+	 * Der zuletzt gemessene Durchsatz in Frames je Sekunde
+	 */
+	private volatile double measuredThroughput;
+
+	/**
+	 * Gibt an, ob bereits eine Messung vorliegt
+	 */
+	private boolean measured;
+
+	/**
+	 * Der Zeitpunkt der letzten Messung
+	 */
+	private long lastTime;
+
+	/**
+	 * Die Länge der Warteschlange bei der letzten Messung
+	 */
+	private int lastQueueLength;
+
+	/**
+	 * Die geschriebenen Bytes bei der letzten Messung
+	 */
+	private long lastBytesWritten;
+
+	/**
+	 * Die verworfenen Frames bei der letzten Messung
+	 */
+	private long lastFramesDropped;
+
+	/**
+	 * Erzeugt einen neuen Regler, der mit der größten Rate beginnt
+	 *
+	 * @param minRate Die kleinste Rate in Frames je Sekunde
+	 * @param maxRate Die größte Rate in Frames je Sekunde
+	 * @param minBatchSize Die kleinste Blockgröße
+	 * @param maxBatchSize Die größte Blockgröße
+	 */
+	public AimdRateController(double minRate, double maxRate, int minBatchSize, int maxBatchSize) {
+		if (minRate <= 0 || maxRate < minRate) throw new IllegalArgumentException("rate");
+		if (minBatchSize <= 0 || maxBatchSize < minBatchSize) throw new IllegalArgumentException("batchSize");
+
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.rateIncrease = Math.max(1, (maxRate - minRate) / 100);
+		reset();
+	}
+
+	/**
+	 * Setzt die additive Erhöhung der Rate je Regelintervall
+	 *
+	 * @param rateIncrease Die Erhöhung in Frames je Sekunde
+	 */
+	public void setRateIncrease(double rateIncrease) {
+		if (rateIncrease <= 0) throw new IllegalArgumentException("rateIncrease");
+		this.rateIncrease = rateIncrease;
+	}
+
+	/**
+	 * Setzt den Faktor der multiplikativen Verringerung
+	 *
+	 * @param decreaseFactor Der Faktor (zwischen 0 und 1)
+	 */
+	public void setDecreaseFactor(double decreaseFactor) {
+		if (decreaseFactor <= 0 || decreaseFactor >= 1) throw new IllegalArgumentException("decreaseFactor");
+		this.decreaseFactor = decreaseFactor;
+	}
+
+	/**
+	 * Setzt das Regelintervall
+	 *
+	 * @param interval Das Intervall in Nanosekunden
+	 */
+	public void setInterval(long interval) {
+		if (interval <= 0) throw new IllegalArgumentException("interval");
+		this.interval = interval;
+	}
+
+	/**
+	 * Setzt den Regler für eine neue Verbindung zurück
+	 */
+	public void reset() {
+		rate = maxRate;
+		batchSize = minBatchSize;
+		measuredThroughput = 0;
+		measured = false;
+	}
+
+	/**
+	 * Liefert die aktuelle Rate
+	 *
+	 * @return Die Rate in Frames je Sekunde
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Liefert die aktuelle Blockgröße
+	 *
+	 * @return Die Anzahl der Frames je Schreibvorgang
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Liefert den zuletzt gemessenen Durchsatz
+	 *
+	 * @return Der Durchsatz in Frames je Sekunde
+	 */
+	public double getMeasuredThroughput() {
+		return measuredThroughput;
+	}
+
+	/**
+	 * Misst und regelt, sofern das Regelintervall abgelaufen ist
+	 *
+	 * @param now Die aktuelle Zeit in Nanosekunden
+	 * @param queueLength Die aktuelle Länge der Warteschlange des Schreibers
+	 * @param bytesWritten Die bisher geschriebenen Bytes
+	 * @param framesDropped Die bisher verworfenen Frames
+	 * @param bytesPerFrame Die mittlere Größe eines kodierten Frames in Bytes
+	 * @return <code>true</code>, wenn geregelt wurde
+	 */
+	public boolean update(long now, int queueLength, long bytesWritten, long framesDropped, double bytesPerFrame) {
+		if (!measured) {
+			remember(now, queueLength, bytesWritten, framesDropped);
+			return false;
+		}
+
+		final long elapsed = now - lastTime;
+		if (elapsed < interval) return false;
+
+		if (bytesPerFrame > 0) {
+			measuredThroughput = (bytesWritten - lastBytesWritten) / bytesPerFrame * 1E9 / elapsed;
+		}
+
+		final boolean congested = framesDropped > lastFramesDropped
+				|| (queueLength > lastQueueLength && queueLength >= QUEUE_THRESHOLD);
+
+		if (congested) {
+			double decreased = rate * decreaseFactor;
+			if (measuredThroughput > 0 && measuredThroughput < decreased) decreased = measuredThroughput;
+			rate = Math.max(minRate, decreased);
+			batchSize = Math.min(maxBatchSize, batchSize * 2);
+		}
+		else {
+			rate = Math.min(maxRate, rate + rateIncrease);
+			batchSize = Math.max(minBatchSize, batchSize - 1);
+		}
+
+		remember(now, queueLength, bytesWritten, framesDropped);
+		return true;
+	}
+
+	/**
+	 * Merkt sich die Messwerte für das nächste Intervall
+	 */
+	private void remember(long now, int queueLength, long bytesWritten, long framesDropped) {
+		measured = true;
+		lastTime = now;
+		lastQueueLength = queueLength;
+		lastBytesWritten = bytesWritten;
+		lastFramesDropped = framesDropped;
+	}
+}
@@ -0,0 +1,87 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kodiert Frames als Binärrahmen (Big Endian):
+ * <pre>
+ * 0x00 | 'F' | Kanäle n (u8) | Zeitstempel [ns] (int64) | n * float32
+ * 0x00 | 'Q' | Kanäle n (u8) | Zeitstempel [ns] (int64) | n * int8/int16 laut Tabelle
+ * </pre>
+ *
+ * Das Startbyte <code>0x00</code> kommt in Textzeilen nicht vor, sodass
+ * Empfänger Rahmen und Steuerzeilen im selben Strom unterscheiden können.
+ */
+public final class BinarySampleEncoder implements IQuantizedSampleEncoder {
+
+	/**
+	 * Startbyte eines Rahmens
+	 */
+	public static final byte FRAME_START = 0x00;
+
+	/**
+	 * Rahmentyp für <code>float32</code>-Werte
+	 */
+	public static final byte FRAME_TYPE_FLOAT = 'F';
+
+	/**
+	 * Rahmentyp für quantisierte Werte
+	 */
+	public static final byte FRAME_TYPE_QUANTIZED = 'Q';
+
+	/**
+	 * Die Länge des Rahmenkopfes inklusive Zeitstempel
+	 */
+	public static final int HEADER_LENGTH = 3 + 8;
+
+	/**
+	 * Die maximale Anzahl Kanäle je Rahmen
+	 */
+	public static final int MAX_CHANNELS = 255;
+
+	@NotNull
+	@Override
+	public String getName() {
+		return SampleEncoders.BINARY;
+	}
+
+	@Override
+	public int getMaxFrameSize(int channelCount) {
+		return HEADER_LENGTH + channelCount * 4;
+	}
+
+	@Override
+	public void encode(long timestamp, @NotNull float[] values, int count, @NotNull ByteBuffer target) {
+		if (count > MAX_CHANNELS) throw new IllegalArgumentException("count");
+
+		target.put(FRAME_START);
+		target.put(FRAME_TYPE_FLOAT);
+		target.put((byte) count);
+		target.putLong(timestamp);
+		for (int i = 0; i < count; ++i) {
+			target.putFloat(values[i]);
+		}
+	}
+
+	@Override
+	public int getMaxQuantizedFrameSize(@NotNull Quantizer quantizer) {
+		return HEADER_LENGTH + quantizer.getPayloadSize();
+	}
+
+	@Override
+	public void encodeQuantized(long timestamp, @NotNull int[] values, @NotNull Quantizer quantizer, @NotNull ByteBuffer target) {
+		final int count = quantizer.getChannelCount();
+		if (count > MAX_CHANNELS) throw new IllegalArgumentException("count");
+
+		target.put(FRAME_START);
+		target.put(FRAME_TYPE_QUANTIZED);
+		target.put((byte) count);
+		target.putLong(timestamp);
+		for (int i = 0; i < count; ++i) {
+			if (quantizer.getBits(i) == Quantizer.BITS_8) target.put((byte) values[i]);
+			else target.putShort((short) values[i]);
+		}
+	}
+}
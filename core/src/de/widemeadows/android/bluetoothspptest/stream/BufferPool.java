@@ -0,0 +1,101 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fester Vorrat wiederverwendbarer Puffer gleicher Größe
+ *
+ * <p/>
+ *
+ * Alle Puffer werden beim Erzeugen angelegt; {@link #acquire()} und
+ * {@link #release(ByteBuffer)} allokieren nicht und sind threadsicher.
+ */
+public final class BufferPool {
+
+	/**
+	 * Die freien Puffer
+	 */
+	@NotNull
+	private final ArrayBlockingQueue<ByteBuffer> free;
+
+	/**
+	 * Die Anzahl der Puffer
+	 */
+	private final int bufferCount;
+
+	/**
+	 * Die Größe eines Puffers in Bytes
+	 */
+	private final int bufferSize;
+
+	/**
+	 * Erzeugt einen neuen Vorrat
+	 *
+	 * @param bufferCount Die Anzahl der Puffer
+	 * @param bufferSize Die Größe eines Puffers in Bytes
+	 * @param direct <code>true</code> für Direct-Buffer, sonst Heap-Buffer
+	 */
+	public BufferPool(int bufferCount, int bufferSize, boolean direct) {
+		if (bufferCount <= 0) throw new IllegalArgumentException("bufferCount");
+		if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize");
+
+		this.bufferCount = bufferCount;
+		this.bufferSize = bufferSize;
+		this.free = new ArrayBlockingQueue<ByteBuffer>(bufferCount);
+		for (int i = 0; i < bufferCount; ++i) {
+			free.add(direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+		}
+	}
+
+	/**
+	 * Entnimmt einen leeren Puffer
+	 *
+	 * @return Der Puffer oder <code>null</code>, wenn alle Puffer in Verwendung sind
+	 */
+	@Nullable
+	public ByteBuffer acquire() {
+		final ByteBuffer buffer = free.poll();
+		if (buffer != null) buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gibt einen Puffer zurück
+	 *
+	 * @param buffer Der Puffer
+	 */
+	public void release(@NotNull ByteBuffer buffer) {
+		free.offer(buffer);
+	}
+
+	/**
+	 * Liefert die Anzahl der freien Puffer
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getAvailable() {
+		return free.size();
+	}
+
+	/**
+	 * Liefert die Anzahl der Puffer
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getBufferCount() {
+		return bufferCount;
+	}
+
+	/**
+	 * Liefert die Größe eines Puffers
+	 *
+	 * @return Die Größe in Bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
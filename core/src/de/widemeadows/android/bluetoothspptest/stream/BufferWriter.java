@@ -0,0 +1,242 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import de.widemeadows.android.bluetoothspptest.trace.PlatformTrace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Schreibt gefüllte Puffer in einem eigenen Thread auf den Transportweg
+ *
+ * <p/>
+ *
+ * Alle beim Aufwachen anstehenden Puffer werden mit einem einzigen
+ * Gathering-Write übergeben und danach an den {@link BufferPool} zurückgegeben.
+ * Der erzeugende Thread blockiert so nie auf dem Funkkanal.
+ */
+public final class BufferWriter implements Runnable {
+
+	/**
+	 * Profiler-Abschnitt für das Schreiben
+	 */
+	@NotNull
+	private static final PlatformTrace.Section WRITE_SECTION = PlatformTrace.section("BufferWriter.write");
+
+	/**
+	 * Der Transportweg
+	 */
+	@NotNull
+	private final ISampleTransport transport;
+
+	/**
+	 * Der Vorrat, in den geschriebene Puffer zurückgehen
+	 */
+	@NotNull
+	private final BufferPool pool;
+
+	/**
+	 * Die zu schreibenden Puffer
+	 */
+	@NotNull
+	private final ArrayBlockingQueue<ByteBuffer> queue;
+
+	/**
+	 * Die in einem Aufruf zu schreibenden Puffer
+	 */
+	@NotNull
+	private final ByteBuffer[] gather;
+
+	/**
+	 * Der Schreib-Thread
+	 */
+	@Nullable
+	private volatile Thread thread;
+
+	/**
+	 * Die Anzahl der geschriebenen Bytes
+	 */
+	private volatile long bytesWritten;
+
+	/**
+	 * Die Anzahl der Schreibaufrufe
+	 */
+	private volatile long writeCalls;
+
+	/**
+	 * Die Anzahl der fehlgeschlagenen Schreibaufrufe
+	 */
+	private volatile long writeErrors;
+
+	/**
+	 * Der Tracer für die Latenz einzelner Frames oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Erzeugt einen neuen Schreiber
+	 *
+	 * @param transport Der Transportweg
+	 * @param pool Der Vorrat, aus dem die Puffer stammen
+	 */
+	public BufferWriter(@NotNull ISampleTransport transport, @NotNull BufferPool pool) {
+		this.transport = transport;
+		this.pool = pool;
+		this.queue = new ArrayBlockingQueue<ByteBuffer>(pool.getBufferCount());
+		this.gather = new ByteBuffer[pool.getBufferCount()];
+	}
+
+	/**
+	 * Startet den Schreib-Thread
+	 */
+	public synchronized void start() {
+		if (thread != null) return;
+		Thread writerThread = new Thread(this, "BufferWriter");
+		writerThread.setDaemon(true);
+		thread = writerThread;
+		writerThread.start();
+	}
+
+	/**
+	 * Setzt den Tracer für die Latenz einzelner Frames
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+	}
+
+	/**
+	 * Reiht einen gefüllten Puffer zum Schreiben ein
+	 *
+	 * @param buffer Der Puffer, bereits mit {@link ByteBuffer#flip()} zum Lesen vorbereitet
+	 */
+	public void submit(@NotNull ByteBuffer buffer) {
+		// Die Warteschlange fasst alle Puffer des Vorrats
+		if (!queue.offer(buffer)) release(buffer);
+	}
+
+	/**
+	 * Liefert die Anzahl der wartenden Puffer
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	/**
+	 * Liefert die Anzahl der geschriebenen Bytes
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Liefert die Anzahl der Schreibaufrufe
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getWriteCalls() {
+		return writeCalls;
+	}
+
+	/**
+	 * Liefert die Anzahl der fehlgeschlagenen Schreibaufrufe
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getWriteErrors() {
+		return writeErrors;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				gather[0] = queue.take();
+				int count = 1;
+				ByteBuffer next;
+				while (count < gather.length && (next = queue.poll()) != null) {
+					gather[count++] = next;
+				}
+
+				writeGathered(count);
+			}
+		} catch (InterruptedException e) {
+			// beendet
+		}
+	}
+
+	/**
+	 * Schreibt die gesammelten Puffer und gibt sie zurück
+	 *
+	 * @param count Die Anzahl der Puffer
+	 */
+	private void writeGathered(int count) {
+		long bytes = 0;
+		for (int i = 0; i < count; ++i) {
+			bytes += gather[i].remaining();
+		}
+
+		// Ein aktiver Multiplexer löst die Aufzeichnungen beim Kopieren vom Puffer und meldet das Schreiben selbst
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null) tracer.writeStarted(gather, 0, count);
+		WRITE_SECTION.begin();
+		try {
+			transport.write(gather, 0, count);
+			bytesWritten += bytes;
+			++writeCalls;
+			if (tracer != null) tracer.writeCompleted(gather, 0, count);
+		} catch (IOException e) {
+			++writeErrors;
+		} finally {
+			WRITE_SECTION.end();
+			for (int i = 0; i < count; ++i) {
+				release(gather[i]);
+				gather[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Gibt einen Puffer an den Vorrat zurück
+	 *
+	 * @param buffer Der Puffer
+	 */
+	private void release(@NotNull ByteBuffer buffer) {
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null) tracer.discard(buffer);
+		pool.release(buffer);
+	}
+
+	/**
+	 * Beendet den Schreib-Thread und verwirft noch wartende Puffer
+	 */
+	public void close() {
+		final Thread writerThread;
+		synchronized (this) {
+			writerThread = thread;
+			thread = null;
+		}
+		if (writerThread != null) {
+			writerThread.interrupt();
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		ByteBuffer buffer;
+		while ((buffer = queue.poll()) != null) {
+			release(buffer);
+		}
+	}
+}
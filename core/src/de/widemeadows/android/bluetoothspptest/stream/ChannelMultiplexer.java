@@ -0,0 +1,558 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Teilt eine Verbindung in priorisierte logische Kanäle auf.
+ *
+ * <p/>
+ *
+ * Bis der Empfänger mit {@link StreamProtocol#MUX_LINE} zustimmt, schreiben
+ * Steuer- und Live-Kanal unverändert auf die Verbindung. Danach markiert das
+ * Gerät den Wechsel mit derselben Zeile, und alle Daten gehen als
+ * Multiplex-Rahmen von höchstens {@link StreamProtocol#MUX_MAX_PAYLOAD} Bytes
+ * über einen eigenen Thread hinaus:
+ * <pre>
+ * 0x01 | Kanal (u8) | Länge (u16) | Nutzdaten
+ * </pre>
+ *
+ * Jeder Kanal puffert in einem eigenen Ringpuffer. Der Planer sendet stets
+ * den Kanal mit der kleinsten Nummer, der Daten hat; ein Kanal, der öfter als
+ * sein Übergehungslimit zurückgestellt wurde, ist einmal vorrangig. So bleibt
+ * die Wartezeit von Steuer- und Live-Daten auf einen Massendaten-Rahmen
+ * begrenzt, während Massendaten einen Mindestanteil erhalten. Ist ein
+ * Ringpuffer voll, blockiert der Schreiber des Kanals.
+ *
+ * <p/>
+ *
+ * Schlägt das Schreiben auf die Verbindung fehl, schließt sich der Multiplexer:
+ * Alle Kanäle melden sich als getrennt, und Schreiber erhalten eine {@link IOException}
+ * mit dem ursprünglichen Fehler als Ursache (siehe {@link #getFailure()}).
+ *
+ * <p/>
+ *
+ * Im Multiplex-Betrieb kopiert das Schreiben auf einen Kanal nur in dessen Ringpuffer.
+ * Ein mit {@link #setLatencyTracer(LatencyTracer)} gesetzter Tracer erhält deshalb die
+ * Schreibstufen der Frames des Live-Kanals von diesem Multiplexer, sobald sie tatsächlich
+ * auf die Verbindung geschrieben wurden.
+ */
+public final class ChannelMultiplexer implements Runnable, Closeable {
+
+	/**
+	 * Die Puffergröße des Steuerkanals in Bytes
+	 */
+	public static final int CONTROL_CAPACITY = 4096;
+
+	/**
+	 * Die Puffergröße des Live-Kanals in Bytes
+	 *
+	 * <p/>
+	 *
+	 * Bewusst nur zwei Rahmen groß: Staut sich die Verbindung, blockiert der
+	 * {@link BufferWriter} und seine Warteschlange wächst, an der der
+	 * {@link AimdRateController} den Rückstau misst.
+	 */
+	public static final int LIVE_CAPACITY = 2 * StreamProtocol.MUX_MAX_PAYLOAD;
+
+	/**
+	 * Die Puffergröße des Massendaten-Kanals in Bytes
+	 */
+	public static final int BULK_CAPACITY = 65536;
+
+	/**
+	 * Das Standard-Übergehungslimit des Massendaten-Kanals
+	 */
+	public static final int DEFAULT_BULK_STARVATION_LIMIT = 8;
+
+	/**
+	 * Ein logischer Kanal
+	 */
+	public final class Channel implements ISampleTransport {
+
+		/**
+		 * Die Nummer des Kanals; kleinere Nummern haben Vorrang
+		 */
+		private final int id;
+
+		/**
+		 * Der Ringpuffer
+		 */
+		@NotNull
+		private final byte[] ring;
+
+		/**
+		 * Sicht auf den Ringpuffer zum Senden
+		 */
+		@NotNull
+		private final ByteBuffer ringView;
+
+		/**
+		 * Der Beginn der gepufferten Daten
+		 */
+		private int head;
+
+		/**
+		 * Die Anzahl gepufferter Bytes
+		 */
+		private int count;
+
+		/**
+		 * Wie oft der Kanal mit Daten zuletzt in Folge übergangen wurde
+		 */
+		private int skipped;
+
+		/**
+		 * Das Übergehungslimit oder <code>0</code>, wenn der Kanal nie vorgezogen wird
+		 */
+		private int starvationLimit;
+
+		/**
+		 * Die Anzahl der in den Ringpuffer kopierten Bytes
+		 */
+		private long bytesQueued;
+
+		/**
+		 * Die Anzahl der gesendeten Nutzdaten-Bytes
+		 */
+		private volatile long bytesSent;
+
+		/**
+		 * Erzeugt einen neuen Kanal
+		 *
+		 * @param id Die Nummer
+		 * @param capacity Die Puffergröße in Bytes
+		 */
+		private Channel(int id, int capacity) {
+			this.id = id;
+			this.ring = new byte[capacity];
+			this.ringView = ByteBuffer.wrap(ring);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return !closed && link.isConnected() && (active || id != StreamProtocol.MUX_CHANNEL_BULK);
+		}
+
+		@Override
+		public boolean isDirectBufferPreferred() {
+			return false;
+		}
+
+		@Override
+		public void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+			if (!active) {
+				synchronized (switchLock) {
+					if (!active) {
+						if (id == StreamProtocol.MUX_CHANNEL_BULK) throw new IOException("Massendaten nur im Multiplex-Betrieb");
+						if (closed) throw createClosedException();
+						try {
+							link.write(buffers, offset, length);
+						} catch (IOException e) {
+							fail(e);
+							throw e;
+						}
+						return;
+					}
+				}
+			}
+
+			for (int i = offset; i < offset + length; ++i) {
+				enqueue(this, buffers[i]);
+			}
+		}
+
+		/**
+		 * Liefert die Anzahl der gepufferten Bytes
+		 *
+		 * @return Die Anzahl
+		 */
+		public int getQueued() {
+			synchronized (ChannelMultiplexer.this) {
+				return count;
+			}
+		}
+
+		/**
+		 * Liefert die Anzahl der im Multiplex-Betrieb gesendeten Bytes
+		 *
+		 * @return Die Anzahl
+		 */
+		public long getBytesSent() {
+			return bytesSent;
+		}
+	}
+
+	/**
+	 * Die Verbindung
+	 */
+	@NotNull
+	private final ISampleTransport link;
+
+	/**
+	 * Die Kanäle, nach Nummer
+	 */
+	@NotNull
+	private final Channel[] channels = new Channel[StreamProtocol.MUX_CHANNEL_COUNT];
+
+	/**
+	 * Sperre für den Wechsel in den Multiplex-Betrieb
+	 */
+	@NotNull
+	private final Object switchLock = new Object();
+
+	/**
+	 * Der Kopf des aktuellen Rahmens
+	 */
+	@NotNull
+	private final ByteBuffer header = ByteBuffer.allocate(StreamProtocol.MUX_HEADER_LENGTH);
+
+	/**
+	 * Kopf und Nutzdaten für das Schreiben
+	 */
+	@NotNull
+	private final ByteBuffer[] gather = new ByteBuffer[2];
+
+	/**
+	 * Gibt an, ob im Multiplex-Betrieb gesendet wird
+	 */
+	private volatile boolean active;
+
+	/**
+	 * Gibt an, ob der Multiplexer geschlossen wurde
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Der Fehler, an dem die Verbindung gescheitert ist, oder <code>null</code>
+	 */
+	@Nullable
+	private volatile IOException failure;
+
+	/**
+	 * Der Sende-Thread
+	 */
+	@Nullable
+	private Thread thread;
+
+	/**
+	 * Die Anzahl der fehlgeschlagenen Schreibvorgänge
+	 */
+	private volatile long writeErrors;
+
+	/**
+	 * Der Tracer für die Frames des Live-Kanals oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Erzeugt einen neuen Multiplexer
+	 *
+	 * @param link Die Verbindung
+	 */
+	public ChannelMultiplexer(@NotNull ISampleTransport link) {
+		this.link = link;
+		channels[StreamProtocol.MUX_CHANNEL_CONTROL] = new Channel(StreamProtocol.MUX_CHANNEL_CONTROL, CONTROL_CAPACITY);
+		channels[StreamProtocol.MUX_CHANNEL_LIVE] = new Channel(StreamProtocol.MUX_CHANNEL_LIVE, LIVE_CAPACITY);
+		channels[StreamProtocol.MUX_CHANNEL_BULK] = new Channel(StreamProtocol.MUX_CHANNEL_BULK, BULK_CAPACITY);
+		channels[StreamProtocol.MUX_CHANNEL_BULK].starvationLimit = DEFAULT_BULK_STARVATION_LIMIT;
+	}
+
+	/**
+	 * Liefert einen Kanal
+	 *
+	 * @param id Die Nummer, z.B. {@link StreamProtocol#MUX_CHANNEL_LIVE}
+	 * @return Der Kanal
+	 */
+	@NotNull
+	public Channel getChannel(int id) {
+		return channels[id];
+	}
+
+	/**
+	 * Setzt, wie oft ein Kanal mit Daten höchstens in Folge übergangen wird
+	 *
+	 * @param id Die Nummer des Kanals
+	 * @param limit Das Limit oder <code>0</code>, um den Kanal nie vorzuziehen
+	 */
+	public synchronized void setStarvationLimit(int id, int limit) {
+		if (limit < 0) throw new IllegalArgumentException("limit");
+		channels[id].starvationLimit = limit;
+	}
+
+	/**
+	 * Setzt den Tracer, dem die Schreibstufen der Frames des Live-Kanals im Multiplex-Betrieb gemeldet werden
+	 *
+	 * <p/>
+	 *
+	 * Sollte derselbe sein, der dem {@link BufferWriter} des Live-Kanals gesetzt wurde.
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+	}
+
+	/**
+	 * Gibt an, ob im Multiplex-Betrieb gesendet wird
+	 *
+	 * @return <code>true</code> nach {@link #activate()}
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Liefert die Anzahl der fehlgeschlagenen Schreibvorgänge
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getWriteErrors() {
+		return writeErrors;
+	}
+
+	/**
+	 * Gibt an, ob der Multiplexer geschlossen wurde, auch durch einen Schreibfehler
+	 *
+	 * @return <code>true</code> nach {@link #close()} oder einem Fehler der Verbindung
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Liefert den Fehler, an dem die Verbindung gescheitert ist
+	 *
+	 * @return Der Fehler oder <code>null</code>
+	 */
+	@Nullable
+	public IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Wechselt in den Multiplex-Betrieb
+	 *
+	 * @throws IOException Wenn die Markierung nicht geschrieben werden konnte
+	 */
+	public void activate() throws IOException {
+		synchronized (switchLock) {
+			if (active) return;
+			if (closed) throw createClosedException();
+			final byte[] marker = StreamProtocol.toBytes(StreamProtocol.MUX_LINE + StreamProtocol.LINE_END);
+			try {
+				link.write(new ByteBuffer[] { ByteBuffer.wrap(marker) }, 0, 1);
+			} catch (IOException e) {
+				fail(e);
+				throw e;
+			}
+			active = true;
+		}
+
+		synchronized (this) {
+			if (thread != null || closed) return;
+			Thread senderThread = new Thread(this, "ChannelMultiplexer");
+			senderThread.setDaemon(true);
+			thread = senderThread;
+			senderThread.start();
+		}
+	}
+
+	/**
+	 * Erzeugt einen Empfänger für Steuernachrichten, der Anforderungen zum
+	 * Multiplexen selbst behandelt und alle anderen weiterreicht
+	 *
+	 * @param delegate Der Empfänger der übrigen Nachrichten oder <code>null</code>
+	 * @return Der Empfänger
+	 */
+	@NotNull
+	public IControlMessageListener createControlListener(@Nullable final IControlMessageListener delegate) {
+		return new IControlMessageListener() {
+			@Override
+			public void sessionStarted() {
+				if (delegate != null) delegate.sessionStarted();
+			}
+
+			@Override
+			public void controlMessageReceived(@NotNull String line) {
+				if (StreamProtocol.isMultiplexRequest(line)) {
+					try {
+						activate();
+					} catch (IOException e) {
+						// bereits in fail() vermerkt
+					}
+					return;
+				}
+				if (delegate != null) delegate.controlMessageReceived(line);
+			}
+		};
+	}
+
+	/**
+	 * Kopiert einen Puffer in den Ringpuffer eines Kanals, wartend, solange dieser voll ist
+	 *
+	 * @param channel Der Kanal
+	 * @param buffer Der Puffer
+	 * @throws IOException Wenn der Multiplexer geschlossen wurde
+	 */
+	private synchronized void enqueue(@NotNull Channel channel, @NotNull ByteBuffer buffer) throws IOException {
+		final int capacity = channel.ring.length;
+		while (buffer.hasRemaining()) {
+			while (channel.count == capacity && !closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (closed) throw createClosedException();
+
+			final int tail = (channel.head + channel.count) % capacity;
+			final int chunk = Math.min(buffer.remaining(), Math.min(capacity - channel.count, capacity - tail));
+			buffer.get(channel.ring, tail, chunk);
+			channel.count += chunk;
+			channel.bytesQueued += chunk;
+			notifyAll();
+		}
+
+		// Noch unter der Sperre, damit der Sende-Thread das Ende des Puffers nicht vorher schreibt
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null && channel.id == StreamProtocol.MUX_CHANNEL_LIVE) tracer.bufferQueued(buffer, channel.bytesQueued);
+	}
+
+	/**
+	 * Wählt den nächsten zu sendenden Kanal
+	 *
+	 * @return Der Kanal oder <code>null</code>, wenn kein Kanal Daten hat
+	 */
+	@Nullable
+	private Channel pick() {
+		Channel chosen = null;
+
+		// Zu oft übergangene Kanäle zuerst
+		for (int i = 0; i < channels.length && chosen == null; ++i) {
+			final Channel channel = channels[i];
+			if (channel.count > 0 && channel.starvationLimit > 0 && channel.skipped >= channel.starvationLimit) chosen = channel;
+		}
+
+		// Sonst nach Priorität
+		for (int i = 0; i < channels.length && chosen == null; ++i) {
+			if (channels[i].count > 0) chosen = channels[i];
+		}
+		if (chosen == null) return null;
+
+		for (int i = 0; i < channels.length; ++i) {
+			final Channel channel = channels[i];
+			if (channel == chosen) channel.skipped = 0;
+			else if (channel.count > 0) ++channel.skipped;
+		}
+		return chosen;
+	}
+
+	/**
+	 * Sendet Rahmen, bis der Multiplexer geschlossen wird
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			final Channel channel;
+			final int offset, length;
+
+			synchronized (this) {
+				Channel next = null;
+				while (!closed && (next = pick()) == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (closed || next == null) return;
+
+				channel = next;
+				offset = channel.head;
+				length = Math.min(StreamProtocol.MUX_MAX_PAYLOAD, Math.min(channel.count, channel.ring.length - offset));
+			}
+
+			// Der gesendete Bereich bleibt belegt, bis er freigegeben wird
+			header.clear();
+			header.put(StreamProtocol.MUX_FRAME_START).put((byte) channel.id).putShort((short) length);
+			header.flip();
+
+			final ByteBuffer payload = channel.ringView;
+			payload.clear();
+			payload.position(offset);
+			payload.limit(offset + length);
+
+			gather[0] = header;
+			gather[1] = payload;
+			final LatencyTracer tracer = channel.id == StreamProtocol.MUX_CHANNEL_LIVE ? latencyTracer : null;
+			final long writeStart = tracer != null ? System.nanoTime() : 0;
+			try {
+				link.write(gather, 0, 2);
+				channel.bytesSent += length;
+				if (tracer != null) tracer.streamWritten(channel.bytesSent, writeStart);
+			} catch (IOException e) {
+				// Ein Rahmen fehlt; der Empfänger kann den Strom nicht fortsetzen
+				fail(e);
+				return;
+			}
+
+			synchronized (this) {
+				channel.head = (offset + length) % channel.ring.length;
+				channel.count -= length;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Vermerkt einen Fehler der Verbindung und schließt den Multiplexer
+	 *
+	 * @param e Der Fehler
+	 */
+	private void fail(@NotNull IOException e) {
+		++writeErrors;
+		if (failure == null) failure = e;
+		close();
+	}
+
+	/**
+	 * Erzeugt die Ausnahme für Schreibversuche nach dem Schließen
+	 *
+	 * @return Die Ausnahme, mit dem Fehler der Verbindung als Ursache
+	 */
+	@NotNull
+	private IOException createClosedException() {
+		final IOException exception = new IOException("Multiplexer geschlossen");
+		final IOException cause = failure;
+		if (cause != null) exception.initCause(cause);
+		return exception;
+	}
+
+	/**
+	 * Beendet den Sende-Thread; noch gepufferte Daten werden verworfen
+	 * und wartende Schreiber erhalten eine {@link IOException}
+	 */
+	@Override
+	public void close() {
+		final Thread senderThread;
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+			senderThread = thread;
+		}
+		if (senderThread != null) senderThread.interrupt();
+
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null) tracer.discardQueued();
+	}
+}
@@ -0,0 +1,79 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Transportweg über einen {@link GatheringByteChannel}, z.B. einen
+ * <code>SocketChannel</code> auf der JVM.
+ *
+ * <p/>
+ *
+ * Mehrere Puffer werden mit einem Gathering-Write geschrieben; Direct-Buffer
+ * gehen dabei ohne Kopie an das Betriebssystem.
+ */
+public final class ChannelTransport implements ISampleTransport, Closeable {
+
+	/**
+	 * Der Kanal
+	 */
+	@NotNull
+	private final GatheringByteChannel channel;
+
+	/**
+	 * Die Anzahl der geschriebenen Bytes
+	 */
+	private volatile long bytesWritten;
+
+	/**
+	 * Erzeugt einen neuen Transportweg
+	 *
+	 * @param channel Der Kanal; muss blockierend sein
+	 */
+	public ChannelTransport(@NotNull GatheringByteChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public boolean isDirectBufferPreferred() {
+		return true;
+	}
+
+	/**
+	 * Liefert die Anzahl der bisher geschriebenen Bytes
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public synchronized void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+		final ByteBuffer last = buffers[offset + length - 1];
+		long written = 0;
+		do {
+			written += channel.write(buffers, offset, length);
+		} while (last.hasRemaining());
+		bytesWritten += written;
+	}
+
+	/**
+	 * Schließt den Kanal
+	 *
+	 * @throws IOException Wenn beim Schließen ein Fehler auftrat
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
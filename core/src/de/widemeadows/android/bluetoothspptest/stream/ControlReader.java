@@ -0,0 +1,75 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Liest Steuerzeilen der Gegenseite und reicht sie an einen
+ * {@link IControlMessageListener} weiter.
+ *
+ * <p/>
+ *
+ * Läuft in einem eigenen Thread, bis der Stream endet oder geschlossen wird.
+ */
+public final class ControlReader implements Runnable {
+
+	/**
+	 * Der Eingabestream
+	 */
+	@NotNull
+	private final InputStream inputStream;
+
+	/**
+	 * Der Empfänger
+	 */
+	@NotNull
+	private final IControlMessageListener listener;
+
+	/**
+	 * Erzeugt einen neuen Leser
+	 *
+	 * @param inputStream Der Eingabestream
+	 * @param listener Der Empfänger
+	 */
+	public ControlReader(@NotNull InputStream inputStream, @NotNull IControlMessageListener listener) {
+		this.inputStream = inputStream;
+		this.listener = listener;
+	}
+
+	/**
+	 * Startet das Lesen in einem eigenen Thread
+	 *
+	 * @return Der Thread
+	 */
+	@NotNull
+	public Thread start() {
+		Thread thread = new Thread(this, "ControlReader");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public void run() {
+		final byte[] line = new byte[StreamProtocol.MAX_CONTROL_LINE_LENGTH];
+		int length = 0;
+
+		try {
+			int b;
+			while ((b = inputStream.read()) >= 0) {
+				if (b == '\n') {
+					if (length > 0) listener.controlMessageReceived(new String(line, 0, length, "US-ASCII"));
+					length = 0;
+				}
+				else if (b != '\r' && length < line.length) {
+					line[length++] = (byte) b;
+				}
+			}
+		}
+		catch (IOException e) {
+			// Verbindung wurde getrennt
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Kodiert Frames als Textzeile im bisherigen Format
+ * <code>x; y; z; ...</code> mit fünf Nachkommastellen.
+ *
+ * <p/>
+ *
+ * Die Ausgabe entspricht dem <code>DecimalFormat(",##0.00000")</code> des
+ * Gerätelocales (Dezimal- und Tausendertrennzeichen), wird aber ohne
+ * Zwischenobjekte direkt in den Puffer geschrieben. Der Zeitstempel wird nicht übertragen.
+ * Quantisierte Frames bestehen aus Ganzzahlen im selben Zeilenformat.
+ */
+public final class CsvSampleEncoder implements IQuantizedSampleEncoder {
+
+	/**
+	 * Die Anzahl der Nachkommastellen
+	 */
+	private static final int DECIMALS = 5;
+
+	/**
+	 * Die maximale Länge eines Wertes in Bytes
+	 */
+	private static final int MAX_VALUE_LENGTH = 72;
+
+	/**
+	 * Die maximale Länge eines quantisierten Wertes in Bytes
+	 */
+	private static final int MAX_QUANTIZED_LENGTH = 6;
+
+	/**
+	 * Das Trennzeichen zwischen den Werten
+	 */
+	@NotNull
+	private static final byte[] SEPARATOR = { ';', ' ' };
+
+	/**
+	 * Das Zeilenende
+	 */
+	@NotNull
+	private static final byte[] LINE_END = { '\r', '\n' };
+
+	/**
+	 * Das Minuszeichen
+	 */
+	@NotNull
+	private final byte[] minus;
+
+	/**
+	 * Das Dezimaltrennzeichen
+	 */
+	@NotNull
+	private final byte[] decimalSeparator;
+
+	/**
+	 * Das Tausendertrennzeichen
+	 */
+	@NotNull
+	private final byte[] groupingSeparator;
+
+	/**
+	 * Darstellung von NaN
+	 */
+	@NotNull
+	private final byte[] nan;
+
+	/**
+	 * Darstellung von Unendlich
+	 */
+	@NotNull
+	private final byte[] infinity;
+
+	/**
+	 * Erzeugt einen Kodierer für das Standardlocale
+	 */
+	public CsvSampleEncoder() {
+		this(new DecimalFormatSymbols());
+	}
+
+	/**
+	 * Erzeugt einen Kodierer für die angegebenen Symbole
+	 *
+	 * @param symbols Die Symbole
+	 */
+	public CsvSampleEncoder(@NotNull DecimalFormatSymbols symbols) {
+		this.minus = StreamProtocol.toBytes(String.valueOf(symbols.getMinusSign()));
+		this.decimalSeparator = StreamProtocol.toBytes(String.valueOf(symbols.getDecimalSeparator()));
+		this.groupingSeparator = StreamProtocol.toBytes(String.valueOf(symbols.getGroupingSeparator()));
+		this.nan = StreamProtocol.toBytes(symbols.getNaN());
+		this.infinity = StreamProtocol.toBytes(symbols.getInfinity());
+	}
+
+	@NotNull
+	@Override
+	public String getName() {
+		return SampleEncoders.CSV;
+	}
+
+	@Override
+	public int getMaxFrameSize(int channelCount) {
+		return channelCount * (MAX_VALUE_LENGTH + SEPARATOR.length) + LINE_END.length;
+	}
+
+	@Override
+	public void encode(long timestamp, @NotNull float[] values, int count, @NotNull ByteBuffer target) {
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) target.put(SEPARATOR);
+
+			final float value = values[i];
+			if (Float.isNaN(value)) {
+				target.put(nan);
+			}
+			else if (Float.isInfinite(value)) {
+				if (value < 0) target.put(minus);
+				target.put(infinity);
+			}
+			else {
+				NumberWriter.putFixed(target, value, DECIMALS, minus, decimalSeparator, groupingSeparator);
+			}
+		}
+		target.put(LINE_END);
+	}
+
+	@Override
+	public int getMaxQuantizedFrameSize(@NotNull Quantizer quantizer) {
+		final int count = quantizer.getChannelCount();
+		return count * (Math.max(MAX_QUANTIZED_LENGTH, nan.length) + SEPARATOR.length) + LINE_END.length;
+	}
+
+	@Override
+	public void encodeQuantized(long timestamp, @NotNull int[] values, @NotNull Quantizer quantizer, @NotNull ByteBuffer target) {
+		final int count = quantizer.getChannelCount();
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) target.put(SEPARATOR);
+
+			final int value = values[i];
+			if (value == (quantizer.getBits(i) == Quantizer.BITS_8 ? Quantizer.NAN_8 : Quantizer.NAN_16)) {
+				target.put(nan);
+			}
+			else {
+				NumberWriter.putLong(target, value);
+			}
+		}
+		target.put(LINE_END);
+	}
+}
@@ -0,0 +1,151 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Transportweg, der einen einmal kodierten Datenstrom an beliebig viele
+ * Gegenstellen verteilt.
+ *
+ * <p/>
+ *
+ * Jeder Schreibvorgang geht nacheinander an alle Gegenstellen; der Inhalt der Puffer
+ * wird dabei nicht kopiert. Neue Gegenstellen werden zwischen zwei Schreibvorgängen
+ * aufgenommen und beginnen daher immer an einer Frame-Grenze. Eine Gegenstelle, deren
+ * Schreibvorgang fehlschlägt, wird entfernt und geschlossen.
+ *
+ * <p/>
+ *
+ * Da alle Gegenstellen denselben Strom erhalten, bestimmt die langsamste
+ * die Rate aller anderen.
+ */
+public final class FanOutTransport implements ISampleTransport, Closeable {
+
+	/**
+	 * Die Gegenstellen
+	 */
+	@NotNull
+	private final CopyOnWriteArrayList<ISampleTransport> peers = new CopyOnWriteArrayList<ISampleTransport>();
+
+	/**
+	 * Die Positionen der Puffer vor dem Schreiben
+	 */
+	@NotNull
+	private int[] positions = new int[16];
+
+	/**
+	 * Die Anzahl der entfernten Gegenstellen
+	 */
+	private volatile long peersDropped;
+
+	/**
+	 * Nimmt eine Gegenstelle auf
+	 *
+	 * <p/>
+	 *
+	 * Die Begrüßung muss vorher direkt an die Gegenstelle geschrieben worden sein.
+	 *
+	 * @param peer Die Gegenstelle
+	 */
+	public void addPeer(@NotNull ISampleTransport peer) {
+		peers.add(peer);
+	}
+
+	/**
+	 * Liefert die Anzahl der Gegenstellen
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getPeerCount() {
+		return peers.size();
+	}
+
+	/**
+	 * Liefert die Anzahl der wegen eines Fehlers entfernten Gegenstellen
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getPeersDropped() {
+		return peersDropped;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return !peers.isEmpty();
+	}
+
+	@Override
+	public boolean isDirectBufferPreferred() {
+		return false;
+	}
+
+	@Override
+	public synchronized void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+		if (positions.length < length) positions = new int[length];
+		for (int i = 0; i < length; ++i) {
+			positions[i] = buffers[offset + i].position();
+		}
+
+		boolean delivered = false;
+		for (ISampleTransport peer : peers) {
+			for (int i = 0; i < length; ++i) {
+				buffers[offset + i].position(positions[i]);
+			}
+
+			try {
+				if (!peer.isConnected()) throw new IOException("Gegenstelle getrennt");
+				peer.write(buffers, offset, length);
+				delivered = true;
+			}
+			catch (IOException e) {
+				removePeer(peer);
+			}
+		}
+
+		for (int i = 0; i < length; ++i) {
+			buffers[offset + i].position(buffers[offset + i].limit());
+		}
+		if (!delivered) throw new IOException("Keine Gegenstelle verbunden");
+	}
+
+	/**
+	 * Entfernt alle Gegenstellen und schließt sie
+	 */
+	@Override
+	public void close() {
+		for (ISampleTransport peer : peers) {
+			peers.remove(peer);
+			closePeer(peer);
+		}
+	}
+
+	/**
+	 * Entfernt eine fehlerhafte Gegenstelle und schließt sie
+	 *
+	 * @param peer Die Gegenstelle
+	 */
+	private void removePeer(@NotNull ISampleTransport peer) {
+		if (!peers.remove(peer)) return;
+		++peersDropped;
+		closePeer(peer);
+	}
+
+	/**
+	 * Schließt eine Gegenstelle, sofern sie geschlossen werden kann
+	 *
+	 * @param peer Die Gegenstelle
+	 */
+	private static void closePeer(@NotNull ISampleTransport peer) {
+		if (!(peer instanceof Closeable)) return;
+		try {
+			((Closeable) peer).close();
+		}
+		catch (IOException e) {
+			// war bereits getrennt
+		}
+	}
+}
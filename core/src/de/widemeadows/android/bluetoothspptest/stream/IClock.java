@@ -0,0 +1,27 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Zeitquellen, z.B. um simulierte Zeit in Tests schrittweise vorzustellen
+ */
+public interface IClock {
+
+	/**
+	 * Die Systemuhr über {@link System#nanoTime()}
+	 */
+	@NotNull
+	public static final IClock SYSTEM = new IClock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * Liefert die aktuelle Zeit
+	 *
+	 * @return Die Zeit in Nanosekunden; nur Differenzen sind aussagekräftig
+	 */
+	public long nanoTime();
+}
@@ -0,0 +1,21 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger von Steuernachrichten der Gegenseite
+ */
+public interface IControlMessageListener {
+
+	/**
+	 * Eine neue Verbindung wurde aufgebaut und die Begrüßung gesendet
+	 */
+	public void sessionStarted();
+
+	/**
+	 * Steuerzeile empfangen
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 */
+	public void controlMessageReceived(@NotNull final String line);
+}
@@ -0,0 +1,35 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface für Kodierer, die Frames auch als Ganzzahlen eines {@link Quantizer} kodieren
+ *
+ * <p/>
+ *
+ * Quantisierte Frames werden nur gesendet, nachdem der Empfänger sie mit
+ * {@link StreamProtocol#QUANT_LINE} angefordert und die Tabelle mit
+ * {@link StreamProtocol#scaleMessages(Quantizer)} erhalten hat.
+ */
+public interface IQuantizedSampleEncoder extends ISampleEncoder {
+
+	/**
+	 * Liefert die maximale Größe eines quantisierten Frames
+	 *
+	 * @param quantizer Die Tabelle
+	 * @return Die Größe in Bytes
+	 */
+	public int getMaxQuantizedFrameSize(@NotNull final Quantizer quantizer);
+
+	/**
+	 * Kodiert einen quantisierten Frame
+	 *
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 * @param values Die Ganzzahlen aus {@link Quantizer#quantize(float[], int, int[])}
+	 * @param quantizer Die Tabelle; bestimmt die Anzahl der Kanäle
+	 * @param target Das Ziel; muss mindestens {@link #getMaxQuantizedFrameSize(Quantizer)} Bytes frei haben
+	 */
+	public void encodeQuantized(final long timestamp, @NotNull final int[] values, @NotNull final Quantizer quantizer, @NotNull final ByteBuffer target);
+}
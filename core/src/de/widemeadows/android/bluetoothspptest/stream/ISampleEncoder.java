@@ -0,0 +1,43 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface für Kodierer des Datenstroms
+ *
+ * <p/>
+ *
+ * Implementierungen müssen zustandslos und threadsicher sein, da eine
+ * Instanz von allen Verbindungen gemeinsam verwendet wird. Neue Kodierer werden
+ * über {@link SampleEncoders#register(ISampleEncoder)} bekannt gemacht.
+ */
+public interface ISampleEncoder {
+
+	/**
+	 * Liefert den Namen, unter dem der Kodierer im Handshake angeboten wird
+	 *
+	 * @return Der Name (ohne Leerzeichen)
+	 */
+	@NotNull
+	public String getName();
+
+	/**
+	 * Liefert die maximale Größe eines kodierten Frames
+	 *
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @return Die Größe in Bytes
+	 */
+	public int getMaxFrameSize(final int channelCount);
+
+	/**
+	 * Kodiert einen Frame
+	 *
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 * @param values Die Kanalwerte
+	 * @param count Die Anzahl der Kanäle
+	 * @param target Das Ziel; muss mindestens {@link #getMaxFrameSize(int)} Bytes frei haben
+	 */
+	public void encode(final long timestamp, @NotNull final float[] values, final int count, @NotNull final ByteBuffer target);
+}
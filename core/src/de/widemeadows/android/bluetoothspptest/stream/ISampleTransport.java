@@ -0,0 +1,46 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface für Transportwege des Datenstroms
+ */
+public interface ISampleTransport {
+
+	/**
+	 * Gibt an, ob der Transportweg verbunden ist
+	 *
+	 * @return <code>true</code>, wenn geschrieben werden kann
+	 */
+	public boolean isConnected();
+
+	/**
+	 * Gibt an, ob der Transportweg direkt aus Direct-Buffern schreiben kann
+	 *
+	 * <p/>
+	 *
+	 * Stream-basierte Transportwege schreiben aus dem Array eines Heap-Buffers
+	 * ohne Kopie und liefern <code>false</code>.
+	 *
+	 * @return <code>true</code>, wenn Direct-Buffer bevorzugt werden
+	 */
+	public boolean isDirectBufferPreferred();
+
+	/**
+	 * Schreibt die verbleibenden Bytes mehrerer Puffer in einem Aufruf
+	 * vollständig und ungepuffert an die Gegenseite.
+	 *
+	 * <p/>
+	 *
+	 * Nach dem Aufruf ist die Position jedes Puffers gleich seinem Limit.
+	 *
+	 * @param buffers Die Puffer
+	 * @param offset Der Index des ersten Puffers
+	 * @param length Die Anzahl der Puffer
+	 * @throws IOException Wenn beim Schreiben ein Fehler auftrat
+	 */
+	public void write(@NotNull final ByteBuffer[] buffers, final int offset, final int length) throws IOException;
+}
@@ -0,0 +1,125 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kodiert Frames als JSON-Objekt je Zeile:
+ * <code>{"t":&lt;zeitstempel&gt;,"v":[x,y,z,...]}</code>
+ *
+ * <p/>
+ *
+ * Nicht endliche Werte werden als <code>null</code> geschrieben. Quantisierte Frames
+ * enthalten Ganzzahlen im selben Format.
+ */
+public final class JsonLinesSampleEncoder implements IQuantizedSampleEncoder {
+
+	/**
+	 * Die Anzahl der Nachkommastellen
+	 */
+	private static final int DECIMALS = 5;
+
+	/**
+	 * Die maximale Länge eines Wertes in Bytes
+	 */
+	private static final int MAX_VALUE_LENGTH = 48;
+
+	/**
+	 * Die maximale Länge eines quantisierten Wertes in Bytes
+	 */
+	private static final int MAX_QUANTIZED_LENGTH = 6;
+
+	/**
+	 * Beginn des Objektes bis zum Zeitstempel
+	 */
+	@NotNull
+	private static final byte[] PREFIX = { '{', '"', 't', '"', ':' };
+
+	/**
+	 * Übergang vom Zeitstempel zu den Werten
+	 */
+	@NotNull
+	private static final byte[] VALUES = { ',', '"', 'v', '"', ':', '[' };
+
+	/**
+	 * Ende des Objektes inklusive Zeilenende
+	 */
+	@NotNull
+	private static final byte[] SUFFIX = { ']', '}', '\r', '\n' };
+
+	/**
+	 * Darstellung nicht endlicher Werte
+	 */
+	@NotNull
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	/**
+	 * Das Minuszeichen
+	 */
+	@NotNull
+	private static final byte[] MINUS = { '-' };
+
+	/**
+	 * Das Dezimaltrennzeichen
+	 */
+	@NotNull
+	private static final byte[] POINT = { '.' };
+
+	@NotNull
+	@Override
+	public String getName() {
+		return SampleEncoders.JSON_LINES;
+	}
+
+	@Override
+	public int getMaxFrameSize(int channelCount) {
+		return PREFIX.length + 20 + VALUES.length + channelCount * (MAX_VALUE_LENGTH + 1) + SUFFIX.length;
+	}
+
+	@Override
+	public void encode(long timestamp, @NotNull float[] values, int count, @NotNull ByteBuffer target) {
+		target.put(PREFIX);
+		NumberWriter.putLong(target, timestamp);
+		target.put(VALUES);
+
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) target.put((byte) ',');
+
+			final float value = values[i];
+			if (Float.isNaN(value) || Float.isInfinite(value)) {
+				target.put(NULL);
+			}
+			else {
+				NumberWriter.putFixed(target, value, DECIMALS, MINUS, POINT, null);
+			}
+		}
+		target.put(SUFFIX);
+	}
+
+	@Override
+	public int getMaxQuantizedFrameSize(@NotNull Quantizer quantizer) {
+		return PREFIX.length + 20 + VALUES.length + quantizer.getChannelCount() * (MAX_QUANTIZED_LENGTH + 1) + SUFFIX.length;
+	}
+
+	@Override
+	public void encodeQuantized(long timestamp, @NotNull int[] values, @NotNull Quantizer quantizer, @NotNull ByteBuffer target) {
+		target.put(PREFIX);
+		NumberWriter.putLong(target, timestamp);
+		target.put(VALUES);
+
+		final int count = quantizer.getChannelCount();
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) target.put((byte) ',');
+
+			final int value = values[i];
+			if (value == (quantizer.getBits(i) == Quantizer.BITS_8 ? Quantizer.NAN_8 : Quantizer.NAN_16)) {
+				target.put(NULL);
+			}
+			else {
+				NumberWriter.putLong(target, value);
+			}
+		}
+		target.put(SUFFIX);
+	}
+}
@@ -0,0 +1,159 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+
+/**
+ * Schreibt Zahlen als ASCII-Text direkt in einen {@link ByteBuffer},
+ * ohne Zwischenobjekte zu erzeugen.
+ */
+public final class NumberWriter {
+
+	/**
+	 * Zehnerpotenzen bis 10^18
+	 */
+	@NotNull
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Die größte Anzahl Nachkommastellen
+	 */
+	public static final int MAX_DECIMALS = 9;
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private NumberWriter() {}
+
+	/**
+	 * Schreibt eine Ganzzahl
+	 *
+	 * @param target Das Ziel
+	 * @param value Der Wert
+	 */
+	public static void putLong(@NotNull ByteBuffer target, long value) {
+		if (value < 0) {
+			target.put((byte) '-');
+			if (value == Long.MIN_VALUE) {
+				// -Long.MIN_VALUE ist nicht darstellbar
+				putDigits(target, -(value / 10), null);
+				target.put((byte) ('0' - (value % 10)));
+				return;
+			}
+			value = -value;
+		}
+		putDigits(target, value, null);
+	}
+
+	/**
+	 * Schreibt eine endliche Zahl mit fester Anzahl Nachkommastellen
+	 *
+	 * <p/>
+	 *
+	 * Gerundet wird wie bei {@link java.text.DecimalFormat}: {@link RoundingMode#HALF_EVEN}
+	 * auf den exakten Binärwert, und negative Werte behalten ihr Vorzeichen auch dann,
+	 * wenn sie auf Null gerundet werden (<code>-0,00000</code>).
+	 *
+	 * @param target Das Ziel
+	 * @param value Der Wert; muss endlich sein
+	 * @param decimals Die Anzahl der Nachkommastellen (0 bis {@link #MAX_DECIMALS})
+	 * @param minus Das Minuszeichen
+	 * @param decimalSeparator Das Dezimaltrennzeichen
+	 * @param groupingSeparator Das Tausendertrennzeichen oder <code>null</code> für keine Gruppierung
+	 */
+	public static void putFixed(@NotNull ByteBuffer target, double value, int decimals,
+	                            @NotNull byte[] minus, @NotNull byte[] decimalSeparator, @Nullable byte[] groupingSeparator) {
+		assert decimals >= 0 && decimals <= MAX_DECIMALS;
+
+		// Das Vorzeichenbit erfasst auch -0.0
+		final boolean negative = Double.doubleToRawLongBits(value) < 0;
+		final double magnitude = Math.abs(value);
+		final long scale = POWERS_OF_TEN[decimals];
+		final double product = magnitude * scale;
+
+		// Sehr große Werte passen nicht in einen long; wie bei DecimalFormat zählen nur die
+		// Stellen von Double.toString, die hier nie über die Nachkommastellen hinausreichen
+		if (product >= POWERS_OF_TEN[18]) {
+			putDecimal(target, negative, new BigDecimal(Double.toString(magnitude)), decimals, minus, decimalSeparator, groupingSeparator);
+			return;
+		}
+
+		// Der Nachkommaanteil des Produkts ist exakt, das Produkt selbst aber um bis zu
+		// eine halbe Einheit der letzten Stelle gerundet; nahe der Hälfte entscheidet daher der exakte Wert
+		long scaled = (long) product;
+		final double remainder = product - scaled;
+		if (Math.abs(remainder - 0.5) <= Math.ulp(product)) {
+			putDecimal(target, negative, new BigDecimal(magnitude), decimals, minus, decimalSeparator, groupingSeparator);
+			return;
+		}
+		if (remainder > 0.5) ++scaled;
+		if (negative) target.put(minus);
+
+		putDigits(target, scaled / scale, groupingSeparator);
+		if (decimals == 0) return;
+
+		target.put(decimalSeparator);
+		long fraction = scaled % scale;
+		for (int i = decimals - 1; i >= 0; --i) {
+			final long power = POWERS_OF_TEN[i];
+			target.put((byte) ('0' + fraction / power));
+			fraction %= power;
+		}
+	}
+
+	/**
+	 * Schreibt eine nichtnegative Ganzzahl, optional gruppiert
+	 *
+	 * @param target Das Ziel
+	 * @param value Der Wert
+	 * @param groupingSeparator Das Tausendertrennzeichen oder <code>null</code>
+	 */
+	private static void putDigits(@NotNull ByteBuffer target, long value, @Nullable byte[] groupingSeparator) {
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) ++digits;
+
+		for (int i = digits - 1; i >= 0; --i) {
+			final long power = POWERS_OF_TEN[i];
+			target.put((byte) ('0' + value / power));
+			value %= power;
+			if (groupingSeparator != null && i > 0 && i % 3 == 0) target.put(groupingSeparator);
+		}
+	}
+
+	/**
+	 * Schreibt einen Betrag über {@link BigDecimal}, wenn der skalierte Betrag nicht in einen
+	 * long passt oder so nahe an der Hälfte liegt, dass das Produkt nicht über die Rundung entscheiden kann
+	 *
+	 * <p/>
+	 *
+	 * Diese Fälle treten bei Sensorwerten selten auf und dürfen daher allokieren.
+	 */
+	private static void putDecimal(@NotNull ByteBuffer target, boolean negative, @NotNull BigDecimal magnitude, int decimals,
+	                               @NotNull byte[] minus, @NotNull byte[] decimalSeparator, @Nullable byte[] groupingSeparator) {
+		final String text = magnitude.setScale(decimals, RoundingMode.HALF_EVEN).toPlainString();
+		final int point = decimals == 0 ? text.length() : text.indexOf('.');
+
+		if (negative) target.put(minus);
+		for (int i = 0; i < point; ++i) {
+			target.put((byte) text.charAt(i));
+			final int remaining = point - i - 1;
+			if (groupingSeparator != null && remaining > 0 && remaining % 3 == 0) target.put(groupingSeparator);
+		}
+		if (decimals == 0) return;
+
+		target.put(decimalSeparator);
+		for (int i = point + 1; i < text.length(); ++i) {
+			target.put((byte) text.charAt(i));
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Transportweg über einen beliebigen {@link OutputStream},
+ * z.B. den eines Bluetooth- oder TCP-Sockets.
+ *
+ * <p/>
+ *
+ * Heap-Buffer werden ohne Zwischenkopie direkt aus ihrem Array geschrieben,
+ * ein Puffer entspricht also einem <code>write</code>-Aufruf auf dem Stream.
+ */
+public final class OutputStreamTransport implements ISampleTransport, Closeable {
+
+	/**
+	 * Die Größe des Kopierpuffers für Direct-Buffer
+	 */
+	private static final int SCRATCH_SIZE = 4096;
+
+	/**
+	 * Der Ausgabestream
+	 */
+	@NotNull
+	private final OutputStream outputStream;
+
+	/**
+	 * Kopierpuffer für Direct-Buffer; wird bei Bedarf angelegt
+	 */
+	@Nullable
+	private byte[] scratch;
+
+	/**
+	 * Gibt an, ob der Transportweg offen ist
+	 */
+	private volatile boolean connected = true;
+
+	/**
+	 * Die Anzahl der geschriebenen Bytes
+	 */
+	private volatile long bytesWritten;
+
+	/**
+	 * Erzeugt einen neuen Transportweg
+	 *
+	 * @param outputStream Der Ausgabestream
+	 */
+	public OutputStreamTransport(@NotNull OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public boolean isDirectBufferPreferred() {
+		return false;
+	}
+
+	/**
+	 * Liefert die Anzahl der bisher geschriebenen Bytes
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public synchronized void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+		long written = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			final ByteBuffer buffer = buffers[i];
+			final int remaining = buffer.remaining();
+
+			if (buffer.hasArray()) {
+				outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), remaining);
+				buffer.position(buffer.limit());
+			}
+			else {
+				if (scratch == null) scratch = new byte[SCRATCH_SIZE];
+				while (buffer.hasRemaining()) {
+					final int chunk = Math.min(scratch.length, buffer.remaining());
+					buffer.get(scratch, 0, chunk);
+					outputStream.write(scratch, 0, chunk);
+				}
+			}
+			written += remaining;
+		}
+		outputStream.flush();
+		bytesWritten += written;
+	}
+
+	/**
+	 * Schließt den Stream
+	 *
+	 * @throws IOException Wenn beim Schließen ein Fehler auftrat
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		connected = false;
+		outputStream.close();
+	}
+}
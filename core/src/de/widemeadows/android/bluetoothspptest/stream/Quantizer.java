@@ -0,0 +1,253 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Bildet Kanalwerte auf Ganzzahlen mit 8 oder 16 Bit ab.
+ *
+ * <p/>
+ *
+ * Jeder Kanal hat eine Auflösung <i>s</i> und einen Mittelpunkt <i>o</i>; übertragen wird
+ * <code>q = round((wert - o) / s)</code>, der Empfänger rechnet mit <code>q * s + o</code>
+ * zurück. Innerhalb des darstellbaren Bereiches ist der Fehler damit höchstens <i>s</i> / 2;
+ * Werte außerhalb werden auf den Rand begrenzt und gezählt. Der kleinste Wert jeder
+ * Breite ({@link #NAN_8} bzw. {@link #NAN_16}) steht für <code>NaN</code>.
+ *
+ * <p/>
+ *
+ * Die Tabelle wird dem Empfänger mit {@link StreamProtocol#scaleMessages(Quantizer)}
+ * angekündigt. Einstellungen dürfen nur vor der Übergabe an den
+ * {@link SampleStreamer} geändert werden.
+ */
+public final class Quantizer {
+
+	/**
+	 * Kodierung mit 8 Bit je Wert
+	 */
+	public static final int BITS_8 = 8;
+
+	/**
+	 * Kodierung mit 16 Bit je Wert
+	 */
+	public static final int BITS_16 = 16;
+
+	/**
+	 * Kennzeichnet <code>NaN</code> bei 8 Bit
+	 */
+	public static final int NAN_8 = Byte.MIN_VALUE;
+
+	/**
+	 * Kennzeichnet <code>NaN</code> bei 16 Bit
+	 */
+	public static final int NAN_16 = Short.MIN_VALUE;
+
+	/**
+	 * Die Bitbreite je Kanal
+	 */
+	@NotNull
+	private final int[] bits;
+
+	/**
+	 * Die Auflösung je Kanal
+	 */
+	@NotNull
+	private final float[] scale;
+
+	/**
+	 * Der Mittelpunkt je Kanal
+	 */
+	@NotNull
+	private final float[] offset;
+
+	/**
+	 * Die Anzahl der auf den Rand begrenzten Werte
+	 */
+	private volatile long clippedCount;
+
+	/**
+	 * Erzeugt eine Tabelle, in der alle Kanäle denselben Bereich und dieselbe Fehlergrenze haben
+	 *
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @param minimum Der kleinste erwartete Wert
+	 * @param maximum Der größte erwartete Wert
+	 * @param maxError Der größte zulässige Fehler
+	 * @see #setRange(int, int, float, float, float)
+	 */
+	public Quantizer(int channelCount, float minimum, float maximum, float maxError) {
+		if (channelCount <= 0) throw new IllegalArgumentException("channelCount");
+		this.bits = new int[channelCount];
+		this.scale = new float[channelCount];
+		this.offset = new float[channelCount];
+		setRange(0, channelCount, minimum, maximum, maxError);
+	}
+
+	/**
+	 * Legt Kanäle über ihren Wertebereich und die Fehlergrenze fest
+	 *
+	 * <p/>
+	 *
+	 * Es wird die kleinste Breite gewählt, in der der Bereich mit der Auflösung
+	 * <code>2 * maxError</code> darstellbar ist.
+	 *
+	 * @param firstChannel Der erste Kanal
+	 * @param count Die Anzahl der Kanäle
+	 * @param minimum Der kleinste erwartete Wert
+	 * @param maximum Der größte erwartete Wert
+	 * @param maxError Der größte zulässige Fehler
+	 * @throws IllegalArgumentException Wenn der Bereich selbst mit 16 Bit nicht darstellbar ist
+	 */
+	public void setRange(int firstChannel, int count, float minimum, float maximum, float maxError) {
+		if (maximum <= minimum) throw new IllegalArgumentException("maximum");
+		if (maxError <= 0) throw new IllegalArgumentException("maxError");
+
+		final float resolution = 2 * maxError;
+		final double steps = Math.ceil((maximum - minimum) / resolution);
+		final int width;
+		if (steps <= 2 * getLimit(BITS_8)) width = BITS_8;
+		else if (steps <= 2 * getLimit(BITS_16)) width = BITS_16;
+		else throw new IllegalArgumentException("Fehlergrenze ist für den Bereich mit 16 Bit zu klein");
+
+		setChannels(firstChannel, count, width, resolution, (minimum + maximum) / 2);
+	}
+
+	/**
+	 * Legt Kanäle über Breite, Auflösung und Mittelpunkt fest
+	 *
+	 * @param firstChannel Der erste Kanal
+	 * @param count Die Anzahl der Kanäle
+	 * @param bits {@link #BITS_8} oder {@link #BITS_16}
+	 * @param scale Die Auflösung; der Fehler ist höchstens die Hälfte davon
+	 * @param offset Der Mittelpunkt des Bereiches
+	 */
+	public void setChannels(int firstChannel, int count, int bits, float scale, float offset) {
+		if (bits != BITS_8 && bits != BITS_16) throw new IllegalArgumentException("bits");
+		if (!(scale > 0) || Float.isInfinite(scale)) throw new IllegalArgumentException("scale");
+		for (int c = firstChannel; c < firstChannel + count; ++c) {
+			this.bits[c] = bits;
+			this.scale[c] = scale;
+			this.offset[c] = offset;
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der Kanäle
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getChannelCount() {
+		return bits.length;
+	}
+
+	/**
+	 * Liefert die Bitbreite eines Kanals
+	 *
+	 * @param channel Der Kanal
+	 * @return {@link #BITS_8} oder {@link #BITS_16}
+	 */
+	public int getBits(int channel) {
+		return bits[channel];
+	}
+
+	/**
+	 * Liefert die Auflösung eines Kanals
+	 *
+	 * @param channel Der Kanal
+	 * @return Die Auflösung
+	 */
+	public float getScale(int channel) {
+		return scale[channel];
+	}
+
+	/**
+	 * Liefert den Mittelpunkt eines Kanals
+	 *
+	 * @param channel Der Kanal
+	 * @return Der Mittelpunkt
+	 */
+	public float getOffset(int channel) {
+		return offset[channel];
+	}
+
+	/**
+	 * Liefert die Größe der Werte eines Frames in Bytes
+	 *
+	 * @return Die Größe
+	 */
+	public int getPayloadSize() {
+		int size = 0;
+		for (int c = 0; c < bits.length; ++c) {
+			size += bits[c] / 8;
+		}
+		return size;
+	}
+
+	/**
+	 * Liefert die Anzahl der auf den Rand begrenzten Werte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getClippedCount() {
+		return clippedCount;
+	}
+
+	/**
+	 * Bildet alle Werte eines Frames ab
+	 *
+	 * @param values Die Kanalwerte
+	 * @param count Die Anzahl der Kanäle; höchstens {@link #getChannelCount()}
+	 * @param target Das Ziel für die Ganzzahlen
+	 */
+	public void quantize(@NotNull float[] values, int count, @NotNull int[] target) {
+		for (int c = 0; c < count; ++c) {
+			final float value = values[c];
+			if (Float.isNaN(value)) {
+				target[c] = bits[c] == BITS_8 ? NAN_8 : NAN_16;
+				continue;
+			}
+
+			final int limit = getLimit(bits[c]);
+			final int q = Math.round((value - offset[c]) / scale[c]);
+			if (q > limit) {
+				target[c] = limit;
+				++clippedCount;
+			}
+			else if (q < -limit) {
+				target[c] = -limit;
+				++clippedCount;
+			}
+			else {
+				target[c] = q;
+			}
+		}
+	}
+
+	/**
+	 * Beschreibt die Kanäle ab einem Kanal als <code>bits:scale:offset</code>, getrennt durch Leerzeichen
+	 *
+	 * @param firstChannel Der erste Kanal
+	 * @param maxLength Die größte Länge der Beschreibung
+	 * @param builder Das Ziel
+	 * @return Der erste nicht mehr beschriebene Kanal
+	 */
+	int describe(int firstChannel, int maxLength, @NotNull StringBuilder builder) {
+		int c = firstChannel;
+		while (c < bits.length) {
+			final String entry = bits[c] + ":" + scale[c] + ":" + offset[c];
+			if (c > firstChannel && builder.length() + 1 + entry.length() > maxLength) break;
+			if (c > firstChannel) builder.append(' ');
+			builder.append(entry);
+			++c;
+		}
+		return c;
+	}
+
+	/**
+	 * Liefert den größten darstellbaren Betrag einer Breite
+	 *
+	 * @param bits {@link #BITS_8} oder {@link #BITS_16}
+	 * @return Der Betrag; der negative Rand ist für <code>NaN</code> reserviert
+	 */
+	private static int getLimit(int bits) {
+		return bits == BITS_8 ? Byte.MAX_VALUE : Short.MAX_VALUE;
+	}
+}
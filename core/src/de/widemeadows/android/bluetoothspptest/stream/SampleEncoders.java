@@ -0,0 +1,106 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verzeichnis der verfügbaren Kodierer
+ *
+ * <p/>
+ *
+ * Die Reihenfolge der Registrierung ist die Reihenfolge, in der die Kodierer
+ * im Handshake angeboten werden.
+ */
+public final class SampleEncoders {
+
+	/**
+	 * Name des CSV-Kodierers (Standard)
+	 */
+	@NotNull
+	public static final String CSV = "csv";
+
+	/**
+	 * Name des JSON-Lines-Kodierers
+	 */
+	@NotNull
+	public static final String JSON_LINES = "jsonl";
+
+	/**
+	 * Name des Binär-Kodierers
+	 */
+	@NotNull
+	public static final String BINARY = "bin";
+
+	/**
+	 * Die registrierten Kodierer nach Namen
+	 */
+	@NotNull
+	private static final Map<String, ISampleEncoder> encoders = new LinkedHashMap<String, ISampleEncoder>();
+
+	static {
+		register(new CsvSampleEncoder());
+		register(new JsonLinesSampleEncoder());
+		register(new BinarySampleEncoder());
+	}
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private SampleEncoders() {}
+
+	/**
+	 * Registriert einen Kodierer; ein vorhandener Kodierer gleichen Namens wird ersetzt
+	 *
+	 * @param encoder Der Kodierer
+	 */
+	public static synchronized void register(@NotNull ISampleEncoder encoder) {
+		if (encoder.getName().indexOf(' ') >= 0) throw new IllegalArgumentException("Name darf keine Leerzeichen enthalten");
+		encoders.put(encoder.getName(), encoder);
+	}
+
+	/**
+	 * Liefert einen Kodierer
+	 *
+	 * @param name Der Name
+	 * @return Der Kodierer oder <code>null</code>, wenn er unbekannt ist
+	 */
+	@Nullable
+	public static synchronized ISampleEncoder get(@NotNull String name) {
+		return encoders.get(name);
+	}
+
+	/**
+	 * Liefert den Standard-Kodierer, der bis zum Abschluss des Handshakes verwendet wird
+	 *
+	 * @return Der Kodierer
+	 */
+	@NotNull
+	public static synchronized ISampleEncoder getDefault() {
+		return encoders.get(CSV);
+	}
+
+	/**
+	 * Liefert alle registrierten Kodierer
+	 *
+	 * @return Die Kodierer in Registrierungsreihenfolge
+	 */
+	@NotNull
+	public static synchronized List<ISampleEncoder> getAll() {
+		return new ArrayList<ISampleEncoder>(encoders.values());
+	}
+
+	/**
+	 * Liefert die Namen aller registrierten Kodierer
+	 *
+	 * @return Die Namen in Registrierungsreihenfolge
+	 */
+	@NotNull
+	public static synchronized List<String> getNames() {
+		return new ArrayList<String>(encoders.keySet());
+	}
+}
@@ -0,0 +1,519 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSampleListener;
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import de.widemeadows.android.bluetoothspptest.trace.PlatformTrace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Fasst die Werte aller Kanäle zu einem Frame zusammen, kodiert ihn
+ * und schreibt ihn auf den Transportweg.
+ *
+ * <p/>
+ *
+ * Jeder eingehende Sensorwert aktualisiert seine Kanäle und löst das Senden
+ * des gesamten Frames aus; Kanäle ohne neuen Wert behalten ihren letzten Wert.
+ * Für zeitlich ausgerichtete Frames wird ein
+ * {@link de.widemeadows.android.bluetoothspptest.sensor.FrameSynchronizer} vorgeschaltet.
+ * Frames werden direkt in Puffer aus einem {@link BufferPool} kodiert und
+ * blockweise von einem {@link BufferWriter} geschrieben; ist kein Puffer frei,
+ * weil der Transportweg nicht nachkommt, wird der Frame verworfen.
+ *
+ * <p/>
+ *
+ * Mit einem {@link Quantizer} werden die Werte als Ganzzahlen gesendet, sobald der
+ * Empfänger sie mit {@link StreamProtocol#QUANT_LINE} anfordert und der Kodierer
+ * {@link IQuantizedSampleEncoder} unterstützt. Die Tabelle wird vor dem ersten
+ * quantisierten Frame und nach jedem Kodiererwechsel angekündigt.
+ *
+ * <p/>
+ *
+ * Instanzen sind nicht threadsicher und müssen von einem einzelnen Thread
+ * (dem der Sensorquelle) gerufen werden. Nur die Methoden von
+ * {@link IControlMessageListener} und die Einstellungen dürfen aus anderen
+ * Threads gerufen werden.
+ */
+public final class SampleStreamer implements ISensorSampleListener, IControlMessageListener {
+
+	/**
+	 * Die Anzahl der Puffer im Vorrat
+	 */
+	public static final int DEFAULT_BUFFER_COUNT = 16;
+
+	/**
+	 * Die Mindestgröße eines Puffers in Bytes
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	/**
+	 * Profiler-Abschnitt für das Kodieren
+	 */
+	@NotNull
+	private static final PlatformTrace.Section ENCODE_SECTION = PlatformTrace.section("SampleStreamer.encode");
+
+	/**
+	 * Der Transportweg
+	 */
+	@NotNull
+	private final ISampleTransport transport;
+
+	/**
+	 * Der Puffervorrat
+	 */
+	@NotNull
+	private final BufferPool pool;
+
+	/**
+	 * Der Schreiber
+	 */
+	@NotNull
+	private final BufferWriter writer;
+
+	/**
+	 * Die letzten Werte aller Kanäle
+	 */
+	@NotNull
+	private final float[] frame;
+
+	/**
+	 * Die quantisierten Werte des aktuellen Frames
+	 */
+	@NotNull
+	private final int[] quantized;
+
+	/**
+	 * Der Puffer, in den aktuell kodiert wird
+	 */
+	@Nullable
+	private ByteBuffer currentBuffer;
+
+	/**
+	 * Die Anzahl der Frames im aktuellen Puffer
+	 */
+	private int framesInBuffer;
+
+	/**
+	 * Der Zeitstempel des ersten Frames im aktuellen Puffer
+	 */
+	private long bufferStartTimestamp;
+
+	/**
+	 * Die Anzahl der Frames, nach der ein Puffer geschrieben wird
+	 */
+	private volatile int batchSize = 1;
+
+	/**
+	 * Die längste Wartezeit eines Frames im Puffer in Nanosekunden
+	 */
+	private volatile long maxBatchDelay = 20000000L;
+
+	/**
+	 * Der Regler für Rate und Blockgröße oder <code>null</code>, wenn jeder Frame gesendet wird
+	 */
+	@Nullable
+	private volatile AimdRateController rateController;
+
+	/**
+	 * Der Tracer für die Latenz einzelner Frames oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Die Quantisierungstabelle oder <code>null</code>, um Gleitkommawerte zu senden
+	 */
+	@Nullable
+	private volatile Quantizer quantizer;
+
+	/**
+	 * Die Ankündigung der Quantisierungstabelle
+	 */
+	@NotNull
+	private volatile byte[] scaleAnnouncement = new byte[0];
+
+	/**
+	 * Gibt an, ob die Gegenseite quantisierte Werte angefordert hat
+	 */
+	private volatile boolean quantizationRequested;
+
+	/**
+	 * Gibt an, ob die Quantisierungstabelle (erneut) angekündigt werden muss
+	 */
+	private volatile boolean scaleAnnouncementPending;
+
+	/**
+	 * Der Abstand zwischen zwei gesendeten Frames in Nanosekunden
+	 */
+	private long frameInterval;
+
+	/**
+	 * Der Zeitstempel, ab dem der nächste Frame gesendet wird
+	 */
+	private long nextFrameTimestamp;
+
+	/**
+	 * Die Anzahl der kodierten Bytes
+	 */
+	private long bytesEncoded;
+
+	/**
+	 * Der aktuell verwendete Kodierer
+	 */
+	@NotNull
+	private ISampleEncoder activeEncoder = SampleEncoders.getDefault();
+
+	/**
+	 * Der von der Gegenseite gewählte Kodierer
+	 */
+	@NotNull
+	private volatile ISampleEncoder requestedEncoder = SampleEncoders.getDefault();
+
+	/**
+	 * Gibt an, ob eine neue Verbindung begonnen hat
+	 */
+	private volatile boolean sessionReset;
+
+	/**
+	 * Die Anzahl der an den Schreiber übergebenen Frames
+	 */
+	private volatile long framesSent;
+
+	/**
+	 * Die Anzahl der mangels freier Puffer verworfenen Frames
+	 */
+	private volatile long framesDropped;
+
+	/**
+	 * Erzeugt einen neuen Streamer
+	 *
+	 * @param channelCount Die Anzahl der Kanäle je Frame
+	 * @param transport Der Transportweg
+	 */
+	public SampleStreamer(int channelCount, @NotNull ISampleTransport transport) {
+		if (channelCount <= 0) throw new IllegalArgumentException("channelCount");
+		this.frame = new float[channelCount];
+		this.quantized = new int[channelCount];
+		this.transport = transport;
+
+		// Jeder Puffer muss einen Frame jedes bekannten Kodierers fassen
+		int bufferSize = DEFAULT_BUFFER_SIZE;
+		final List<ISampleEncoder> encoders = SampleEncoders.getAll();
+		for (int i = 0; i < encoders.size(); ++i) {
+			bufferSize = Math.max(bufferSize, getRequiredBufferSize(encoders.get(i), null, 0));
+		}
+
+		this.pool = new BufferPool(DEFAULT_BUFFER_COUNT, bufferSize, transport.isDirectBufferPreferred());
+		this.writer = new BufferWriter(transport, pool);
+	}
+
+	/**
+	 * Startet den Schreib-Thread
+	 */
+	public void start() {
+		writer.start();
+	}
+
+	/**
+	 * Beendet den Schreib-Thread; noch nicht geschriebene Frames werden verworfen
+	 */
+	public void close() {
+		writer.close();
+	}
+
+	/**
+	 * Setzt die Anzahl der Frames, die gemeinsam geschrieben werden
+	 *
+	 * @param batchSize Die Anzahl (mindestens 1)
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Setzt die längste Zeit, die ein Frame auf das Füllen seines Puffers wartet
+	 *
+	 * @param maxBatchDelay Die Zeit in Nanosekunden, gemessen an den Zeitstempeln der Frames
+	 */
+	public void setMaxBatchDelay(long maxBatchDelay) {
+		this.maxBatchDelay = maxBatchDelay;
+	}
+
+	/**
+	 * Setzt den Regler für Rate und Blockgröße
+	 *
+	 * <p/>
+	 *
+	 * Mit Regler werden Frames auf die geregelte Rate ausgedünnt und die
+	 * Blockgröße folgt dem Regler; {@link #setBatchSize(int)} wird dann überschrieben.
+	 *
+	 * @param rateController Der Regler oder <code>null</code>, um jeden Frame zu senden
+	 */
+	public void setRateController(@Nullable AimdRateController rateController) {
+		this.rateController = rateController;
+		sessionReset = true;
+	}
+
+	/**
+	 * Setzt den Tracer für die Latenz einzelner Frames
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+		writer.setLatencyTracer(latencyTracer);
+	}
+
+	/**
+	 * Setzt die Quantisierungstabelle
+	 *
+	 * <p/>
+	 *
+	 * Quantisiert wird erst, wenn die Gegenseite es anfordert; bis dahin und mit Kodierern
+	 * ohne {@link IQuantizedSampleEncoder} werden weiter Gleitkommawerte gesendet.
+	 *
+	 * @param quantizer Die Tabelle mit einem Eintrag je Kanal oder <code>null</code>
+	 * @throws IllegalArgumentException Wenn die Tabelle nicht zur Kanalanzahl oder den Puffern passt
+	 */
+	public void setQuantizer(@Nullable Quantizer quantizer) {
+		if (quantizer == null) {
+			this.quantizer = null;
+			return;
+		}
+		if (quantizer.getChannelCount() != frame.length) throw new IllegalArgumentException("quantizer");
+
+		final byte[] announcement = StreamProtocol.toBytes(StreamProtocol.scaleMessages(quantizer));
+		final List<ISampleEncoder> encoders = SampleEncoders.getAll();
+		for (int i = 0; i < encoders.size(); ++i) {
+			if (getRequiredBufferSize(encoders.get(i), quantizer, announcement.length) > pool.getBufferSize()) {
+				throw new IllegalArgumentException("Quantisierungstabelle ist zu groß für die Puffer");
+			}
+		}
+
+		this.scaleAnnouncement = announcement;
+		this.quantizer = quantizer;
+		scaleAnnouncementPending = true;
+	}
+
+	/**
+	 * Liefert die Anzahl der an den Schreiber übergebenen Frames
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getFramesSent() {
+		return framesSent;
+	}
+
+	/**
+	 * Liefert die Anzahl der mangels freier Puffer verworfenen Frames
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+
+	/**
+	 * Liefert die Anzahl der fehlgeschlagenen Schreibvorgänge
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getWriteErrors() {
+		return writer.getWriteErrors();
+	}
+
+	/**
+	 * Liefert den Schreiber, z.B. für Statistiken
+	 *
+	 * @return Der Schreiber
+	 */
+	@NotNull
+	public BufferWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Liefert den aktuell verwendeten Kodierer
+	 *
+	 * @return Der Kodierer
+	 */
+	@NotNull
+	public ISampleEncoder getActiveEncoder() {
+		return activeEncoder;
+	}
+
+	@Override
+	public void sessionStarted() {
+		requestedEncoder = SampleEncoders.getDefault();
+		quantizationRequested = false;
+		scaleAnnouncementPending = true;
+		sessionReset = true;
+	}
+
+	@Override
+	public void controlMessageReceived(@NotNull String line) {
+		// Jede Anforderung kündigt die Tabelle neu an, z.B. für später hinzugekommene Empfänger.
+		// Die Ankündigung muss vor der Anforderung sichtbar sein, sonst kann der Sensor-Thread
+		// quantisierte Frames ohne Tabelle senden.
+		if (StreamProtocol.isQuantizationRequest(line)) {
+			scaleAnnouncementPending = true;
+			quantizationRequested = true;
+			return;
+		}
+
+		final String name = StreamProtocol.parseEncoderSelection(line);
+		if (name == null) return;
+
+		final ISampleEncoder encoder = SampleEncoders.get(name);
+		if (encoder != null && getRequiredBufferSize(encoder, quantizer, scaleAnnouncement.length) <= pool.getBufferSize()) requestedEncoder = encoder;
+	}
+
+	@Override
+	public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+		System.arraycopy(values, 0, frame, firstChannel, count);
+
+		// an Ziel senden
+		if (transport.isConnected()) {
+			sendFrame(timestamp);
+		}
+	}
+
+	/**
+	 * Kodiert den aktuellen Frame in den aktuellen Puffer und übergibt diesen
+	 * dem Schreiber, sobald er voll ist oder lange genug gewartet hat
+	 *
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 */
+	private void sendFrame(long timestamp) {
+		// Neue Verbindung beginnt mit dem Standard-Kodierer; Frames der alten werden verworfen
+		if (sessionReset) {
+			sessionReset = false;
+			activeEncoder = SampleEncoders.getDefault();
+			if (currentBuffer != null) {
+				final LatencyTracer tracer = latencyTracer;
+				if (tracer != null) tracer.discard(currentBuffer);
+				pool.release(currentBuffer);
+				currentBuffer = null;
+			}
+
+			frameInterval = 0;
+			nextFrameTimestamp = timestamp;
+			final AimdRateController controller = rateController;
+			if (controller != null) controller.reset();
+		}
+
+		// Rate regeln und ausdünnen
+		final AimdRateController controller = rateController;
+		if (controller != null) {
+			regulate(controller);
+			if (timestamp < nextFrameTimestamp) return;
+
+			// Nach einer Lücke nicht aufholen
+			nextFrameTimestamp = timestamp - nextFrameTimestamp >= frameInterval
+					? timestamp + frameInterval
+					: nextFrameTimestamp + frameInterval;
+		}
+
+		final ISampleEncoder encoder = requestedEncoder;
+		final Quantizer quantizer = quantizationRequested && encoder instanceof IQuantizedSampleEncoder ? this.quantizer : null;
+		final byte[] announcement = scaleAnnouncement;
+		final int required = getRequiredBufferSize(encoder, quantizer, announcement.length);
+		if (currentBuffer != null && currentBuffer.remaining() < required) {
+			submitBuffer();
+		}
+
+		ByteBuffer buffer = currentBuffer;
+		if (buffer == null) {
+			buffer = pool.acquire();
+			if (buffer == null) {
+				++framesDropped;
+				return;
+			}
+			currentBuffer = buffer;
+			framesInBuffer = 0;
+			bufferStartTimestamp = timestamp;
+		}
+
+		// Kodiererwechsel ankündigen; der Empfänger verwirft dabei die Quantisierungstabelle
+		if (encoder != activeEncoder) {
+			activeEncoder = encoder;
+			buffer.put(StreamProtocol.toBytes(StreamProtocol.encoderChangedMessage(encoder.getName())));
+			scaleAnnouncementPending = true;
+		}
+		if (quantizer != null && scaleAnnouncementPending) {
+			scaleAnnouncementPending = false;
+			buffer.put(announcement);
+		}
+
+		final LatencyTracer tracer = latencyTracer;
+		final int trace = tracer != null ? tracer.beginFrame(timestamp) : LatencyTracer.NO_TRACE;
+
+		final int start = buffer.position();
+		ENCODE_SECTION.begin();
+		if (quantizer != null) {
+			quantizer.quantize(frame, frame.length, quantized);
+			((IQuantizedSampleEncoder) encoder).encodeQuantized(timestamp, quantized, quantizer, buffer);
+		}
+		else {
+			encoder.encode(timestamp, frame, frame.length, buffer);
+		}
+		ENCODE_SECTION.end();
+		bytesEncoded += buffer.position() - start;
+		if (tracer != null) {
+			tracer.mark(trace, LatencyTracer.STAGE_ENCODE);
+			tracer.attach(trace, buffer);
+		}
+		++framesInBuffer;
+		++framesSent;
+
+		if (framesInBuffer >= batchSize || timestamp - bufferStartTimestamp >= maxBatchDelay) {
+			submitBuffer();
+		}
+	}
+
+	/**
+	 * Übergibt dem Regler die Messwerte des Schreibers und übernimmt dessen Vorgaben
+	 *
+	 * @param controller Der Regler
+	 */
+	private void regulate(@NotNull AimdRateController controller) {
+		final double bytesPerFrame = framesSent == 0 ? 0 : (double) bytesEncoded / framesSent;
+		if (controller.update(System.nanoTime(), writer.getQueueLength(), writer.getBytesWritten(), framesDropped, bytesPerFrame)) {
+			frameInterval = (long) (1E9 / controller.getRate());
+			batchSize = controller.getBatchSize();
+		}
+	}
+
+	/**
+	 * Übergibt den aktuellen Puffer dem Schreiber
+	 */
+	private void submitBuffer() {
+		final ByteBuffer buffer = currentBuffer;
+		if (buffer == null) return;
+
+		currentBuffer = null;
+		buffer.flip();
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null) tracer.bufferEnqueued(buffer);
+		writer.submit(buffer);
+	}
+
+	/**
+	 * Ermittelt die Puffergröße für einen Kodierer inklusive Wechselmarkierung
+	 *
+	 * @param encoder Der Kodierer
+	 * @param quantizer Die Quantisierungstabelle oder <code>null</code>
+	 * @param announcementLength Die Länge der Ankündigung der Tabelle
+	 * @return Die Größe in Bytes
+	 */
+	private int getRequiredBufferSize(@NotNull ISampleEncoder encoder, @Nullable Quantizer quantizer, int announcementLength) {
+		int size = encoder.getMaxFrameSize(frame.length);
+		if (quantizer != null && encoder instanceof IQuantizedSampleEncoder) {
+			size = Math.max(size, ((IQuantizedSampleEncoder) encoder).getMaxQuantizedFrameSize(quantizer)) + announcementLength;
+		}
+		return size + StreamProtocol.MAX_CONTROL_LINE_LENGTH;
+	}
+}
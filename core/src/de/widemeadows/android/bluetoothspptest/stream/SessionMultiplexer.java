@@ -0,0 +1,204 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Legt für jede Sitzung einer Verbindung, die abreißen und neu aufgebaut werden kann,
+ * einen eigenen {@link ChannelMultiplexer} an.
+ *
+ * <p/>
+ *
+ * Ein {@link ChannelMultiplexer} schließt sich beim ersten Fehler der Verbindung endgültig.
+ * Die Kanäle dieser Klasse reichen an den Multiplexer der jeweils aktuellen Sitzung weiter
+ * und bleiben so über einen Wiederaufbau hinweg gültig. Der Empfänger aus
+ * {@link #createControlListener(IControlMessageListener)} schließt bei jeder neuen Sitzung
+ * den alten Multiplexer und legt einen neuen an, bevor er die Sitzung weitermeldet; bis
+ * zur ersten Sitzung gelten alle Kanäle als getrennt.
+ */
+public final class SessionMultiplexer implements Closeable {
+
+	/**
+	 * Die Verbindung
+	 */
+	@NotNull
+	private final ISampleTransport link;
+
+	/**
+	 * Die weiterreichenden Kanäle, nach Nummer
+	 */
+	@NotNull
+	private final ISampleTransport[] channels = new ISampleTransport[StreamProtocol.MUX_CHANNEL_COUNT];
+
+	/**
+	 * Der Multiplexer der aktuellen Sitzung oder <code>null</code> vor der ersten Sitzung
+	 */
+	@Nullable
+	private volatile ChannelMultiplexer current;
+
+	/**
+	 * Gibt an, ob geschlossen wurde
+	 */
+	private boolean closed;
+
+	/**
+	 * Die Anzahl der begonnenen Sitzungen
+	 */
+	private volatile int sessionCount;
+
+	/**
+	 * Der Tracer für die Frames des Live-Kanals oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Erzeugt einen neuen Sitzungs-Multiplexer
+	 *
+	 * @param link Die Verbindung
+	 */
+	public SessionMultiplexer(@NotNull ISampleTransport link) {
+		this.link = link;
+		for (int id = 0; id < channels.length; ++id) channels[id] = createChannel(id);
+	}
+
+	/**
+	 * Liefert einen Kanal, der an den Multiplexer der jeweils aktuellen Sitzung weiterreicht
+	 *
+	 * @param id Die Nummer, z.B. {@link StreamProtocol#MUX_CHANNEL_LIVE}
+	 * @return Der Kanal
+	 */
+	@NotNull
+	public ISampleTransport getChannel(int id) {
+		return channels[id];
+	}
+
+	/**
+	 * Liefert den Multiplexer der aktuellen Sitzung
+	 *
+	 * @return Der Multiplexer oder <code>null</code> vor der ersten Sitzung
+	 */
+	@Nullable
+	public ChannelMultiplexer getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Liefert die Anzahl der begonnenen Sitzungen
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getSessionCount() {
+		return sessionCount;
+	}
+
+	/**
+	 * Setzt den Tracer, den jeder Multiplexer einer Sitzung erhält
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 * @see ChannelMultiplexer#setLatencyTracer(LatencyTracer)
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		synchronized (this) {
+			this.latencyTracer = latencyTracer;
+			final ChannelMultiplexer multiplexer = current;
+			if (multiplexer != null) multiplexer.setLatencyTracer(latencyTracer);
+		}
+	}
+
+	/**
+	 * Beginnt eine neue Sitzung: Der bisherige Multiplexer wird geschlossen und ein neuer angelegt
+	 */
+	public void startSession() {
+		synchronized (this) {
+			if (closed) return;
+			final ChannelMultiplexer previous = current;
+			if (previous != null) previous.close();
+			final ChannelMultiplexer next = new ChannelMultiplexer(link);
+			next.setLatencyTracer(latencyTracer);
+			current = next;
+			++sessionCount;
+		}
+	}
+
+	/**
+	 * Erzeugt einen Empfänger für Steuernachrichten, der mit jeder neuen Sitzung
+	 * einen neuen Multiplexer anlegt, Anforderungen zum Multiplexen selbst behandelt
+	 * und alle anderen weiterreicht
+	 *
+	 * @param delegate Der Empfänger der neuen Sitzungen und übrigen Nachrichten oder <code>null</code>
+	 * @return Der Empfänger
+	 */
+	@NotNull
+	public IControlMessageListener createControlListener(@Nullable final IControlMessageListener delegate) {
+		return new IControlMessageListener() {
+			@Override
+			public void sessionStarted() {
+				startSession();
+				if (delegate != null) delegate.sessionStarted();
+			}
+
+			@Override
+			public void controlMessageReceived(@NotNull String line) {
+				if (StreamProtocol.isMultiplexRequest(line)) {
+					final ChannelMultiplexer multiplexer = current;
+					if (multiplexer == null) return;
+					try {
+						multiplexer.activate();
+					} catch (IOException e) {
+						// im Multiplexer der Sitzung vermerkt
+					}
+					return;
+				}
+				if (delegate != null) delegate.controlMessageReceived(line);
+			}
+		};
+	}
+
+	/**
+	 * Schließt den Multiplexer der aktuellen Sitzung; spätere Sitzungen werden ignoriert
+	 */
+	@Override
+	public void close() {
+		final ChannelMultiplexer multiplexer;
+		synchronized (this) {
+			closed = true;
+			multiplexer = current;
+		}
+		if (multiplexer != null) multiplexer.close();
+	}
+
+	/**
+	 * Erzeugt einen Kanal, der an den Multiplexer der aktuellen Sitzung weiterreicht
+	 *
+	 * @param id Die Nummer des Kanals
+	 * @return Der Kanal
+	 */
+	@NotNull
+	private ISampleTransport createChannel(final int id) {
+		return new ISampleTransport() {
+			@Override
+			public boolean isConnected() {
+				final ChannelMultiplexer multiplexer = current;
+				return multiplexer != null && multiplexer.getChannel(id).isConnected();
+			}
+
+			@Override
+			public boolean isDirectBufferPreferred() {
+				return false;
+			}
+
+			@Override
+			public void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+				final ChannelMultiplexer multiplexer = current;
+				if (multiplexer == null) throw new IOException("Keine Sitzung");
+				multiplexer.getChannel(id).write(buffers, offset, length);
+			}
+		};
+	}
+}
@@ -0,0 +1,759 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Transportweg, der eine RFCOMM-Verbindung nachbildet, z.B. für Lasttests
+ * ohne Telefon.
+ *
+ * <p/>
+ *
+ * Geschriebene Bytes landen in einem Sendepuffer fester Größe; ist er voll, blockiert
+ * {@link #write(ByteBuffer[], int, int)} wie ein echter Socket. Der Puffer leert sich in
+ * Paketen mit der eingestellten Bandbreite, jedes Paket kommt nach Latenz und Jitter beim
+ * nachgelagerten Transportweg an (Reihenfolge bleibt erhalten). Zusätzlich kann der
+ * Empfänger zeitweise aufhören zu lesen, wodurch sich der Sendepuffer staut, und die
+ * Verbindung kann abreißen und nach einer Pause mit {@link #setGreeting(byte[]) Begrüßung}
+ * neu aufgebaut werden.
+ *
+ * <p/>
+ *
+ * Stockungen und Abbrüche folgen einem Poisson-Prozess aus einem festen Startwert, ebenso
+ * der Jitter; dieselben Einstellungen ergeben daher denselben Ablauf. Alle Einstellungen
+ * müssen vor {@link #start()} gesetzt werden.
+ *
+ * <p/>
+ *
+ * Die Zeit stammt aus einer {@link IClock}. Mit {@link #startStepped()} läuft die Simulation
+ * ohne eigenen Thread und schreitet nur bei {@link #step()} voran, sodass Tests die Zeit
+ * selbst vorstellen können.
+ */
+public final class SimulatedLinkTransport implements ISampleTransport, Closeable {
+
+	/**
+	 * Die Standard-Bandbreite in Bytes je Sekunde, typisch für SPP auf Telefonen
+	 */
+	public static final int DEFAULT_BANDWIDTH = 20000;
+
+	/**
+	 * Die Standardgröße des Sendepuffers in Bytes
+	 */
+	public static final int DEFAULT_SEND_BUFFER_SIZE = 4096;
+
+	/**
+	 * Die Standardgröße eines Pakets in Bytes (RFCOMM-Rahmen)
+	 */
+	public static final int DEFAULT_PACKET_SIZE = 990;
+
+	/**
+	 * Die Anzahl der gleichzeitig unterwegs befindlichen Pakete
+	 */
+	private static final int MAX_PACKETS_IN_FLIGHT = 256;
+
+	/**
+	 * Nanosekunden je Millisekunde
+	 */
+	private static final long NS_PER_MS = 1000000L;
+
+	/**
+	 * Kein geplantes Ereignis
+	 */
+	private static final long NEVER = Long.MAX_VALUE;
+
+	/**
+	 * Der nachgelagerte Transportweg oder <code>null</code>, um angekommene Bytes zu verwerfen
+	 */
+	@Nullable
+	private final ISampleTransport downstream;
+
+	/**
+	 * Die Zeitquelle
+	 */
+	@NotNull
+	private final IClock clock;
+
+	/**
+	 * Der Zufall für Stockungen und Abbrüche
+	 */
+	@NotNull
+	private final Random scheduleRandom;
+
+	/**
+	 * Der Zufall für den Jitter
+	 */
+	@NotNull
+	private final Random jitterRandom;
+
+	/**
+	 * Die Sperre für den Zustand der Verbindung
+	 */
+	@NotNull
+	private final Object lock = new Object();
+
+	/**
+	 * Die Bandbreite in Bytes je Sekunde
+	 */
+	private int bandwidth = DEFAULT_BANDWIDTH;
+
+	/**
+	 * Die Größe des Sendepuffers in Bytes
+	 */
+	private int sendBufferSize = DEFAULT_SEND_BUFFER_SIZE;
+
+	/**
+	 * Die Größe eines Pakets in Bytes
+	 */
+	private int packetSize = DEFAULT_PACKET_SIZE;
+
+	/**
+	 * Die Latenz in Nanosekunden
+	 */
+	private long latency;
+
+	/**
+	 * Die größte Abweichung von der Latenz in Nanosekunden
+	 */
+	private long jitter;
+
+	/**
+	 * Der mittlere Abstand zwischen Stockungen des Empfängers in Nanosekunden oder 0
+	 */
+	private long meanStallInterval;
+
+	/**
+	 * Die Dauer einer Stockung in Nanosekunden
+	 */
+	private long stallDuration;
+
+	/**
+	 * Der mittlere Abstand zwischen Abbrüchen in Nanosekunden oder 0
+	 */
+	private long meanDisconnectInterval;
+
+	/**
+	 * Die Pause bis zum Wiederaufbau in Nanosekunden oder 0, um getrennt zu bleiben
+	 */
+	private long reconnectDelay;
+
+	/**
+	 * Die Bytes, die nach jedem Wiederaufbau zuerst gesendet werden
+	 */
+	@Nullable
+	private byte[] greeting;
+
+	/**
+	 * Der Empfänger der Benachrichtigung über einen Wiederaufbau
+	 */
+	@Nullable
+	private volatile IControlMessageListener sessionListener;
+
+	/**
+	 * Der Sendepuffer als Ring
+	 */
+	private byte[] sendRing;
+
+	/**
+	 * Der Anfang der Daten im Sendepuffer
+	 */
+	private int sendHead;
+
+	/**
+	 * Die Anzahl der Bytes im Sendepuffer
+	 */
+	private int sendCount;
+
+	/**
+	 * Die Bytes der Pakete, die unterwegs sind, als Ring
+	 */
+	private byte[] flightRing;
+
+	/**
+	 * Der Anfang der Daten in {@link #flightRing}
+	 */
+	private int flightHead;
+
+	/**
+	 * Die Anzahl der Bytes in {@link #flightRing}
+	 */
+	private int flightCount;
+
+	/**
+	 * Die Längen der Pakete, die unterwegs sind
+	 */
+	@NotNull
+	private final int[] packetLengths = new int[MAX_PACKETS_IN_FLIGHT];
+
+	/**
+	 * Die Ankunftszeiten der Pakete, die unterwegs sind
+	 */
+	@NotNull
+	private final long[] packetArrivals = new long[MAX_PACKETS_IN_FLIGHT];
+
+	/**
+	 * Das erste Paket, das unterwegs ist
+	 */
+	private int packetHead;
+
+	/**
+	 * Die Anzahl der Pakete, die unterwegs sind
+	 */
+	private int packetCount;
+
+	/**
+	 * Die Ankunftszeit des zuletzt abgeschickten Pakets
+	 */
+	private long lastArrival;
+
+	/**
+	 * Der Zeitpunkt, ab dem das nächste Paket abgeschickt werden kann
+	 */
+	private long nextDeparture;
+
+	/**
+	 * Der Zeitpunkt der nächsten Stockung
+	 */
+	private long nextStall = NEVER;
+
+	/**
+	 * Das Ende der aktuellen Stockung
+	 */
+	private long stalledUntil;
+
+	/**
+	 * Der Zeitpunkt des nächsten Abbruchs
+	 */
+	private long nextDisconnect = NEVER;
+
+	/**
+	 * Der Zeitpunkt des nächsten Wiederaufbaus
+	 */
+	private long nextReconnect = NEVER;
+
+	/**
+	 * Gibt an, ob die Verbindung besteht
+	 */
+	private volatile boolean connected = true;
+
+	/**
+	 * Gibt an, ob der Transportweg geschlossen wurde
+	 */
+	private boolean closed;
+
+	/**
+	 * Der Simulations-Thread
+	 */
+	@Nullable
+	private Thread thread;
+
+	/**
+	 * Gibt an, ob die Simulation nur über {@link #step()} voranschreitet
+	 */
+	private boolean stepped;
+
+	/**
+	 * Das Paket, das gerade weitergereicht wird
+	 */
+	private byte[] scratch;
+
+	/**
+	 * Sicht auf {@link #scratch} für den nachgelagerten Transportweg
+	 */
+	private ByteBuffer[] deliveries;
+
+	/**
+	 * Die Anzahl der beim Empfänger angekommenen Bytes
+	 */
+	private volatile long bytesDelivered;
+
+	/**
+	 * Die Anzahl der Stockungen
+	 */
+	private volatile int stallCount;
+
+	/**
+	 * Die Anzahl der Abbrüche
+	 */
+	private volatile int disconnectCount;
+
+	/**
+	 * Erzeugt eine neue simulierte Verbindung
+	 *
+	 * @param downstream Der nachgelagerte Transportweg oder <code>null</code>, um angekommene Bytes zu verwerfen
+	 * @param seed Der Startwert für Jitter, Stockungen und Abbrüche
+	 */
+	public SimulatedLinkTransport(@Nullable ISampleTransport downstream, long seed) {
+		this(downstream, seed, IClock.SYSTEM);
+	}
+
+	/**
+	 * Erzeugt eine neue simulierte Verbindung mit eigener Zeitquelle
+	 *
+	 * @param downstream Der nachgelagerte Transportweg oder <code>null</code>, um angekommene Bytes zu verwerfen
+	 * @param seed Der Startwert für Jitter, Stockungen und Abbrüche
+	 * @param clock Die Zeitquelle
+	 */
+	public SimulatedLinkTransport(@Nullable ISampleTransport downstream, long seed, @NotNull IClock clock) {
+		this.downstream = downstream;
+		this.clock = clock;
+		this.scheduleRandom = new Random(seed);
+		this.jitterRandom = new Random(seed + 1);
+	}
+
+	/**
+	 * Setzt die Bandbreite
+	 *
+	 * @param bytesPerSecond Die Bandbreite in Bytes je Sekunde
+	 */
+	public void setBandwidth(int bytesPerSecond) {
+		if (bytesPerSecond <= 0) throw new IllegalArgumentException("bytesPerSecond");
+		this.bandwidth = bytesPerSecond;
+	}
+
+	/**
+	 * Setzt die Größe des Sendepuffers
+	 *
+	 * @param size Die Größe in Bytes
+	 */
+	public void setSendBufferSize(int size) {
+		if (size <= 0) throw new IllegalArgumentException("size");
+		this.sendBufferSize = size;
+	}
+
+	/**
+	 * Setzt die Größe eines Pakets
+	 *
+	 * @param size Die Größe in Bytes
+	 */
+	public void setPacketSize(int size) {
+		if (size <= 0) throw new IllegalArgumentException("size");
+		this.packetSize = size;
+	}
+
+	/**
+	 * Setzt Latenz und Jitter
+	 *
+	 * @param latencyMs Die mittlere Latenz in Millisekunden
+	 * @param jitterMs Die größte Abweichung davon in Millisekunden
+	 */
+	public void setLatency(long latencyMs, long jitterMs) {
+		this.latency = latencyMs * NS_PER_MS;
+		this.jitter = Math.min(jitterMs, latencyMs) * NS_PER_MS;
+	}
+
+	/**
+	 * Lässt den Empfänger zeitweise aufhören zu lesen
+	 *
+	 * @param meanIntervalMs Der mittlere Abstand zwischen Stockungen in Millisekunden oder 0 für keine
+	 * @param durationMs Die Dauer einer Stockung in Millisekunden
+	 */
+	public void setStalls(long meanIntervalMs, long durationMs) {
+		this.meanStallInterval = meanIntervalMs * NS_PER_MS;
+		this.stallDuration = durationMs * NS_PER_MS;
+	}
+
+	/**
+	 * Lässt die Verbindung zufällig abreißen
+	 *
+	 * @param meanIntervalMs Der mittlere Abstand zwischen Abbrüchen in Millisekunden oder 0 für keine
+	 * @param reconnectDelayMs Die Pause bis zum Wiederaufbau in Millisekunden oder 0, um getrennt zu bleiben
+	 */
+	public void setDisconnects(long meanIntervalMs, long reconnectDelayMs) {
+		this.meanDisconnectInterval = meanIntervalMs * NS_PER_MS;
+		this.reconnectDelay = reconnectDelayMs * NS_PER_MS;
+	}
+
+	/**
+	 * Setzt die Bytes, die nach jedem Wiederaufbau zuerst gesendet werden
+	 *
+	 * @param greeting Die Begrüßung oder <code>null</code>
+	 */
+	public void setGreeting(@Nullable byte[] greeting) {
+		this.greeting = greeting != null ? greeting.clone() : null;
+	}
+
+	/**
+	 * Setzt den Empfänger, der nach jedem Wiederaufbau {@link IControlMessageListener#sessionStarted()} erhält
+	 *
+	 * @param listener Der Empfänger oder <code>null</code>
+	 */
+	public void setSessionListener(@Nullable IControlMessageListener listener) {
+		this.sessionListener = listener;
+	}
+
+	/**
+	 * Startet die Simulation in einem eigenen Thread
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (!prepare()) return;
+
+			final Thread simulation = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					simulate();
+				}
+			}, "SimulatedLink");
+			simulation.setDaemon(true);
+			thread = simulation;
+			simulation.start();
+		}
+	}
+
+	/**
+	 * Startet die Simulation ohne eigenen Thread; sie schreitet nur bei {@link #step()} voran
+	 *
+	 * <p/>
+	 *
+	 * Da niemand den Sendepuffer leert, solange {@link #step()} nicht gerufen wird,
+	 * blockiert ein Schreiber in diesem Fall, bis ein anderer Thread die Zeit vorstellt.
+	 */
+	public void startStepped() {
+		synchronized (lock) {
+			if (prepare()) stepped = true;
+		}
+	}
+
+	/**
+	 * Legt die Puffer an und plant die ersten Ereignisse
+	 *
+	 * @return <code>false</code>, wenn die Simulation bereits gestartet oder geschlossen wurde
+	 */
+	private boolean prepare() {
+		if (sendRing != null || closed) return false;
+
+		// Unterwegs ist höchstens, was während Latenz und Jitter gesendet werden kann
+		final long inFlight = (long) bandwidth * (latency + jitter) / 1000000000L;
+		sendRing = new byte[sendBufferSize];
+		flightRing = new byte[(int) Math.min(Integer.MAX_VALUE, inFlight + 2L * packetSize)];
+		scratch = new byte[packetSize];
+		deliveries = new ByteBuffer[] { ByteBuffer.wrap(scratch) };
+
+		final long now = clock.nanoTime();
+		nextDeparture = now;
+		nextStall = schedule(now, meanStallInterval);
+		nextDisconnect = schedule(now, meanDisconnectInterval);
+		return true;
+	}
+
+	/**
+	 * Führt alle Ereignisse aus, die zur aktuellen Zeit der Uhr fällig sind, und reicht
+	 * angekommene Pakete weiter
+	 *
+	 * @return Der Zeitpunkt des nächsten Ereignisses; {@link Long#MAX_VALUE}, wenn keines geplant ist
+	 * @throws IllegalStateException Wenn die Simulation nicht mit {@link #startStepped()} gestartet wurde
+	 */
+	public long step() {
+		synchronized (lock) {
+			if (!stepped) throw new IllegalStateException("Simulation läuft nicht schrittweise");
+		}
+		return advance();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	@Override
+	public boolean isDirectBufferPreferred() {
+		return false;
+	}
+
+	@Override
+	public void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+		synchronized (lock) {
+			if (sendRing == null) throw new IOException("Simulation nicht gestartet");
+
+			for (int i = offset; i < offset + length; ++i) {
+				final ByteBuffer buffer = buffers[i];
+				while (buffer.hasRemaining()) {
+					if (closed || !connected) throw new IOException("Verbindung getrennt (simuliert)");
+
+					// Wie ein Socket blockieren, bis der Sendepuffer Platz hat
+					if (sendCount == sendRing.length) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IOException("Unterbrochen");
+						}
+						continue;
+					}
+
+					final int tail = (sendHead + sendCount) % sendRing.length;
+					final int chunk = Math.min(buffer.remaining(), Math.min(sendRing.length - sendCount, sendRing.length - tail));
+					buffer.get(sendRing, tail, chunk);
+					sendCount += chunk;
+				}
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der beim Empfänger angekommenen Bytes
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getBytesDelivered() {
+		return bytesDelivered;
+	}
+
+	/**
+	 * Liefert die Anzahl der Stockungen des Empfängers
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getStallCount() {
+		return stallCount;
+	}
+
+	/**
+	 * Liefert die Anzahl der Abbrüche
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getDisconnectCount() {
+		return disconnectCount;
+	}
+
+	/**
+	 * Beendet die Simulation; die Verbindung gilt danach als getrennt
+	 */
+	@Override
+	public void close() {
+		final Thread simulation;
+		synchronized (lock) {
+			closed = true;
+			connected = false;
+			simulation = thread;
+			thread = null;
+			lock.notifyAll();
+		}
+		if (simulation != null) simulation.interrupt();
+	}
+
+	/**
+	 * Führt die Simulation aus, bis sie geschlossen wird
+	 */
+	private void simulate() {
+		while (true) {
+			advance();
+
+			synchronized (lock) {
+				if (closed) return;
+
+				// Unter der Sperre neu bestimmen, da inzwischen geschrieben worden sein kann
+				final long wait = nextEventTime() - clock.nanoTime();
+				if (wait > 0) {
+					try {
+						lock.wait(wait / NS_PER_MS, (int) (wait % NS_PER_MS));
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Führt alle fälligen Ereignisse aus, bis keines mehr fällig ist
+	 *
+	 * @return Der Zeitpunkt des nächsten Ereignisses
+	 */
+	private long advance() {
+		final ByteBuffer delivery = deliveries[0];
+
+		while (true) {
+			int deliverLength = 0;
+			final boolean reconnected;
+
+			synchronized (lock) {
+				if (closed) return NEVER;
+
+				final long now = clock.nanoTime();
+				reconnected = processEvents(now);
+				final boolean departed = depart(now);
+
+				// Ein angekommenes Paket außerhalb der Sperre weiterreichen
+				if (packetCount > 0 && packetArrivals[packetHead] <= now) {
+					deliverLength = takePacket(scratch);
+				}
+				else if (!reconnected && !departed) {
+					return nextEventTime();
+				}
+			}
+
+			if (reconnected) {
+				final IControlMessageListener listener = sessionListener;
+				if (listener != null) listener.sessionStarted();
+			}
+
+			if (deliverLength > 0) {
+				bytesDelivered += deliverLength;
+				if (downstream != null) {
+					delivery.clear();
+					delivery.limit(deliverLength);
+					try {
+						downstream.write(deliveries, 0, 1);
+					} catch (IOException e) {
+						synchronized (lock) {
+							disconnect(clock.nanoTime());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Löst fällige Stockungen, Abbrüche und Wiederaufbauten aus
+	 *
+	 * @param now Die aktuelle Zeit
+	 * @return <code>true</code>, wenn die Verbindung wieder aufgebaut wurde
+	 */
+	private boolean processEvents(long now) {
+		if (now >= nextStall) {
+			stalledUntil = now + stallDuration;
+			nextStall = schedule(stalledUntil, meanStallInterval);
+			++stallCount;
+		}
+
+		if (connected && now >= nextDisconnect) {
+			disconnect(now);
+		}
+
+		if (!connected && now >= nextReconnect) {
+			nextReconnect = NEVER;
+			nextDisconnect = schedule(now, meanDisconnectInterval);
+			nextDeparture = now;
+
+			final byte[] hello = greeting;
+			if (hello != null) {
+				final int length = Math.min(hello.length, sendRing.length);
+				System.arraycopy(hello, 0, sendRing, 0, length);
+				sendHead = 0;
+				sendCount = length;
+			}
+
+			connected = true;
+			lock.notifyAll();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Trennt die Verbindung und verwirft alle Daten, die noch nicht angekommen sind
+	 *
+	 * @param now Die aktuelle Zeit
+	 */
+	private void disconnect(long now) {
+		if (!connected) return;
+
+		connected = false;
+		++disconnectCount;
+		sendHead = sendCount = 0;
+		flightHead = flightCount = 0;
+		packetHead = packetCount = 0;
+		nextDisconnect = NEVER;
+		nextReconnect = reconnectDelay > 0 ? now + reconnectDelay : NEVER;
+		lock.notifyAll();
+	}
+
+	/**
+	 * Schickt ein Paket aus dem Sendepuffer ab, sofern Bandbreite und Empfänger es erlauben
+	 *
+	 * @param now Die aktuelle Zeit
+	 * @return <code>true</code>, wenn ein Paket abgeschickt wurde
+	 */
+	private boolean depart(long now) {
+		if (!connected || sendCount == 0 || now < nextDeparture || now < stalledUntil) return false;
+		if (packetCount == MAX_PACKETS_IN_FLIGHT) return false;
+
+		final int length = Math.min(sendCount, Math.min(packetSize, flightRing.length - flightCount));
+		if (length == 0) return false;
+
+		// Bytes vom Sendepuffer in den Flugpuffer übertragen
+		for (int copied = 0; copied < length; ) {
+			final int from = (sendHead + copied) % sendRing.length;
+			final int to = (flightHead + flightCount + copied) % flightRing.length;
+			final int chunk = Math.min(length - copied, Math.min(sendRing.length - from, flightRing.length - to));
+			System.arraycopy(sendRing, from, flightRing, to, chunk);
+			copied += chunk;
+		}
+		sendHead = (sendHead + length) % sendRing.length;
+		sendCount -= length;
+		flightCount += length;
+
+		// Das Paket belegt den Kanal für seine Übertragungsdauer
+		final long transmission = length * 1000000000L / bandwidth;
+		nextDeparture = Math.max(nextDeparture, now) + transmission;
+
+		final long offset = jitter > 0 ? (long) ((jitterRandom.nextDouble() * 2 - 1) * jitter) : 0;
+		final long arrival = Math.max(lastArrival, nextDeparture + latency + offset);
+		lastArrival = arrival;
+
+		final int slot = (packetHead + packetCount) % MAX_PACKETS_IN_FLIGHT;
+		packetLengths[slot] = length;
+		packetArrivals[slot] = arrival;
+		++packetCount;
+
+		// Schreiber warten auf Platz im Sendepuffer
+		lock.notifyAll();
+		return true;
+	}
+
+	/**
+	 * Entnimmt das erste angekommene Paket
+	 *
+	 * @param target Das Ziel der Bytes
+	 * @return Die Länge des Pakets
+	 */
+	private int takePacket(@NotNull byte[] target) {
+		final int length = packetLengths[packetHead];
+		for (int copied = 0; copied < length; ) {
+			final int from = (flightHead + copied) % flightRing.length;
+			final int chunk = Math.min(length - copied, flightRing.length - from);
+			System.arraycopy(flightRing, from, target, copied, chunk);
+			copied += chunk;
+		}
+		flightHead = (flightHead + length) % flightRing.length;
+		flightCount -= length;
+		packetHead = (packetHead + 1) % MAX_PACKETS_IN_FLIGHT;
+		--packetCount;
+		return length;
+	}
+
+	/**
+	 * Ermittelt den Zeitpunkt des nächsten Ereignisses
+	 *
+	 * @return Der Zeitpunkt
+	 */
+	private long nextEventTime() {
+		long next = Math.min(nextStall, connected ? nextDisconnect : nextReconnect);
+		if (packetCount > 0) next = Math.min(next, packetArrivals[packetHead]);
+		if (connected && sendCount > 0 && packetCount < MAX_PACKETS_IN_FLIGHT) {
+			next = Math.min(next, Math.max(nextDeparture, stalledUntil));
+		}
+		return next;
+	}
+
+	/**
+	 * Plant das nächste zufällige Ereignis eines Poisson-Prozesses
+	 *
+	 * @param from Der Zeitpunkt, ab dem gewartet wird
+	 * @param meanInterval Der mittlere Abstand oder 0 für kein Ereignis
+	 * @return Der Zeitpunkt oder {@link #NEVER}
+	 */
+	private long schedule(long from, long meanInterval) {
+		if (meanInterval <= 0) return NEVER;
+		return from + (long) (-Math.log(1 - scheduleRandom.nextDouble()) * meanInterval);
+	}
+}
@@ -0,0 +1,282 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Konstanten und Nachrichten des Übertragungsprotokolls
+ */
+public final class StreamProtocol {
+
+	/**
+	 * Das Zeilenende
+	 */
+	@NotNull
+	public static final String LINE_END = "\r\n";
+
+	/**
+	 * Das Präfix der Sync-Nachricht
+	 */
+	@NotNull
+	public static final String SYNC_PREFIX = "SYNC from ";
+
+	/**
+	 * Das Präfix der Liste der angebotenen Kodierer (Gerät an Empfänger)
+	 */
+	@NotNull
+	public static final String CAPS_PREFIX = "CAPS ";
+
+	/**
+	 * Das Präfix der Kodiererauswahl (Empfänger an Gerät)
+	 */
+	@NotNull
+	public static final String USE_PREFIX = "USE ";
+
+	/**
+	 * Das Präfix der Markierung eines Kodiererwechsels (Gerät an Empfänger)
+	 */
+	@NotNull
+	public static final String ENC_PREFIX = "ENC ";
+
+	/**
+	 * Die Fähigkeit zum Multiplexen, angeboten in der <code>CAPS</code>-Zeile
+	 */
+	@NotNull
+	public static final String MUX_CAPABILITY = "mux";
+
+	/**
+	 * Die Zeile, mit der der Empfänger das Multiplexen anfordert und das
+	 * Gerät den Beginn der Multiplex-Rahmen markiert
+	 */
+	@NotNull
+	public static final String MUX_LINE = "MUX";
+
+	/**
+	 * Die Fähigkeit zu quantisierten Werten, angeboten in der <code>CAPS</code>-Zeile
+	 */
+	@NotNull
+	public static final String QUANT_CAPABILITY = "quant";
+
+	/**
+	 * Die Zeile, mit der der Empfänger quantisierte Werte anfordert
+	 */
+	@NotNull
+	public static final String QUANT_LINE = "QUANT";
+
+	/**
+	 * Präfix der Ankündigung der Quantisierung:
+	 * <code>SCALE &lt;erster kanal&gt; &lt;bits&gt;:&lt;auflösung&gt;:&lt;mittelpunkt&gt; ...</code>
+	 */
+	@NotNull
+	public static final String SCALE_PREFIX = "SCALE ";
+
+	/**
+	 * Startbyte eines Multiplex-Rahmens:
+	 * <code>0x01 | Kanal (u8) | Länge (u16, Big Endian) | Nutzdaten</code>
+	 */
+	public static final byte MUX_FRAME_START = 0x01;
+
+	/**
+	 * Die Länge des Kopfes eines Multiplex-Rahmens
+	 */
+	public static final int MUX_HEADER_LENGTH = 4;
+
+	/**
+	 * Die größte Nutzlast eines Multiplex-Rahmens; begrenzt die Wartezeit
+	 * höher priorisierter Kanäle auf einen Rahmen
+	 */
+	public static final int MUX_MAX_PAYLOAD = 512;
+
+	/**
+	 * Multiplex-Kanal für Steuernachrichten (höchste Priorität)
+	 */
+	public static final int MUX_CHANNEL_CONTROL = 0;
+
+	/**
+	 * Multiplex-Kanal für Live-Messwerte
+	 */
+	public static final int MUX_CHANNEL_LIVE = 1;
+
+	/**
+	 * Multiplex-Kanal für Massendaten (niedrigste Priorität)
+	 */
+	public static final int MUX_CHANNEL_BULK = 2;
+
+	/**
+	 * Die Anzahl der Multiplex-Kanäle
+	 */
+	public static final int MUX_CHANNEL_COUNT = 3;
+
+	/**
+	 * Die maximale Länge einer Steuerzeile
+	 */
+	public static final int MAX_CONTROL_LINE_LENGTH = 256;
+
+	/**
+	 * Die Zeichenkodierung aller Text-Nachrichten
+	 */
+	@NotNull
+	public static final String CHARSET_NAME = "UTF-8";
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private StreamProtocol() {}
+
+	/**
+	 * Erzeugt die Sync-Nachricht, die nach dem Verbindungsaufbau gesendet wird
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 * @return Die Nachricht inklusive Zeilenende
+	 */
+	@NotNull
+	public static String syncMessage(@NotNull String name, @NotNull String address) {
+		return SYNC_PREFIX + name + " " + address + LINE_END;
+	}
+
+	/**
+	 * Erzeugt die Begrüßung, die nach dem Verbindungsaufbau gesendet wird:
+	 * die Sync-Nachricht, gefolgt von den angebotenen Kodierern.
+	 *
+	 * <p/>
+	 *
+	 * Bis der Empfänger mit <code>USE &lt;name&gt;</code> antwortet, wird der
+	 * Standard-Kodierer verwendet, sodass Empfänger ohne Handshake unverändert funktionieren.
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 * @param encoderNames Die Namen der angebotenen Kodierer
+	 * @return Die Nachricht inklusive Zeilenende
+	 */
+	@NotNull
+	public static String greeting(@NotNull String name, @NotNull String address, @NotNull List<String> encoderNames) {
+		return greeting(name, address, encoderNames, false);
+	}
+
+	/**
+	 * Erzeugt die Begrüßung, optional mit dem Angebot zum Multiplexen
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 * @param encoderNames Die Namen der angebotenen Kodierer
+	 * @param multiplexing <code>true</code>, um {@link #MUX_CAPABILITY} anzubieten
+	 * @return Die Nachricht inklusive Zeilenende
+	 */
+	@NotNull
+	public static String greeting(@NotNull String name, @NotNull String address, @NotNull List<String> encoderNames, boolean multiplexing) {
+		return greeting(name, address, encoderNames, multiplexing, false);
+	}
+
+	/**
+	 * Erzeugt die Begrüßung, optional mit dem Angebot zum Multiplexen und zu quantisierten Werten
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 * @param encoderNames Die Namen der angebotenen Kodierer
+	 * @param multiplexing <code>true</code>, um {@link #MUX_CAPABILITY} anzubieten
+	 * @param quantization <code>true</code>, um {@link #QUANT_CAPABILITY} anzubieten
+	 * @return Die Nachricht inklusive Zeilenende
+	 */
+	@NotNull
+	public static String greeting(@NotNull String name, @NotNull String address, @NotNull List<String> encoderNames, boolean multiplexing, boolean quantization) {
+		StringBuilder builder = new StringBuilder(syncMessage(name, address));
+		builder.append(CAPS_PREFIX);
+		for (int i = 0; i < encoderNames.size(); ++i) {
+			if (i > 0) builder.append(' ');
+			builder.append(encoderNames.get(i));
+		}
+		if (multiplexing) builder.append(' ').append(MUX_CAPABILITY);
+		if (quantization) builder.append(' ').append(QUANT_CAPABILITY);
+		return builder.append(LINE_END).toString();
+	}
+
+	/**
+	 * Erzeugt die Markierung eines Kodiererwechsels
+	 *
+	 * @param encoderName Der Name des ab jetzt verwendeten Kodierers
+	 * @return Die Nachricht inklusive Zeilenende
+	 */
+	@NotNull
+	public static String encoderChangedMessage(@NotNull String encoderName) {
+		return ENC_PREFIX + encoderName + LINE_END;
+	}
+
+	/**
+	 * Liest den gewählten Kodierer aus einer Steuerzeile
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 * @return Der Name des Kodierers oder <code>null</code>, wenn die Zeile keine Auswahl ist
+	 */
+	@Nullable
+	public static String parseEncoderSelection(@NotNull String line) {
+		if (!line.startsWith(USE_PREFIX)) return null;
+		final String name = line.substring(USE_PREFIX.length()).trim();
+		return name.length() == 0 ? null : name;
+	}
+
+	/**
+	 * Prüft, ob eine Steuerzeile das Multiplexen anfordert
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 * @return <code>true</code>, wenn die Zeile {@link #MUX_LINE} ist
+	 */
+	public static boolean isMultiplexRequest(@NotNull String line) {
+		return MUX_LINE.equals(line.trim());
+	}
+
+	/**
+	 * Prüft, ob eine Steuerzeile quantisierte Werte anfordert
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 * @return <code>true</code>, wenn die Zeile {@link #QUANT_LINE} ist
+	 */
+	public static boolean isQuantizationRequest(@NotNull String line) {
+		return QUANT_LINE.equals(line.trim());
+	}
+
+	/**
+	 * Erzeugt die Ankündigung einer Quantisierungstabelle
+	 *
+	 * <p/>
+	 *
+	 * Die Tabelle wird auf so viele <code>SCALE</code>-Zeilen verteilt, dass keine
+	 * länger als {@link #MAX_CONTROL_LINE_LENGTH} ist; jede nennt ihren ersten Kanal.
+	 * Eine Zeile für Kanal 0 ersetzt eine zuvor angekündigte Tabelle.
+	 *
+	 * @param quantizer Die Tabelle
+	 * @return Die Zeilen inklusive Zeilenende
+	 */
+	@NotNull
+	public static String scaleMessages(@NotNull Quantizer quantizer) {
+		final StringBuilder messages = new StringBuilder();
+		final StringBuilder line = new StringBuilder();
+		int channel = 0;
+		while (channel < quantizer.getChannelCount()) {
+			line.setLength(0);
+			line.append(SCALE_PREFIX).append(channel).append(' ');
+			channel = quantizer.describe(channel, MAX_CONTROL_LINE_LENGTH - LINE_END.length(), line);
+			messages.append(line).append(LINE_END);
+		}
+		return messages.toString();
+	}
+
+	/**
+	 * Kodiert einen Text unabhängig von der Standard-Zeichenkodierung der Plattform
+	 *
+	 * @param text Der Text
+	 * @return Die Bytes in {@link #CHARSET_NAME}
+	 */
+	@NotNull
+	public static byte[] toBytes(@NotNull String text) {
+		try {
+			return text.getBytes(CHARSET_NAME);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 wird von jeder Plattform unterstützt
+			throw new IllegalStateException(e);
+		}
+	}
+}
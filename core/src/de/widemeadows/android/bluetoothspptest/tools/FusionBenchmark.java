@@ -0,0 +1,153 @@
+package de.widemeadows.android.bluetoothspptest.tools;
+
+import de.widemeadows.android.bluetoothspptest.sensor.MadgwickFilter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Misst die Kosten einer Aktualisierung des {@link MadgwickFilter} und prüft,
+ * ob das Filter auf eine bekannte Lage einschwingt.
+ *
+ * <pre>
+ * FusionBenchmark [--updates n] [--rounds n] [--max-ns ns]
+ *
+ *   --updates n   Aktualisierungen je Runde (Standard 5000000)
+ *   --rounds n    Messrunden nach dem Aufwärmen (Standard 5)
+ *   --max-ns ns   mit Fehlercode beenden, wenn eine Aktualisierung im Mittel länger dauert
+ * </pre>
+ *
+ * Läuft ohne Android auf einer normalen JVM; auf dem Telefon sind die Zeiten entsprechend höher.
+ */
+public final class FusionBenchmark {
+
+	/**
+	 * Die Anzahl vorberechneter Eingangswerte
+	 */
+	private static final int INPUT_COUNT = 4096;
+
+	/**
+	 * Der Zeitschritt der Eingangswerte in Sekunden (200 Hz)
+	 */
+	private static final float DT = 0.005f;
+
+	/**
+	 * Die größte erlaubte Abweichung der eingeschwungenen Lage in Grad
+	 */
+	private static final float MAX_ANGLE_ERROR = 1f;
+
+	/**
+	 * Verhindert, dass der JIT die Messschleife entfernt
+	 */
+	private static volatile float sink;
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private FusionBenchmark() {}
+
+	/**
+	 * Einstiegspunkt
+	 *
+	 * @param args Die Kommandozeilenargumente
+	 */
+	public static void main(@NotNull String[] args) {
+		int updates = 5000000;
+		int rounds = 5;
+		double maxNanos = Double.MAX_VALUE;
+
+		for (int i = 0; i < args.length; ++i) {
+			final String arg = args[i];
+			if ("--updates".equals(arg)) updates = Integer.parseInt(args[++i]);
+			else if ("--rounds".equals(arg)) rounds = Integer.parseInt(args[++i]);
+			else if ("--max-ns".equals(arg)) maxNanos = Double.parseDouble(args[++i]);
+		}
+
+		boolean passed = checkConvergence();
+
+		// Verrauschte Messwerte eines ruhenden, leicht gekippten Gerätes
+		final Random random = new Random(42);
+		final float[] input = new float[INPUT_COUNT * 9];
+		for (int i = 0; i < input.length; i += 9) {
+			input[i] = (float) random.nextGaussian() * 0.01f;
+			input[i + 1] = (float) random.nextGaussian() * 0.01f;
+			input[i + 2] = (float) random.nextGaussian() * 0.01f;
+			input[i + 3] = 1.2f + (float) random.nextGaussian() * 0.1f;
+			input[i + 4] = 0.4f + (float) random.nextGaussian() * 0.1f;
+			input[i + 5] = 9.7f + (float) random.nextGaussian() * 0.1f;
+			input[i + 6] = 22f + (float) random.nextGaussian();
+			input[i + 7] = 5f + (float) random.nextGaussian();
+			input[i + 8] = -40f + (float) random.nextGaussian();
+		}
+
+		// Aufwärmen, damit der JIT übersetzt
+		run(new MadgwickFilter(), input, updates, true);
+		run(new MadgwickFilter(), input, updates, false);
+
+		for (int round = 0; round < rounds; ++round) {
+			final double marg = run(new MadgwickFilter(), input, updates, true);
+			final double imu = run(new MadgwickFilter(), input, updates, false);
+			System.out.printf("round %d: %.1f ns/update (MARG), %.1f ns/update (IMU)%n", round + 1, marg, imu);
+
+			if (marg > maxNanos || imu > maxNanos) passed = false;
+		}
+
+		if (!passed) System.exit(1);
+	}
+
+	/**
+	 * Führt eine Messrunde aus
+	 *
+	 * @param filter Das Filter
+	 * @param input Die Eingangswerte, je neun Werte je Aktualisierung
+	 * @param updates Die Anzahl der Aktualisierungen
+	 * @param magnetic <code>true</code>, um das Magnetfeld einzubeziehen
+	 * @return Die mittlere Dauer einer Aktualisierung in Nanosekunden
+	 */
+	private static double run(@NotNull MadgwickFilter filter, @NotNull float[] input, int updates, boolean magnetic) {
+		final float[] angles = new float[3];
+		final long start = System.nanoTime();
+
+		int index = 0;
+		for (int i = 0; i < updates; ++i) {
+			if (magnetic) {
+				filter.update(input[index], input[index + 1], input[index + 2],
+						input[index + 3], input[index + 4], input[index + 5],
+						input[index + 6], input[index + 7], input[index + 8], DT);
+			}
+			else {
+				filter.updateImu(input[index], input[index + 1], input[index + 2],
+						input[index + 3], input[index + 4], input[index + 5], DT);
+			}
+			index += 9;
+			if (index == input.length) index = 0;
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		filter.getEulerAngles(angles, 0);
+		sink = angles[0];
+		return (double) elapsed / updates;
+	}
+
+	/**
+	 * Prüft, ob das Filter ein um 30° gekipptes, ruhendes Gerät richtig schätzt
+	 *
+	 * @return <code>true</code>, wenn die Lage auf {@link #MAX_ANGLE_ERROR} genau stimmt
+	 */
+	private static boolean checkConvergence() {
+		final double roll = Math.toRadians(30);
+		final float ay = (float) (9.81 * Math.sin(roll));
+		final float az = (float) (9.81 * Math.cos(roll));
+
+		final MadgwickFilter filter = new MadgwickFilter();
+		for (int i = 0; i < (int) (10 / DT); ++i) {
+			filter.updateImu(0, 0, 0, 0, ay, az, DT);
+		}
+
+		final float[] angles = new float[3];
+		filter.getEulerAngles(angles, 0);
+		final boolean converged = Math.abs(angles[1]) < MAX_ANGLE_ERROR && Math.abs(angles[2] - 30f) < MAX_ANGLE_ERROR;
+		System.out.printf("convergence: pitch %.2f, roll %.2f (expected 0, 30) %s%n", angles[1], angles[2], converged ? "ok" : "FAILED");
+		return converged;
+	}
+}
@@ -0,0 +1,526 @@
+package de.widemeadows.android.bluetoothspptest.tools;
+
+import de.widemeadows.android.bluetoothspptest.sensor.FeatureExtractor;
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSampleListener;
+import de.widemeadows.android.bluetoothspptest.sensor.SyntheticSensorSource;
+import de.widemeadows.android.bluetoothspptest.sensor.Waveform;
+import de.widemeadows.android.bluetoothspptest.stream.AimdRateController;
+import de.widemeadows.android.bluetoothspptest.stream.ChannelTransport;
+import de.widemeadows.android.bluetoothspptest.stream.ControlReader;
+import de.widemeadows.android.bluetoothspptest.stream.FanOutTransport;
+import de.widemeadows.android.bluetoothspptest.stream.IControlMessageListener;
+import de.widemeadows.android.bluetoothspptest.stream.ISampleTransport;
+import de.widemeadows.android.bluetoothspptest.stream.OutputStreamTransport;
+import de.widemeadows.android.bluetoothspptest.stream.Quantizer;
+import de.widemeadows.android.bluetoothspptest.stream.SampleEncoders;
+import de.widemeadows.android.bluetoothspptest.stream.SampleStreamer;
+import de.widemeadows.android.bluetoothspptest.stream.SessionMultiplexer;
+import de.widemeadows.android.bluetoothspptest.stream.SimulatedLinkTransport;
+import de.widemeadows.android.bluetoothspptest.stream.StreamProtocol;
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lastgenerator, der synthetische Sensorwerte über denselben Kodier- und
+ * Transportweg wie die App sendet.
+ *
+ * <pre>
+ * LoadGenerator [--rate hz] [--channels n] [--waveform form:f:a ...] [--seconds s] [--phones n] [--adaptive min] [--bulk kib] [--trace datei] [--link spec] [--features n:b:hz] [--quantize min:max:fehler] [ziel]
+ *
+ *   tcp:&lt;host&gt;:&lt;port&gt;    an einen Empfänger senden (je Telefon eine Verbindung)
+ *   listen:&lt;port&gt;         Empfänger annehmen (Telefon n auf port + n) und an alle senden
+ *   file:&lt;pfad&gt;          in eine Datei schreiben
+ *   null                  verwerfen (Standard)
+ *
+ *   --adaptive min        Senderate zwischen min und --rate an die Verbindung anpassen
+ *   --bulk kib            zusätzlich kib KiB/s Massendaten über den Bulk-Kanal senden
+ *   --trace datei         Latenz jedes {@value #TRACE_INTERVAL}. Frames aufzeichnen und am Ende als CSV schreiben
+ *   --link spec           über eine simulierte SPP-Verbindung vor dem Ziel senden, z.B.
+ *                         bandwidth=20000,latency=40,jitter=20,stall=5000:500,disconnect=20000:2000,seed=1
+ *   --features n:b:hz     statt der Werte nur Merkmale über die letzten n Werte mit b Frequenzbändern
+ *                         hz-mal je Sekunde senden, z.B. 1024:8:1
+ *   --quantize min:max:fehler
+ *                         Werte zwischen min und max mit höchstens fehler Abweichung als int8/int16
+ *                         anbieten, z.B. -2:2:0.001
+ *
+ *   Verbindung (--link, Komma-getrennt):
+ *     bandwidth=b         Bytes je Sekunde
+ *     buffer=n            Größe des Sendepuffers in Bytes
+ *     packet=n            Größe eines Pakets in Bytes
+ *     latency=ms          mittlere Latenz
+ *     jitter=ms           größte Abweichung von der Latenz
+ *     stall=ms:dauer      Empfänger stockt im Mittel alle ms Millisekunden für dauer Millisekunden
+ *     disconnect=ms:pause Verbindung reißt im Mittel alle ms Millisekunden ab, Wiederaufbau nach pause
+ *     seed=n              Startwert des Zufalls; Telefon n erhält seed + n
+ * </pre>
+ *
+ * Läuft ohne Android auf einer normalen JVM und gibt je Sekunde die erreichte Rate aus.
+ * Mit <code>--link</code> endet es mit Fehlercode 1, wenn ein Telefon nach dem Wiederaufbau
+ * seiner Verbindung bis zum Ende keine Frames mehr sendet.
+ */
+public final class LoadGenerator {
+
+	/**
+	 * Das Intervall der Statistikausgabe in Millisekunden
+	 */
+	private static final long STATS_INTERVAL_MS = 1000;
+
+	/**
+	 * Präfix für TCP-Ziele
+	 */
+	@NotNull
+	private static final String TCP_PREFIX = "tcp:";
+
+	/**
+	 * Präfix für lauschende TCP-Ziele
+	 */
+	@NotNull
+	private static final String LISTEN_PREFIX = "listen:";
+
+	/**
+	 * Die größte Anzahl Frames je Schreibvorgang bei angepasster Rate
+	 */
+	private static final int MAX_BATCH_SIZE = 64;
+
+	/**
+	 * Die Größe eines Massendaten-Blocks in Bytes
+	 */
+	private static final int BULK_BLOCK_SIZE = 1024;
+
+	/**
+	 * Die Anzahl der Latenz-Aufzeichnungen im Ring
+	 */
+	private static final int TRACE_CAPACITY = 65536;
+
+	/**
+	 * Jeder wievielte Frame aufgezeichnet wird
+	 */
+	private static final int TRACE_INTERVAL = 10;
+
+	/**
+	 * Verwirft die Steuerzeilen der Empfänger im gemeinsamen Strom, damit keiner
+	 * den Kodierer für alle umstellt
+	 */
+	@NotNull
+	private static final IControlMessageListener IGNORED_CONTROL = new IControlMessageListener() {
+		@Override
+		public void sessionStarted() {
+		}
+
+		@Override
+		public void controlMessageReceived(@NotNull String line) {
+		}
+	};
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private LoadGenerator() {}
+
+	/**
+	 * Einstiegspunkt
+	 *
+	 * @param args Die Kommandozeilenargumente
+	 * @throws IOException Wenn das Ziel nicht geöffnet werden konnte
+	 * @throws InterruptedException Wenn der Hauptthread unterbrochen wurde
+	 */
+	public static void main(@NotNull String[] args) throws IOException, InterruptedException {
+		double rate = 1000;
+		int channels = 6;
+		double seconds = 10;
+		int phones = 1;
+		double adaptiveMinRate = 0;
+		int bulkRate = 0;
+		String traceFile = null;
+		String linkSpec = null;
+		int featureWindow = 0;
+		int featureBands = 0;
+		double featureRate = 0;
+		String quantizeSpec = null;
+		String target = "null";
+		final List<String> waveformDescriptions = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; ++i) {
+			final String arg = args[i];
+			if ("--rate".equals(arg)) rate = Double.parseDouble(args[++i]);
+			else if ("--channels".equals(arg)) channels = Integer.parseInt(args[++i]);
+			else if ("--waveform".equals(arg)) waveformDescriptions.add(args[++i]);
+			else if ("--seconds".equals(arg)) seconds = Double.parseDouble(args[++i]);
+			else if ("--phones".equals(arg)) phones = Integer.parseInt(args[++i]);
+			else if ("--adaptive".equals(arg)) adaptiveMinRate = Double.parseDouble(args[++i]);
+			else if ("--bulk".equals(arg)) bulkRate = Integer.parseInt(args[++i]);
+			else if ("--trace".equals(arg)) traceFile = args[++i];
+			else if ("--link".equals(arg)) linkSpec = args[++i];
+			else if ("--quantize".equals(arg)) quantizeSpec = args[++i];
+			else if ("--features".equals(arg)) {
+				final String[] spec = args[++i].split(":");
+				featureWindow = Integer.parseInt(spec[0]);
+				featureBands = Integer.parseInt(spec[1]);
+				featureRate = Double.parseDouble(spec[2]);
+			}
+			else target = arg;
+		}
+
+		if (!waveformDescriptions.isEmpty()) channels = waveformDescriptions.size();
+		final long sampleLimit = (long) (rate * seconds);
+
+		final List<SyntheticSensorSource> sources = new ArrayList<SyntheticSensorSource>();
+		final List<SampleStreamer> streamers = new ArrayList<SampleStreamer>();
+		final List<LatencyTracer> tracers = new ArrayList<LatencyTracer>();
+		final List<SessionMultiplexer> multiplexers = new ArrayList<SessionMultiplexer>();
+		final List<SimulatedLinkTransport> links = new ArrayList<SimulatedLinkTransport>();
+		final List<Closeable> transports = new ArrayList<Closeable>();
+		for (int phone = 0; phone < phones; ++phone) {
+			final Waveform[] waveforms = new Waveform[channels];
+			for (int c = 0; c < channels; ++c) {
+				waveforms[c] = waveformDescriptions.isEmpty()
+						? new Waveform(Waveform.Shape.SINE, 1 + c, 1, 0, 0, c)
+						: Waveform.parse(waveformDescriptions.get(c), c);
+			}
+
+			final SocketChannel socket = target.startsWith(TCP_PREFIX) ? openSocket(target) : null;
+			final FanOutTransport fanOut = target.startsWith(LISTEN_PREFIX) ? new FanOutTransport() : null;
+			final ISampleTransport targetTransport = socket != null
+					? new ChannelTransport(socket)
+					: fanOut != null ? fanOut : new OutputStreamTransport(openTarget(target, phone));
+			final SimulatedLinkTransport link = linkSpec != null ? createLink(linkSpec, targetTransport, phone) : null;
+			final ISampleTransport transport = link != null ? link : targetTransport;
+			final SessionMultiplexer multiplexer = new SessionMultiplexer(transport);
+			final int streamedChannels = featureWindow > 0 ? channels * (FeatureExtractor.FEATURE_BANDS + featureBands) : channels;
+			final SampleStreamer streamer = new SampleStreamer(streamedChannels, multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_LIVE));
+			if (quantizeSpec != null) {
+				final String[] spec = quantizeSpec.split(":");
+				streamer.setQuantizer(new Quantizer(streamedChannels, Float.parseFloat(spec[0]), Float.parseFloat(spec[1]), Float.parseFloat(spec[2])));
+			}
+			if (adaptiveMinRate > 0) {
+				streamer.setRateController(new AimdRateController(adaptiveMinRate, rate, 1, MAX_BATCH_SIZE));
+			}
+
+			// Begrüßung senden und auf die Kodiererauswahl hören; die simulierte Verbindung
+			// begrüßt nach jedem Wiederaufbau neu, kann aber kein Multiplexing neu aushandeln.
+			// Im gemeinsamen Strom mehrerer Empfänger wird nichts ausgehandelt. Jede Sitzung
+			// erhält einen neuen Multiplexer, da ein Schreibfehler den alten schließt.
+			final IControlMessageListener session = multiplexer.createControlListener(streamer);
+			final boolean listening = fanOut != null;
+			final byte[] greeting = StreamProtocol.toBytes(listening
+					? StreamProtocol.syncMessage("LoadGenerator-" + phone, syntheticAddress(phone))
+					: StreamProtocol.greeting("LoadGenerator-" + phone, syntheticAddress(phone), SampleEncoders.getNames(), link == null, quantizeSpec != null));
+			if (link != null) {
+				link.setGreeting(greeting);
+				link.setSessionListener(session);
+				link.start();
+				links.add(link);
+			}
+			if (listening) {
+				startAccepting(Integer.parseInt(target.substring(LISTEN_PREFIX.length())) + phone, fanOut, greeting, session);
+			}
+			else {
+				transport.write(new ByteBuffer[] { ByteBuffer.wrap(greeting) }, 0, 1);
+				session.sessionStarted();
+			}
+			streamer.start();
+			if (socket != null) {
+				new ControlReader(Channels.newInputStream(socket), session).start();
+			}
+			if (bulkRate > 0) {
+				startBulk(multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_BULK), bulkRate);
+			}
+
+			final SyntheticSensorSource source = new SyntheticSensorSource(rate, waveforms, sampleLimit);
+			if (traceFile != null) {
+				final LatencyTracer tracer = new LatencyTracer(TRACE_CAPACITY, TRACE_INTERVAL);
+				source.setLatencyTracer(tracer);
+				streamer.setLatencyTracer(tracer);
+				multiplexer.setLatencyTracer(tracer);
+				tracers.add(tracer);
+			}
+			final ISensorSampleListener listener = featureWindow > 0
+					? new FeatureExtractor(0, channels, featureWindow, featureBands, featureRate, streamer)
+					: streamer;
+			source.start(listener);
+			sources.add(source);
+			streamers.add(streamer);
+			multiplexers.add(multiplexer);
+			transports.add((Closeable) targetTransport);
+		}
+
+		// Je Verbindung die Frames beim ersten Wiederaufbau und ob danach weitere folgten
+		final long[] reconnectFrames = new long[links.size()];
+		final int[] reconnectTick = new int[links.size()];
+		final boolean[] resumed = new boolean[links.size()];
+		for (int i = 0; i < reconnectFrames.length; ++i) reconnectFrames[i] = -1;
+
+		// Statistik ausgeben, bis alle Quellen fertig sind
+		long lastSamples = 0, lastBytes = 0, lastCalls = 0, lastFrames = 0, lastDelivered = 0;
+		int tick = 0;
+		boolean running = true;
+		while (running) {
+			Thread.sleep(STATS_INTERVAL_MS);
+			++tick;
+
+			long samples = 0, bytes = 0, calls = 0, frames = 0, dropped = 0;
+			running = false;
+			for (int i = 0; i < sources.size(); ++i) {
+				samples += sources.get(i).getSampleCount();
+				bytes += streamers.get(i).getWriter().getBytesWritten();
+				calls += streamers.get(i).getWriter().getWriteCalls();
+				frames += streamers.get(i).getFramesSent();
+				dropped += streamers.get(i).getFramesDropped();
+				running |= sources.get(i).getSampleCount() < sampleLimit;
+			}
+
+			final StringBuilder line = new StringBuilder();
+			line.append(samples - lastSamples).append(" samples/s, ").append(frames - lastFrames).append(" frames/s, ")
+					.append((bytes - lastBytes) / 1024).append(" KiB/s, ").append(calls - lastCalls).append(" writes/s, ")
+					.append(dropped).append(" dropped");
+			if (!links.isEmpty()) {
+				long delivered = 0;
+				int stalls = 0, disconnects = 0;
+				for (SimulatedLinkTransport link : links) {
+					delivered += link.getBytesDelivered();
+					stalls += link.getStallCount();
+					disconnects += link.getDisconnectCount();
+				}
+				line.append(", link ").append((delivered - lastDelivered) / 1024).append(" KiB/s, ")
+						.append(stalls).append(" stalls, ").append(disconnects).append(" disconnects");
+				lastDelivered = delivered;
+
+				for (int i = 0; i < links.size(); ++i) {
+					final SimulatedLinkTransport link = links.get(i);
+					final long sent = streamers.get(i).getFramesSent();
+					if (reconnectFrames[i] < 0) {
+						if (link.getDisconnectCount() > 0 && link.isConnected()) {
+							reconnectFrames[i] = sent;
+							reconnectTick[i] = tick;
+						}
+					}
+					else if (sent > reconnectFrames[i]) {
+						resumed[i] = true;
+					}
+				}
+			}
+			System.err.println(line);
+			lastSamples = samples;
+			lastBytes = bytes;
+			lastCalls = calls;
+			lastFrames = frames;
+		}
+
+		for (int i = 0; i < sources.size(); ++i) {
+			sources.get(i).stop();
+			streamers.get(i).close();
+			multiplexers.get(i).close();
+			if (!links.isEmpty()) links.get(i).close();
+			transports.get(i).close();
+		}
+
+		for (int i = 0; i < tracers.size(); ++i) {
+			final File file = new File(i == 0 ? traceFile : traceFile + "." + i);
+			System.err.println(tracers.get(i).exportTo(file) + " traces written to " + file);
+		}
+
+		// Erst ab der nächsten Ausgabe nach dem Wiederaufbau aussagekräftig
+		boolean stalled = false;
+		for (int i = 0; i < links.size(); ++i) {
+			if (reconnectFrames[i] >= 0 && reconnectTick[i] < tick && !resumed[i]) {
+				System.err.println("phone " + i + ": no frames sent after reconnect");
+				stalled = true;
+			}
+		}
+		if (stalled) System.exit(1);
+	}
+
+	/**
+	 * Sendet in einem eigenen Thread gleichmäßig Massendaten
+	 *
+	 * @param channel Der Bulk-Kanal
+	 * @param kibPerSecond Die Rate in KiB/s
+	 */
+	private static void startBulk(@NotNull final ISampleTransport channel, final int kibPerSecond) {
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final ByteBuffer block = ByteBuffer.allocate(BULK_BLOCK_SIZE);
+				final ByteBuffer[] buffers = new ByteBuffer[] { block };
+				final long intervalNs = 1000000000L * BULK_BLOCK_SIZE / (kibPerSecond * 1024L);
+				long next = System.nanoTime();
+				try {
+					while (true) {
+						next += intervalNs;
+						final long sleepNs = next - System.nanoTime();
+						if (sleepNs > 0) Thread.sleep(sleepNs / 1000000, (int) (sleepNs % 1000000));
+
+						// bis zur Aushandlung des Multiplexings gibt es keinen Bulk-Kanal
+						if (!channel.isConnected()) continue;
+						block.clear();
+						channel.write(buffers, 0, 1);
+					}
+				}
+				catch (InterruptedException e) {
+					// beendet
+				}
+				catch (IOException e) {
+					System.err.println("bulk: " + e.getMessage());
+				}
+			}
+		}, "LoadGenerator bulk");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Nimmt in einem eigenen Thread Empfänger an und reiht sie in den gemeinsamen Strom ein
+	 *
+	 * @param port Der Port
+	 * @param fanOut Der gemeinsame Transportweg
+	 * @param greeting Die Begrüßung für jeden Empfänger
+	 * @param session Der Empfänger der Sitzung, die mit dem ersten Empfänger beginnt
+	 * @throws IOException Wenn der Port nicht gebunden werden konnte
+	 */
+	private static void startAccepting(int port, @NotNull final FanOutTransport fanOut, @NotNull final byte[] greeting,
+	                                   @NotNull final IControlMessageListener session) throws IOException {
+		final ServerSocketChannel server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port));
+
+		final Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final SocketChannel socket = server.accept();
+						socket.socket().setTcpNoDelay(true);
+
+						final ChannelTransport peer = new ChannelTransport(socket);
+						peer.write(new ByteBuffer[] { ByteBuffer.wrap(greeting) }, 0, 1);
+						if (!fanOut.isConnected()) session.sessionStarted();
+						fanOut.addPeer(peer);
+						new ControlReader(Channels.newInputStream(socket), IGNORED_CONTROL).start();
+						System.err.println("accepted " + socket.socket().getRemoteSocketAddress() + ", " + fanOut.getPeerCount() + " receivers");
+					}
+				}
+				catch (IOException e) {
+					System.err.println("accept: " + e.getMessage());
+				}
+			}
+		}, "LoadGenerator accept " + port);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Erzeugt eine simulierte Verbindung aus ihrer Beschreibung
+	 *
+	 * @param spec Die Beschreibung, z.B. <code>bandwidth=20000,latency=40,jitter=20</code>
+	 * @param downstream Das Ziel hinter der Verbindung
+	 * @param phone Die Nummer des Telefons
+	 * @return Die noch nicht gestartete Verbindung
+	 */
+	@NotNull
+	private static SimulatedLinkTransport createLink(@NotNull String spec, @NotNull ISampleTransport downstream, int phone) {
+		long seed = 1;
+		long latency = 0, jitter = 0;
+		long stallInterval = 0, stallDuration = 0;
+		long disconnectInterval = 0, reconnectDelay = 0;
+		int bandwidth = SimulatedLinkTransport.DEFAULT_BANDWIDTH;
+		int bufferSize = SimulatedLinkTransport.DEFAULT_SEND_BUFFER_SIZE;
+		int packetSize = SimulatedLinkTransport.DEFAULT_PACKET_SIZE;
+
+		for (String option : spec.split(",")) {
+			final int split = option.indexOf('=');
+			if (split <= 0) throw new IllegalArgumentException("Ungültige Verbindungsoption: " + option);
+
+			final String key = option.substring(0, split).trim();
+			final String value = option.substring(split + 1).trim();
+			final int colon = value.indexOf(':');
+			if ("bandwidth".equals(key)) bandwidth = Integer.parseInt(value);
+			else if ("buffer".equals(key)) bufferSize = Integer.parseInt(value);
+			else if ("packet".equals(key)) packetSize = Integer.parseInt(value);
+			else if ("latency".equals(key)) latency = Long.parseLong(value);
+			else if ("jitter".equals(key)) jitter = Long.parseLong(value);
+			else if ("seed".equals(key)) seed = Long.parseLong(value);
+			else if ("stall".equals(key) && colon > 0) {
+				stallInterval = Long.parseLong(value.substring(0, colon));
+				stallDuration = Long.parseLong(value.substring(colon + 1));
+			}
+			else if ("disconnect".equals(key)) {
+				disconnectInterval = Long.parseLong(colon > 0 ? value.substring(0, colon) : value);
+				reconnectDelay = colon > 0 ? Long.parseLong(value.substring(colon + 1)) : 0;
+			}
+			else throw new IllegalArgumentException("Ungültige Verbindungsoption: " + option);
+		}
+
+		final SimulatedLinkTransport link = new SimulatedLinkTransport(downstream, seed + phone);
+		link.setBandwidth(bandwidth);
+		link.setSendBufferSize(bufferSize);
+		link.setPacketSize(packetSize);
+		link.setLatency(latency, jitter);
+		link.setStalls(stallInterval, stallDuration);
+		link.setDisconnects(disconnectInterval, reconnectDelay);
+		return link;
+	}
+
+	/**
+	 * Verbindet mit einem TCP-Ziel
+	 *
+	 * @param target Die Zielbeschreibung <code>tcp:&lt;host&gt;:&lt;port&gt;</code>
+	 * @return Der Kanal
+	 * @throws IOException Wenn die Verbindung nicht hergestellt werden konnte
+	 */
+	@NotNull
+	private static SocketChannel openSocket(@NotNull String target) throws IOException {
+		final String address = target.substring(TCP_PREFIX.length());
+		final int split = address.lastIndexOf(':');
+		final SocketChannel socket = SocketChannel.open(new InetSocketAddress(address.substring(0, split), Integer.parseInt(address.substring(split + 1))));
+		socket.socket().setTcpNoDelay(true);
+		return socket;
+	}
+
+	/**
+	 * Öffnet ein Datei- oder Null-Ziel für ein Telefon
+	 *
+	 * @param target Die Zielbeschreibung
+	 * @param phone Die Nummer des Telefons
+	 * @return Der Ausgabestream
+	 * @throws IOException Wenn das Ziel nicht geöffnet werden konnte
+	 */
+	@NotNull
+	private static OutputStream openTarget(@NotNull String target, int phone) throws IOException {
+		if (target.startsWith("file:")) {
+			return new FileOutputStream(phone == 0 ? target.substring(5) : target.substring(5) + "." + phone);
+		}
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(@NotNull byte[] b, int off, int len) {
+			}
+		};
+	}
+
+	/**
+	 * Erzeugt eine lokal verwaltete MAC-Adresse für ein synthetisches Telefon
+	 *
+	 * @param phone Die Nummer des Telefons
+	 * @return Die Adresse
+	 */
+	@NotNull
+	private static String syntheticAddress(int phone) {
+		return String.format("02:00:00:00:%02X:%02X", (phone >> 8) & 0xFF, phone & 0xFF);
+	}
+}
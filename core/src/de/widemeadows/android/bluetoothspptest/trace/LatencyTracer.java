@@ -0,0 +1,528 @@
+package de.widemeadows.android.bluetoothspptest.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Zeichnet für jeden n-ten Frame die Zeitpunkte auf, zu denen er die
+ * einzelnen Stufen vom Sensor bis zum Transportweg durchläuft.
+ *
+ * <p/>
+ *
+ * Die Stufen sind {@link #STAGE_SENSOR Sensor-Callback}, {@link #STAGE_FILTER Lageschätzung},
+ * {@link #STAGE_ENCODE Kodierung}, {@link #STAGE_ENQUEUE Einreihen}, {@link #STAGE_WRITE_START Schreibbeginn}
+ * und {@link #STAGE_WRITE_COMPLETE Schreibende}; alle Zeitpunkte stammen aus {@link System#nanoTime()}.
+ * Die Aufzeichnungen liegen in einem vorab angelegten Ring, der die ältesten überschreibt,
+ * und können mit {@link #exportTo(File)} als CSV ausgegeben werden.
+ *
+ * <p/>
+ *
+ * Die Stufen bis zum Einreihen werden vom Thread der Sensorquelle gerufen, die Schreibstufen
+ * vom {@link de.widemeadows.android.bluetoothspptest.stream.BufferWriter}. Frames werden über
+ * den Puffer verfolgt, in den sie kodiert wurden.
+ *
+ * <p/>
+ *
+ * Schreibt der {@link de.widemeadows.android.bluetoothspptest.stream.BufferWriter} auf den
+ * Live-Kanal eines aktiven {@link de.widemeadows.android.bluetoothspptest.stream.ChannelMultiplexer},
+ * kopiert er nur in dessen Ringpuffer. Der Multiplexer meldet dann mit {@link #bufferQueued(ByteBuffer, long)},
+ * bis zu welcher Position im Strom des Kanals der Puffer reicht, und mit {@link #streamWritten(long, long)}
+ * die tatsächlich auf die Verbindung geschriebenen Rahmen. Als Schreibbeginn gilt dabei der Beginn des
+ * Rahmens, der das letzte Byte des Frames enthält.
+ */
+public final class LatencyTracer {
+
+	/**
+	 * Stufe: Sensor-Callback
+	 */
+	public static final int STAGE_SENSOR = 0;
+
+	/**
+	 * Stufe: Lageschätzung abgeschlossen
+	 */
+	public static final int STAGE_FILTER = 1;
+
+	/**
+	 * Stufe: Frame kodiert
+	 */
+	public static final int STAGE_ENCODE = 2;
+
+	/**
+	 * Stufe: Puffer an den Schreiber übergeben
+	 */
+	public static final int STAGE_ENQUEUE = 3;
+
+	/**
+	 * Stufe: Schreibvorgang begonnen
+	 */
+	public static final int STAGE_WRITE_START = 4;
+
+	/**
+	 * Stufe: Schreibvorgang abgeschlossen
+	 */
+	public static final int STAGE_WRITE_COMPLETE = 5;
+
+	/**
+	 * Die Anzahl der Stufen
+	 */
+	public static final int STAGE_COUNT = 6;
+
+	/**
+	 * Kennung für nicht aufgezeichnete Frames
+	 */
+	public static final int NO_TRACE = -1;
+
+	/**
+	 * Die Kopfzeile der CSV-Ausgabe
+	 */
+	@NotNull
+	private static final String CSV_HEADER = "frame; event; sensor; filter; encode; enqueue; write_start; write_complete";
+
+	/**
+	 * Feld: Zeitstempel des Frames
+	 */
+	private static final int FIELD_FRAME = 0;
+
+	/**
+	 * Feld: Zeitstempel des auslösenden Sensorereignisses
+	 */
+	private static final int FIELD_EVENT = 1;
+
+	/**
+	 * Feld: erste Stufe
+	 */
+	private static final int FIELD_STAGES = 2;
+
+	/**
+	 * Die Länge einer Aufzeichnung
+	 */
+	private static final int RECORD_LENGTH = FIELD_STAGES + STAGE_COUNT;
+
+	/**
+	 * Die Aufzeichnungen
+	 */
+	@NotNull
+	private final long[] records;
+
+	/**
+	 * Die Puffer, in denen die noch nicht geschriebenen Frames liegen
+	 */
+	@NotNull
+	private final ByteBuffer[] recordBuffers;
+
+	/**
+	 * Die Positionen im Strom eines Multiplex-Kanals, bis zu denen die dorthin kopierten Frames reichen
+	 */
+	@NotNull
+	private final long[] recordOffsets;
+
+	/**
+	 * Die Aufzeichnungen, deren Puffer noch nicht geschrieben wurde
+	 */
+	@NotNull
+	private final int[] pending;
+
+	/**
+	 * Die Anzahl der Einträge in {@link #pending}
+	 */
+	private volatile int pendingCount;
+
+	/**
+	 * Die Anzahl der Plätze im Ring
+	 */
+	private final int capacity;
+
+	/**
+	 * Jeder wievielte Frame aufgezeichnet wird
+	 */
+	private final int sampleInterval;
+
+	/**
+	 * Die Anzahl der begonnenen Aufzeichnungen
+	 */
+	private long recorded;
+
+	/**
+	 * Die Frames seit der letzten Aufzeichnung; nur vom Thread der Sensorquelle verwendet
+	 */
+	private int framesSinceTrace;
+
+	/**
+	 * Der Zeitpunkt des letzten Sensor-Callbacks; nur vom Thread der Sensorquelle verwendet
+	 */
+	private long callbackTime;
+
+	/**
+	 * Der Zeitstempel des letzten Sensorereignisses; nur vom Thread der Sensorquelle verwendet
+	 */
+	private long eventTimestamp;
+
+	/**
+	 * Das Ende der Lageschätzung im letzten Callback oder 0; nur vom Thread der Sensorquelle verwendet
+	 */
+	private long filterTime;
+
+	/**
+	 * Erzeugt einen neuen Tracer
+	 *
+	 * @param capacity Die Anzahl der Aufzeichnungen im Ring
+	 * @param sampleInterval Jeder wievielte Frame aufgezeichnet wird
+	 */
+	public LatencyTracer(int capacity, int sampleInterval) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity");
+		if (sampleInterval <= 0) throw new IllegalArgumentException("sampleInterval");
+		this.capacity = capacity;
+		this.sampleInterval = sampleInterval;
+		this.records = new long[capacity * RECORD_LENGTH];
+		this.recordBuffers = new ByteBuffer[capacity];
+		this.recordOffsets = new long[capacity];
+		this.pending = new int[capacity];
+	}
+
+	/**
+	 * Vermerkt den Beginn eines Sensor-Callbacks
+	 *
+	 * @param eventTimestamp Der Zeitstempel des Sensorereignisses
+	 */
+	public void sensorCallback(long eventTimestamp) {
+		this.callbackTime = System.nanoTime();
+		this.eventTimestamp = eventTimestamp;
+		this.filterTime = 0;
+	}
+
+	/**
+	 * Vermerkt das Ende der Lageschätzung im aktuellen Sensor-Callback
+	 */
+	public void filtered() {
+		this.filterTime = System.nanoTime();
+	}
+
+	/**
+	 * Beginnt die Aufzeichnung eines Frames, sofern er an der Reihe ist
+	 *
+	 * <p/>
+	 *
+	 * Übernimmt die Zeitpunkte des letzten Sensor-Callbacks.
+	 *
+	 * @param frameTimestamp Der Zeitstempel des Frames
+	 * @return Die Kennung der Aufzeichnung oder {@link #NO_TRACE}
+	 */
+	public int beginFrame(long frameTimestamp) {
+		if (++framesSinceTrace < sampleInterval) return NO_TRACE;
+		framesSinceTrace = 0;
+
+		synchronized (this) {
+			final int trace = (int) (recorded++ % capacity);
+			removePending(trace);
+
+			final int base = trace * RECORD_LENGTH;
+			for (int i = 0; i < RECORD_LENGTH; ++i) {
+				records[base + i] = 0;
+			}
+			records[base + FIELD_FRAME] = frameTimestamp;
+			records[base + FIELD_EVENT] = eventTimestamp;
+			records[base + FIELD_STAGES + STAGE_SENSOR] = callbackTime;
+			records[base + FIELD_STAGES + STAGE_FILTER] = filterTime;
+			return trace;
+		}
+	}
+
+	/**
+	 * Vermerkt das Erreichen einer Stufe
+	 *
+	 * @param trace Die Kennung der Aufzeichnung oder {@link #NO_TRACE}
+	 * @param stage Die Stufe
+	 */
+	public void mark(int trace, int stage) {
+		if (trace == NO_TRACE) return;
+
+		final long now = System.nanoTime();
+		synchronized (this) {
+			records[trace * RECORD_LENGTH + FIELD_STAGES + stage] = now;
+		}
+	}
+
+	/**
+	 * Ordnet eine Aufzeichnung dem Puffer zu, in den ihr Frame kodiert wurde
+	 *
+	 * @param trace Die Kennung der Aufzeichnung oder {@link #NO_TRACE}
+	 * @param buffer Der Puffer
+	 */
+	public void attach(int trace, @NotNull ByteBuffer buffer) {
+		if (trace == NO_TRACE) return;
+
+		synchronized (this) {
+			removePending(trace);
+			recordBuffers[trace] = buffer;
+			pending[pendingCount++] = trace;
+		}
+	}
+
+	/**
+	 * Vermerkt die Übergabe eines Puffers an den Schreiber
+	 *
+	 * @param buffer Der Puffer
+	 */
+	public void bufferEnqueued(@NotNull ByteBuffer buffer) {
+		if (pendingCount == 0) return;
+
+		final long now = System.nanoTime();
+		synchronized (this) {
+			markBuffer(buffer, STAGE_ENQUEUE, now);
+		}
+	}
+
+	/**
+	 * Vermerkt den Beginn eines Schreibvorgangs
+	 *
+	 * @param buffers Die Puffer
+	 * @param offset Der erste Puffer
+	 * @param length Die Anzahl der Puffer
+	 */
+	public void writeStarted(@NotNull ByteBuffer[] buffers, int offset, int length) {
+		if (pendingCount == 0) return;
+
+		final long now = System.nanoTime();
+		synchronized (this) {
+			for (int i = offset; i < offset + length; ++i) {
+				markBuffer(buffers[i], STAGE_WRITE_START, now);
+			}
+		}
+	}
+
+	/**
+	 * Vermerkt das Ende eines Schreibvorgangs; die Aufzeichnungen der Puffer sind damit abgeschlossen
+	 *
+	 * @param buffers Die Puffer
+	 * @param offset Der erste Puffer
+	 * @param length Die Anzahl der Puffer
+	 */
+	public void writeCompleted(@NotNull ByteBuffer[] buffers, int offset, int length) {
+		if (pendingCount == 0) return;
+
+		final long now = System.nanoTime();
+		synchronized (this) {
+			for (int i = offset; i < offset + length; ++i) {
+				markBuffer(buffers[i], STAGE_WRITE_COMPLETE, now);
+				releaseBuffer(buffers[i]);
+			}
+		}
+	}
+
+	/**
+	 * Beendet die Aufzeichnungen eines Puffers, der nicht geschrieben wird
+	 *
+	 * @param buffer Der Puffer
+	 */
+	public void discard(@NotNull ByteBuffer buffer) {
+		if (pendingCount == 0) return;
+
+		synchronized (this) {
+			releaseBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Vermerkt, dass ein Puffer in den Ringpuffer eines Multiplex-Kanals kopiert wurde
+	 *
+	 * <p/>
+	 *
+	 * Seine Aufzeichnungen werden ab jetzt über die Position im Strom des Kanals verfolgt
+	 * und erst von {@link #streamWritten(long, long)} abgeschlossen.
+	 *
+	 * @param buffer Der Puffer
+	 * @param endOffset Die Anzahl der bis einschließlich dieses Puffers in den Kanal kopierten Bytes
+	 */
+	public void bufferQueued(@NotNull ByteBuffer buffer, long endOffset) {
+		if (pendingCount == 0) return;
+
+		synchronized (this) {
+			for (int i = 0; i < pendingCount; ++i) {
+				final int trace = pending[i];
+				if (recordBuffers[trace] == buffer) {
+					recordBuffers[trace] = null;
+					recordOffsets[trace] = endOffset;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Vermerkt einen auf die Verbindung geschriebenen Rahmen eines Multiplex-Kanals;
+	 * die Aufzeichnungen der damit vollständig gesendeten Frames sind abgeschlossen
+	 *
+	 * @param endOffset Die Anzahl der bis einschließlich dieses Rahmens gesendeten Bytes des Kanals
+	 * @param startTime Der Beginn des Schreibvorgangs
+	 */
+	public void streamWritten(long endOffset, long startTime) {
+		if (pendingCount == 0) return;
+
+		final long now = System.nanoTime();
+		synchronized (this) {
+			int i = 0;
+			while (i < pendingCount) {
+				final int trace = pending[i];
+				if (recordBuffers[trace] == null && recordOffsets[trace] <= endOffset) {
+					final int base = trace * RECORD_LENGTH + FIELD_STAGES;
+					records[base + STAGE_WRITE_START] = startTime;
+					records[base + STAGE_WRITE_COMPLETE] = now;
+					removePendingAt(i);
+				}
+				else ++i;
+			}
+		}
+	}
+
+	/**
+	 * Beendet die Aufzeichnungen aller Frames, die im Ringpuffer eines Multiplex-Kanals
+	 * auf das Senden warten, z.B. weil der Multiplexer geschlossen wurde
+	 */
+	public void discardQueued() {
+		if (pendingCount == 0) return;
+
+		synchronized (this) {
+			releaseBuffer(null);
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der begonnenen Aufzeichnungen
+	 *
+	 * @return Die Anzahl
+	 */
+	public synchronized long getRecordCount() {
+		return recorded;
+	}
+
+	/**
+	 * Verwirft alle Aufzeichnungen
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < records.length; ++i) {
+			records[i] = 0;
+		}
+		for (int i = 0; i < capacity; ++i) {
+			recordBuffers[i] = null;
+		}
+		pendingCount = 0;
+		recorded = 0;
+	}
+
+	/**
+	 * Schreibt die Aufzeichnungen als CSV in eine Datei
+	 *
+	 * @param file Die Datei
+	 * @return Die Anzahl der geschriebenen Aufzeichnungen
+	 * @throws IOException Wenn die Datei nicht geschrieben werden konnte
+	 */
+	public int exportTo(@NotNull File file) throws IOException {
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "US-ASCII");
+		try {
+			return writeTo(writer);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Schreibt die Aufzeichnungen als CSV, älteste zuerst
+	 *
+	 * <p/>
+	 *
+	 * Nicht erreichte Stufen, z.B. von verworfenen Frames, werden als <code>0</code> ausgegeben.
+	 *
+	 * @param writer Das Ziel
+	 * @return Die Anzahl der geschriebenen Aufzeichnungen
+	 * @throws IOException Wenn nicht geschrieben werden konnte
+	 */
+	public int writeTo(@NotNull Writer writer) throws IOException {
+		// Schnappschuss ziehen, damit der Schreiber nicht auf die Ausgabe wartet
+		final long[] snapshot;
+		final int count;
+		final int first;
+		synchronized (this) {
+			snapshot = records.clone();
+			count = (int) Math.min(recorded, capacity);
+			first = (int) ((recorded - count) % capacity);
+		}
+
+		final StringBuilder line = new StringBuilder();
+		writer.write(CSV_HEADER);
+		writer.write("\r\n");
+		for (int i = 0; i < count; ++i) {
+			final int base = ((first + i) % capacity) * RECORD_LENGTH;
+			line.setLength(0);
+			for (int field = 0; field < RECORD_LENGTH; ++field) {
+				if (field > 0) line.append("; ");
+				line.append(snapshot[base + field]);
+			}
+			line.append("\r\n");
+			writer.write(line.toString());
+		}
+		writer.flush();
+		return count;
+	}
+
+	/**
+	 * Vermerkt eine Stufe für alle Aufzeichnungen eines Puffers
+	 *
+	 * @param buffer Der Puffer
+	 * @param stage Die Stufe
+	 * @param time Der Zeitpunkt
+	 */
+	private void markBuffer(@Nullable ByteBuffer buffer, int stage, long time) {
+		for (int i = 0; i < pendingCount; ++i) {
+			final int trace = pending[i];
+			if (recordBuffers[trace] == buffer) {
+				records[trace * RECORD_LENGTH + FIELD_STAGES + stage] = time;
+			}
+		}
+	}
+
+	/**
+	 * Löst alle Aufzeichnungen von einem Puffer
+	 *
+	 * @param buffer Der Puffer oder <code>null</code> für die in einen Multiplex-Kanal kopierten Frames
+	 */
+	private void releaseBuffer(@Nullable ByteBuffer buffer) {
+		int i = 0;
+		while (i < pendingCount) {
+			if (recordBuffers[pending[i]] == buffer) removePendingAt(i);
+			else ++i;
+		}
+	}
+
+	/**
+	 * Löst eine Aufzeichnung von ihrem Puffer, sofern sie einem zugeordnet ist
+	 *
+	 * @param trace Die Kennung der Aufzeichnung
+	 */
+	private void removePending(int trace) {
+		for (int i = 0; i < pendingCount; ++i) {
+			if (pending[i] == trace) {
+				removePendingAt(i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Entfernt einen Eintrag aus {@link #pending}
+	 *
+	 * @param index Der Index des Eintrags
+	 */
+	private void removePendingAt(int index) {
+		final int last = pendingCount - 1;
+		recordBuffers[pending[index]] = null;
+		pending[index] = pending[last];
+		pendingCount = last;
+	}
+}
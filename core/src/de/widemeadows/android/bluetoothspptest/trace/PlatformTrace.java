@@ -0,0 +1,142 @@
+package de.widemeadows.android.bluetoothspptest.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+
+/**
+ * Abschnitte für den Profiler der Plattform (systrace)
+ *
+ * <p/>
+ *
+ * <code>android.os.Trace</code> gibt es erst ab API-Level 18 und außerhalb von Android
+ * gar nicht; die Methoden werden daher einmalig per Reflection gesucht. Fehlen sie,
+ * sind alle Abschnitte wirkungslos.
+ */
+public final class PlatformTrace {
+
+	/**
+	 * Leere Argumentliste für <code>endSection()</code>
+	 */
+	@NotNull
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	/**
+	 * Die Länge, auf die Abschnittsnamen gekürzt werden
+	 */
+	private static final int MAX_NAME_LENGTH = 127;
+
+	/**
+	 * <code>Trace.beginSection(String)</code> oder <code>null</code>
+	 */
+	@Nullable
+	private static final Method beginSection;
+
+	/**
+	 * <code>Trace.endSection()</code> oder <code>null</code>
+	 */
+	@Nullable
+	private static final Method endSection;
+
+	static {
+		Method begin = null;
+		Method end = null;
+		try {
+			final Class<?> trace = Class.forName("android.os.Trace");
+			begin = trace.getMethod("beginSection", String.class);
+			end = trace.getMethod("endSection");
+		}
+		catch (ClassNotFoundException e) {
+			// keine Plattform-Abschnitte
+		}
+		catch (NoSuchMethodException e) {
+			// keine Plattform-Abschnitte
+		}
+		catch (LinkageError e) {
+			// keine Plattform-Abschnitte
+		}
+		beginSection = end != null ? begin : null;
+		endSection = begin != null ? end : null;
+	}
+
+	/**
+	 * Ein benannter Abschnitt
+	 *
+	 * <p/>
+	 *
+	 * Beginn und Ende müssen im selben Thread gerufen werden.
+	 */
+	public static final class Section {
+
+		/**
+		 * Die Argumentliste mit dem Namen, einmalig angelegt
+		 */
+		@NotNull
+		private final Object[] arguments;
+
+		/**
+		 * Erzeugt einen neuen Abschnitt
+		 *
+		 * @param name Der Name
+		 */
+		private Section(@NotNull String name) {
+			this.arguments = new Object[] { name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name };
+		}
+
+		/**
+		 * Beginnt den Abschnitt
+		 */
+		public void begin() {
+			invoke(beginSection, arguments);
+		}
+
+		/**
+		 * Beendet den Abschnitt
+		 */
+		public void end() {
+			invoke(endSection, NO_ARGUMENTS);
+		}
+	}
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private PlatformTrace() {}
+
+	/**
+	 * Gibt an, ob die Plattform Abschnitte unterstützt
+	 *
+	 * @return <code>true</code> ab API-Level 18
+	 */
+	public static boolean isAvailable() {
+		return beginSection != null;
+	}
+
+	/**
+	 * Erzeugt einen Abschnitt
+	 *
+	 * @param name Der Name, wie er im Profiler erscheint
+	 * @return Der Abschnitt
+	 */
+	@NotNull
+	public static Section section(@NotNull String name) {
+		return new Section(name);
+	}
+
+	/**
+	 * Ruft eine der Trace-Methoden
+	 *
+	 * @param method Die Methode oder <code>null</code>
+	 * @param arguments Die Argumente
+	 */
+	private static void invoke(@Nullable Method method, @NotNull Object[] arguments) {
+		if (method == null) return;
+		try {
+			method.invoke(null, arguments);
+		}
+		catch (Exception e) {
+			// Profiler-Abschnitte dürfen das Streaming nie stören
+		}
+	}
+}
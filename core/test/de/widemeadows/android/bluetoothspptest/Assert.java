@@ -0,0 +1,87 @@
+package de.widemeadows.android.bluetoothspptest;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Prüfungen für die Tests; ein Fehlschlag wirft einen {@link AssertionError}.
+ */
+public final class Assert {
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private Assert() {}
+
+	/**
+	 * Schlägt fehl
+	 *
+	 * @param message Die Beschreibung
+	 */
+	public static void fail(@NotNull String message) {
+		throw new AssertionError(message);
+	}
+
+	/**
+	 * Prüft eine Bedingung
+	 *
+	 * @param message Die Beschreibung
+	 * @param condition Die Bedingung
+	 */
+	public static void assertTrue(@NotNull String message, boolean condition) {
+		if (!condition) fail(message);
+	}
+
+	/**
+	 * Prüft zwei Objekte auf Gleichheit
+	 *
+	 * @param message Die Beschreibung
+	 * @param expected Der erwartete Wert
+	 * @param actual Der tatsächliche Wert
+	 */
+	public static void assertEquals(@NotNull String message, @Nullable Object expected, @Nullable Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			fail(message + ": erwartet <" + expected + ">, erhalten <" + actual + ">");
+		}
+	}
+
+	/**
+	 * Prüft zwei Ganzzahlen auf Gleichheit
+	 *
+	 * @param message Die Beschreibung
+	 * @param expected Der erwartete Wert
+	 * @param actual Der tatsächliche Wert
+	 */
+	public static void assertEquals(@NotNull String message, long expected, long actual) {
+		if (expected != actual) fail(message + ": erwartet <" + expected + ">, erhalten <" + actual + ">");
+	}
+
+	/**
+	 * Prüft zwei Zahlen auf Gleichheit bis auf eine Toleranz
+	 *
+	 * @param message Die Beschreibung
+	 * @param expected Der erwartete Wert
+	 * @param actual Der tatsächliche Wert
+	 * @param tolerance Die größte erlaubte Abweichung
+	 */
+	public static void assertEquals(@NotNull String message, double expected, double actual, double tolerance) {
+		if (Double.isNaN(expected) ? !Double.isNaN(actual) : !(Math.abs(expected - actual) <= tolerance)) {
+			fail(message + ": erwartet <" + expected + "> ± " + tolerance + ", erhalten <" + actual + ">");
+		}
+	}
+
+	/**
+	 * Prüft zwei Byte-Folgen auf Gleichheit
+	 *
+	 * @param message Die Beschreibung
+	 * @param expected Die erwarteten Bytes
+	 * @param actual Die tatsächlichen Bytes
+	 */
+	public static void assertArrayEquals(@NotNull String message, @NotNull byte[] expected, @NotNull byte[] actual) {
+		if (!Arrays.equals(expected, actual)) {
+			fail(message + ": erwartet " + Arrays.toString(expected) + ", erhalten " + Arrays.toString(actual));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package de.widemeadows.android.bluetoothspptest;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Führt alle Tests eines übersetzten Testverzeichnisses aus.
+ *
+ * <pre>
+ * TestRunner &lt;verzeichnis&gt;
+ * </pre>
+ *
+ * Tests sind Klassen mit der Endung <code>Test</code>; jede öffentliche, parameterlose
+ * Methode, deren Name mit <code>test</code> beginnt, wird mit einer neuen Instanz gerufen.
+ * Schlägt ein Test fehl, endet der Runner mit Fehlercode <code>1</code>.
+ */
+public final class TestRunner {
+
+	/**
+	 * Die Endung der Testklassen
+	 */
+	@NotNull
+	private static final String CLASS_SUFFIX = "Test.class";
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private TestRunner() {}
+
+	/**
+	 * Einstiegspunkt
+	 *
+	 * @param args Das Verzeichnis der übersetzten Tests
+	 * @throws ClassNotFoundException Wenn eine gefundene Klasse nicht geladen werden kann
+	 */
+	public static void main(@NotNull String[] args) throws ClassNotFoundException {
+		if (args.length != 1) {
+			System.err.println("usage: TestRunner <directory>");
+			System.exit(2);
+		}
+
+		final File root = new File(args[0]);
+		final List<String> classNames = new ArrayList<String>();
+		collect(root, "", classNames);
+		Collections.sort(classNames);
+
+		int run = 0;
+		int failed = 0;
+		for (String className : classNames) {
+			final Class<?> testClass = Class.forName(className);
+			if (Modifier.isAbstract(testClass.getModifiers())) continue;
+
+			final Method[] methods = testClass.getMethods();
+			Arrays.sort(methods, new Comparator<Method>() {
+				@Override
+				public int compare(Method a, Method b) {
+					return a.getName().compareTo(b.getName());
+				}
+			});
+			for (Method method : methods) {
+				if (!method.getName().startsWith("test") || method.getParameterTypes().length != 0) continue;
+				if (Modifier.isStatic(method.getModifiers())) continue;
+
+				++run;
+				final String name = testClass.getSimpleName() + "." + method.getName();
+				try {
+					method.invoke(testClass.getConstructor().newInstance());
+					System.out.println("ok     " + name);
+				} catch (InvocationTargetException e) {
+					++failed;
+					System.out.println("FAILED " + name);
+					e.getCause().printStackTrace(System.out);
+				} catch (ReflectiveOperationException e) {
+					++failed;
+					System.out.println("FAILED " + name + ": " + e);
+				}
+			}
+		}
+
+		System.out.println(run + " tests, " + failed + " failed");
+		if (failed > 0 || run == 0) System.exit(1);
+	}
+
+	/**
+	 * Sammelt die Namen der Testklassen eines Verzeichnisses
+	 *
+	 * @param directory Das Verzeichnis
+	 * @param packagePrefix Der Paketname mit abschließendem Punkt
+	 * @param classNames Das Ziel
+	 */
+	private static void collect(@NotNull File directory, @NotNull String packagePrefix, @NotNull List<String> classNames) {
+		final File[] files = directory.listFiles();
+		if (files == null) return;
+		for (File file : files) {
+			final String name = file.getName();
+			if (file.isDirectory()) collect(file, packagePrefix + name + ".", classNames);
+			else if (name.endsWith(CLASS_SUFFIX) && name.indexOf('$') < 0) {
+				classNames.add(packagePrefix + name.substring(0, name.length() - ".class".length()));
+			}
+		}
+	}
+}
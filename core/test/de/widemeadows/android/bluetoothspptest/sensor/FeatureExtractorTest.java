@@ -0,0 +1,120 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+
+/**
+ * Prüft Statistiken, Bandenergien und Ausgaberate des {@link FeatureExtractor}
+ */
+public final class FeatureExtractorTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Sammelt die ausgegebenen Merkmals-Frames
+	 */
+	private static final class FrameCollector implements ISensorSampleListener {
+
+		/**
+		 * Die Zeitpunkte der Frames
+		 */
+		final List<Long> times = new ArrayList<Long>();
+
+		/**
+		 * Kopien der Frames
+		 */
+		final List<float[]> frames = new ArrayList<float[]>();
+
+		@Override
+		public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+			times.add(timestamp);
+			final float[] copy = new float[count];
+			System.arraycopy(values, firstChannel, copy, 0, count);
+			frames.add(copy);
+		}
+
+		/**
+		 * Liefert den letzten Frame
+		 *
+		 * @return Der Frame
+		 */
+		@NotNull
+		float[] last() {
+			assertTrue("Frames", !frames.isEmpty());
+			return frames.get(frames.size() - 1);
+		}
+	}
+
+	/**
+	 * Der Empfänger der Merkmals-Frames
+	 */
+	private final FrameCollector collector = new FrameCollector();
+
+	public void testStatisticsOfSlidingWindow() {
+		// Kanal 1 wird ausgewertet; der erste Wert fällt aus dem Fenster von vier Werten
+		final FeatureExtractor extractor = new FeatureExtractor(1, 1, 4, 0, 1, collector);
+		final float[] input = { 5, -3, 1, 2, -1 };
+		for (int i = 0; i < input.length; ++i) {
+			extractor.sampleAvailable(0, i * 250 * MS, new float[] { 100, input[i] }, 2);
+		}
+
+		assertEquals("ein Frame", 1, collector.frames.size());
+		final float[] features = collector.last();
+		assertEquals("Merkmale", extractor.getFeatureCount(), features.length);
+		assertEquals("Effektivwert", Math.sqrt((9 + 1 + 4 + 1) / 4.0), features[FeatureExtractor.FEATURE_RMS], 1e-6);
+		assertEquals("Minimum", -3, features[FeatureExtractor.FEATURE_MIN], 0);
+		assertEquals("Maximum", 2, features[FeatureExtractor.FEATURE_MAX], 0);
+		assertEquals("Spitzenwert", 3, features[FeatureExtractor.FEATURE_PEAK], 0);
+	}
+
+	public void testSineEnergyInItsBand() {
+		// 64 Werte bei 100 Hz, acht Bänder zu je vier Bins; Bin 10 liegt im dritten Band
+		final double sampleRate = 100;
+		final double frequency = 10 * sampleRate / 64;
+		final double amplitude = 2;
+		final FeatureExtractor extractor = new FeatureExtractor(0, 1, 64, 8, 1, collector);
+		assertTrue("Bandgrenzen", extractor.getBandFrequency(2, sampleRate) < frequency && frequency < extractor.getBandFrequency(3, sampleRate));
+
+		for (int i = 0; i <= 200; ++i) {
+			final double t = i / sampleRate;
+			extractor.sampleAvailable(0, i * 10 * MS, new float[] { (float) (0.5 + amplitude * Math.sin(2 * Math.PI * frequency * t)) }, 1);
+		}
+
+		final float[] features = collector.last();
+		double total = 0;
+		for (int b = 0; b < 8; ++b) {
+			total += features[FeatureExtractor.FEATURE_BANDS + b];
+		}
+		final double meanSquare = amplitude * amplitude / 2;
+		assertEquals("Summe ohne Gleichanteil", meanSquare, total, 0.1 * meanSquare);
+		assertTrue("Energie im dritten Band", features[FeatureExtractor.FEATURE_BANDS + 2] > 0.95 * total);
+	}
+
+	public void testEmitsAtConfiguredRate() {
+		// 200 Hz hinein, 5 Hz heraus
+		final FeatureExtractor extractor = new FeatureExtractor(0, 1, 8, 2, 5, collector);
+		for (long t = 0; t <= 10000 * MS; t += 5 * MS) {
+			extractor.sampleAvailable(0, t, new float[] { 1 }, 1);
+		}
+
+		assertEquals("Frames", 50, collector.frames.size());
+		assertEquals("gezählt", 50, extractor.getFramesEmitted());
+		for (int i = 0; i < collector.times.size(); ++i) {
+			assertEquals("Raster", (i + 1) * 200 * MS, (long) collector.times.get(i));
+		}
+
+		// Nach einer Lücke von einer Sekunde wird nicht aufgeholt
+		extractor.sampleAvailable(0, 11000 * MS, new float[] { 1 }, 1);
+		extractor.sampleAvailable(0, 11005 * MS, new float[] { 1 }, 1);
+		assertEquals("ein Frame nach der Lücke", 51, collector.frames.size());
+		assertEquals("neues Raster", 11000 * MS, (long) collector.times.get(50));
+	}
+}
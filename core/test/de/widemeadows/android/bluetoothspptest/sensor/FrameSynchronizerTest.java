@@ -0,0 +1,138 @@
+package de.widemeadows.android.bluetoothspptest.sensor;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+
+/**
+ * Prüft Raster, Interpolation und Wartezeit des {@link FrameSynchronizer}
+ */
+public final class FrameSynchronizerTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Sammelt die ausgegebenen Frames
+	 */
+	private static final class FrameCollector implements ISensorSampleListener {
+
+		/**
+		 * Die Zeitpunkte der Frames
+		 */
+		final List<Long> times = new ArrayList<Long>();
+
+		/**
+		 * Kopien der Frames
+		 */
+		final List<float[]> frames = new ArrayList<float[]>();
+
+		@Override
+		public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+			times.add(timestamp);
+			final float[] copy = new float[count];
+			System.arraycopy(values, firstChannel, copy, 0, count);
+			frames.add(copy);
+		}
+
+		/**
+		 * Liefert den Wert eines Kanals im Frame zu einem Zeitpunkt
+		 *
+		 * @param time Der Zeitpunkt
+		 * @param channel Der Kanal
+		 * @return Der Wert
+		 */
+		float valueAt(long time, int channel) {
+			final int index = times.indexOf(time);
+			assertTrue("Frame bei " + time, index >= 0);
+			return frames.get(index)[channel];
+		}
+	}
+
+	/**
+	 * Der Empfänger der Frames
+	 */
+	private final FrameCollector collector = new FrameCollector();
+
+	public void testInterpolatesRampWithLaggingSlowChannel() {
+		// Ein Kanal mit 500 Hz, einer alle 90 ms; beide messen dieselbe Rampe
+		final FrameSynchronizer synchronizer = new FrameSynchronizer(2, 100, FrameSynchronizer.Mode.INTERPOLATE, collector);
+		final float[] value = new float[2];
+		for (long t = 0; t <= 2000 * MS; t += 2 * MS) {
+			value[0] = value[1] = ramp(t);
+			synchronizer.sampleAvailable(0, t, value, t % (90 * MS) == 0 ? 2 : 1);
+		}
+
+		assertTrue("Frames", collector.frames.size() > 150);
+		for (int i = 0; i < collector.frames.size(); ++i) {
+			final long time = collector.times.get(i);
+			assertEquals("Raster", 0, time % (10 * MS));
+			assertEquals("schneller Kanal bei " + time, ramp(time), collector.frames.get(i)[0], 1e-3);
+			assertEquals("langsamer Kanal bei " + time, ramp(time), collector.frames.get(i)[1], 1e-3);
+		}
+		assertEquals("gezählt", collector.frames.size(), synchronizer.getFramesEmitted());
+	}
+
+	public void testHoldKeepsLastValue() {
+		final FrameSynchronizer synchronizer = new FrameSynchronizer(1, 1000, FrameSynchronizer.Mode.HOLD, collector);
+		synchronizer.sampleAvailable(0, 0, new float[] { 1 }, 1);
+		synchronizer.sampleAvailable(0, 10 * MS, new float[] { 2 }, 1);
+
+		assertEquals("Frames", 11, collector.frames.size());
+		assertEquals("gehalten", 1, collector.valueAt(9 * MS, 0), 0);
+		assertEquals("neuer Wert", 2, collector.valueAt(10 * MS, 0), 0);
+	}
+
+	public void testInterpolatesCircularChannelsTheShortWay() {
+		final FrameSynchronizer synchronizer = new FrameSynchronizer(1, 1000, FrameSynchronizer.Mode.INTERPOLATE, collector);
+		synchronizer.setCircular(0, 1, 0, 360);
+		synchronizer.sampleAvailable(0, 0, new float[] { 350 }, 1);
+		synchronizer.sampleAvailable(0, 10 * MS, new float[] { 10 }, 1);
+
+		assertEquals("vor dem Umlauf", 352, collector.valueAt(MS, 0), 1e-3);
+		assertEquals("Umlauf", 0, collector.valueAt(5 * MS, 0), 1e-3);
+		assertEquals("nach dem Umlauf", 2, collector.valueAt(6 * MS, 0), 1e-3);
+	}
+
+	public void testMaxWaitLimitedToHistory() {
+		final FrameSynchronizer synchronizer = new FrameSynchronizer(1, 100, FrameSynchronizer.Mode.INTERPOLATE, collector);
+		assertEquals("Standard", FrameSynchronizer.DEFAULT_MAX_WAIT, synchronizer.getMaxWait());
+		synchronizer.setMaxWait(1000 * MS);
+		assertEquals("begrenzt", FrameSynchronizer.DEFAULT_MAX_WAIT, synchronizer.getMaxWait());
+
+		// Bei 100 Hz deckt der kleinste Puffer 30 Werte ab
+		final FrameSynchronizer slow = new FrameSynchronizer(1, 100, 100, FrameSynchronizer.Mode.INTERPOLATE, collector);
+		slow.setMaxWait(1000 * MS);
+		assertEquals("langsame Eingänge", 300 * MS, slow.getMaxWait());
+		slow.setMaxWait(50 * MS);
+		assertEquals("kürzer", 50 * MS, slow.getMaxWait());
+	}
+
+	public void testSilentChannelIsHeldAfterMaxWait() {
+		final FrameSynchronizer synchronizer = new FrameSynchronizer(2, 100, FrameSynchronizer.Mode.INTERPOLATE, collector);
+		synchronizer.setMaxWait(50 * MS);
+		synchronizer.sampleAvailable(1, 0, new float[] { 7 }, 1);
+		for (long t = 0; t <= 200 * MS; t += 2 * MS) {
+			synchronizer.sampleAvailable(0, t, new float[] { ramp(t) }, 1);
+		}
+
+		assertTrue("Frames trotz stillem Kanal", collector.frames.size() >= 20);
+		assertEquals("gehalten", 7, collector.valueAt(200 * MS, 1), 0);
+	}
+
+	/**
+	 * Die gemessene Rampe: eins je Sekunde
+	 *
+	 * @param time Der Zeitpunkt in Nanosekunden
+	 * @return Der Wert
+	 */
+	private static float ramp(long time) {
+		return (float) (time / 1e9);
+	}
+}
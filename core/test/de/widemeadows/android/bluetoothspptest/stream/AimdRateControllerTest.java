@@ -0,0 +1,98 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+
+/**
+ * Prüft die einzelnen Regelschritte des {@link AimdRateController}
+ */
+public final class AimdRateControllerTest {
+
+	/**
+	 * Ein Regelintervall in Nanosekunden
+	 */
+	private static final long STEP = AimdRateController.DEFAULT_INTERVAL;
+
+	/**
+	 * Der Regler zwischen 10 und 110 Frames je Sekunde, Blockgröße 1 bis 8
+	 */
+	private final AimdRateController controller = new AimdRateController(10, 110, 1, 8);
+
+	public void testStartsAtMaximumRateAndMinimumBatch() {
+		assertEquals("Rate", 110, controller.getRate(), 0);
+		assertEquals("Blockgröße", 1, controller.getBatchSize());
+	}
+
+	public void testFirstUpdateOnlyMeasures() {
+		assertTrue("erste Messung", !controller.update(0, 0, 0, 0, 0));
+		assertTrue("vor Ablauf des Intervalls", !controller.update(STEP - 1, 10, 0, 0, 0));
+		assertEquals("Rate", 110, controller.getRate(), 0);
+	}
+
+	public void testGrowingQueueHalvesRateAndDoublesBatch() {
+		controller.update(0, 0, 0, 0, 0);
+		assertTrue("geregelt", controller.update(STEP, 4, 0, 0, 0));
+		assertEquals("Rate", 55, controller.getRate(), 1e-9);
+		assertEquals("Blockgröße", 2, controller.getBatchSize());
+
+		controller.update(2 * STEP, 8, 0, 0, 0);
+		assertEquals("Rate", 27.5, controller.getRate(), 1e-9);
+		assertEquals("Blockgröße", 4, controller.getBatchSize());
+	}
+
+	public void testDropsCountAsCongestion() {
+		controller.update(0, 0, 0, 0, 0);
+		controller.update(STEP, 0, 0, 3, 0);
+		assertEquals("Rate", 55, controller.getRate(), 1e-9);
+	}
+
+	public void testShortQueueIsNoCongestion() {
+		controller.update(0, 0, 0, 0, 0);
+		controller.update(STEP, 1, 0, 0, 0);
+		assertEquals("Rate", 110, controller.getRate(), 0);
+	}
+
+	public void testDecreaseLimitedByMeasuredThroughput() {
+		// 100 Bytes je Frame, 500 Bytes in 0,25 s: 20 Frames je Sekunde
+		controller.update(0, 0, 0, 0, 100);
+		controller.update(STEP, 4, 500, 0, 100);
+		assertEquals("Durchsatz", 20, controller.getMeasuredThroughput(), 1e-9);
+		assertEquals("Rate", 20, controller.getRate(), 1e-9);
+	}
+
+	public void testRateNeverBelowMinimumAndBatchNeverAboveMaximum() {
+		controller.update(0, 0, 0, 0, 0);
+		for (int i = 1; i <= 10; ++i) {
+			controller.update(i * STEP, 2 + i, 0, 0, 0);
+		}
+		assertEquals("Rate", 10, controller.getRate(), 0);
+		assertEquals("Blockgröße", 8, controller.getBatchSize());
+	}
+
+	public void testAdditiveIncreaseAndShrinkingBatch() {
+		controller.update(0, 0, 0, 0, 0);
+		controller.update(STEP, 4, 0, 0, 0);
+		controller.update(2 * STEP, 8, 0, 0, 0);
+
+		// Erhöhung um ein Hundertstel des Bereiches, mindestens 1
+		controller.update(3 * STEP, 0, 0, 0, 0);
+		assertEquals("Rate", 28.5, controller.getRate(), 1e-9);
+		assertEquals("Blockgröße", 3, controller.getBatchSize());
+
+		for (int i = 4; i < 200; ++i) {
+			controller.update(i * STEP, 0, 0, 0, 0);
+		}
+		assertEquals("Rate", 110, controller.getRate(), 0);
+		assertEquals("Blockgröße", 1, controller.getBatchSize());
+	}
+
+	public void testResetRestoresInitialState() {
+		controller.update(0, 0, 0, 0, 0);
+		controller.update(STEP, 4, 0, 0, 0);
+		controller.reset();
+
+		assertEquals("Rate", 110, controller.getRate(), 0);
+		assertEquals("Blockgröße", 1, controller.getBatchSize());
+		assertTrue("misst neu", !controller.update(10 * STEP, 0, 0, 0, 0));
+	}
+}
@@ -0,0 +1,324 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertArrayEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+import static de.widemeadows.android.bluetoothspptest.Assert.fail;
+
+/**
+ * Prüft Durchreichen, Rahmenbildung und Fehlerbehandlung des {@link ChannelMultiplexer}
+ */
+public final class ChannelMultiplexerTest {
+
+	/**
+	 * Die längste Wartezeit auf den Sende-Thread in Millisekunden
+	 */
+	private static final long TIMEOUT_MS = 5000;
+
+	/**
+	 * Eine Verbindung, deren Schreibvorgänge auf Wunsch blockieren, bis sie freigegeben wird
+	 */
+	private static final class BlockingLink implements ISampleTransport {
+
+		/**
+		 * Gibt an, ob Schreibvorgänge blockieren
+		 */
+		private boolean blocked;
+
+		/**
+		 * Lässt alle folgenden Schreibvorgänge blockieren
+		 */
+		synchronized void block() {
+			blocked = true;
+		}
+
+		/**
+		 * Gibt wartende und folgende Schreibvorgänge frei
+		 */
+		synchronized void release() {
+			blocked = false;
+			notifyAll();
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isDirectBufferPreferred() {
+			return false;
+		}
+
+		@Override
+		public synchronized void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+			while (blocked) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					throw new IOException("Unterbrochen");
+				}
+			}
+			for (int i = offset; i < offset + length; ++i) buffers[i].position(buffers[i].limit());
+		}
+	}
+
+	/**
+	 * Die Verbindung
+	 */
+	private final RecordingTransport link = new RecordingTransport();
+
+	/**
+	 * Der Multiplexer
+	 */
+	private final ChannelMultiplexer multiplexer = new ChannelMultiplexer(link);
+
+	public void testPassesThroughBeforeActivation() throws IOException {
+		write(StreamProtocol.MUX_CHANNEL_LIVE, bytes("live"));
+		write(StreamProtocol.MUX_CHANNEL_CONTROL, bytes("control"));
+
+		assertArrayEquals("unverändert", bytes("livecontrol"), link.getWritten());
+		assertTrue("kein Multiplex-Betrieb", !multiplexer.isActive());
+		multiplexer.close();
+	}
+
+	public void testRejectsBulkBeforeActivation() {
+		final ChannelMultiplexer.Channel bulk = multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_BULK);
+		assertTrue("getrennt", !bulk.isConnected());
+		try {
+			write(StreamProtocol.MUX_CHANNEL_BULK, bytes("bulk"));
+			fail("Massendaten vor dem Wechsel");
+		} catch (IOException e) {
+			// erwartet
+		}
+		assertEquals("nichts geschrieben", 0, link.getWritten().length);
+		multiplexer.close();
+	}
+
+	public void testFramesChannelsAfterActivation() throws Exception {
+		multiplexer.activate();
+		assertTrue("verbunden", multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_BULK).isConnected());
+
+		final byte[] live = pattern(3000, 7);
+		final byte[] bulk = pattern(5000, 13);
+		final byte[] control = bytes("ENC csv" + StreamProtocol.LINE_END);
+		write(StreamProtocol.MUX_CHANNEL_BULK, bulk);
+		write(StreamProtocol.MUX_CHANNEL_LIVE, live);
+		write(StreamProtocol.MUX_CHANNEL_CONTROL, control);
+		drain();
+		multiplexer.close();
+
+		final byte[] written = link.getWritten();
+		final byte[] marker = bytes(StreamProtocol.MUX_LINE + StreamProtocol.LINE_END);
+		assertArrayEquals("Markierung", marker, Arrays.copyOf(written, marker.length));
+
+		final ByteArrayOutputStream[] payloads = new ByteArrayOutputStream[StreamProtocol.MUX_CHANNEL_COUNT];
+		for (int i = 0; i < payloads.length; ++i) payloads[i] = new ByteArrayOutputStream();
+
+		final ByteBuffer frames = ByteBuffer.wrap(written, marker.length, written.length - marker.length);
+		while (frames.hasRemaining()) {
+			assertEquals("Rahmenbeginn", StreamProtocol.MUX_FRAME_START, frames.get());
+			final int channel = frames.get();
+			final int length = frames.getShort() & 0xFFFF;
+			assertTrue("Kanal " + channel, channel >= 0 && channel < StreamProtocol.MUX_CHANNEL_COUNT);
+			assertTrue("Länge " + length, length > 0 && length <= StreamProtocol.MUX_MAX_PAYLOAD);
+			final byte[] payload = new byte[length];
+			frames.get(payload);
+			payloads[channel].write(payload);
+		}
+
+		assertArrayEquals("Steuerkanal", control, payloads[StreamProtocol.MUX_CHANNEL_CONTROL].toByteArray());
+		assertArrayEquals("Live-Kanal", live, payloads[StreamProtocol.MUX_CHANNEL_LIVE].toByteArray());
+		assertArrayEquals("Massendaten", bulk, payloads[StreamProtocol.MUX_CHANNEL_BULK].toByteArray());
+		assertEquals("gezählt", live.length, multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_LIVE).getBytesSent());
+	}
+
+	public void testWriteFailureClosesMultiplexer() throws Exception {
+		multiplexer.activate();
+		final IOException broken = new IOException("Verbindung abgebrochen");
+		link.failWith(broken);
+
+		write(StreamProtocol.MUX_CHANNEL_LIVE, bytes("lost"));
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!multiplexer.isClosed() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+
+		assertTrue("geschlossen", multiplexer.isClosed());
+		assertEquals("Fehler", broken, multiplexer.getFailure());
+		assertEquals("Fehleranzahl", 1, multiplexer.getWriteErrors());
+		assertTrue("getrennt", !multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_LIVE).isConnected());
+		try {
+			write(StreamProtocol.MUX_CHANNEL_LIVE, bytes("more"));
+			fail("Schreiben nach dem Fehler");
+		} catch (IOException e) {
+			assertEquals("Ursache", broken, e.getCause());
+		}
+	}
+
+	public void testPassThroughFailureClosesMultiplexer() {
+		final IOException broken = new IOException("Verbindung abgebrochen");
+		link.failWith(broken);
+		try {
+			write(StreamProtocol.MUX_CHANNEL_LIVE, bytes("lost"));
+			fail("Schreiben auf die Verbindung");
+		} catch (IOException e) {
+			assertEquals("Fehler", broken, e);
+		}
+
+		assertTrue("geschlossen", multiplexer.isClosed());
+		try {
+			multiplexer.activate();
+			fail("Wechsel nach dem Fehler");
+		} catch (IOException e) {
+			assertEquals("Ursache", broken, e.getCause());
+		}
+	}
+
+	public void testBacklogReachesWriterQueue() throws Exception {
+		final BlockingLink blockingLink = new BlockingLink();
+		final ChannelMultiplexer blocked = new ChannelMultiplexer(blockingLink);
+		blocked.activate();
+		blockingLink.block();
+
+		final SampleStreamer streamer = new SampleStreamer(3, blocked.getChannel(StreamProtocol.MUX_CHANNEL_LIVE));
+		streamer.sessionStarted();
+		streamer.start();
+		try {
+			// Etwa 8 KiB Frames; der Live-Kanal fasst davon nur einen kleinen Teil
+			for (int i = 0; i < 300; ++i) {
+				streamer.sampleAvailable(0, i * 1000000L, new float[] { i, 1, 2 }, 3);
+				Thread.sleep(0, 100000);
+			}
+
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (streamer.getWriter().getQueueLength() == 0) {
+				if (System.currentTimeMillis() > deadline) fail("kein Rückstau beim Schreiber");
+				Thread.sleep(5);
+			}
+			assertTrue("verworfen", streamer.getFramesDropped() > 0);
+			assertTrue("Live-Kanal begrenzt", blocked.getChannel(StreamProtocol.MUX_CHANNEL_LIVE).getQueued() <= ChannelMultiplexer.LIVE_CAPACITY);
+		} finally {
+			blocked.close();
+			blockingLink.release();
+			streamer.close();
+		}
+	}
+
+	public void testTracesWriteOnLink() throws Exception {
+		final BlockingLink blockingLink = new BlockingLink();
+		final ChannelMultiplexer blocked = new ChannelMultiplexer(blockingLink);
+		final LatencyTracer tracer = new LatencyTracer(4, 1);
+		blocked.setLatencyTracer(tracer);
+		blocked.activate();
+		blockingLink.block();
+
+		final SampleStreamer streamer = new SampleStreamer(3, blocked.getChannel(StreamProtocol.MUX_CHANNEL_LIVE));
+		streamer.setLatencyTracer(tracer);
+		streamer.sessionStarted();
+		streamer.start();
+		try {
+			streamer.sampleAvailable(0, 1000000L, new float[] { 0, 1, 2 }, 3);
+
+			// Der Schreiber hat nur in den Ringpuffer kopiert; die Verbindung hält den Rahmen noch fest
+			long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (streamer.getWriter().getWriteCalls() == 0) {
+				if (System.currentTimeMillis() > deadline) fail("nichts an den Multiplexer übergeben");
+				Thread.sleep(5);
+			}
+			Thread.sleep(20);
+			assertEquals("nicht geschrieben", 0, traceField(tracer, LatencyTracer.STAGE_WRITE_COMPLETE));
+
+			final long released = System.nanoTime();
+			blockingLink.release();
+			deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (traceField(tracer, LatencyTracer.STAGE_WRITE_COMPLETE) == 0) {
+				if (System.currentTimeMillis() > deadline) fail("Schreibende nicht vermerkt");
+				Thread.sleep(5);
+			}
+			assertTrue("Schreibende nach der Freigabe", traceField(tracer, LatencyTracer.STAGE_WRITE_COMPLETE) >= released);
+			assertTrue("Schreibbeginn vor dem Ende", traceField(tracer, LatencyTracer.STAGE_WRITE_START) <= traceField(tracer, LatencyTracer.STAGE_WRITE_COMPLETE));
+			assertTrue("Schreibbeginn nach dem Einreihen", traceField(tracer, LatencyTracer.STAGE_WRITE_START) >= traceField(tracer, LatencyTracer.STAGE_ENQUEUE));
+		} finally {
+			blocked.close();
+			blockingLink.release();
+			streamer.close();
+		}
+	}
+
+	/**
+	 * Schreibt Bytes auf einen Kanal
+	 *
+	 * @param channel Die Nummer des Kanals
+	 * @param data Die Bytes
+	 * @throws IOException Wenn der Kanal das Schreiben ablehnt
+	 */
+	private void write(int channel, byte[] data) throws IOException {
+		multiplexer.getChannel(channel).write(new ByteBuffer[] { ByteBuffer.wrap(data) }, 0, 1);
+	}
+
+	/**
+	 * Wartet, bis alle Kanäle ihre Daten gesendet haben
+	 *
+	 * @throws InterruptedException Wenn der Test unterbrochen wurde
+	 */
+	private void drain() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		for (int id = 0; id < StreamProtocol.MUX_CHANNEL_COUNT; ++id) {
+			while (multiplexer.getChannel(id).getQueued() > 0) {
+				if (System.currentTimeMillis() > deadline) fail("Kanal " + id + " wird nicht geleert");
+				Thread.sleep(5);
+			}
+		}
+	}
+
+	/**
+	 * Liest eine Stufe der ersten Aufzeichnung aus der CSV-Ausgabe eines Tracers
+	 *
+	 * @param tracer Der Tracer
+	 * @param stage Die Stufe
+	 * @return Der Zeitpunkt oder <code>0</code>
+	 * @throws IOException Wenn nicht geschrieben werden konnte
+	 */
+	private static long traceField(@NotNull LatencyTracer tracer, int stage) throws IOException {
+		final StringWriter csv = new StringWriter();
+		tracer.writeTo(csv);
+		final String[] lines = csv.toString().split("\r\n");
+		if (lines.length < 2) fail("keine Aufzeichnung");
+
+		// Zeitstempel von Frame und Ereignis stehen vor den Stufen
+		return Long.parseLong(lines[1].split("; ")[2 + stage]);
+	}
+
+	/**
+	 * Kodiert Text im Zeichensatz des Protokolls
+	 *
+	 * @param text Der Text
+	 * @return Die Bytes
+	 */
+	private static byte[] bytes(String text) {
+		return StreamProtocol.toBytes(text);
+	}
+
+	/**
+	 * Erzeugt ein Muster, in dem sich Verschiebungen und Vertauschungen zeigen
+	 *
+	 * @param length Die Länge
+	 * @param step Die Schrittweite
+	 * @return Das Muster
+	 */
+	private static byte[] pattern(int length, int step) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; ++i) data[i] = (byte) (i * step + i / 256);
+		return data;
+	}
+}
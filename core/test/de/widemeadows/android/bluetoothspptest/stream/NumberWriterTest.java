@@ -0,0 +1,135 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+
+/**
+ * Vergleicht {@link NumberWriter} und {@link CsvSampleEncoder} mit {@link DecimalFormat}
+ */
+public final class NumberWriterTest {
+
+	/**
+	 * Das Format der bisherigen Ausgabe
+	 */
+	@NotNull
+	private static final String PATTERN = ",##0.00000";
+
+	/**
+	 * Der Zeichensatz des Protokolls
+	 */
+	@NotNull
+	private static final Charset CHARSET = Charset.forName(StreamProtocol.CHARSET_NAME);
+
+	/**
+	 * Der Puffer für die Ausgabe
+	 */
+	@NotNull
+	private final ByteBuffer buffer = ByteBuffer.allocate(256);
+
+	public void testCsvMatchesDecimalFormatGerman() {
+		assertCsvMatches(DecimalFormatSymbols.getInstance(Locale.GERMANY));
+	}
+
+	public void testCsvMatchesDecimalFormatUs() {
+		assertCsvMatches(DecimalFormatSymbols.getInstance(Locale.US));
+	}
+
+	public void testTiesRoundHalfEven() {
+		// Exakt darstellbare Hälften
+		assertEquals("0.125", "0.12", fixed(0.125, 2));
+		assertEquals("0.375", "0.38", fixed(0.375, 2));
+		assertEquals("2.5", "2", fixed(2.5, 0));
+		assertEquals("3.5", "4", fixed(3.5, 0));
+		assertEquals("-2.5", "-2", fixed(-2.5, 0));
+
+		// Dezimal scheinbare Hälften entscheidet der exakte Binärwert des float
+		final DecimalFormat format = new DecimalFormat("0.00000", DecimalFormatSymbols.getInstance(Locale.US));
+		for (float value : new float[] { 5e-6f, 1.5e-5f, 2.5e-5f, 0.123455f, -0.123445f, 1.000005f }) {
+			assertEquals(Float.toString(value), format.format(value), fixed(value, 5));
+		}
+	}
+
+	public void testNegativeValuesRoundedToZeroKeepSign() {
+		final DecimalFormat format = new DecimalFormat("0.00000", DecimalFormatSymbols.getInstance(Locale.US));
+		assertEquals("-1e-6", format.format(-1e-6), fixed(-1e-6, 5));
+		assertEquals("-0.0", format.format(-0.0), fixed(-0.0, 5));
+		assertEquals("0.0", format.format(0.0), fixed(0.0, 5));
+	}
+
+	public void testLargeValuesUseSignificantDigits() {
+		final DecimalFormat format = new DecimalFormat(PATTERN, DecimalFormatSymbols.getInstance(Locale.US));
+		final byte[] grouping = StreamProtocol.toBytes(",");
+		for (double value : new double[] { 1.2096953E20, -3.7699002E25, 5.19608339E17, Float.MAX_VALUE }) {
+			buffer.clear();
+			NumberWriter.putFixed(buffer, value, 5, StreamProtocol.toBytes("-"), StreamProtocol.toBytes("."), grouping);
+			assertEquals(Double.toString(value), format.format(value), text());
+		}
+	}
+
+	public void testPutLong() {
+		for (long value : new long[] { 0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE }) {
+			buffer.clear();
+			NumberWriter.putLong(buffer, value);
+			assertEquals(Long.toString(value), Long.toString(value), text());
+		}
+	}
+
+	/**
+	 * Vergleicht die CSV-Ausgabe zufälliger Werte mit dem Format der Locale
+	 *
+	 * @param symbols Die Symbole der Locale
+	 */
+	private void assertCsvMatches(@NotNull DecimalFormatSymbols symbols) {
+		final DecimalFormat format = new DecimalFormat(PATTERN, symbols);
+		final CsvSampleEncoder encoder = new CsvSampleEncoder(symbols);
+		final float[] value = new float[1];
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 200000; ++i) {
+			switch (i % 4) {
+				case 0: value[0] = (random.nextFloat() - 0.5f) * 20; break;
+				case 1: value[0] = Float.intBitsToFloat(random.nextInt()); break;
+				case 2: value[0] = (float) ((random.nextInt(2000000) - 1000000) / 1e5 + (random.nextBoolean() ? 5e-6 : -5e-6)); break;
+				default: value[0] = (random.nextInt(2000) - 1000) / 8192f; break;
+			}
+			if (Float.isNaN(value[0]) || Float.isInfinite(value[0])) continue;
+
+			buffer.clear();
+			encoder.encode(0, value, 1, buffer);
+			buffer.position(buffer.position() - StreamProtocol.LINE_END.length());
+			assertEquals(Float.toString(value[0]), format.format(value[0]), text());
+		}
+	}
+
+	/**
+	 * Schreibt einen Wert ohne Gruppierung mit Punkt als Dezimaltrennzeichen
+	 *
+	 * @param value Der Wert
+	 * @param decimals Die Anzahl der Nachkommastellen
+	 * @return Der Text
+	 */
+	@NotNull
+	private String fixed(double value, int decimals) {
+		buffer.clear();
+		NumberWriter.putFixed(buffer, value, decimals, StreamProtocol.toBytes("-"), StreamProtocol.toBytes("."), null);
+		return text();
+	}
+
+	/**
+	 * Liefert den bisher geschriebenen Text
+	 *
+	 * @return Der Text
+	 */
+	@NotNull
+	private String text() {
+		return new String(buffer.array(), 0, buffer.position(), CHARSET);
+	}
+}
@@ -0,0 +1,72 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import java.util.Random;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+import static de.widemeadows.android.bluetoothspptest.Assert.fail;
+
+/**
+ * Prüft Breitenwahl, Fehlergrenzen und Randfälle des {@link Quantizer}
+ */
+public final class QuantizerTest {
+
+	public void testChoosesSmallestWidth() {
+		final Quantizer quantizer = new Quantizer(3, -1, 1, 0.005f);
+		assertEquals("±1 / 0.005", Quantizer.BITS_8, quantizer.getBits(0));
+
+		quantizer.setRange(1, 2, -40, 40, 0.005f);
+		assertEquals("±40 / 0.005", Quantizer.BITS_16, quantizer.getBits(1));
+		assertEquals("±40 / 0.005", Quantizer.BITS_16, quantizer.getBits(2));
+		assertEquals("Nutzdaten", 1 + 2 + 2, quantizer.getPayloadSize());
+
+		try {
+			quantizer.setRange(0, 1, -1000, 1000, 0.001f);
+			fail("Bereich passt nicht in 16 Bit");
+		} catch (IllegalArgumentException e) {
+			// erwartet
+		}
+	}
+
+	public void testErrorWithinBound() {
+		final float[] ranges = { 1, 40, 360 };
+		final float[] errors = { 0.005f, 0.005f, 0.05f };
+		final Random random = new Random(2);
+		final float[] value = new float[1];
+		final int[] q = new int[1];
+
+		for (int r = 0; r < ranges.length; ++r) {
+			final Quantizer quantizer = new Quantizer(1, -ranges[r], ranges[r], errors[r]);
+			for (int i = 0; i < 100000; ++i) {
+				value[0] = (random.nextFloat() * 2 - 1) * ranges[r];
+				quantizer.quantize(value, 1, q);
+				final double restored = q[0] * (double) quantizer.getScale(0) + quantizer.getOffset(0);
+
+				// die Division in float darf am Rand einer Stufe um einige ulp daneben liegen
+				assertEquals("Wert " + value[0], value[0], restored, errors[r] + ranges[r] * 1e-6);
+			}
+			assertEquals("begrenzt", 0, quantizer.getClippedCount());
+		}
+	}
+
+	public void testClipsOutOfRangeValues() {
+		final Quantizer quantizer = new Quantizer(2, -1, 1, 0.005f);
+		final int[] q = new int[2];
+		quantizer.quantize(new float[] { 5, -5 }, 2, q);
+
+		assertEquals("oben", Byte.MAX_VALUE, q[0]);
+		assertEquals("unten", -Byte.MAX_VALUE, q[1]);
+		assertEquals("begrenzt", 2, quantizer.getClippedCount());
+	}
+
+	public void testNanUsesReservedValue() {
+		final Quantizer quantizer = new Quantizer(2, -1, 1, 0.005f);
+		quantizer.setRange(1, 1, -100, 100, 0.01f);
+		final int[] q = new int[2];
+		quantizer.quantize(new float[] { Float.NaN, Float.NaN }, 2, q);
+
+		assertEquals("8 Bit", Quantizer.NAN_8, q[0]);
+		assertEquals("16 Bit", Quantizer.NAN_16, q[1]);
+		assertTrue("kein gültiger Wert", q[0] < -Byte.MAX_VALUE && q[1] < -Short.MAX_VALUE);
+	}
+}
@@ -0,0 +1,80 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Eine Verbindung für Tests, die alle geschriebenen Bytes sammelt und auf
+ * Wunsch mit einem Fehler scheitert
+ */
+public final class RecordingTransport implements ISampleTransport {
+
+	/**
+	 * Die geschriebenen Bytes
+	 */
+	@NotNull
+	private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+	/**
+	 * Der Fehler, mit dem das nächste Schreiben scheitert, oder <code>null</code>
+	 */
+	private IOException failure;
+
+	/**
+	 * Die Anzahl der Schreibvorgänge
+	 */
+	private int writes;
+
+	/**
+	 * Lässt alle folgenden Schreibvorgänge scheitern
+	 *
+	 * @param failure Der Fehler
+	 */
+	public synchronized void failWith(@NotNull IOException failure) {
+		this.failure = failure;
+	}
+
+	/**
+	 * Liefert alle bisher geschriebenen Bytes
+	 *
+	 * @return Eine Kopie der Bytes
+	 */
+	@NotNull
+	public synchronized byte[] getWritten() {
+		return written.toByteArray();
+	}
+
+	/**
+	 * Liefert die Anzahl der erfolgreichen Schreibvorgänge
+	 *
+	 * @return Die Anzahl
+	 */
+	public synchronized int getWrites() {
+		return writes;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+
+	@Override
+	public boolean isDirectBufferPreferred() {
+		return false;
+	}
+
+	@Override
+	public synchronized void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+		if (failure != null) throw failure;
+		for (int i = offset; i < offset + length; ++i) {
+			final ByteBuffer buffer = buffers[i];
+			while (buffer.hasRemaining()) {
+				written.write(buffer.get());
+			}
+		}
+		++writes;
+	}
+}
@@ -0,0 +1,145 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+import static de.widemeadows.android.bluetoothspptest.Assert.fail;
+
+/**
+ * Prüft, dass Frames über {@link SampleStreamer}, {@link SessionMultiplexer} und eine
+ * {@link SimulatedLinkTransport} auch nach einem Abbruch der Verbindung weiterfließen
+ */
+public final class SessionMultiplexerTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Die längste Wartezeit auf den Schreib-Thread in Millisekunden
+	 */
+	private static final long TIMEOUT_MS = 5000;
+
+	/**
+	 * Eine Uhr, deren Zeit nur der Test vorstellt
+	 */
+	private static final class ManualClock implements IClock {
+
+		/**
+		 * Die aktuelle Zeit
+		 */
+		volatile long now;
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+	}
+
+	/**
+	 * Die Uhr
+	 */
+	private final ManualClock clock = new ManualClock();
+
+	/**
+	 * Der Empfänger hinter der Verbindung
+	 */
+	private final RecordingTransport downstream = new RecordingTransport();
+
+	/**
+	 * Die Verbindung: langsamer als der Streamer, sodass beim Abbruch ein Schreiber
+	 * blockiert und scheitert; reißt im Mittel jede Sekunde ab und ist nach 30 ms wieder da
+	 */
+	private final SimulatedLinkTransport link = new SimulatedLinkTransport(downstream, 1, clock);
+
+	/**
+	 * Der Multiplexer
+	 */
+	private final SessionMultiplexer multiplexer = new SessionMultiplexer(link);
+
+	/**
+	 * Der Streamer
+	 */
+	private final SampleStreamer streamer = new SampleStreamer(3, multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_LIVE));
+
+	/**
+	 * Stellt die Verbindung ein
+	 */
+	public SessionMultiplexerTest() {
+		link.setBandwidth(1000);
+		link.setPacketSize(100);
+		link.setLatency(5, 0);
+		link.setDisconnects(1000, 30);
+		link.setGreeting(StreamProtocol.toBytes(StreamProtocol.syncMessage("sim", "00:11:22:33:44:55") + StreamProtocol.LINE_END));
+		link.setSessionListener(multiplexer.createControlListener(streamer));
+	}
+
+	public void testFramesFlowAfterReconnect() throws Exception {
+		link.startStepped();
+		multiplexer.startSession();
+		streamer.sessionStarted();
+		streamer.start();
+		try {
+			// Bis zum ersten Wiederaufbau senden
+			long t = 0;
+			while (multiplexer.getSessionCount() < 2) {
+				if (t > 60000 * MS) fail("kein Wiederaufbau");
+				t = sendAndStep(t);
+			}
+			assertEquals("Abbrüche", 1, link.getDisconnectCount());
+			assertTrue("verbunden", link.isConnected());
+			assertTrue("Schreibfehler beim Abbruch", streamer.getWriteErrors() > 0);
+
+			// Der neue Multiplexer nimmt Frames an, und sie kommen beim Empfänger an
+			final long framesBefore = streamer.getFramesSent();
+			final long deliveredBefore = link.getBytesDelivered();
+			final long end = t + 100 * MS;
+			while (t < end && link.getDisconnectCount() == 1) t = sendAndStep(t);
+			assertTrue("Frames nach dem Wiederaufbau", streamer.getFramesSent() > framesBefore + 50);
+
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (link.getBytesDelivered() - deliveredBefore < 500) {
+				if (System.currentTimeMillis() > deadline) fail("keine Daten nach dem Wiederaufbau angekommen");
+				clock.now += MS;
+				link.step();
+				Thread.sleep(1);
+			}
+			assertTrue("kein geschlossener Multiplexer", !multiplexer.getCurrent().isClosed());
+		} finally {
+			streamer.close();
+			multiplexer.close();
+			link.close();
+		}
+	}
+
+	public void testChannelsDisconnectedBeforeFirstSession() {
+		final ISampleTransport live = multiplexer.getChannel(StreamProtocol.MUX_CHANNEL_LIVE);
+		assertTrue("getrennt", !live.isConnected());
+		try {
+			live.write(new ByteBuffer[] { ByteBuffer.allocate(1) }, 0, 1);
+			fail("Schreiben ohne Sitzung");
+		} catch (IOException e) {
+			// erwartet
+		}
+	}
+
+	/**
+	 * Übergibt dem Streamer einen Messwert und stellt die Uhr um eine Millisekunde vor
+	 *
+	 * @param t Die aktuelle Zeit in Nanosekunden
+	 * @return Die neue Zeit
+	 * @throws InterruptedException Wenn der Test unterbrochen wurde
+	 */
+	private long sendAndStep(long t) throws InterruptedException {
+		streamer.sampleAvailable(0, t, new float[] { t / (float) MS, 1, 2 }, 3);
+
+		// Dem Schreib-Thread Zeit lassen, den Frame abzugeben
+		Thread.sleep(0, 100000);
+		clock.now = t + MS;
+		link.step();
+		return t + MS;
+	}
+}
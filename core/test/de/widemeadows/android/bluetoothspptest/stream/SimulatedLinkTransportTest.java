@@ -0,0 +1,230 @@
+package de.widemeadows.android.bluetoothspptest.stream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertArrayEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+import static de.widemeadows.android.bluetoothspptest.Assert.fail;
+
+/**
+ * Prüft Paketbildung, Gegendruck und Wiederaufbau der {@link SimulatedLinkTransport}
+ * mit schrittweise vorgestellter Zeit
+ */
+public final class SimulatedLinkTransportTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Die längste Wartezeit auf einen Schreiber-Thread in Millisekunden
+	 */
+	private static final long TIMEOUT_MS = 5000;
+
+	/**
+	 * Eine Uhr, deren Zeit nur der Test vorstellt
+	 */
+	private static final class ManualClock implements IClock {
+
+		/**
+		 * Die aktuelle Zeit
+		 */
+		volatile long now;
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+	}
+
+	/**
+	 * Die Uhr
+	 */
+	private final ManualClock clock = new ManualClock();
+
+	/**
+	 * Der Empfänger der angekommenen Pakete
+	 */
+	private final RecordingTransport downstream = new RecordingTransport();
+
+	/**
+	 * Die Verbindung: 100 000 Bytes je Sekunde, Pakete zu 500 Bytes, 20 ms Latenz
+	 */
+	private final SimulatedLinkTransport link = new SimulatedLinkTransport(downstream, 1, clock);
+
+	/**
+	 * Stellt die Verbindung ein
+	 */
+	public SimulatedLinkTransportTest() {
+		link.setBandwidth(100000);
+		link.setPacketSize(500);
+		link.setLatency(20, 0);
+	}
+
+	public void testBatchesWritesIntoPackets() throws IOException {
+		link.startStepped();
+		final byte[] data = pattern(1000);
+		for (int offset = 0; offset < data.length; offset += 100) {
+			write(Arrays.copyOfRange(data, offset, offset + 100));
+		}
+
+		// Ein Paket belegt die Verbindung 5 ms und kommt 20 ms danach an
+		assertEquals("nächster Abgang", 5 * MS, link.step());
+		assertEquals("Ankunft", 25 * MS, stepTo(5 * MS));
+
+		stepTo(25 * MS - 1);
+		assertEquals("noch unterwegs", 0, downstream.getWrites());
+		stepTo(25 * MS);
+		assertEquals("erstes Paket", 1, downstream.getWrites());
+		assertEquals("Paketgröße", 500, link.getBytesDelivered());
+		stepTo(30 * MS);
+
+		assertEquals("zwei Pakete", 2, downstream.getWrites());
+		assertEquals("angekommen", data.length, link.getBytesDelivered());
+		assertArrayEquals("Reihenfolge", data, downstream.getWritten());
+		assertEquals("nichts mehr geplant", Long.MAX_VALUE, link.step());
+	}
+
+	public void testWriterBlocksWhileSendBufferIsFull() throws Exception {
+		link.setSendBufferSize(1000);
+		link.startStepped();
+		final byte[] data = pattern(1600);
+		write(Arrays.copyOf(data, 1000));
+
+		final IOException[] failure = new IOException[1];
+		final Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(Arrays.copyOfRange(data, 1000, data.length));
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		}, "Writer");
+		writer.start();
+		awaitState(writer, Thread.State.WAITING);
+		assertTrue("Schreiber wartet", writer.isAlive());
+
+		// Jedes abgeschickte Paket gibt 500 Bytes im Sendepuffer frei
+		link.step();
+		stepTo(5 * MS);
+		writer.join(TIMEOUT_MS);
+		assertTrue("Schreiber fertig", !writer.isAlive());
+		assertEquals("kein Fehler", null, failure[0]);
+
+		for (long t = 6 * MS; t <= 100 * MS; t += MS) stepTo(t);
+		assertArrayEquals("angekommen", data, downstream.getWritten());
+	}
+
+	public void testReconnectSendsGreeting() throws IOException {
+		final byte[] greeting = StreamProtocol.toBytes(StreamProtocol.syncMessage("sim", "00:11:22:33:44:55") + StreamProtocol.LINE_END);
+		final int[] sessions = new int[1];
+		link.setDisconnects(1000, 30);
+		link.setGreeting(greeting);
+		link.setSessionListener(new IControlMessageListener() {
+			@Override
+			public void sessionStarted() {
+				++sessions[0];
+			}
+
+			@Override
+			public void controlMessageReceived(@NotNull String line) {
+			}
+		});
+		link.startStepped();
+
+		// Ohne Daten ist der Abbruch das nächste Ereignis
+		final long disconnectTime = link.step();
+		assertTrue("Abbruch geplant", disconnectTime != Long.MAX_VALUE);
+		stepTo(disconnectTime);
+		assertTrue("getrennt", !link.isConnected());
+		assertEquals("Abbrüche", 1, link.getDisconnectCount());
+		try {
+			write(pattern(10));
+			fail("Schreiben ohne Verbindung");
+		} catch (IOException e) {
+			// erwartet
+		}
+
+		stepTo(disconnectTime + 30 * MS - 1);
+		assertTrue("noch getrennt", !link.isConnected());
+		stepTo(disconnectTime + 30 * MS);
+		assertTrue("verbunden", link.isConnected());
+		assertEquals("neue Sitzung", 1, sessions[0]);
+
+		write(pattern(100));
+		for (long t = 1; t <= 50; ++t) stepTo(disconnectTime + (30 + t) * MS);
+		final byte[] expected = new byte[greeting.length + 100];
+		System.arraycopy(greeting, 0, expected, 0, greeting.length);
+		System.arraycopy(pattern(100), 0, expected, greeting.length, 100);
+		assertArrayEquals("Begrüßung zuerst", expected, downstream.getWritten());
+	}
+
+	public void testDownstreamFailureDisconnects() throws IOException {
+		downstream.failWith(new IOException("Empfänger weg"));
+		link.startStepped();
+		write(pattern(100));
+
+		link.step();
+		stepTo(21 * MS);
+		assertTrue("getrennt", !link.isConnected());
+		assertEquals("Abbrüche", 1, link.getDisconnectCount());
+		assertEquals("kein Wiederaufbau geplant", Long.MAX_VALUE, stepTo(1000 * MS));
+	}
+
+	/**
+	 * Stellt die Uhr vor und führt die fälligen Ereignisse aus
+	 *
+	 * @param time Die neue Zeit in Nanosekunden
+	 * @return Der Zeitpunkt des nächsten Ereignisses
+	 */
+	private long stepTo(long time) {
+		clock.now = time;
+		return link.step();
+	}
+
+	/**
+	 * Schreibt Bytes auf die Verbindung
+	 *
+	 * @param data Die Bytes
+	 * @throws IOException Wenn die Verbindung getrennt ist
+	 */
+	private void write(@NotNull byte[] data) throws IOException {
+		link.write(new ByteBuffer[] { ByteBuffer.wrap(data) }, 0, 1);
+	}
+
+	/**
+	 * Wartet, bis ein Thread einen Zustand erreicht
+	 *
+	 * @param thread Der Thread
+	 * @param state Der Zustand
+	 * @throws InterruptedException Wenn der Test unterbrochen wurde
+	 */
+	private static void awaitState(@NotNull Thread thread, @NotNull Thread.State state) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (thread.getState() != state) {
+			if (System.currentTimeMillis() > deadline) fail(thread.getName() + " erreicht " + state + " nicht");
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Erzeugt ein Muster, in dem sich Verschiebungen zeigen
+	 *
+	 * @param length Die Länge
+	 * @return Das Muster
+	 */
+	@NotNull
+	private static byte[] pattern(int length) {
+		final byte[] data = new byte[length];
+		for (int i = 0; i < length; ++i) data[i] = (byte) (i * 7 + i / 256);
+		return data;
+	}
+}
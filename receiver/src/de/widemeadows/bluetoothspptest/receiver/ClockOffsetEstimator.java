@@ -0,0 +1,95 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+/**
+ * Schätzt den Versatz zwischen der Uhr eines Gerätes und der des Hosts.
+ *
+ * <p/>
+ *
+ * Jeder Messwert liefert mit <code>Ankunft - Zeitstempel</code> eine obere Schranke
+ * für den Versatz; die Differenz darüber ist Übertragungs- und Wartezeit. Die Schätzung
+ * ist das Minimum der letzten ein bis zwei Zeitfenster, so dass sie Messwerten mit der
+ * geringsten Verzögerung folgt und Gangabweichungen der Uhren nachführt.
+ */
+public final class ClockOffsetEstimator {
+
+	/**
+	 * Die Standardlänge eines Zeitfensters in Nanosekunden
+	 */
+	public static final long DEFAULT_WINDOW = 10000000000L;
+
+	/**
+	 * Die Länge eines Zeitfensters in Nanosekunden
+	 */
+	private final long window;
+
+	/**
+	 * Der Beginn des aktuellen Zeitfensters auf der Uhr des Hosts
+	 */
+	private long windowStart;
+
+	/**
+	 * Das Minimum des aktuellen Zeitfensters
+	 */
+	private long currentMinimum = Long.MAX_VALUE;
+
+	/**
+	 * Das Minimum des vorigen Zeitfensters
+	 */
+	private long previousMinimum = Long.MAX_VALUE;
+
+	/**
+	 * Erzeugt einen neuen Schätzer mit {@link #DEFAULT_WINDOW}
+	 */
+	public ClockOffsetEstimator() {
+		this(DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Erzeugt einen neuen Schätzer
+	 *
+	 * @param window Die Länge eines Zeitfensters in Nanosekunden
+	 */
+	public ClockOffsetEstimator(long window) {
+		if (window <= 0) throw new IllegalArgumentException("window");
+		this.window = window;
+	}
+
+	/**
+	 * Bezieht einen Messwert ein
+	 *
+	 * @param remoteTimestamp Der Zeitstempel auf der Uhr des Gerätes
+	 * @param localArrival Die Ankunftszeit auf der Uhr des Hosts
+	 * @return Der umgerechnete Zeitstempel; nie später als die Ankunft
+	 */
+	public long update(long remoteTimestamp, long localArrival) {
+		if (currentMinimum == Long.MAX_VALUE && previousMinimum == Long.MAX_VALUE) {
+			windowStart = localArrival;
+		}
+		else if (localArrival - windowStart >= window) {
+			previousMinimum = currentMinimum;
+			currentMinimum = Long.MAX_VALUE;
+			windowStart = localArrival;
+		}
+
+		final long offset = localArrival - remoteTimestamp;
+		if (offset < currentMinimum) currentMinimum = offset;
+		return remoteTimestamp + getOffset();
+	}
+
+	/**
+	 * Liefert den geschätzten Versatz
+	 *
+	 * @return <code>Host - Gerät</code> in Nanosekunden oder {@link Long#MAX_VALUE} ohne Messwerte
+	 */
+	public long getOffset() {
+		return Math.min(currentMinimum, previousMinimum);
+	}
+
+	/**
+	 * Verwirft die Schätzung, z.B. nach einem Neustart des Gerätes
+	 */
+	public void reset() {
+		currentMinimum = Long.MAX_VALUE;
+		previousMinimum = Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,98 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Zeichnet den zusammengeführten Strom je Gerät in einer {@link SampleHistory} auf.
+ *
+ * <p/>
+ *
+ * Ändert ein Gerät seine Kanalanzahl (z.B. beim Wechsel zwischen Messwerten und
+ * Merkmalen), wird sein Verlauf verworfen und neu begonnen.
+ */
+public final class HistoryRecorder implements IMergedSampleListener {
+
+	/**
+	 * Die Kapazität der vollen Auflösung je Gerät
+	 */
+	private final int rawCapacity;
+
+	/**
+	 * Die Kapazität der gröberen Stufen je Gerät
+	 */
+	private final int blockCapacity;
+
+	/**
+	 * Die Verläufe je Adresse; wird nur vom Thread des {@link StreamAggregator} verwendet
+	 */
+	@NotNull
+	private final Map<String, SampleHistory> byAddress = new HashMap<String, SampleHistory>();
+
+	/**
+	 * Die Verläufe in der Reihenfolge ihres ersten Messwertes
+	 */
+	@NotNull
+	private final CopyOnWriteArrayList<SampleHistory> histories = new CopyOnWriteArrayList<SampleHistory>();
+
+	/**
+	 * Die Anzahl der aufgezeichneten Messwerte
+	 */
+	private volatile long sampleCount;
+
+	/**
+	 * Erzeugt einen Recorder mit den Standardkapazitäten von {@link SampleHistory}
+	 */
+	public HistoryRecorder() {
+		this(SampleHistory.DEFAULT_RAW_CAPACITY, SampleHistory.DEFAULT_BLOCK_CAPACITY);
+	}
+
+	/**
+	 * Erzeugt einen Recorder
+	 *
+	 * @param rawCapacity Die Kapazität der vollen Auflösung je Gerät in Messwerten
+	 * @param blockCapacity Die Kapazität jeder gröberen Stufe je Gerät in Blöcken
+	 */
+	public HistoryRecorder(int rawCapacity, int blockCapacity) {
+		this.rawCapacity = rawCapacity;
+		this.blockCapacity = blockCapacity;
+	}
+
+	/**
+	 * Liefert die Verläufe aller Geräte
+	 *
+	 * @return Die Verläufe; die Liste darf nicht verändert werden
+	 */
+	@NotNull
+	public List<SampleHistory> getHistories() {
+		return histories;
+	}
+
+	/**
+	 * Liefert die Anzahl der aufgezeichneten Messwerte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getSampleCount() {
+		return sampleCount;
+	}
+
+	@Override
+	public void mergedSampleReceived(@NotNull String address, long timestamp, @NotNull float[] values, int channelCount) {
+		SampleHistory history = byAddress.get(address);
+		if (history == null || history.getChannelCount() != channelCount) {
+			final SampleHistory replacement = new SampleHistory(address, channelCount, rawCapacity, blockCapacity);
+			if (history == null) histories.add(replacement);
+			else histories.set(histories.indexOf(history), replacement);
+			byAddress.put(address, replacement);
+			history = replacement;
+		}
+
+		history.add(timestamp, values);
+		++sampleCount;
+	}
+}
@@ -0,0 +1,18 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface für Empfänger der Massendaten eines gemultiplexten Datenstroms
+ */
+public interface IBulkDataListener {
+
+	/**
+	 * Massendaten empfangen
+	 *
+	 * @param data Die Daten zwischen Position und Limit; nur während des Aufrufs gültig
+	 */
+	public void bulkDataReceived(@NotNull final ByteBuffer data);
+}
@@ -0,0 +1,17 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger von Steuerzeilen des Datenstroms
+ * (alle Textzeilen außer Messwerten und der Sync-Nachricht)
+ */
+public interface IControlLineListener {
+
+	/**
+	 * Steuerzeile empfangen
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 */
+	public void controlLineReceived(@NotNull final String line);
+}
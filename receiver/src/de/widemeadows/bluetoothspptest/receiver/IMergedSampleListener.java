@@ -0,0 +1,26 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger des zusammengeführten Datenstroms mehrerer Geräte
+ *
+ * @see StreamAggregator
+ */
+public interface IMergedSampleListener {
+
+	/**
+	 * Messwert in zeitlicher Reihenfolge empfangen
+	 *
+	 * <p/>
+	 *
+	 * Wird aus dem Thread des {@link StreamAggregator} gerufen. Das Array wird
+	 * wiederverwendet und ist nur während des Aufrufs gültig.
+	 *
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 * @param timestamp Der auf die Uhr des Hosts umgerechnete Zeitstempel in Nanosekunden seit 1970
+	 * @param values Die Kanalwerte
+	 * @param channelCount Die Anzahl der gültigen Kanalwerte
+	 */
+	public void mergedSampleReceived(@NotNull final String address, final long timestamp, @NotNull final float[] values, final int channelCount);
+}
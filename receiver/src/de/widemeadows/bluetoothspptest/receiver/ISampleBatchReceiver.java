@@ -0,0 +1,40 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger von Messwertblöcken
+ *
+ * @see SampleBatcher
+ */
+public interface ISampleBatchReceiver {
+
+	/**
+	 * Sync-Nachricht empfangen
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 */
+	public void syncReceived(@NotNull final String name, @NotNull final String address);
+
+	/**
+	 * Block von Messwerten empfangen
+	 *
+	 * <p/>
+	 *
+	 * Die Werte liegen zeilenweise vor, d.h. Kanal <code>c</code> von Messwert <code>i</code>
+	 * steht an <code>values[i * channelCount + c]</code>. Beide Arrays werden wiederverwendet
+	 * und sind nur während des Aufrufs gültig.
+	 *
+	 * @param timestamps Die Zeitstempel in Nanosekunden oder {@link StreamParser#NO_TIMESTAMP}
+	 * @param values Die Kanalwerte
+	 * @param sampleCount Die Anzahl der Messwerte
+	 * @param channelCount Die Anzahl der Kanäle je Messwert
+	 */
+	public void batchReceived(@NotNull final long[] timestamps, @NotNull final float[] values, final int sampleCount, final int channelCount);
+
+	/**
+	 * Der Datenstrom wurde geschlossen
+	 */
+	public void streamClosed();
+}
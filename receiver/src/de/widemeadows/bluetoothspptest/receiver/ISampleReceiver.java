@@ -0,0 +1,44 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Empfänger einzelner Messwerte
+ *
+ * <p/>
+ *
+ * Alle Methoden werden aus dem Lesethread der jeweiligen Quelle gerufen.
+ */
+public interface ISampleReceiver {
+
+	/**
+	 * Sync-Nachricht empfangen
+	 *
+	 * @param name Der Name des sendenden Gerätes
+	 * @param address Die MAC-Adresse des sendenden Gerätes
+	 */
+	public void syncReceived(@NotNull final String name, @NotNull final String address);
+
+	/**
+	 * Messwert empfangen
+	 *
+	 * <p/>
+	 *
+	 * Das Array wird vom Parser wiederverwendet und ist nur während des Aufrufs gültig.
+	 *
+	 * @param timestamp Der Zeitstempel in Nanosekunden oder {@link StreamParser#NO_TIMESTAMP}
+	 * @param values Die Kanalwerte
+	 * @param channelCount Die Anzahl der gültigen Kanalwerte
+	 */
+	public void sampleReceived(final long timestamp, @NotNull final float[] values, final int channelCount);
+
+	/**
+	 * Ein gelesener Block wurde vollständig verarbeitet
+	 */
+	public void blockComplete();
+
+	/**
+	 * Der Datenstrom wurde geschlossen
+	 */
+	public void streamClosed();
+}
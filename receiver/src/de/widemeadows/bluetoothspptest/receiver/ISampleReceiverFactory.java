@@ -0,0 +1,18 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interface für Fabriken, die je Quelle einen {@link ISampleReceiver} erzeugen
+ */
+public interface ISampleReceiverFactory {
+
+	/**
+	 * Erzeugt den Empfänger für eine neue Quelle
+	 *
+	 * @param sourceName Der Name der Quelle
+	 * @return Der Empfänger
+	 */
+	@NotNull
+	public ISampleReceiver createReceiver(@NotNull final String sourceName);
+}
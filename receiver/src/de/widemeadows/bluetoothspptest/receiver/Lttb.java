@@ -0,0 +1,97 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reduziert eine Punktfolge mit <i>Largest Triangle Three Buckets</i> für die Darstellung.
+ *
+ * <p/>
+ *
+ * Erster und letzter Punkt bleiben erhalten; die übrigen werden in gleich große Gruppen
+ * geteilt, aus denen jeweils der Punkt gewählt wird, der mit dem zuletzt gewählten Punkt
+ * und dem Mittel der nächsten Gruppe das größte Dreieck bildet. So bleibt die Form der
+ * Kurve samt ihrer Spitzen erhalten, obwohl nur wenige Punkte gezeichnet werden.
+ *
+ * <p/>
+ *
+ * Die Reduktion arbeitet in-place und allokiert keinen Speicher.
+ */
+public final class Lttb {
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private Lttb() {}
+
+	/**
+	 * Reduziert eine Punktfolge in-place
+	 *
+	 * <p/>
+	 *
+	 * Da jeder gewählte Punkt aus einer Gruppe hinter dem zuletzt geschriebenen stammt,
+	 * können Quelle und Ziel dieselben Arrays sein.
+	 *
+	 * @param times Die Zeitstempel, aufsteigend
+	 * @param values Die Werte; <code>NaN</code> wird nie gewählt, solange die Gruppe andere Werte enthält
+	 * @param count Die Anzahl der Punkte
+	 * @param threshold Die gewünschte Anzahl Punkte; mindestens <code>3</code>
+	 * @return Die neue Anzahl der Punkte
+	 */
+	public static int downsample(@NotNull long[] times, @NotNull float[] values, int count, int threshold) {
+		if (threshold < 3) throw new IllegalArgumentException("threshold");
+		if (count <= threshold) return count;
+
+		// Zeiten relativ zum ersten Punkt, damit die Flächen in double genau bleiben
+		final long origin = times[0];
+		final double bucketWidth = (double) (count - 2) / (threshold - 2);
+
+		int selected = 0;
+		int written = 1;
+		for (int bucket = 0; bucket < threshold - 2; ++bucket) {
+			final int start = (int) (bucket * bucketWidth) + 1;
+			final int end = (int) ((bucket + 1) * bucketWidth) + 1;
+
+			// Mittel der nächsten Gruppe bzw. der letzte Punkt
+			final int nextStart = end;
+			final int nextEnd = Math.min((int) ((bucket + 2) * bucketWidth) + 1, count);
+			double averageTime = 0;
+			double averageValue = 0;
+			int averageCount = 0;
+			for (int i = nextStart; i < nextEnd; ++i) {
+				if (Float.isNaN(values[i])) continue;
+				averageTime += times[i] - origin;
+				averageValue += values[i];
+				++averageCount;
+			}
+			if (averageCount > 0) {
+				averageTime /= averageCount;
+				averageValue /= averageCount;
+			}
+			else {
+				averageTime = times[count - 1] - origin;
+				averageValue = values[count - 1];
+			}
+
+			final double selectedTime = times[selected] - origin;
+			final double selectedValue = values[selected];
+			int best = start;
+			double bestArea = -1;
+			for (int i = start; i < end; ++i) {
+				final double area = Math.abs((selectedTime - averageTime) * (values[i] - selectedValue)
+						- (selectedTime - (times[i] - origin)) * (averageValue - selectedValue));
+				if (area > bestArea) {
+					best = i;
+					bestArea = area;
+				}
+			}
+
+			times[written] = times[best];
+			values[written] = values[best];
+			selected = written++;
+		}
+
+		times[written] = times[count - 1];
+		values[written] = values[count - 1];
+		return written + 1;
+	}
+}
@@ -0,0 +1,123 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live-Darstellung beliebig vieler Quellen als Ersatz für <code>labview/chart.vi</code>.
+ *
+ * <pre>
+ * java -cp bluetoothspp-receiver.jar de.widemeadows.bluetoothspptest.receiver.PlotMain
+ *      [--encoders bin,jsonl,csv] [--no-mux] [--no-quant] [--merge ms] [--window s]
+ *      [--channels a,b,...] [--raw n] [--blocks n] &lt;quelle&gt; [&lt;quelle&gt; ...]
+ * </pre>
+ *
+ * Die Quellen werden wie bei {@link ReceiverMain} angegeben und über einen
+ * {@link StreamAggregator} (Standard: {@value #DEFAULT_MERGE_DELAY_MS} ms Verzögerung)
+ * auf eine gemeinsame Zeitachse gebracht. <code>--window</code> legt das anfängliche
+ * Zeitfenster fest, <code>--channels</code> die gezeichneten Kanäle.
+ * <code>--raw</code> und <code>--blocks</code> begrenzen den Speicher je Gerät: Die letzten
+ * <code>--raw</code> Messwerte bleiben in voller Auflösung, jede der gröberen Stufen
+ * hält <code>--blocks</code> Blöcke (siehe {@link SampleHistory}).
+ */
+public final class PlotMain {
+
+	/**
+	 * Die Standardverzögerung beim Zusammenführen in Millisekunden
+	 */
+	private static final long DEFAULT_MERGE_DELAY_MS = 100;
+
+	/**
+	 * Präfix für lauschende TCP-Quellen
+	 */
+	@NotNull
+	private static final String LISTEN_PREFIX = "listen:";
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private PlotMain() {}
+
+	/**
+	 * Einstiegspunkt
+	 *
+	 * @param args Die Kommandozeilenargumente
+	 * @throws IOException Wenn eine Quelle nicht geöffnet werden konnte
+	 */
+	public static void main(@NotNull String[] args) throws IOException {
+		boolean multiplexing = true;
+		boolean quantization = true;
+		long mergeDelayMs = DEFAULT_MERGE_DELAY_MS;
+		double windowSeconds = PlotPanel.DEFAULT_WINDOW_NS / 1e9;
+		int[] channels = null;
+		int rawCapacity = SampleHistory.DEFAULT_RAW_CAPACITY;
+		int blockCapacity = SampleHistory.DEFAULT_BLOCK_CAPACITY;
+		String[] encoders = SampleReceiver.DEFAULT_PREFERRED_ENCODERS;
+		final List<String> sources = new ArrayList<String>();
+		for (int i = 0; i < args.length; ++i) {
+			if ("--encoders".equals(args[i])) encoders = args[++i].split(",");
+			else if ("--no-mux".equals(args[i])) multiplexing = false;
+			else if ("--no-quant".equals(args[i])) quantization = false;
+			else if ("--merge".equals(args[i])) mergeDelayMs = Long.parseLong(args[++i]);
+			else if ("--window".equals(args[i])) windowSeconds = Double.parseDouble(args[++i]);
+			else if ("--raw".equals(args[i])) rawCapacity = Integer.parseInt(args[++i]);
+			else if ("--blocks".equals(args[i])) blockCapacity = Integer.parseInt(args[++i]);
+			else if ("--channels".equals(args[i])) {
+				final String[] parts = args[++i].split(",");
+				channels = new int[parts.length];
+				for (int c = 0; c < parts.length; ++c) channels[c] = Integer.parseInt(parts[c].trim());
+			}
+			else sources.add(args[i]);
+		}
+
+		if (sources.isEmpty()) {
+			System.err.println("usage: PlotMain [--encoders a,b,...] [--no-mux] [--no-quant] [--merge ms] [--window s] "
+					+ "[--channels a,b,...] [--raw n] [--blocks n] <device>|tcp:<host>:<port>|listen:<port> ...");
+			System.exit(1);
+		}
+
+		final HistoryRecorder recorder = new HistoryRecorder(rawCapacity, blockCapacity);
+		final StreamAggregator aggregator = new StreamAggregator(mergeDelayMs * 1000000L, recorder);
+		aggregator.start();
+
+		for (String source : sources) {
+			if (source.startsWith(LISTEN_PREFIX)) {
+				ReceiverServer server = new ReceiverServer(Integer.parseInt(source.substring(LISTEN_PREFIX.length())), aggregator);
+				server.setPreferredEncoders(encoders);
+				server.setMultiplexing(multiplexing);
+				server.setQuantization(quantization);
+				server.start();
+			}
+			else {
+				SampleReceiver receiver = SampleReceiver.open(source, aggregator.createReceiver(source));
+				receiver.setPreferredEncoders(encoders);
+				receiver.setMultiplexing(multiplexing);
+				receiver.setQuantization(quantization);
+				receiver.start();
+			}
+		}
+
+		final int[] shownChannels = channels;
+		final long window = (long) (windowSeconds * 1e9);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				PlotPanel panel = new PlotPanel(recorder, shownChannels);
+				panel.setWindow(window);
+
+				JFrame frame = new JFrame("Bluetooth SPP Plot");
+				frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+				frame.getContentPane().add(panel);
+				frame.pack();
+				frame.setLocationByPlatform(true);
+				frame.setVisible(true);
+			}
+		});
+	}
+}
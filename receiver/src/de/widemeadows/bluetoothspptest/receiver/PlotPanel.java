@@ -0,0 +1,633 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Zeichnet die Verläufe eines {@link HistoryRecorder} als Liniendiagramm, eine Zeile je Gerät.
+ *
+ * <p/>
+ *
+ * Gezeichnet wird mit fester Bildrate und nur, wenn neue Daten vorliegen oder sich die
+ * Ansicht geändert hat, nie je Messwert. Je Kanal werden höchstens einige Punkte je Pixel
+ * aus der passenden Stufe der {@link SampleHistory} gelesen; liegen mehr Punkte als Pixel
+ * vor, wird das Minimum und Maximum je Pixelspalte als Hüllkurve hinterlegt und die Linie
+ * mit {@link Lttb} auf etwa einen Punkt je Pixel reduziert. Der Aufwand je Bild hängt damit
+ * nur von der Fenstergröße ab, nicht von der Länge der Aufzeichnung.
+ *
+ * <p/>
+ *
+ * Das Mausrad zoomt um die Mausposition, Ziehen verschiebt das Zeitfenster, ein Doppelklick
+ * kehrt zur Live-Ansicht zurück.
+ */
+public final class PlotPanel extends JComponent {
+
+	/**
+	 * Versionskennung der Serialisierung von {@link JComponent}
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Die Standardbreite des Zeitfensters in Nanosekunden
+	 */
+	public static final long DEFAULT_WINDOW_NS = 10L * 1000000000L;
+
+	/**
+	 * Das Intervall der Aktualisierung in Millisekunden
+	 */
+	private static final int REFRESH_INTERVAL_MS = 33;
+
+	/**
+	 * Die Anzahl der je Pixel gelesenen Punkte
+	 */
+	private static final int POINTS_PER_PIXEL = 4;
+
+	/**
+	 * Das kleinste Zeitfenster in Nanosekunden
+	 */
+	private static final long MIN_WINDOW_NS = 1000000L;
+
+	/**
+	 * Das größte Zeitfenster in Nanosekunden
+	 */
+	private static final long MAX_WINDOW_NS = 7L * 24 * 3600 * 1000000000L;
+
+	/**
+	 * Der Zoomfaktor je Rastung des Mausrads
+	 */
+	private static final double ZOOM_STEP = 1.25;
+
+	/**
+	 * Der linke Rand für die Achsenbeschriftung in Pixeln
+	 */
+	private static final int MARGIN_LEFT = 64;
+
+	/**
+	 * Der rechte Rand in Pixeln
+	 */
+	private static final int MARGIN_RIGHT = 8;
+
+	/**
+	 * Der untere Rand für die Zeitachse in Pixeln
+	 */
+	private static final int MARGIN_BOTTOM = 36;
+
+	/**
+	 * Der Abstand zwischen zwei Zeilen in Pixeln
+	 */
+	private static final int ROW_GAP = 18;
+
+	/**
+	 * Der gewünschte Abstand zwischen zwei Zeitmarken in Pixeln
+	 */
+	private static final int TICK_SPACING = 100;
+
+	/**
+	 * Die Hintergrundfarbe der Zeilen
+	 */
+	@NotNull
+	private static final Color PLOT_BACKGROUND = new Color(0xf4f4f4);
+
+	/**
+	 * Die Farben der Kanäle
+	 */
+	@NotNull
+	private static final Color[] COLORS = {
+			new Color(0x1f77b4), new Color(0xd62728), new Color(0x2ca02c), new Color(0xff7f0e),
+			new Color(0x9467bd), new Color(0x8c564b), new Color(0xe377c2), new Color(0x17becf)
+	};
+
+	/**
+	 * Die Farben der Hüllkurven; deckend vorgemischt, da durchscheinende Linien deutlich langsamer gezeichnet werden
+	 */
+	@NotNull
+	private static final Color[] ENVELOPE_COLORS = new Color[COLORS.length];
+	static {
+		for (int i = 0; i < COLORS.length; ++i) {
+			ENVELOPE_COLORS[i] = new Color(
+					(COLORS[i].getRed() + 3 * PLOT_BACKGROUND.getRed()) / 4,
+					(COLORS[i].getGreen() + 3 * PLOT_BACKGROUND.getGreen()) / 4,
+					(COLORS[i].getBlue() + 3 * PLOT_BACKGROUND.getBlue()) / 4);
+		}
+	}
+
+	/**
+	 * Die Quelle der Verläufe
+	 */
+	@NotNull
+	private final HistoryRecorder recorder;
+
+	/**
+	 * Die gezeichneten Kanäle oder <code>null</code> für alle
+	 */
+	@Nullable
+	private final int[] channels;
+
+	/**
+	 * Format der Zeitmarken ab einer Sekunde Abstand
+	 */
+	@NotNull
+	private final SimpleDateFormat secondsFormat = new SimpleDateFormat("HH:mm:ss");
+
+	/**
+	 * Format der Zeitmarken unter einer Sekunde Abstand
+	 */
+	@NotNull
+	private final SimpleDateFormat millisFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+
+	/**
+	 * Die Breite des Zeitfensters in Nanosekunden
+	 */
+	private long window = DEFAULT_WINDOW_NS;
+
+	/**
+	 * Das Ende des Zeitfensters, wenn nicht der Live-Ansicht gefolgt wird
+	 */
+	private long viewEnd;
+
+	/**
+	 * Gibt an, ob das Zeitfenster mit den neuesten Daten mitläuft
+	 */
+	private boolean following = true;
+
+	/**
+	 * Das Ende des zuletzt gezeichneten Zeitfensters
+	 */
+	private long paintedEnd;
+
+	/**
+	 * Die Anzahl der Messwerte beim letzten Zeichnen
+	 */
+	private long paintedSamples = -1;
+
+	/**
+	 * Die Position der Maus beim letzten Ziehen
+	 */
+	private int dragX;
+
+	/**
+	 * Die Zeitstempel je Kanal
+	 */
+	@NotNull
+	private long[][] times = new long[0][];
+
+	/**
+	 * Die Werte je Kanal
+	 */
+	@NotNull
+	private float[][] values = new float[0][];
+
+	/**
+	 * Die Anzahl der Punkte je Kanal
+	 */
+	@NotNull
+	private final int[] counts = new int[StreamParser.MAX_CHANNELS];
+
+	/**
+	 * Die x-Koordinaten der Linie
+	 */
+	@NotNull
+	private int[] xPoints = new int[0];
+
+	/**
+	 * Die y-Koordinaten der Linie
+	 */
+	@NotNull
+	private int[] yPoints = new int[0];
+
+	/**
+	 * Das Minimum je Pixelspalte
+	 */
+	@NotNull
+	private float[] columnMin = new float[0];
+
+	/**
+	 * Das Maximum je Pixelspalte
+	 */
+	@NotNull
+	private float[] columnMax = new float[0];
+
+	/**
+	 * Erzeugt eine neue Darstellung
+	 *
+	 * @param recorder Die Quelle der Verläufe
+	 * @param channels Die zu zeichnenden Kanäle oder <code>null</code> für alle
+	 */
+	public PlotPanel(@NotNull HistoryRecorder recorder, @Nullable int[] channels) {
+		if (channels != null) {
+			if (channels.length > StreamParser.MAX_CHANNELS) throw new IllegalArgumentException("channels");
+			for (int channel : channels) {
+				if (channel < 0 || channel >= StreamParser.MAX_CHANNELS) throw new IllegalArgumentException("channels");
+			}
+		}
+		this.recorder = recorder;
+		this.channels = channels != null ? channels.clone() : null;
+		setPreferredSize(new Dimension(1200, 700));
+		setOpaque(true);
+		setBackground(Color.WHITE);
+
+		final MouseAdapter mouse = new MouseAdapter() {
+			@Override
+			public void mousePressed(MouseEvent e) {
+				dragX = e.getX();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				pan(dragX - e.getX());
+				dragX = e.getX();
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					following = true;
+					repaint();
+				}
+			}
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				zoom(Math.pow(ZOOM_STEP, e.getPreciseWheelRotation()), e.getX());
+			}
+		};
+		addMouseListener(mouse);
+		addMouseMotionListener(mouse);
+		addMouseWheelListener(mouse);
+
+		new Timer(REFRESH_INTERVAL_MS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (following && recorder.getSampleCount() != paintedSamples) repaint();
+			}
+		}).start();
+	}
+
+	/**
+	 * Setzt die Breite des Zeitfensters
+	 *
+	 * @param window Die Breite in Nanosekunden
+	 */
+	public void setWindow(long window) {
+		this.window = Math.max(MIN_WINDOW_NS, Math.min(MAX_WINDOW_NS, window));
+		repaint();
+	}
+
+	/**
+	 * Verschiebt das Zeitfenster
+	 *
+	 * @param pixels Die Verschiebung in Pixeln; positiv in die Zukunft
+	 */
+	private void pan(int pixels) {
+		final int plotWidth = getPlotWidth();
+		if (plotWidth <= 0 || pixels == 0) return;
+
+		final long end = paintedEnd + (long) ((double) pixels / plotWidth * window);
+		final long newest = getNewestTimestamp();
+		following = end >= newest;
+		viewEnd = end;
+		repaint();
+	}
+
+	/**
+	 * Ändert die Breite des Zeitfensters um die Mausposition
+	 *
+	 * @param factor Der Faktor der neuen Breite
+	 * @param x Die Mausposition
+	 */
+	private void zoom(double factor, int x) {
+		final int plotWidth = getPlotWidth();
+		if (plotWidth <= 0) return;
+
+		final long newWindow = Math.max(MIN_WINDOW_NS, Math.min(MAX_WINDOW_NS, (long) (window * factor)));
+
+		// Im Live-Betrieb bleibt der rechte Rand fest, sonst der Zeitpunkt unter der Maus
+		if (!following) {
+			final double fraction = Math.max(0, Math.min(1, (double) (x - MARGIN_LEFT) / plotWidth));
+			final long anchor = paintedEnd - (long) ((1 - fraction) * window);
+			viewEnd = anchor + (long) ((1 - fraction) * newWindow);
+		}
+		window = newWindow;
+		repaint();
+	}
+
+	/**
+	 * Liefert die Breite der Zeichenfläche
+	 *
+	 * @return Die Breite in Pixeln
+	 */
+	private int getPlotWidth() {
+		return getWidth() - MARGIN_LEFT - MARGIN_RIGHT;
+	}
+
+	/**
+	 * Liefert den neuesten Zeitstempel aller Geräte
+	 *
+	 * @return Der Zeitstempel oder {@link Long#MIN_VALUE}
+	 */
+	private long getNewestTimestamp() {
+		long newest = Long.MIN_VALUE;
+		for (SampleHistory history : recorder.getHistories()) {
+			newest = Math.max(newest, history.getNewestTimestamp());
+		}
+		return newest;
+	}
+
+	@Override
+	protected void paintComponent(Graphics graphics) {
+		final Graphics2D g = (Graphics2D) graphics;
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+		paintedSamples = recorder.getSampleCount();
+		final List<SampleHistory> histories = recorder.getHistories();
+		final int plotWidth = getPlotWidth();
+		final int rowCount = histories.size();
+		final int plotHeight = getHeight() - MARGIN_BOTTOM;
+		if (rowCount == 0 || plotWidth <= 0) {
+			g.setColor(Color.GRAY);
+			g.drawString("Warte auf Daten ...", MARGIN_LEFT, getHeight() / 2);
+			return;
+		}
+
+		final long newest = getNewestTimestamp();
+		final long end = following ? newest : viewEnd;
+		final long start = end - window;
+		paintedEnd = end;
+		ensureCapacity(plotWidth);
+
+		final int rowHeight = (plotHeight - ROW_GAP * rowCount) / rowCount;
+		long memory = 0;
+		for (int row = 0; row < rowCount; ++row) {
+			final SampleHistory history = histories.get(row);
+			memory += history.getMemorySize();
+			final int top = ROW_GAP + row * (rowHeight + ROW_GAP);
+			if (rowHeight > 0) paintRow(g, history, start, end, MARGIN_LEFT, top, plotWidth, rowHeight);
+		}
+
+		paintTimeAxis(g, start, end, plotWidth, plotHeight);
+
+		g.setColor(Color.DARK_GRAY);
+		final String status = rowCount + " Geräte, " + String.format("%.1f", memory / 1048576.0) + " MiB, "
+				+ (following ? "live" : "angehalten (Doppelklick: live)");
+		g.drawString(status, MARGIN_LEFT, getHeight() - 4);
+	}
+
+	/**
+	 * Zeichnet die Zeile eines Gerätes
+	 *
+	 * @param g Die Zeichenfläche
+	 * @param history Der Verlauf
+	 * @param start Der Beginn des Zeitfensters
+	 * @param end Das Ende des Zeitfensters
+	 * @param left Der linke Rand der Zeile
+	 * @param top Der obere Rand der Zeile
+	 * @param width Die Breite der Zeile
+	 * @param height Die Höhe der Zeile
+	 */
+	private void paintRow(@NotNull Graphics2D g, @NotNull SampleHistory history, long start, long end,
+	                      int left, int top, int width, int height) {
+		final int channelCount = history.getChannelCount();
+		final int shown = channels != null ? channels.length : channelCount;
+		final int maxPoints = width * POINTS_PER_PIXEL;
+
+		// Punkte aller Kanäle lesen und den gemeinsamen Wertebereich bestimmen
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		int level = 0;
+		for (int i = 0; i < shown; ++i) {
+			final int channel = channels != null ? channels[i] : i;
+			if (channel >= channelCount) {
+				counts[i] = 0;
+				continue;
+			}
+			counts[i] = history.query(channel, start, end, maxPoints, times[i], values[i]);
+			level = Math.max(level, history.getLastQueryLevel());
+			for (int p = 0; p < counts[i]; ++p) {
+				final float value = values[i][p];
+				if (value < min) min = value;
+				if (value > max) max = value;
+			}
+		}
+		if (min > max) {
+			min = -1;
+			max = 1;
+		}
+		else if (min == max) {
+			min -= 1;
+			max += 1;
+		}
+		final float margin = (max - min) * 0.05f;
+		min -= margin;
+		max += margin;
+
+		g.setColor(PLOT_BACKGROUND);
+		g.fillRect(left, top, width, height);
+		g.setColor(Color.LIGHT_GRAY);
+		g.drawRect(left, top, width, height);
+
+		final Graphics2D clipped = (Graphics2D) g.create(left, top, width + 1, height + 1);
+		try {
+			// Erst alle Hüllkurven, damit keine davon die Linie eines anderen Kanals verdeckt
+			for (int i = 0; i < shown; ++i) {
+				if (counts[i] <= width) continue;
+				final Color color = ENVELOPE_COLORS[(channels != null ? channels[i] : i) % COLORS.length];
+				paintEnvelope(clipped, times[i], values[i], counts[i], start, end, min, max, width, height, color);
+			}
+
+			for (int i = 0; i < shown; ++i) {
+				if (counts[i] == 0) continue;
+				final Color color = COLORS[(channels != null ? channels[i] : i) % COLORS.length];
+				paintLine(clipped, times[i], values[i], counts[i], start, end, min, max, width, height, color);
+			}
+		}
+		finally {
+			clipped.dispose();
+		}
+
+		// Beschriftung
+		final FontMetrics metrics = g.getFontMetrics();
+		g.setColor(Color.DARK_GRAY);
+		g.drawString(formatValue(max), left - 4 - metrics.stringWidth(formatValue(max)), top + metrics.getAscent());
+		g.drawString(formatValue(min), left - 4 - metrics.stringWidth(formatValue(min)), top + height);
+		int x = left;
+		final String title = history.getAddress() + "  (1:" + pow(SampleHistory.FACTOR, level) + ")  ";
+		g.drawString(title, x, top - 4);
+		x += metrics.stringWidth(title);
+		for (int i = 0; i < shown; ++i) {
+			final int channel = channels != null ? channels[i] : i;
+			if (channel >= channelCount) continue;
+			g.setColor(COLORS[channel % COLORS.length]);
+			final String label = "k" + channel + " ";
+			g.drawString(label, x, top - 4);
+			x += metrics.stringWidth(label);
+		}
+	}
+
+	/**
+	 * Zeichnet das Minimum und Maximum eines Kanals je Pixelspalte
+	 *
+	 * <p/>
+	 *
+	 * Die Hüllkurve zeigt auch Spitzen, die bei der Ausdünnung der Linie entfallen.
+	 *
+	 * @param g Die auf die Zeile beschränkte Zeichenfläche
+	 * @param times Die Zeitstempel
+	 * @param values Die Werte
+	 * @param count Die Anzahl der Punkte
+	 * @param start Der Beginn des Zeitfensters
+	 * @param end Das Ende des Zeitfensters
+	 * @param min Der untere Rand des Wertebereiches
+	 * @param max Der obere Rand des Wertebereiches
+	 * @param width Die Breite der Zeile
+	 * @param height Die Höhe der Zeile
+	 * @param color Die Farbe
+	 */
+	private void paintEnvelope(@NotNull Graphics2D g, @NotNull long[] times, @NotNull float[] values, int count,
+	                           long start, long end, float min, float max, int width, int height, @NotNull Color color) {
+		final double xScale = (double) width / (end - start);
+		final double yScale = height / (max - min);
+
+		for (int column = 0; column <= width; ++column) {
+			columnMin[column] = Float.POSITIVE_INFINITY;
+			columnMax[column] = Float.NEGATIVE_INFINITY;
+		}
+		for (int p = 0; p < count; ++p) {
+			final int column = (int) ((times[p] - start) * xScale);
+			if (column < 0 || column > width) continue;
+			final float value = values[p];
+			if (value < columnMin[column]) columnMin[column] = value;
+			if (value > columnMax[column]) columnMax[column] = value;
+		}
+
+		g.setColor(color);
+		for (int column = 0; column <= width; ++column) {
+			if (columnMin[column] > columnMax[column]) continue;
+			g.drawLine(column, (int) ((max - columnMax[column]) * yScale), column, (int) ((max - columnMin[column]) * yScale));
+		}
+	}
+
+	/**
+	 * Zeichnet die mit {@link Lttb} auf etwa einen Punkt je Pixel ausgedünnte Linie eines Kanals
+	 *
+	 * @param g Die auf die Zeile beschränkte Zeichenfläche
+	 * @param times Die Zeitstempel; werden beim Ausdünnen überschrieben
+	 * @param values Die Werte; werden beim Ausdünnen überschrieben
+	 * @param count Die Anzahl der Punkte
+	 * @param start Der Beginn des Zeitfensters
+	 * @param end Das Ende des Zeitfensters
+	 * @param min Der untere Rand des Wertebereiches
+	 * @param max Der obere Rand des Wertebereiches
+	 * @param width Die Breite der Zeile
+	 * @param height Die Höhe der Zeile
+	 * @param color Die Farbe
+	 */
+	private void paintLine(@NotNull Graphics2D g, @NotNull long[] times, @NotNull float[] values, int count,
+	                       long start, long end, float min, float max, int width, int height, @NotNull Color color) {
+		final double xScale = (double) width / (end - start);
+		final double yScale = height / (max - min);
+		count = Lttb.downsample(times, values, count, Math.max(3, width));
+
+		// Linie an NaN-Werten unterbrechen
+		g.setColor(color);
+		int n = 0;
+		for (int p = 0; p <= count; ++p) {
+			if (p == count || Float.isNaN(values[p])) {
+				if (n > 1) g.drawPolyline(xPoints, yPoints, n);
+				n = 0;
+				continue;
+			}
+			xPoints[n] = (int) Math.max(-1, Math.min(width + 1, (times[p] - start) * xScale));
+			yPoints[n] = (int) ((max - values[p]) * yScale);
+			++n;
+		}
+	}
+
+	/**
+	 * Zeichnet die Zeitachse unter allen Zeilen
+	 *
+	 * @param g Die Zeichenfläche
+	 * @param start Der Beginn des Zeitfensters
+	 * @param end Das Ende des Zeitfensters
+	 * @param width Die Breite der Zeichenfläche
+	 * @param bottom Der obere Rand der Achse
+	 */
+	private void paintTimeAxis(@NotNull Graphics2D g, long start, long end, int width, int bottom) {
+		// Kleinster Abstand aus 1, 2 oder 5 mal einer Zehnerpotenz in Nanosekunden, der eine Beschriftung fasst
+		final FontMetrics metrics = g.getFontMetrics();
+		final double nanosPerPixel = (double) (end - start) / width;
+		final double target = Math.max(TICK_SPACING, metrics.stringWidth("00:00:00.000") + 16) * nanosPerPixel;
+		long magnitude = 1;
+		while (magnitude * 5 < target) magnitude *= 10;
+		final long step = magnitude >= target ? magnitude : magnitude * 2 >= target ? magnitude * 2 : magnitude * 5;
+
+		final SimpleDateFormat format = step >= 1000000000L ? secondsFormat : millisFormat;
+		final double xScale = (double) width / (end - start);
+		g.setColor(Color.DARK_GRAY);
+		for (long tick = Math.floorDiv(start, step) * step + step; tick <= end; tick += step) {
+			final int x = MARGIN_LEFT + (int) ((tick - start) * xScale);
+			g.drawLine(x, bottom - 4, x, bottom);
+			final String label = format.format(new Date(tick / 1000000L));
+			g.drawString(label, x - metrics.stringWidth(label) / 2, bottom + metrics.getAscent());
+		}
+	}
+
+	/**
+	 * Vergrößert die Puffer für eine Zeichenbreite
+	 *
+	 * @param width Die Breite in Pixeln
+	 */
+	private void ensureCapacity(int width) {
+		final int points = width * POINTS_PER_PIXEL + 4;
+		if (xPoints.length >= points) return;
+
+		times = new long[StreamParser.MAX_CHANNELS][points];
+		values = new float[StreamParser.MAX_CHANNELS][points];
+		xPoints = new int[points];
+		yPoints = new int[points];
+		columnMin = new float[width + 1];
+		columnMax = new float[width + 1];
+	}
+
+	/**
+	 * Formatiert einen Wert für die Achsenbeschriftung
+	 *
+	 * @param value Der Wert
+	 * @return Der Text
+	 */
+	@NotNull
+	private static String formatValue(float value) {
+		return String.format("%.4g", value);
+	}
+
+	/**
+	 * Berechnet eine ganzzahlige Potenz
+	 *
+	 * @param base Die Basis
+	 * @param exponent Der Exponent
+	 * @return Das Ergebnis
+	 */
+	private static long pow(int base, int exponent) {
+		long result = 1;
+		for (int i = 0; i < exponent; ++i) result *= base;
+		return result;
+	}
+}
@@ -0,0 +1,311 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kommandozeilen-Empfänger für beliebig viele Quellen.
+ *
+ * <pre>
+ * java -jar bluetoothspp-receiver.jar [--stats] [--encoders bin,jsonl,csv] [--no-mux] [--no-quant] [--merge ms] &lt;quelle&gt; [&lt;quelle&gt; ...]
+ *
+ *   /dev/rfcomm0          serielle Schnittstelle
+ *   tcp:&lt;host&gt;:&lt;port&gt;    TCP-Verbindung aufbauen
+ *   listen:&lt;port&gt;         TCP-Verbindungen annehmen
+ * </pre>
+ *
+ * Ohne <code>--stats</code> wird jeder Messwert als <code>quelle; zeitstempel; werte...</code>
+ * auf die Standardausgabe geschrieben, mit <code>--stats</code> nur die Rate je Quelle.
+ * <code>--encoders</code> legt die Reihenfolge fest, in der angebotene Kodierer gewählt werden,
+ * <code>--no-mux</code> lehnt gemultiplexte Kanäle ab, <code>--no-quant</code> quantisierte Werte.
+ * <code>--merge</code> führt alle Quellen über einen {@link StreamAggregator} mit der angegebenen
+ * maximalen Verzögerung zusammen; ausgegeben wird dann <code>adresse; zeitstempel; werte...</code>
+ * in zeitlicher Reihenfolge, mit Zeitstempeln in Nanosekunden seit 1970 auf der Uhr des Hosts.
+ */
+public final class ReceiverMain {
+
+	/**
+	 * Präfix für lauschende TCP-Quellen
+	 */
+	@NotNull
+	private static final String LISTEN_PREFIX = "listen:";
+
+	/**
+	 * Das Intervall der Statistikausgabe in Millisekunden
+	 */
+	private static final long STATS_INTERVAL_MS = 1000;
+
+	/**
+	 * Keine Instanzen erlauben
+	 */
+	private ReceiverMain() {}
+
+	/**
+	 * Einstiegspunkt
+	 *
+	 * @param args Die Kommandozeilenargumente
+	 * @throws IOException Wenn eine Quelle nicht geöffnet werden konnte
+	 * @throws InterruptedException Wenn der Hauptthread unterbrochen wurde
+	 */
+	public static void main(@NotNull String[] args) throws IOException, InterruptedException {
+		boolean statsOnly = false;
+		boolean multiplexing = true;
+		boolean quantization = true;
+		long mergeDelayMs = -1;
+		String[] encoders = SampleReceiver.DEFAULT_PREFERRED_ENCODERS;
+		final List<String> sources = new ArrayList<String>();
+		for (int i = 0; i < args.length; ++i) {
+			if ("--stats".equals(args[i])) statsOnly = true;
+			else if ("--encoders".equals(args[i])) encoders = args[++i].split(",");
+			else if ("--no-mux".equals(args[i])) multiplexing = false;
+			else if ("--no-quant".equals(args[i])) quantization = false;
+			else if ("--merge".equals(args[i])) mergeDelayMs = Long.parseLong(args[++i]);
+			else sources.add(args[i]);
+		}
+
+		if (sources.isEmpty()) {
+			System.err.println("usage: ReceiverMain [--stats] [--encoders a,b,...] [--no-mux] [--no-quant] [--merge ms] <device>|tcp:<host>:<port>|listen:<port> ...");
+			System.exit(1);
+		}
+
+		final List<CountingReceiver> receivers = new ArrayList<CountingReceiver>();
+		final boolean print = !statsOnly;
+		final StreamAggregator aggregator = mergeDelayMs >= 0
+				? new StreamAggregator(mergeDelayMs * 1000000L, new MergedPrinter(print ? System.out : null))
+				: null;
+		if (aggregator != null) aggregator.start();
+
+		ISampleReceiverFactory factory = new ISampleReceiverFactory() {
+			@NotNull
+			@Override
+			public ISampleReceiver createReceiver(@NotNull String sourceName) {
+				CountingReceiver receiver = aggregator != null
+						? new CountingReceiver(sourceName, null, aggregator.createReceiver(sourceName))
+						: new CountingReceiver(sourceName, print ? System.out : null, null);
+				synchronized (receivers) {
+					receivers.add(receiver);
+				}
+				return receiver;
+			}
+		};
+
+		for (String source : sources) {
+			if (source.startsWith(LISTEN_PREFIX)) {
+				ReceiverServer server = new ReceiverServer(Integer.parseInt(source.substring(LISTEN_PREFIX.length())), factory);
+				server.setPreferredEncoders(encoders);
+				server.setMultiplexing(multiplexing);
+				server.setQuantization(quantization);
+				server.start();
+			}
+			else {
+				SampleReceiver receiver = SampleReceiver.open(source, factory.createReceiver(source));
+				receiver.setPreferredEncoders(encoders);
+				receiver.setMultiplexing(multiplexing);
+				receiver.setQuantization(quantization);
+				receiver.start();
+			}
+		}
+
+		if (!statsOnly) return;
+
+		// Statistik ausgeben
+		long lastMerged = 0;
+		long lastLate = 0;
+		while (true) {
+			Thread.sleep(STATS_INTERVAL_MS);
+			if (aggregator != null) {
+				long merged = aggregator.getMergedSamples();
+				long late = aggregator.getLateSamples();
+				System.err.println("merged: " + (merged - lastMerged) + " samples/s, " + (late - lastLate) + " late from "
+						+ aggregator.getSourceCount() + " sources");
+				lastMerged = merged;
+				lastLate = late;
+			}
+			synchronized (receivers) {
+				long total = 0;
+				for (CountingReceiver receiver : receivers) {
+					long count = receiver.takeCount();
+					long bulk = receiver.takeBulkBytes();
+					total += count;
+					System.err.println(receiver.sourceName + " (" + receiver.deviceAddress + "): " + count + " samples/s, "
+							+ (bulk / 1024) + " KiB/s bulk");
+				}
+				System.err.println("total: " + total + " samples/s from " + receivers.size() + " sources");
+			}
+		}
+	}
+
+	/**
+	 * Empfänger, der Messwerte zählt und optional ausgibt
+	 */
+	private static final class CountingReceiver implements ISampleReceiver, IBulkDataListener {
+
+		/**
+		 * Der Name der Quelle
+		 */
+		@NotNull
+		private final String sourceName;
+
+		/**
+		 * Die Ausgabe oder <code>null</code>
+		 */
+		private final PrintStream out;
+
+		/**
+		 * Der nachgeschaltete Empfänger oder <code>null</code>
+		 */
+		private final ISampleReceiver next;
+
+		/**
+		 * Puffer für die Ausgabezeile
+		 */
+		@NotNull
+		private final StringBuilder line = new StringBuilder();
+
+		/**
+		 * Die Adresse aus der Sync-Nachricht
+		 */
+		@NotNull
+		private volatile String deviceAddress = "?";
+
+		/**
+		 * Die Anzahl der Messwerte; wird nur vom Lesethread geschrieben
+		 */
+		private volatile long count;
+
+		/**
+		 * Der Zählerstand der letzten Abfrage; wird nur vom Statistikthread verwendet
+		 */
+		private long lastCount;
+
+		/**
+		 * Die Anzahl der Massendaten-Bytes; wird nur vom Lesethread geschrieben
+		 */
+		private volatile long bulkBytes;
+
+		/**
+		 * Der Stand der Massendaten der letzten Abfrage; wird nur vom Statistikthread verwendet
+		 */
+		private long lastBulkBytes;
+
+		/**
+		 * Erzeugt einen neuen Empfänger
+		 *
+		 * @param sourceName Der Name der Quelle
+		 * @param out Die Ausgabe oder <code>null</code>
+		 * @param next Der nachgeschaltete Empfänger oder <code>null</code>
+		 */
+		CountingReceiver(@NotNull String sourceName, PrintStream out, ISampleReceiver next) {
+			this.sourceName = sourceName;
+			this.out = out;
+			this.next = next;
+		}
+
+		/**
+		 * Liefert die Anzahl der Messwerte seit dem letzten Aufruf
+		 *
+		 * @return Die Anzahl
+		 */
+		long takeCount() {
+			long current = count;
+			long delta = current - lastCount;
+			lastCount = current;
+			return delta;
+		}
+
+		/**
+		 * Liefert die Anzahl der Massendaten-Bytes seit dem letzten Aufruf
+		 *
+		 * @return Die Anzahl
+		 */
+		long takeBulkBytes() {
+			long current = bulkBytes;
+			long delta = current - lastBulkBytes;
+			lastBulkBytes = current;
+			return delta;
+		}
+
+		@Override
+		public void syncReceived(@NotNull String name, @NotNull String address) {
+			deviceAddress = address;
+			System.err.println(sourceName + ": SYNC from " + name + " " + address);
+			if (next != null) next.syncReceived(name, address);
+		}
+
+		@Override
+		public void sampleReceived(long timestamp, @NotNull float[] values, int channelCount) {
+			++count;
+			if (next != null) next.sampleReceived(timestamp, values, channelCount);
+			if (out == null) return;
+
+			line.setLength(0);
+			line.append(sourceName).append("; ");
+			if (timestamp != StreamParser.NO_TIMESTAMP) line.append(timestamp);
+			for (int i = 0; i < channelCount; ++i) {
+				line.append("; ").append(values[i]);
+			}
+			synchronized (out) {
+				out.println(line);
+			}
+		}
+
+		@Override
+		public void bulkDataReceived(@NotNull ByteBuffer data) {
+			bulkBytes += data.remaining();
+		}
+
+		@Override
+		public void blockComplete() {
+			if (next != null) next.blockComplete();
+		}
+
+		@Override
+		public void streamClosed() {
+			System.err.println(sourceName + ": closed");
+			if (next != null) next.streamClosed();
+		}
+	}
+
+	/**
+	 * Gibt den zusammengeführten Strom aus
+	 */
+	private static final class MergedPrinter implements IMergedSampleListener {
+
+		/**
+		 * Die Ausgabe oder <code>null</code>
+		 */
+		private final PrintStream out;
+
+		/**
+		 * Puffer für die Ausgabezeile
+		 */
+		@NotNull
+		private final StringBuilder line = new StringBuilder();
+
+		/**
+		 * Erzeugt eine neue Ausgabe
+		 *
+		 * @param out Die Ausgabe oder <code>null</code>
+		 */
+		MergedPrinter(PrintStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void mergedSampleReceived(@NotNull String address, long timestamp, @NotNull float[] values, int channelCount) {
+			if (out == null) return;
+
+			line.setLength(0);
+			line.append(address).append("; ").append(timestamp);
+			for (int i = 0; i < channelCount; ++i) {
+				line.append("; ").append(values[i]);
+			}
+			out.println(line);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Nimmt TCP-Verbindungen an und liest jede in einem eigenen {@link SampleReceiver}.
+ */
+public final class ReceiverServer implements Runnable, Closeable {
+
+	/**
+	 * Der Server-Kanal
+	 */
+	@NotNull
+	private final ServerSocketChannel serverChannel;
+
+	/**
+	 * Die Fabrik für die Empfänger
+	 */
+	@NotNull
+	private final ISampleReceiverFactory factory;
+
+	/**
+	 * Gibt an, ob Verbindungen angenommen werden sollen
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Die bevorzugten Kodierer für neue Verbindungen
+	 */
+	@NotNull
+	private volatile String[] preferredEncoders = SampleReceiver.DEFAULT_PREFERRED_ENCODERS;
+
+	/**
+	 * Gibt an, ob neue Verbindungen gemultiplexte Kanäle annehmen
+	 */
+	private volatile boolean multiplexing = true;
+
+	/**
+	 * Gibt an, ob neue Verbindungen quantisierte Werte anfordern
+	 */
+	private volatile boolean quantization = true;
+
+	/**
+	 * Erzeugt einen neuen Server
+	 *
+	 * @param port Der Port, auf dem gelauscht wird
+	 * @param factory Die Fabrik für die Empfänger
+	 * @throws IOException Wenn der Port nicht gebunden werden konnte
+	 */
+	public ReceiverServer(int port, @NotNull ISampleReceiverFactory factory) throws IOException {
+		this.factory = factory;
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+	}
+
+	/**
+	 * Setzt die bevorzugten Kodierer für neue Verbindungen
+	 *
+	 * @param encoderNames Die Namen, günstigster zuerst
+	 */
+	public void setPreferredEncoders(@NotNull String... encoderNames) {
+		this.preferredEncoders = encoderNames.clone();
+	}
+
+	/**
+	 * Legt fest, ob neue Verbindungen gemultiplexte Kanäle annehmen
+	 *
+	 * @param multiplexing <code>true</code>, um auf <code>mux</code> mit <code>MUX</code> zu antworten
+	 */
+	public void setMultiplexing(boolean multiplexing) {
+		this.multiplexing = multiplexing;
+	}
+
+	/**
+	 * Legt fest, ob neue Verbindungen quantisierte Werte anfordern
+	 *
+	 * @param quantization <code>true</code>, um auf <code>quant</code> mit <code>QUANT</code> zu antworten
+	 */
+	public void setQuantization(boolean quantization) {
+		this.quantization = quantization;
+	}
+
+	/**
+	 * Nimmt Verbindungen an, bis der Server geschlossen wird
+	 */
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				String sourceName = String.valueOf(channel.socket().getRemoteSocketAddress());
+				SampleReceiver receiver = new SampleReceiver(sourceName, channel, factory.createReceiver(sourceName));
+				receiver.setPreferredEncoders(preferredEncoders);
+				receiver.setMultiplexing(multiplexing);
+				receiver.setQuantization(quantization);
+				receiver.start();
+			}
+			catch (IOException e) {
+				if (running) {
+					System.err.println("accept: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Startet die Annahme in einem eigenen Thread
+	 *
+	 * @return Der Thread
+	 */
+	@NotNull
+	public Thread start() {
+		Thread thread = new Thread(this, "ReceiverServer " + serverChannel.socket().getLocalPort());
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Beendet die Annahme neuer Verbindungen
+	 */
+	@Override
+	public void close() {
+		running = false;
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sammelt einzelne Messwerte in primitiven Arrays und reicht
+ * sie blockweise an einen {@link ISampleBatchReceiver} weiter.
+ *
+ * <p/>
+ *
+ * Ein Block wird weitergereicht, wenn er voll ist, sich die Kanalanzahl ändert
+ * oder ein gelesener Block der Quelle vollständig verarbeitet wurde.
+ */
+public final class SampleBatcher implements ISampleReceiver {
+
+	/**
+	 * Der Empfänger der Blöcke
+	 */
+	@NotNull
+	private final ISampleBatchReceiver target;
+
+	/**
+	 * Die maximale Anzahl Messwerte je Block
+	 */
+	private final int capacity;
+
+	/**
+	 * Die Zeitstempel des aktuellen Blocks
+	 */
+	@NotNull
+	private final long[] timestamps;
+
+	/**
+	 * Die Kanalwerte des aktuellen Blocks
+	 */
+	@NotNull
+	private final float[] values;
+
+	/**
+	 * Die Anzahl der Messwerte im aktuellen Block
+	 */
+	private int sampleCount;
+
+	/**
+	 * Die Kanalanzahl des aktuellen Blocks
+	 */
+	private int channelCount;
+
+	/**
+	 * Erzeugt einen neuen Batcher
+	 *
+	 * @param target Der Empfänger der Blöcke
+	 * @param capacity Die maximale Anzahl Messwerte je Block
+	 */
+	public SampleBatcher(@NotNull ISampleBatchReceiver target, int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity");
+		this.target = target;
+		this.capacity = capacity;
+		this.timestamps = new long[capacity];
+		this.values = new float[capacity * StreamParser.MAX_CHANNELS];
+	}
+
+	@Override
+	public void syncReceived(@NotNull String name, @NotNull String address) {
+		flush();
+		target.syncReceived(name, address);
+	}
+
+	@Override
+	public void sampleReceived(long timestamp, @NotNull float[] values, int channelCount) {
+		if (sampleCount > 0 && channelCount != this.channelCount) {
+			flush();
+		}
+
+		this.channelCount = channelCount;
+		System.arraycopy(values, 0, this.values, sampleCount * channelCount, channelCount);
+		timestamps[sampleCount] = timestamp;
+
+		if (++sampleCount == capacity) {
+			flush();
+		}
+	}
+
+	@Override
+	public void blockComplete() {
+		flush();
+	}
+
+	@Override
+	public void streamClosed() {
+		flush();
+		target.streamClosed();
+	}
+
+	/**
+	 * Reicht den aktuellen Block weiter, sofern er nicht leer ist
+	 */
+	public void flush() {
+		if (sampleCount == 0) return;
+		target.batchReceived(timestamps, values, sampleCount, channelCount);
+		sampleCount = 0;
+	}
+}
@@ -0,0 +1,531 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Speichert den Verlauf eines Gerätes als Min/Max-Pyramide mit begrenztem Speicher.
+ *
+ * <p/>
+ *
+ * Stufe 0 hält die letzten Messwerte in voller Auflösung. Jede weitere Stufe fasst
+ * {@link #FACTOR} Einträge der vorherigen zu einem Block mit Minimum und Maximum je Kanal
+ * zusammen. Alle Stufen sind Ringpuffer fester Größe: Ist eine Stufe voll, wird ihr ältester
+ * Eintrag überschrieben, der in den gröberen Stufen aber weiter enthalten ist. Je älter
+ * die Daten, desto gröber liegen sie vor; der Speicherbedarf hängt nur von den Kapazitäten ab.
+ *
+ * <p/>
+ *
+ * Zum Zeichnen liefert {@link #query(int, long, long, int, long[], float[])} für einen
+ * Zeitbereich die feinste Stufe, die ihn abdeckt und höchstens die gewünschte Anzahl
+ * Punkte ergibt. Blöcke werden dabei zu ihrem Minimum und Maximum in der Reihenfolge
+ * ihres Auftretens, so dass Spitzen in jeder Auflösung erhalten bleiben.
+ *
+ * <p/>
+ *
+ * Zeitstempel müssen monoton steigen. Die Methoden sind threadsicher; geschrieben wird
+ * aus einem Thread, gelesen aus dem Zeichenthread.
+ */
+public final class SampleHistory {
+
+	/**
+	 * Die Anzahl der Einträge einer Stufe, die in einem Block der nächsten zusammengefasst werden
+	 */
+	public static final int FACTOR = 16;
+
+	/**
+	 * Die Anzahl der Stufen inklusive der vollen Auflösung
+	 */
+	public static final int LEVEL_COUNT = 4;
+
+	/**
+	 * Die Standardkapazität der vollen Auflösung in Messwerten
+	 */
+	public static final int DEFAULT_RAW_CAPACITY = 1 << 18;
+
+	/**
+	 * Die Standardkapazität jeder gröberen Stufe in Blöcken
+	 */
+	public static final int DEFAULT_BLOCK_CAPACITY = 1 << 16;
+
+	/**
+	 * Die Adresse des Gerätes
+	 */
+	@NotNull
+	private final String address;
+
+	/**
+	 * Die Anzahl der Kanäle
+	 */
+	private final int channelCount;
+
+	/**
+	 * Die Stufen, feinste zuerst
+	 */
+	@NotNull
+	private final Level[] levels = new Level[LEVEL_COUNT];
+
+	/**
+	 * Die Stufe der letzten Abfrage
+	 */
+	private int lastQueryLevel;
+
+	/**
+	 * Erzeugt einen Verlauf mit den Standardkapazitäten
+	 *
+	 * @param address Die Adresse des Gerätes
+	 * @param channelCount Die Anzahl der Kanäle
+	 */
+	public SampleHistory(@NotNull String address, int channelCount) {
+		this(address, channelCount, DEFAULT_RAW_CAPACITY, DEFAULT_BLOCK_CAPACITY);
+	}
+
+	/**
+	 * Erzeugt einen Verlauf
+	 *
+	 * @param address Die Adresse des Gerätes
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @param rawCapacity Die Kapazität der vollen Auflösung in Messwerten
+	 * @param blockCapacity Die Kapazität jeder gröberen Stufe in Blöcken
+	 */
+	public SampleHistory(@NotNull String address, int channelCount, int rawCapacity, int blockCapacity) {
+		if (channelCount <= 0 || channelCount > StreamParser.MAX_CHANNELS) throw new IllegalArgumentException("channelCount");
+		if (rawCapacity <= 0) throw new IllegalArgumentException("rawCapacity");
+		if (blockCapacity <= 0) throw new IllegalArgumentException("blockCapacity");
+		this.address = address;
+		this.channelCount = channelCount;
+		levels[0] = new Level(rawCapacity, 1);
+		for (int i = 1, blockSize = FACTOR; i < LEVEL_COUNT; ++i, blockSize *= FACTOR) {
+			levels[i] = new Level(blockCapacity, blockSize);
+		}
+	}
+
+	/**
+	 * Liefert die Adresse des Gerätes
+	 *
+	 * @return Die Adresse
+	 */
+	@NotNull
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * Liefert die Anzahl der Kanäle
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	/**
+	 * Liefert den ungefähren Speicherbedarf aller Stufen
+	 *
+	 * @return Die Größe in Bytes
+	 */
+	public long getMemorySize() {
+		long size = 0;
+		for (Level level : levels) {
+			size += level.getMemorySize();
+		}
+		return size;
+	}
+
+	/**
+	 * Liefert den Zeitstempel des neuesten Messwertes
+	 *
+	 * @return Der Zeitstempel oder {@link Long#MIN_VALUE}, wenn der Verlauf leer ist
+	 */
+	public synchronized long getNewestTimestamp() {
+		return levels[0].size() > 0 ? levels[0].getEnd(levels[0].count - 1) : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Liefert den Zeitstempel des ältesten noch in irgendeiner Stufe enthaltenen Messwertes
+	 *
+	 * @return Der Zeitstempel oder {@link Long#MIN_VALUE}, wenn der Verlauf leer ist
+	 */
+	public synchronized long getOldestTimestamp() {
+		long oldest = Long.MIN_VALUE;
+		for (Level level : levels) {
+			final long start = level.getOldestTimestamp();
+			if (start != Long.MIN_VALUE && (oldest == Long.MIN_VALUE || start < oldest)) oldest = start;
+		}
+		return oldest;
+	}
+
+	/**
+	 * Fügt einen Messwert hinzu
+	 *
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 * @param values Die Kanalwerte; es werden {@link #getChannelCount()} Werte gelesen
+	 */
+	public synchronized void add(long timestamp, @NotNull float[] values) {
+		levels[0].append(timestamp, timestamp, values, values, null);
+		for (int i = 1; i < LEVEL_COUNT; ++i) {
+			levels[i].accumulate(timestamp, values);
+		}
+	}
+
+	/**
+	 * Liefert die Punkte eines Kanals in einem Zeitbereich
+	 *
+	 * <p/>
+	 *
+	 * Gewählt wird die feinste Stufe, die den Bereich (soweit vorhanden) abdeckt und
+	 * höchstens <code>maxPoints</code> Punkte ergibt. Ein Block ergibt zwei Punkte,
+	 * ein noch nicht abgeschlossener Block wird mit ausgegeben. Zusätzlich wird je ein
+	 * Punkt vor und nach dem Bereich geliefert, damit Linien bis zum Rand reichen.
+	 *
+	 * @param channel Der Kanal
+	 * @param from Der Beginn des Bereiches in Nanosekunden
+	 * @param to Das Ende des Bereiches in Nanosekunden
+	 * @param maxPoints Die maximale Anzahl Punkte
+	 * @param times Das Ziel für die Zeitstempel; mindestens <code>maxPoints + 4</code> Einträge
+	 * @param values Das Ziel für die Werte; mindestens <code>maxPoints + 4</code> Einträge
+	 * @return Die Anzahl der Punkte
+	 * @see #getLastQueryLevel()
+	 */
+	public synchronized int query(int channel, long from, long to, int maxPoints, @NotNull long[] times, @NotNull float[] values) {
+		int chosen = -1;
+		for (int i = 0; i < LEVEL_COUNT; ++i) {
+			final Level level = levels[i];
+			if (level.size() == 0 && level.pending == 0) continue;
+			chosen = i;
+
+			// Eine Stufe, deren Daten nach dem Beginn einsetzen, genügt nur, wenn keine gröbere weiter zurückreicht
+			final boolean covers = level.getOldestTimestamp() <= from || !reachesFurther(i, level.getOldestTimestamp());
+			final int points = (level.countRange(from, to) + 3) * (level.blocks ? 2 : 1);
+			if (covers && points <= maxPoints) break;
+		}
+		if (chosen < 0) return 0;
+
+		lastQueryLevel = chosen;
+		return levels[chosen].copyRange(channel, from, to, times, values, maxPoints + 4);
+	}
+
+	/**
+	 * Liefert die Stufe, aus der die letzte Abfrage beantwortet wurde
+	 *
+	 * @return Die Stufe; <code>0</code> ist die volle Auflösung, Stufe <i>k</i> fasst
+	 *         {@link #FACTOR}<sup><i>k</i></sup> Messwerte je Block zusammen
+	 */
+	public synchronized int getLastQueryLevel() {
+		return lastQueryLevel;
+	}
+
+	/**
+	 * Prüft, ob eine gröbere Stufe weiter zurückreicht
+	 *
+	 * @param level Die aktuelle Stufe
+	 * @param oldest Der älteste Zeitstempel der aktuellen Stufe
+	 * @return <code>true</code>, wenn eine gröbere Stufe ältere Daten hält
+	 */
+	private boolean reachesFurther(int level, long oldest) {
+		for (int i = level + 1; i < LEVEL_COUNT; ++i) {
+			final Level coarser = levels[i];
+			if (coarser.size() > 0 && coarser.getOldestTimestamp() < oldest) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Eine Stufe der Pyramide als Ringpuffer
+	 */
+	private final class Level {
+
+		/**
+		 * Die Kapazität in Einträgen
+		 */
+		private final int capacity;
+
+		/**
+		 * Die Anzahl Messwerte je Eintrag
+		 */
+		private final int blockSize;
+
+		/**
+		 * Gibt an, ob die Einträge Blöcke mit Minimum und Maximum sind
+		 */
+		private final boolean blocks;
+
+		/**
+		 * Der Beginn je Eintrag
+		 */
+		@NotNull
+		private final long[] starts;
+
+		/**
+		 * Das Ende je Eintrag; bei voller Auflösung identisch mit dem Beginn
+		 */
+		@NotNull
+		private final long[] ends;
+
+		/**
+		 * Die Minima mit {@link #channelCount} Werten je Eintrag; bei voller Auflösung die Werte
+		 */
+		@NotNull
+		private final float[] minima;
+
+		/**
+		 * Die Maxima je Eintrag; bei voller Auflösung nicht verwendet
+		 */
+		@NotNull
+		private final float[] maxima;
+
+		/**
+		 * Gibt je Eintrag und Kanal an, ob das Maximum vor dem Minimum auftrat
+		 */
+		@NotNull
+		private final boolean[] maxFirst;
+
+		/**
+		 * Die Anzahl aller jemals angehängten Einträge
+		 */
+		private long count;
+
+		/**
+		 * Die Anzahl der Einträge der feineren Stufe im offenen Block
+		 */
+		private int pending;
+
+		/**
+		 * Der Beginn des offenen Blocks
+		 */
+		private long pendingStart;
+
+		/**
+		 * Das Ende des offenen Blocks
+		 */
+		private long pendingEnd;
+
+		/**
+		 * Die Minima des offenen Blocks
+		 */
+		@NotNull
+		private final float[] pendingMin = new float[channelCount];
+
+		/**
+		 * Die Maxima des offenen Blocks
+		 */
+		@NotNull
+		private final float[] pendingMax = new float[channelCount];
+
+		/**
+		 * Gibt je Kanal an, ob im offenen Block das Maximum vor dem Minimum auftrat
+		 */
+		@NotNull
+		private final boolean[] pendingMaxFirst = new boolean[channelCount];
+
+		/**
+		 * Erzeugt eine neue Stufe
+		 *
+		 * @param capacity Die Kapazität in Einträgen
+		 * @param blockSize Die Anzahl Messwerte je Eintrag; ab <code>2</code> Blöcke mit Minimum und Maximum
+		 */
+		Level(int capacity, int blockSize) {
+			this.capacity = capacity;
+			this.blockSize = blockSize;
+			this.blocks = blockSize > 1;
+			this.starts = new long[capacity];
+			this.ends = blocks ? new long[capacity] : starts;
+			this.minima = new float[capacity * channelCount];
+			this.maxima = blocks ? new float[capacity * channelCount] : minima;
+			this.maxFirst = new boolean[blocks ? capacity * channelCount : 0];
+		}
+
+		/**
+		 * Liefert den Speicherbedarf der Stufe
+		 *
+		 * @return Die Größe in Bytes
+		 */
+		long getMemorySize() {
+			long perEntry = 8 + 4 * channelCount;
+			if (blocks) perEntry += 8 + 4 * channelCount + channelCount;
+			return perEntry * capacity;
+		}
+
+		/**
+		 * Liefert die Anzahl der gehaltenen Einträge
+		 *
+		 * @return Die Anzahl
+		 */
+		int size() {
+			return (int) Math.min(count, capacity);
+		}
+
+		/**
+		 * Liefert den Beginn des ältesten Eintrags oder des offenen Blocks
+		 *
+		 * @return Der Zeitstempel oder {@link Long#MIN_VALUE}, wenn die Stufe leer ist
+		 */
+		long getOldestTimestamp() {
+			if (size() > 0) return getStart(count - size());
+			return pending > 0 ? pendingStart : Long.MIN_VALUE;
+		}
+
+		/**
+		 * Liefert den Beginn eines Eintrags
+		 *
+		 * @param index Der fortlaufende Index
+		 * @return Der Zeitstempel
+		 */
+		long getStart(long index) {
+			return starts[(int) (index % capacity)];
+		}
+
+		/**
+		 * Liefert das Ende eines Eintrags
+		 *
+		 * @param index Der fortlaufende Index
+		 * @return Der Zeitstempel
+		 */
+		long getEnd(long index) {
+			return ends[(int) (index % capacity)];
+		}
+
+		/**
+		 * Hängt einen Eintrag an und überschreibt dabei gegebenenfalls den ältesten
+		 *
+		 * @param start Der Beginn
+		 * @param end Das Ende
+		 * @param min Die Minima je Kanal
+		 * @param max Die Maxima je Kanal
+		 * @param first Gibt je Kanal an, ob das Maximum zuerst auftrat, oder <code>null</code>
+		 */
+		void append(long start, long end, @NotNull float[] min, @NotNull float[] max, boolean[] first) {
+			final int slot = (int) (count % capacity);
+			starts[slot] = start;
+			ends[slot] = end;
+			System.arraycopy(min, 0, minima, slot * channelCount, channelCount);
+			if (blocks) {
+				System.arraycopy(max, 0, maxima, slot * channelCount, channelCount);
+				System.arraycopy(first, 0, maxFirst, slot * channelCount, channelCount);
+			}
+			++count;
+		}
+
+		/**
+		 * Nimmt einen Messwert in den offenen Block auf und schließt ihn nach {@link #blockSize} Messwerten ab
+		 *
+		 * @param timestamp Der Zeitstempel
+		 * @param values Die Kanalwerte
+		 */
+		void accumulate(long timestamp, @NotNull float[] values) {
+			if (pending == 0) {
+				pendingStart = timestamp;
+				System.arraycopy(values, 0, pendingMin, 0, channelCount);
+				System.arraycopy(values, 0, pendingMax, 0, channelCount);
+				for (int c = 0; c < channelCount; ++c) pendingMaxFirst[c] = false;
+			}
+			else {
+				for (int c = 0; c < channelCount; ++c) {
+					// Ein NaN zu Beginn wird vom ersten gültigen Wert ersetzt
+					final float value = values[c];
+					if (value < pendingMin[c] || Float.isNaN(pendingMin[c])) {
+						pendingMin[c] = value;
+						pendingMaxFirst[c] = true;
+					}
+					if (value > pendingMax[c] || Float.isNaN(pendingMax[c])) {
+						pendingMax[c] = value;
+						pendingMaxFirst[c] = false;
+					}
+				}
+			}
+			pendingEnd = timestamp;
+
+			if (++pending < blockSize) return;
+			append(pendingStart, pendingEnd, pendingMin, pendingMax, pendingMaxFirst);
+			pending = 0;
+		}
+
+		/**
+		 * Sucht den ersten gehaltenen Eintrag, der nach einem Zeitpunkt endet
+		 *
+		 * @param time Der Zeitpunkt
+		 * @return Der fortlaufende Index; {@link #count}, wenn keiner nach dem Zeitpunkt endet
+		 */
+		long firstEndingAfter(long time) {
+			long low = count - size();
+			long high = count;
+			while (low < high) {
+				final long middle = (low + high) >>> 1;
+				if (getEnd(middle) < time) low = middle + 1;
+				else high = middle;
+			}
+			return low;
+		}
+
+		/**
+		 * Zählt die Einträge in einem Zeitbereich
+		 *
+		 * @param from Der Beginn
+		 * @param to Das Ende
+		 * @return Die Anzahl
+		 */
+		int countRange(long from, long to) {
+			final long first = firstEndingAfter(from);
+			final long last = firstEndingAfter(to);
+			return (int) (last - first);
+		}
+
+		/**
+		 * Kopiert die Punkte eines Kanals in einem Zeitbereich inklusive je eines Nachbarn
+		 *
+		 * @param channel Der Kanal
+		 * @param from Der Beginn
+		 * @param to Das Ende
+		 * @param times Das Ziel für die Zeitstempel
+		 * @param values Das Ziel für die Werte
+		 * @param limit Die maximale Anzahl Punkte
+		 * @return Die Anzahl der Punkte
+		 */
+		int copyRange(int channel, long from, long to, @NotNull long[] times, @NotNull float[] values, int limit) {
+			final long oldest = count - size();
+			final long first = Math.max(oldest, firstEndingAfter(from) - 1);
+			final long last = Math.min(count, firstEndingAfter(to) + 1);
+
+			int n = 0;
+			for (long index = first; index < last && n < limit; ++index) {
+				final int slot = (int) (index % capacity);
+				final int offset = slot * channelCount + channel;
+				if (!blocks) {
+					times[n] = starts[slot];
+					values[n++] = minima[offset];
+					continue;
+				}
+				n = putBlock(starts[slot], ends[slot], minima[offset], maxima[offset], maxFirst[offset], times, values, n, limit);
+			}
+
+			// Der offene Block reicht bis zum neuesten Messwert
+			if (blocks && pending > 0 && pendingEnd >= from && last == count) {
+				n = putBlock(pendingStart, pendingEnd, pendingMin[channel], pendingMax[channel], pendingMaxFirst[channel], times, values, n, limit);
+			}
+			return n;
+		}
+
+		/**
+		 * Gibt einen Block als zwei Punkte aus
+		 *
+		 * @param start Der Beginn des Blocks
+		 * @param end Das Ende des Blocks
+		 * @param min Das Minimum
+		 * @param max Das Maximum
+		 * @param maxIsFirst <code>true</code>, wenn das Maximum zuerst auftrat
+		 * @param times Das Ziel für die Zeitstempel
+		 * @param values Das Ziel für die Werte
+		 * @param n Die Anzahl der bisherigen Punkte
+		 * @param limit Die maximale Anzahl Punkte
+		 * @return Die neue Anzahl der Punkte
+		 */
+		private int putBlock(long start, long end, float min, float max, boolean maxIsFirst,
+		                     @NotNull long[] times, @NotNull float[] values, int n, int limit) {
+			if (n + 2 > limit) return n;
+			times[n] = start;
+			values[n++] = maxIsFirst ? max : min;
+			times[n] = end;
+			values[n++] = maxIsFirst ? min : max;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Liest den Datenstrom einer einzelnen Quelle und reicht ihn
+ * an einen {@link StreamParser} weiter.
+ *
+ * <p/>
+ *
+ * Quellen sind serielle Schnittstellen (z.B. <code>/dev/rfcomm0</code>) oder
+ * TCP-Verbindungen. Jede Quelle wird in ihrem eigenen Thread über {@link #run()} gelesen.
+ *
+ * <p/>
+ *
+ * Bietet das Gerät mit <code>CAPS &lt;kodierer&gt; ...</code> mehrere Kodierer an, wählt
+ * der Receiver den ersten unterstützten aus {@link #setPreferredEncoders(String...)}
+ * und antwortet mit <code>USE &lt;kodierer&gt;</code>.
+ *
+ * <p/>
+ *
+ * Enthält das Angebot zusätzlich <code>mux</code>, antwortet der Receiver mit
+ * <code>MUX</code> und das Gerät wechselt auf Multiplex-Rahmen (siehe {@link StreamParser}).
+ * Ist der Empfänger der Messwerte zugleich ein {@link IBulkDataListener}, erhält er
+ * die Massendaten.
+ *
+ * <p/>
+ *
+ * Enthält das Angebot <code>quant</code>, fordert der Receiver mit <code>QUANT</code>
+ * quantisierte Werte an; der {@link StreamParser} rechnet sie anhand der angekündigten
+ * Tabelle zurück.
+ */
+public final class SampleReceiver implements Runnable, Closeable {
+
+	/**
+	 * Die Größe des Lesepuffers in Bytes
+	 */
+	public static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Präfix für TCP-Quellen in {@link #open(String, ISampleReceiver)}
+	 */
+	@NotNull
+	public static final String TCP_PREFIX = "tcp:";
+
+	/**
+	 * Die standardmäßig bevorzugten Kodierer, günstigster zuerst
+	 */
+	@NotNull
+	public static final String[] DEFAULT_PREFERRED_ENCODERS = { "bin", "jsonl", "csv" };
+
+	/**
+	 * Präfix der angebotenen Kodierer
+	 */
+	@NotNull
+	private static final String CAPS_PREFIX = "CAPS ";
+
+	/**
+	 * Präfix der Markierung eines Kodiererwechsels
+	 */
+	@NotNull
+	private static final String ENC_PREFIX = "ENC ";
+
+	/**
+	 * Präfix der Kodiererauswahl
+	 */
+	@NotNull
+	private static final String USE_PREFIX = "USE ";
+
+	/**
+	 * Die Fähigkeit für gemultiplexte Kanäle
+	 */
+	@NotNull
+	private static final String MUX_CAPABILITY = "mux";
+
+	/**
+	 * Die Fähigkeit zu quantisierten Werten
+	 */
+	@NotNull
+	private static final String QUANT_CAPABILITY = "quant";
+
+	/**
+	 * Die Anforderung quantisierter Werte
+	 */
+	@NotNull
+	private static final String QUANT_LINE = "QUANT";
+
+	/**
+	 * Der Name der Quelle
+	 */
+	@NotNull
+	private final String sourceName;
+
+	/**
+	 * Der Kanal der Quelle
+	 */
+	@NotNull
+	private final ByteChannel channel;
+
+	/**
+	 * Der Empfänger der Messwerte
+	 */
+	@NotNull
+	private final ISampleReceiver receiver;
+
+	/**
+	 * Der Parser
+	 */
+	@NotNull
+	private final StreamParser parser;
+
+	/**
+	 * Der Lesepuffer
+	 */
+	@NotNull
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+	/**
+	 * Gibt an, ob die Quelle gelesen werden soll
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Die bevorzugten Kodierer, günstigster zuerst
+	 */
+	@NotNull
+	private volatile String[] preferredEncoders = DEFAULT_PREFERRED_ENCODERS;
+
+	/**
+	 * Der aktuell vom Gerät verwendete Kodierer
+	 */
+	@NotNull
+	private volatile String encoderName = "csv";
+
+	/**
+	 * Gibt an, ob gemultiplexte Kanäle angenommen werden
+	 */
+	private volatile boolean multiplexing = true;
+
+	/**
+	 * Gibt an, ob quantisierte Werte angefordert werden
+	 */
+	private volatile boolean quantization = true;
+
+	/**
+	 * Erzeugt einen neuen Receiver
+	 *
+	 * @param sourceName Der Name der Quelle
+	 * @param channel Der Kanal der Quelle
+	 * @param receiver Der Empfänger der Messwerte
+	 */
+	public SampleReceiver(@NotNull String sourceName, @NotNull ByteChannel channel, @NotNull ISampleReceiver receiver) {
+		this.sourceName = sourceName;
+		this.channel = channel;
+		this.receiver = receiver;
+		this.parser = new StreamParser(receiver, new IControlLineListener() {
+			@Override
+			public void controlLineReceived(@NotNull String line) {
+				onControlLine(line);
+			}
+		});
+		if (receiver instanceof IBulkDataListener) {
+			parser.setBulkListener((IBulkDataListener) receiver);
+		}
+	}
+
+	/**
+	 * Öffnet eine serielle Schnittstelle
+	 *
+	 * @param devicePath Der Pfad des Gerätes, z.B. <code>/dev/rfcomm0</code>
+	 * @param receiver Der Empfänger der Messwerte
+	 * @return Der Receiver
+	 * @throws IOException Wenn das Gerät nicht geöffnet werden konnte
+	 */
+	@NotNull
+	public static SampleReceiver openSerial(@NotNull String devicePath, @NotNull ISampleReceiver receiver) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(devicePath, "rw");
+		return new SampleReceiver(devicePath, file.getChannel(), receiver);
+	}
+
+	/**
+	 * Verbindet mit einer TCP-Quelle
+	 *
+	 * @param host Der Hostname
+	 * @param port Der Port
+	 * @param receiver Der Empfänger der Messwerte
+	 * @return Der Receiver
+	 * @throws IOException Wenn die Verbindung nicht hergestellt werden konnte
+	 */
+	@NotNull
+	public static SampleReceiver connectTcp(@NotNull String host, int port, @NotNull ISampleReceiver receiver) throws IOException {
+		SocketChannel socketChannel = SocketChannel.open(new InetSocketAddress(host, port));
+		return new SampleReceiver(host + ":" + port, socketChannel, receiver);
+	}
+
+	/**
+	 * Öffnet eine Quelle anhand ihrer Beschreibung
+	 *
+	 * @param source <code>tcp:&lt;host&gt;:&lt;port&gt;</code> oder der Pfad einer seriellen Schnittstelle
+	 * @param receiver Der Empfänger der Messwerte
+	 * @return Der Receiver
+	 * @throws IOException Wenn die Quelle nicht geöffnet werden konnte
+	 */
+	@NotNull
+	public static SampleReceiver open(@NotNull String source, @NotNull ISampleReceiver receiver) throws IOException {
+		if (!source.startsWith(TCP_PREFIX)) {
+			return openSerial(source, receiver);
+		}
+
+		final String address = source.substring(TCP_PREFIX.length());
+		final int split = address.lastIndexOf(':');
+		if (split <= 0) throw new IllegalArgumentException("Ungültige TCP-Quelle: " + source);
+		return connectTcp(address.substring(0, split), Integer.parseInt(address.substring(split + 1)), receiver);
+	}
+
+	/**
+	 * Liefert den Namen der Quelle
+	 *
+	 * @return Der Name
+	 */
+	@NotNull
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/**
+	 * Setzt die bevorzugten Kodierer
+	 *
+	 * @param encoderNames Die Namen, günstigster zuerst
+	 */
+	public void setPreferredEncoders(@NotNull String... encoderNames) {
+		this.preferredEncoders = encoderNames.clone();
+	}
+
+	/**
+	 * Legt fest, ob gemultiplexte Kanäle angenommen werden
+	 *
+	 * @param multiplexing <code>true</code>, um auf <code>mux</code> mit <code>MUX</code> zu antworten
+	 */
+	public void setMultiplexing(boolean multiplexing) {
+		this.multiplexing = multiplexing;
+	}
+
+	/**
+	 * Legt fest, ob quantisierte Werte angefordert werden
+	 *
+	 * @param quantization <code>true</code>, um auf <code>quant</code> mit <code>QUANT</code> zu antworten
+	 */
+	public void setQuantization(boolean quantization) {
+		this.quantization = quantization;
+	}
+
+	/**
+	 * Liefert den aktuell vom Gerät verwendeten Kodierer
+	 *
+	 * @return Der Name des Kodierers
+	 */
+	@NotNull
+	public String getEncoderName() {
+		return encoderName;
+	}
+
+	/**
+	 * Liefert den Parser dieser Quelle
+	 *
+	 * @return Der Parser
+	 */
+	@NotNull
+	public StreamParser getParser() {
+		return parser;
+	}
+
+	/**
+	 * Liest die Quelle, bis sie geschlossen wird
+	 */
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				readBuffer.clear();
+				if (channel.read(readBuffer) < 0) break;
+
+				readBuffer.flip();
+				parser.parse(readBuffer);
+				receiver.blockComplete();
+			}
+		}
+		catch (IOException e) {
+			if (running) {
+				System.err.println(sourceName + ": " + e.getMessage());
+			}
+		}
+		finally {
+			closeChannel();
+			receiver.streamClosed();
+		}
+	}
+
+	/**
+	 * Beendet das Lesen und schließt die Quelle
+	 */
+	@Override
+	public void close() {
+		running = false;
+		closeChannel();
+	}
+
+	/**
+	 * Startet das Lesen in einem eigenen Thread
+	 *
+	 * @return Der Thread
+	 */
+	@NotNull
+	public Thread start() {
+		Thread thread = new Thread(this, "SampleReceiver " + sourceName);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Wertet eine Steuerzeile aus
+	 *
+	 * @param line Die Zeile ohne Zeilenende
+	 */
+	private void onControlLine(@NotNull String line) {
+		if (line.startsWith(ENC_PREFIX)) {
+			encoderName = line.substring(ENC_PREFIX.length()).trim();
+			return;
+		}
+
+		if (!line.startsWith(CAPS_PREFIX)) return;
+
+		final String[] offered = line.substring(CAPS_PREFIX.length()).trim().split(" +");
+		final String choice = chooseEncoder(offered, preferredEncoders);
+		final boolean mux = multiplexing && chooseEncoder(offered, new String[] { MUX_CAPABILITY }) != null;
+		final boolean quant = quantization && chooseEncoder(offered, new String[] { QUANT_CAPABILITY }) != null;
+
+		final StringBuilder text = new StringBuilder();
+		if (choice != null) text.append(USE_PREFIX).append(choice).append("\r\n");
+		if (mux) text.append(StreamParser.MUX_LINE).append("\r\n");
+		if (quant) text.append(QUANT_LINE).append("\r\n");
+		if (text.length() == 0) return;
+		parser.setQuantizationRequested(quant);
+
+		try {
+			final ByteBuffer reply = ByteBuffer.wrap(text.toString().getBytes("US-ASCII"));
+			while (reply.hasRemaining()) {
+				channel.write(reply);
+			}
+		}
+		catch (IOException e) {
+			System.err.println(sourceName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Wählt den ersten bevorzugten Kodierer, den das Gerät anbietet
+	 *
+	 * @param offered Die angebotenen Kodierer
+	 * @param preferred Die bevorzugten Kodierer, günstigster zuerst
+	 * @return Der Name oder <code>null</code>, wenn keiner passt
+	 */
+	@Nullable
+	static String chooseEncoder(@NotNull String[] offered, @NotNull String[] preferred) {
+		for (String candidate : preferred) {
+			for (String name : offered) {
+				if (candidate.equals(name)) return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Schließt den Kanal
+	 */
+	private void closeChannel() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Liefert eine lesbare Beschreibung
+	 *
+	 * @return Die Beschreibung
+	 */
+	@Override
+	@NotNull
+	public String toString() {
+		return "SampleReceiver[" + sourceName + "]";
+	}
+}
@@ -0,0 +1,448 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Führt die Datenströme beliebig vieler Geräte zu einem zeitlich geordneten Strom zusammen.
+ *
+ * <p/>
+ *
+ * Jede Verbindung liest weiterhin in ihrem eigenen Thread und schreibt in eine eigene
+ * Warteschlange (ein Erzeuger, ein Verbraucher, ohne Sperren). Die Zeitstempel werden dabei
+ * mit einem {@link ClockOffsetEstimator} je Gerät auf die Uhr des Hosts umgerechnet.
+ * Ein einzelner Thread führt die Warteschlangen zusammen und gibt einen Messwert aus,
+ * sobald alle offenen Quellen mindestens bis zu dessen Zeitpunkt geliefert haben,
+ * spätestens aber nach der maximalen Verzögerung. Was danach noch eintrifft, ist verspätet
+ * und wird verworfen.
+ *
+ * <p/>
+ *
+ * Quellen werden über die Adresse aus der Sync-Nachricht benannt; Messwerte vor der
+ * Sync-Nachricht werden verworfen. Ist eine Warteschlange voll, wartet der Lesethread,
+ * so dass sich der Rückstau bis zum Gerät fortsetzt.
+ *
+ * <p/>
+ *
+ * Die Ausgabegrenze wird beim Start, nach dem Schließen der letzten Quelle und bei einer
+ * erneuten Sync-Nachricht der einzigen Quelle zurückgesetzt, damit ein neuer Anfang nicht
+ * als verspätet verworfen wird.
+ */
+public final class StreamAggregator implements ISampleReceiverFactory, Runnable, Closeable {
+
+	/**
+	 * Die Standardkapazität einer Warteschlange in Messwerten
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	/**
+	 * Wartezeit ohne neue Messwerte in Nanosekunden
+	 */
+	private static final long IDLE_PARK_NS = 1000000L;
+
+	/**
+	 * Der Empfänger des zusammengeführten Stroms
+	 */
+	@NotNull
+	private final IMergedSampleListener listener;
+
+	/**
+	 * Die maximale Verzögerung in Nanosekunden
+	 */
+	private final long maxDelay;
+
+	/**
+	 * Die Kapazität jeder Warteschlange
+	 */
+	private final int queueCapacity;
+
+	/**
+	 * Die aktiven Quellen
+	 */
+	@NotNull
+	private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<Source>();
+
+	/**
+	 * Puffer für die Kanalwerte der Ausgabe
+	 */
+	@NotNull
+	private final float[] output = new float[StreamParser.MAX_CHANNELS];
+
+	/**
+	 * Versatz von {@link System#nanoTime()} zur Epoche in Nanosekunden
+	 */
+	private final long epochOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	/**
+	 * Der Zeitpunkt, bis zu dem ausgegeben wurde; wird nur vom Zusammenführungsthread verwendet
+	 */
+	private long watermark = Long.MIN_VALUE;
+
+	/**
+	 * Der Zeitstempel des zuletzt ausgegebenen Messwertes; wird nur vom Zusammenführungsthread verwendet
+	 */
+	private long lastMerged = Long.MIN_VALUE;
+
+	/**
+	 * Gibt an, ob zusammengeführt wird
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Die Anzahl der ausgegebenen Messwerte
+	 */
+	private volatile long mergedSamples;
+
+	/**
+	 * Die Anzahl der verspäteten Messwerte
+	 */
+	private volatile long lateSamples;
+
+	/**
+	 * Die Anzahl der nach {@link #close()} verworfenen Messwerte; wird von allen Lesethreads geschrieben
+	 */
+	@NotNull
+	private final AtomicLong droppedSamples = new AtomicLong();
+
+	/**
+	 * Erzeugt einen neuen Aggregator mit {@link #DEFAULT_QUEUE_CAPACITY}
+	 *
+	 * @param maxDelay Die maximale Verzögerung in Nanosekunden
+	 * @param listener Der Empfänger des zusammengeführten Stroms
+	 */
+	public StreamAggregator(long maxDelay, @NotNull IMergedSampleListener listener) {
+		this(maxDelay, DEFAULT_QUEUE_CAPACITY, listener);
+	}
+
+	/**
+	 * Erzeugt einen neuen Aggregator
+	 *
+	 * @param maxDelay Die maximale Verzögerung in Nanosekunden
+	 * @param queueCapacity Die Kapazität jeder Warteschlange in Messwerten
+	 * @param listener Der Empfänger des zusammengeführten Stroms
+	 */
+	public StreamAggregator(long maxDelay, int queueCapacity, @NotNull IMergedSampleListener listener) {
+		if (maxDelay < 0) throw new IllegalArgumentException("maxDelay");
+		if (queueCapacity <= 0) throw new IllegalArgumentException("queueCapacity");
+		this.maxDelay = maxDelay;
+		this.queueCapacity = queueCapacity;
+		this.listener = listener;
+	}
+
+	/**
+	 * Liefert die Anzahl der ausgegebenen Messwerte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getMergedSamples() {
+		return mergedSamples;
+	}
+
+	/**
+	 * Liefert die Anzahl der verspätet eingetroffenen und verworfenen Messwerte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getLateSamples() {
+		return lateSamples;
+	}
+
+	/**
+	 * Liefert die Anzahl der Messwerte, die nach {@link #close()} eintrafen oder noch auf
+	 * einen freien Platz warteten und daher verworfen wurden
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getDroppedSamples() {
+		return droppedSamples.get();
+	}
+
+	/**
+	 * Liefert die Anzahl der Quellen, die noch offen sind oder Messwerte vorhalten
+	 *
+	 * @return Die Anzahl
+	 */
+	public int getSourceCount() {
+		return sources.size();
+	}
+
+	@NotNull
+	@Override
+	public ISampleReceiver createReceiver(@NotNull String sourceName) {
+		Source source = new Source(sourceName);
+		sources.add(source);
+		return source;
+	}
+
+	/**
+	 * Führt die Warteschlangen zusammen, bis {@link #close()} gerufen wurde
+	 */
+	@Override
+	public void run() {
+		resetOrder();
+		while (running) {
+			if (!merge(System.nanoTime())) {
+				LockSupport.parkNanos(IDLE_PARK_NS);
+			}
+		}
+	}
+
+	/**
+	 * Startet das Zusammenführen in einem eigenen Thread
+	 *
+	 * <p/>
+	 *
+	 * Nach {@link #close()} darf erneut gestartet werden, sobald der vorige Thread beendet ist.
+	 *
+	 * @return Der Thread
+	 */
+	@NotNull
+	public Thread start() {
+		running = true;
+		Thread thread = new Thread(this, "StreamAggregator");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Beendet das Zusammenführen; wartende Lesethreads werden freigegeben
+	 */
+	@Override
+	public void close() {
+		running = false;
+	}
+
+	/**
+	 * Setzt die Ausgabegrenze zurück; wird nur vom Zusammenführungsthread gerufen
+	 */
+	private void resetOrder() {
+		watermark = Long.MIN_VALUE;
+		lastMerged = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Gibt alle Messwerte bis zur aktuellen Grenze aus
+	 *
+	 * @param now Die aktuelle Zeit des Hosts
+	 * @return <code>true</code>, wenn Messwerte ausgegeben wurden
+	 */
+	private boolean merge(long now) {
+		// Grenze bestimmen: Jede offene Quelle hat bis zu ihrem letzten Messwert geliefert,
+		// umgerechnete Zeitstempel liegen nie nach ihrer Ankunft
+		long limit = now;
+		for (Source source : sources) {
+			if (source.closed) {
+				if (source.isEmpty()) {
+					sources.remove(source);
+					if (sources.isEmpty()) resetOrder();
+				}
+				continue;
+			}
+			if (source.resynced) {
+				source.resynced = false;
+				if (sources.size() == 1) resetOrder();
+			}
+			if (source.latest < limit) limit = source.latest;
+		}
+		limit = Math.max(limit, now - maxDelay);
+		if (limit > watermark) watermark = limit;
+
+		// Warteschlangen der Reihe nach bis zur Grenze leeren
+		boolean emitted = false;
+		while (true) {
+			Source next = null;
+			long nextTimestamp = Long.MAX_VALUE;
+			for (Source source : sources) {
+				if (source.isEmpty()) continue;
+				long timestamp = source.peekTimestamp();
+				if (timestamp < nextTimestamp) {
+					next = source;
+					nextTimestamp = timestamp;
+				}
+			}
+			if (next == null || nextTimestamp > watermark) return emitted;
+
+			if (nextTimestamp < lastMerged) {
+				++lateSamples;
+				next.skip();
+				continue;
+			}
+			next.emit();
+			emitted = true;
+		}
+	}
+
+	/**
+	 * Die Warteschlange einer Verbindung
+	 */
+	private final class Source implements ISampleReceiver {
+
+		/**
+		 * Der Name der Verbindung
+		 */
+		@NotNull
+		private final String sourceName;
+
+		/**
+		 * Die Zeitstempel je Platz
+		 */
+		@NotNull
+		private final long[] timestamps = new long[queueCapacity];
+
+		/**
+		 * Die Kanalanzahl je Platz
+		 */
+		@NotNull
+		private final int[] channelCounts = new int[queueCapacity];
+
+		/**
+		 * Die Kanalwerte mit {@link StreamParser#MAX_CHANNELS} je Platz
+		 */
+		@NotNull
+		private final float[] values = new float[queueCapacity * StreamParser.MAX_CHANNELS];
+
+		/**
+		 * Die Uhr des Gerätes; wird nur vom Lesethread verwendet
+		 */
+		@NotNull
+		private final ClockOffsetEstimator clock = new ClockOffsetEstimator();
+
+		/**
+		 * Der letzte umgerechnete Zeitstempel; wird nur vom Lesethread verwendet
+		 */
+		private long lastTimestamp = Long.MIN_VALUE;
+
+		/**
+		 * Die Adresse aus der Sync-Nachricht oder <code>null</code>
+		 */
+		private volatile String address;
+
+		/**
+		 * Der nächste zu lesende Platz; wird nur vom Zusammenführungsthread geschrieben
+		 */
+		private volatile long head;
+
+		/**
+		 * Der nächste zu schreibende Platz; wird nur vom Lesethread geschrieben
+		 */
+		private volatile long tail;
+
+		/**
+		 * Der umgerechnete Zeitstempel des letzten eingereihten Messwertes
+		 */
+		private volatile long latest = Long.MIN_VALUE;
+
+		/**
+		 * Gibt an, ob die Verbindung geschlossen wurde
+		 */
+		private volatile boolean closed;
+
+		/**
+		 * Gibt an, ob seit der letzten Zusammenführung eine Sync-Nachricht eintraf
+		 */
+		private volatile boolean resynced;
+
+		/**
+		 * Erzeugt eine neue Warteschlange
+		 *
+		 * @param sourceName Der Name der Verbindung
+		 */
+		Source(@NotNull String sourceName) {
+			this.sourceName = sourceName;
+		}
+
+		/**
+		 * Ermittelt, ob keine Messwerte vorliegen
+		 *
+		 * @return <code>true</code>, wenn die Warteschlange leer ist
+		 */
+		boolean isEmpty() {
+			return head == tail;
+		}
+
+		/**
+		 * Liefert den Zeitstempel des ältesten Messwertes
+		 *
+		 * @return Der umgerechnete Zeitstempel
+		 */
+		long peekTimestamp() {
+			return timestamps[(int) (head % queueCapacity)];
+		}
+
+		/**
+		 * Gibt den ältesten Messwert aus
+		 */
+		void emit() {
+			final int slot = (int) (head % queueCapacity);
+			final int channelCount = channelCounts[slot];
+			final long timestamp = timestamps[slot];
+			System.arraycopy(values, slot * StreamParser.MAX_CHANNELS, output, 0, channelCount);
+			head = head + 1;
+
+			lastMerged = timestamp;
+			++mergedSamples;
+			String address = this.address;
+			listener.mergedSampleReceived(address != null ? address : sourceName, epochOffset + timestamp, output, channelCount);
+		}
+
+		/**
+		 * Verwirft den ältesten Messwert
+		 */
+		void skip() {
+			head = head + 1;
+		}
+
+		@Override
+		public void syncReceived(@NotNull String name, @NotNull String address) {
+			this.address = address;
+			clock.reset();
+			lastTimestamp = Long.MIN_VALUE;
+			resynced = true;
+		}
+
+		@Override
+		public void sampleReceived(long timestamp, @NotNull float[] values, int channelCount) {
+			if (address == null) return;
+			if (!running) {
+				droppedSamples.incrementAndGet();
+				return;
+			}
+
+			final long now = System.nanoTime();
+			long corrected = timestamp == StreamParser.NO_TIMESTAMP ? now : clock.update(timestamp, now);
+
+			// Eine sinkende Schätzung darf die Reihenfolge innerhalb der Quelle nicht ändern
+			if (corrected < lastTimestamp) corrected = lastTimestamp;
+			lastTimestamp = corrected;
+
+			while (tail - head >= queueCapacity) {
+				if (!running) {
+					droppedSamples.incrementAndGet();
+					return;
+				}
+				LockSupport.parkNanos(IDLE_PARK_NS);
+			}
+
+			final int slot = (int) (tail % queueCapacity);
+			timestamps[slot] = corrected;
+			channelCounts[slot] = channelCount;
+			System.arraycopy(values, 0, this.values, slot * StreamParser.MAX_CHANNELS, channelCount);
+			tail = tail + 1;
+			latest = corrected;
+		}
+
+		@Override
+		public void blockComplete() {
+		}
+
+		@Override
+		public void streamClosed() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,921 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parser für den Datenstrom der App.
+ *
+ * <p/>
+ *
+ * Der Strom besteht aus Textzeilen (mit <code>\r\n</code> abgeschlossen) und
+ * Binärrahmen. Textzeilen sind entweder Steuerzeilen wie die
+ * <code>SYNC from &lt;name&gt; &lt;address&gt;</code>-Nachricht, JSON-Objekte der Form
+ * <code>{"t":&lt;zeitstempel&gt;,"v":[...]}</code> oder durch <code>;</code> getrennte
+ * Dezimalzahlen, wie sie das <code>DecimalFormat</code> der App erzeugt. Da dieses
+ * Format vom Gerätelocale abhängt, gilt das letzte <code>.</code> oder <code>,</code>
+ * einer Zahl als Dezimaltrennzeichen, alle anderen als Tausendertrennzeichen.
+ * Da jede Zeile und jeder Rahmen für sich erkannt wird, darf das Format
+ * im laufenden Strom wechseln.
+ *
+ * <p/>
+ *
+ * Ein Binärrahmen beginnt am Zeilenanfang mit dem Byte <code>0x00</code>:
+ * <pre>
+ * 0x00 | Typ (u8) | Kanäle n (u8) | Zeitstempel [ns] (int64) | n * Wert
+ * </pre>
+ * Alle Werte sind Big Endian; der Typ <code>'F'</code> kennzeichnet <code>float32</code>-Werte.
+ *
+ * <p/>
+ *
+ * Nach der Anforderung <code>QUANT</code> kündigt das Gerät mit
+ * <code>SCALE &lt;erster kanal&gt; &lt;bits&gt;:&lt;auflösung&gt;:&lt;mittelpunkt&gt; ...</code>
+ * eine Quantisierungstabelle an; eine Zeile für Kanal 0 ersetzt die bisherige.
+ * Rahmen vom Typ <code>'Q'</code> enthalten dann je Kanal einen <code>int8</code>- oder
+ * <code>int16</code>-Wert <i>q</i>, Text- und JSON-Zeilen Ganzzahlen; zurückgerechnet wird
+ * <code>q * auflösung + mittelpunkt</code>, der kleinste Wert der Breite steht für
+ * <code>NaN</code>. Zurückgerechnet wird nur nach einer Tabelle; Rahmen und Zeilen, die nach
+ * der Anforderung, aber vor der Tabelle eintreffen, werden als Fehler verworfen. Ein
+ * Kodiererwechsel (<code>ENC</code>) oder eine Sync-Nachricht verwirft die Tabelle.
+ *
+ * <p/>
+ *
+ * Nach der Steuerzeile <code>MUX</code> besteht der Strom nur noch aus Multiplex-Rahmen
+ * <pre>
+ * 0x01 | Kanal (u8) | Länge (u16) | Nutzdaten
+ * </pre>
+ * Die Nutzdaten von Steuer- und Live-Kanal sind wiederum Datenströme im obigen
+ * Format und werden von je einem eigenen Parser gelesen; Massendaten gehen an
+ * einen {@link IBulkDataListener}.
+ *
+ * <p/>
+ *
+ * Der Parser arbeitet zustandsbehaftet über Puffergrenzen hinweg und
+ * allokiert pro Messwert keinen Speicher.
+ */
+public final class StreamParser {
+
+	/**
+	 * Kennzeichnet einen Messwert ohne Zeitstempel
+	 */
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	/**
+	 * Die maximale Anzahl Kanäle je Messwert
+	 */
+	public static final int MAX_CHANNELS = 64;
+
+	/**
+	 * Die maximale Länge einer Textzeile oder eines Binärrahmens in Bytes
+	 */
+	public static final int MAX_LINE_LENGTH = 1024;
+
+	/**
+	 * Startbyte eines Binärrahmens
+	 */
+	public static final byte FRAME_START = 0x00;
+
+	/**
+	 * Rahmentyp für <code>float32</code>-Werte
+	 */
+	public static final byte FRAME_TYPE_FLOAT = 'F';
+
+	/**
+	 * Rahmentyp für quantisierte <code>int8</code>/<code>int16</code>-Werte
+	 */
+	public static final byte FRAME_TYPE_QUANTIZED = 'Q';
+
+	/**
+	 * Steuerzeile, nach der Multiplex-Rahmen folgen
+	 */
+	@NotNull
+	public static final String MUX_LINE = "MUX";
+
+	/**
+	 * Startbyte eines Multiplex-Rahmens
+	 */
+	public static final byte MUX_FRAME_START = 0x01;
+
+	/**
+	 * Multiplex-Kanal für Steuernachrichten
+	 */
+	public static final int MUX_CHANNEL_CONTROL = 0;
+
+	/**
+	 * Multiplex-Kanal für Live-Messwerte
+	 */
+	public static final int MUX_CHANNEL_LIVE = 1;
+
+	/**
+	 * Multiplex-Kanal für Massendaten
+	 */
+	public static final int MUX_CHANNEL_BULK = 2;
+
+	/**
+	 * Länge des Kopfes eines Multiplex-Rahmens (Start, Kanal, Länge)
+	 */
+	private static final int MUX_HEADER_LENGTH = 4;
+
+	/**
+	 * Länge des Rahmenkopfes (Start, Typ, Kanäle)
+	 */
+	private static final int FRAME_HEADER_LENGTH = 3;
+
+	/**
+	 * Länge des Zeitstempels im Rahmen
+	 */
+	private static final int FRAME_TIMESTAMP_LENGTH = 8;
+
+	/**
+	 * Präfix der Sync-Nachricht
+	 */
+	@NotNull
+	private static final String SYNC_PREFIX = "SYNC from ";
+
+	/**
+	 * Präfix der Ankündigung einer Quantisierungstabelle
+	 */
+	@NotNull
+	private static final String SCALE_PREFIX = "SCALE ";
+
+	/**
+	 * Präfix der Markierung eines Kodiererwechsels
+	 */
+	@NotNull
+	private static final String ENC_PREFIX = "ENC ";
+
+	/**
+	 * Schlüssel des Zeitstempels in JSON-Zeilen
+	 */
+	@NotNull
+	private static final byte[] JSON_TIMESTAMP_KEY = { '"', 't', '"', ':' };
+
+	/**
+	 * Zeichensatz der Textzeilen
+	 */
+	@NotNull
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Zehnerpotenzen für die Zahlenumwandlung
+	 */
+	@NotNull
+	private static final double[] POWERS_OF_TEN = new double[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	/**
+	 * Zustand: Textzeile wird gesammelt
+	 */
+	private static final int STATE_TEXT = 0;
+
+	/**
+	 * Zustand: Überlange Zeile wird bis zum Zeilenende verworfen
+	 */
+	private static final int STATE_DISCARD = 1;
+
+	/**
+	 * Zustand: Binärrahmen wird gesammelt
+	 */
+	private static final int STATE_FRAME = 2;
+
+	/**
+	 * Zustand: Kopf eines Multiplex-Rahmens wird gesammelt
+	 */
+	private static final int STATE_MUX_HEADER = 3;
+
+	/**
+	 * Zustand: Nutzdaten eines Multiplex-Rahmens werden weitergereicht
+	 */
+	private static final int STATE_MUX_PAYLOAD = 4;
+
+	/**
+	 * Der Empfänger der Messwerte
+	 */
+	@NotNull
+	private final ISampleReceiver receiver;
+
+	/**
+	 * Der Empfänger der Steuerzeilen
+	 */
+	@Nullable
+	private final IControlLineListener controlListener;
+
+	/**
+	 * Gibt an, ob dieser Parser die Nutzdaten eines Multiplex-Kanals liest
+	 */
+	private final boolean nested;
+
+	/**
+	 * Der Empfänger der Massendaten
+	 */
+	@Nullable
+	private volatile IBulkDataListener bulkListener;
+
+	/**
+	 * Die Parser für Steuer- und Live-Kanal; erst im Multiplex-Betrieb angelegt
+	 */
+	@Nullable
+	private StreamParser[] channelParsers;
+
+	/**
+	 * Der Kopf des aktuellen Multiplex-Rahmens
+	 */
+	@NotNull
+	private final byte[] muxHeader = new byte[MUX_HEADER_LENGTH];
+
+	/**
+	 * Die Anzahl der Bytes in {@link #muxHeader}
+	 */
+	private int muxHeaderLength;
+
+	/**
+	 * Der Kanal des aktuellen Multiplex-Rahmens
+	 */
+	private int muxChannel;
+
+	/**
+	 * Die noch ausstehenden Nutzdaten des aktuellen Multiplex-Rahmens
+	 */
+	private int muxRemaining;
+
+	/**
+	 * Die Anzahl der empfangenen Massendaten-Bytes
+	 */
+	private volatile long bulkBytes;
+
+	/**
+	 * Puffer für die aktuelle Zeile bzw. den aktuellen Rahmen
+	 */
+	@NotNull
+	private final byte[] line = new byte[MAX_LINE_LENGTH];
+
+	/**
+	 * Sicht auf {@link #line} zum Dekodieren von Binärrahmen
+	 */
+	@NotNull
+	private final ByteBuffer frameView = ByteBuffer.wrap(line);
+
+	/**
+	 * Die dekodierten Kanalwerte
+	 */
+	@NotNull
+	private final float[] values = new float[MAX_CHANNELS];
+
+	/**
+	 * Die Bitbreite je Kanal der Quantisierungstabelle
+	 */
+	@NotNull
+	private final int[] quantBits = new int[MAX_CHANNELS];
+
+	/**
+	 * Die Auflösung je Kanal der Quantisierungstabelle
+	 */
+	@NotNull
+	private final float[] quantScale = new float[MAX_CHANNELS];
+
+	/**
+	 * Der Mittelpunkt je Kanal der Quantisierungstabelle
+	 */
+	@NotNull
+	private final float[] quantOffset = new float[MAX_CHANNELS];
+
+	/**
+	 * Die Anzahl der Kanäle der Quantisierungstabelle; <code>0</code>, wenn keine angekündigt ist
+	 */
+	private int quantChannels;
+
+	/**
+	 * Die Größe der Werte eines quantisierten Rahmens in Bytes
+	 */
+	private int quantPayloadSize;
+
+	/**
+	 * Gibt an, ob quantisierte Werte angefordert wurden
+	 */
+	private boolean quantizationRequested;
+
+	/**
+	 * Der aktuelle Zustand
+	 */
+	private int state = STATE_TEXT;
+
+	/**
+	 * Die Anzahl der Bytes in {@link #line}
+	 */
+	private int length;
+
+	/**
+	 * Die erwartete Länge des aktuellen Rahmens
+	 */
+	private int expectedLength;
+
+	/**
+	 * Die Anzahl der dekodierten Messwerte
+	 */
+	private long sampleCount;
+
+	/**
+	 * Die Anzahl der verworfenen Zeilen und Rahmen
+	 */
+	private long errorCount;
+
+	/**
+	 * Erzeugt einen neuen Parser
+	 *
+	 * @param receiver Der Empfänger der Messwerte
+	 */
+	public StreamParser(@NotNull ISampleReceiver receiver) {
+		this(receiver, null);
+	}
+
+	/**
+	 * Erzeugt einen neuen Parser
+	 *
+	 * @param receiver Der Empfänger der Messwerte
+	 * @param controlListener Der Empfänger der Steuerzeilen oder <code>null</code>
+	 */
+	public StreamParser(@NotNull ISampleReceiver receiver, @Nullable IControlLineListener controlListener) {
+		this(receiver, controlListener, false);
+	}
+
+	/**
+	 * Erzeugt einen neuen Parser
+	 *
+	 * @param receiver Der Empfänger der Messwerte
+	 * @param controlListener Der Empfänger der Steuerzeilen oder <code>null</code>
+	 * @param nested <code>true</code> für die Nutzdaten eines Multiplex-Kanals
+	 */
+	private StreamParser(@NotNull ISampleReceiver receiver, @Nullable IControlLineListener controlListener, boolean nested) {
+		this.receiver = receiver;
+		this.controlListener = controlListener;
+		this.nested = nested;
+	}
+
+	/**
+	 * Setzt den Empfänger der Massendaten
+	 *
+	 * @param bulkListener Der Empfänger oder <code>null</code>, um Massendaten zu verwerfen
+	 */
+	public void setBulkListener(@Nullable IBulkDataListener bulkListener) {
+		this.bulkListener = bulkListener;
+	}
+
+	/**
+	 * Verarbeitet alle verbleibenden Bytes des Puffers
+	 *
+	 * @param input Der Eingabepuffer
+	 */
+	public void parse(@NotNull ByteBuffer input) {
+		while (input.hasRemaining()) {
+			if (state == STATE_MUX_PAYLOAD) {
+				parseMuxPayload(input);
+				continue;
+			}
+
+			final byte b = input.get();
+			switch (state) {
+				case STATE_TEXT: {
+					if (b == '\n') {
+						processLine();
+						length = 0;
+					}
+					else if (b == '\r') {
+						// Zeilenende wird durch \n bestimmt
+					}
+					else if (length == 0 && b == FRAME_START) {
+						line[length++] = b;
+						expectedLength = FRAME_HEADER_LENGTH;
+						state = STATE_FRAME;
+					}
+					else if (length < MAX_LINE_LENGTH) {
+						line[length++] = b;
+					}
+					else {
+						++errorCount;
+						state = STATE_DISCARD;
+					}
+					break;
+				}
+
+				case STATE_DISCARD: {
+					if (b == '\n') {
+						length = 0;
+						state = STATE_TEXT;
+					}
+					break;
+				}
+
+				case STATE_FRAME: {
+					line[length++] = b;
+					if (length == expectedLength) {
+						if (length == FRAME_HEADER_LENGTH) {
+							processFrameHeader();
+						}
+						else {
+							processFrame();
+							length = 0;
+							state = STATE_TEXT;
+						}
+					}
+					break;
+				}
+
+				case STATE_MUX_HEADER: {
+					if (muxHeaderLength == 0 && b != MUX_FRAME_START) {
+						// Synchronisation auf das nächste Startbyte
+						++errorCount;
+						break;
+					}
+
+					muxHeader[muxHeaderLength++] = b;
+					if (muxHeaderLength == MUX_HEADER_LENGTH) {
+						muxHeaderLength = 0;
+						muxChannel = muxHeader[1] & 0xFF;
+						muxRemaining = ((muxHeader[2] & 0xFF) << 8) | (muxHeader[3] & 0xFF);
+						if (muxRemaining > 0) state = STATE_MUX_PAYLOAD;
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reicht die Nutzdaten des aktuellen Multiplex-Rahmens an ihren Kanal weiter
+	 *
+	 * @param input Der Eingabepuffer
+	 */
+	private void parseMuxPayload(@NotNull ByteBuffer input) {
+		final int chunk = Math.min(input.remaining(), muxRemaining);
+		final int end = input.position() + chunk;
+		final int limit = input.limit();
+		input.limit(end);
+
+		final StreamParser[] parsers = channelParsers;
+		assert parsers != null;
+		if (muxChannel == MUX_CHANNEL_BULK) {
+			bulkBytes += chunk;
+			final IBulkDataListener listener = bulkListener;
+			if (listener != null) listener.bulkDataReceived(input);
+		}
+		else if (muxChannel < parsers.length) {
+			parsers[muxChannel].parse(input);
+		}
+		else {
+			++errorCount;
+		}
+
+		input.limit(limit);
+		input.position(end);
+		muxRemaining -= chunk;
+		if (muxRemaining == 0) state = STATE_MUX_HEADER;
+	}
+
+	/**
+	 * Wechselt in den Multiplex-Betrieb
+	 */
+	private void enterMux() {
+		final StreamParser[] parsers = new StreamParser[MUX_CHANNEL_BULK];
+		parsers[MUX_CHANNEL_CONTROL] = new StreamParser(receiver, controlListener, true);
+		parsers[MUX_CHANNEL_LIVE] = new StreamParser(receiver, controlListener, true);
+		parsers[MUX_CHANNEL_CONTROL].quantizationRequested = quantizationRequested;
+		parsers[MUX_CHANNEL_LIVE].quantizationRequested = quantizationRequested;
+		channelParsers = parsers;
+		muxHeaderLength = 0;
+		state = STATE_MUX_HEADER;
+	}
+
+	/**
+	 * Liefert die Anzahl der dekodierten Messwerte
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getSampleCount() {
+		long count = sampleCount;
+		final StreamParser[] parsers = channelParsers;
+		if (parsers != null) {
+			for (StreamParser parser : parsers) count += parser.getSampleCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Liefert die Anzahl der verworfenen Zeilen und Rahmen
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getErrorCount() {
+		long count = errorCount;
+		final StreamParser[] parsers = channelParsers;
+		if (parsers != null) {
+			for (StreamParser parser : parsers) count += parser.getErrorCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Liefert die Anzahl der empfangenen Massendaten-Bytes
+	 *
+	 * @return Die Anzahl
+	 */
+	public long getBulkBytes() {
+		return bulkBytes;
+	}
+
+	/**
+	 * Gibt an, ob der Strom gemultiplext ist
+	 *
+	 * @return <code>true</code> nach der Steuerzeile <code>MUX</code>
+	 */
+	public boolean isMultiplexed() {
+		return channelParsers != null;
+	}
+
+	/**
+	 * Vermerkt, ob quantisierte Werte angefordert wurden
+	 *
+	 * <p/>
+	 *
+	 * Muss im Thread des Parsers aufgerufen werden, z.B. aus dem {@link IControlLineListener}.
+	 * Bis zur nächsten Sync-Nachricht werden dann Textzeilen ohne Tabelle verworfen.
+	 *
+	 * @param requested <code>true</code>, wenn <code>QUANT</code> gesendet wurde
+	 */
+	public void setQuantizationRequested(boolean requested) {
+		quantizationRequested = requested;
+		final StreamParser[] parsers = channelParsers;
+		if (parsers != null) {
+			for (StreamParser parser : parsers) parser.setQuantizationRequested(requested);
+		}
+	}
+
+	/**
+	 * Gibt an, ob eine Quantisierungstabelle angekündigt ist
+	 *
+	 * @return <code>true</code>, wenn Werte zurückgerechnet werden
+	 */
+	public boolean isQuantized() {
+		if (quantChannels > 0) return true;
+		final StreamParser[] parsers = channelParsers;
+		if (parsers != null) {
+			for (StreamParser parser : parsers) {
+				if (parser.isQuantized()) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Wertet den Kopf eines Binärrahmens aus
+	 */
+	private void processFrameHeader() {
+		final int channels = line[2] & 0xFF;
+		final int payloadSize;
+		if (line[1] == FRAME_TYPE_FLOAT && channels <= MAX_CHANNELS) {
+			payloadSize = channels * 4;
+		}
+		else if (line[1] == FRAME_TYPE_QUANTIZED && channels > 0 && channels == quantChannels) {
+			payloadSize = quantPayloadSize;
+		}
+		else {
+			// Unbekannter Rahmen oder Tabelle fehlt; Synchronisation erfolgt über das nächste Zeilenende
+			++errorCount;
+			length = 0;
+			state = STATE_DISCARD;
+			return;
+		}
+		expectedLength = FRAME_HEADER_LENGTH + FRAME_TIMESTAMP_LENGTH + payloadSize;
+	}
+
+	/**
+	 * Dekodiert einen vollständigen Binärrahmen
+	 */
+	private void processFrame() {
+		final int channels = line[2] & 0xFF;
+		final long timestamp = frameView.getLong(FRAME_HEADER_LENGTH);
+
+		int offset = FRAME_HEADER_LENGTH + FRAME_TIMESTAMP_LENGTH;
+		if (line[1] == FRAME_TYPE_QUANTIZED) {
+			for (int i = 0; i < channels; ++i) {
+				if (quantBits[i] == 8) {
+					final byte q = line[offset++];
+					values[i] = q == Byte.MIN_VALUE ? Float.NaN : q * quantScale[i] + quantOffset[i];
+				}
+				else {
+					final short q = frameView.getShort(offset);
+					offset += 2;
+					values[i] = q == Short.MIN_VALUE ? Float.NaN : q * quantScale[i] + quantOffset[i];
+				}
+			}
+		}
+		else {
+			for (int i = 0; i < channels; ++i, offset += 4) {
+				values[i] = frameView.getFloat(offset);
+			}
+		}
+
+		++sampleCount;
+		receiver.sampleReceived(timestamp, values, channels);
+	}
+
+	/**
+	 * Wertet eine vollständige Textzeile aus
+	 */
+	private void processLine() {
+		if (length == 0) return;
+
+		// Steuerzeilen beginnen mit einem Buchstaben
+		final byte first = line[0];
+		if ((first >= 'A' && first <= 'Z') || (first >= 'a' && first <= 'z')) {
+			processControlLine();
+			return;
+		}
+
+		if (first == '{') {
+			processJsonLine();
+			return;
+		}
+
+		final int channels = parseValues(0, length, (byte) ';');
+		if (channels <= 0) {
+			++errorCount;
+			return;
+		}
+
+		if (!dequantize(channels)) {
+			++errorCount;
+			return;
+		}
+
+		++sampleCount;
+		receiver.sampleReceived(NO_TIMESTAMP, values, channels);
+	}
+
+	/**
+	 * Wertet eine JSON-Zeile aus
+	 */
+	private void processJsonLine() {
+		long timestamp = NO_TIMESTAMP;
+		final int key = indexOf(JSON_TIMESTAMP_KEY, 0);
+		if (key >= 0) {
+			timestamp = parseLong(key + JSON_TIMESTAMP_KEY.length);
+		}
+
+		int open = key >= 0 ? key : 0;
+		while (open < length && line[open] != '[') ++open;
+		int close = length - 1;
+		while (close > open && line[close] != ']') --close;
+
+		final int channels = close > open + 1 ? parseValues(open + 1, close, (byte) ',') : -1;
+		if (channels <= 0) {
+			++errorCount;
+			return;
+		}
+
+		if (!dequantize(channels)) {
+			++errorCount;
+			return;
+		}
+
+		++sampleCount;
+		receiver.sampleReceived(timestamp, values, channels);
+	}
+
+	/**
+	 * Rechnet die Werte einer Textzeile zurück, wenn eine Quantisierungstabelle angekündigt ist
+	 *
+	 * <p/>
+	 *
+	 * Ohne Tabelle werden die Werte unverändert übernommen, sofern keine quantisierten
+	 * Werte angefordert wurden; Ganzzahlen vor der Tabelle wären sonst falsch skaliert.
+	 *
+	 * @param channels Die Anzahl der Werte
+	 * @return <code>false</code>, wenn die Zeile nicht zur Tabelle passt und verworfen werden muss
+	 */
+	private boolean dequantize(int channels) {
+		if (quantChannels == 0) return !quantizationRequested;
+		if (channels != quantChannels) return false;
+		for (int i = 0; i < channels; ++i) {
+			// NaN wird im Text als solches übertragen
+			values[i] = values[i] * quantScale[i] + quantOffset[i];
+		}
+		return true;
+	}
+
+	/**
+	 * Übernimmt eine <code>SCALE</code>-Zeile in die Quantisierungstabelle
+	 *
+	 * @param payload Die Zeile ohne Präfix
+	 * @return <code>true</code>, wenn die Zeile gültig war
+	 */
+	private boolean processScaleLine(@NotNull String payload) {
+		final String[] tokens = payload.trim().split(" +");
+		try {
+			final int first = Integer.parseInt(tokens[0]);
+			if (first != 0 && first != quantChannels) return false;
+			if (first + tokens.length - 1 > MAX_CHANNELS) return false;
+
+			// Eine Tabelle ab Kanal 0 ersetzt die bisherige
+			if (first == 0) quantChannels = 0;
+			int channel = first;
+			for (int i = 1; i < tokens.length; ++i, ++channel) {
+				final String[] entry = tokens[i].split(":");
+				final int bits = Integer.parseInt(entry[0]);
+				if (entry.length != 3 || (bits != 8 && bits != 16)) {
+					quantChannels = 0;
+					return false;
+				}
+				quantBits[channel] = bits;
+				quantScale[channel] = Float.parseFloat(entry[1]);
+				quantOffset[channel] = Float.parseFloat(entry[2]);
+			}
+			quantChannels = channel;
+		}
+		catch (NumberFormatException e) {
+			quantChannels = 0;
+			return false;
+		}
+
+		int size = 0;
+		for (int i = 0; i < quantChannels; ++i) size += quantBits[i] / 8;
+		quantPayloadSize = size;
+		return true;
+	}
+
+	/**
+	 * Wertet eine Steuerzeile aus
+	 */
+	private void processControlLine() {
+		final String text = new String(line, 0, length, UTF8);
+		if (!nested && MUX_LINE.equals(text.trim())) {
+			enterMux();
+			return;
+		}
+
+		if (text.startsWith(SCALE_PREFIX)) {
+			if (!processScaleLine(text.substring(SCALE_PREFIX.length()))) ++errorCount;
+			return;
+		}
+
+		if (!text.startsWith(SYNC_PREFIX)) {
+			if (text.startsWith(ENC_PREFIX)) quantChannels = 0;
+			if (controlListener != null) controlListener.controlLineReceived(text);
+			return;
+		}
+
+		quantChannels = 0;
+		quantizationRequested = false;
+
+		// Der Name darf Leerzeichen enthalten, die Adresse nicht
+		final String payload = text.substring(SYNC_PREFIX.length()).trim();
+		final int split = payload.lastIndexOf(' ');
+		final String name = split < 0 ? "" : payload.substring(0, split);
+		final String address = split < 0 ? payload : payload.substring(split + 1);
+		receiver.syncReceived(name, address);
+	}
+
+	/**
+	 * Sucht eine Bytefolge in der aktuellen Zeile
+	 *
+	 * @param pattern Die Bytefolge
+	 * @param from Die Startposition
+	 * @return Die Position oder <code>-1</code>
+	 */
+	private int indexOf(@NotNull byte[] pattern, int from) {
+		outer:
+		for (int i = from; i <= length - pattern.length; ++i) {
+			for (int j = 0; j < pattern.length; ++j) {
+				if (line[i + j] != pattern[j]) continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Liest eine Ganzzahl aus der aktuellen Zeile
+	 *
+	 * @param position Die Startposition
+	 * @return Der Wert oder {@link #NO_TIMESTAMP}, wenn dort keine Zahl steht
+	 */
+	private long parseLong(int position) {
+		while (position < length && line[position] == ' ') ++position;
+
+		boolean negative = false;
+		if (position < length && line[position] == '-') {
+			negative = true;
+			++position;
+		}
+
+		final int start = position;
+		long value = 0;
+		while (position < length && line[position] >= '0' && line[position] <= '9') {
+			value = value * 10 + (line[position++] - '0');
+		}
+
+		if (position == start) return NO_TIMESTAMP;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Zerlegt einen Bereich der aktuellen Zeile in Dezimalzahlen
+	 *
+	 * @param start Der Beginn (inklusive)
+	 * @param end Das Ende (exklusive)
+	 * @param separator Das Trennzeichen zwischen den Werten
+	 * @return Die Anzahl der Werte oder <code>-1</code>, wenn die Zeile ungültig ist
+	 */
+	private int parseValues(int start, int end, byte separator) {
+		int channels = 0;
+		int position = start;
+
+		while (position <= end) {
+			if (channels == MAX_CHANNELS) return -1;
+
+			// Ende des Tokens suchen
+			int tokenEnd = position;
+			while (tokenEnd < end && line[tokenEnd] != separator) ++tokenEnd;
+
+			values[channels++] = parseNumber(position, tokenEnd);
+			position = tokenEnd + 1;
+		}
+
+		return channels;
+	}
+
+	/**
+	 * Wandelt einen Bereich der aktuellen Zeile in eine Zahl um
+	 *
+	 * @param start Der Beginn (inklusive)
+	 * @param end Das Ende (exklusive)
+	 * @return Der Wert oder {@link Float#NaN}, wenn der Bereich keine Ziffern enthält
+	 */
+	private float parseNumber(int start, int end) {
+		boolean negative = false;
+		boolean anyDigit = false;
+		boolean inExponent = false;
+		boolean negativeExponent = false;
+		long mantissa = 0;
+		int significantDigits = 0;
+		int scale = 0;          // Zehnerexponent der Mantisse
+		int digitsSinceSeparator = 0;
+		boolean separatorSeen = false;
+		int exponent = 0;
+
+		for (int i = start; i < end; ++i) {
+			final byte b = line[i];
+			if (b >= '0' && b <= '9') {
+				if (inExponent) {
+					if (exponent < 1000) exponent = exponent * 10 + (b - '0');
+					continue;
+				}
+
+				anyDigit = true;
+				++digitsSinceSeparator;
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa != 0) ++significantDigits;
+				}
+				else {
+					++scale;
+				}
+			}
+			else if (b == '.' || b == ',') {
+				// Nur das letzte Trennzeichen ist das Dezimaltrennzeichen
+				separatorSeen = true;
+				digitsSinceSeparator = 0;
+			}
+			else if (b == '-') {
+				if (inExponent) negativeExponent = true;
+				else negative = true;
+			}
+			else if ((b == 'E' || b == 'e') && anyDigit) {
+				inExponent = true;
+			}
+			// Leerzeichen, Plus und Mehrbyte-Gruppierungszeichen werden ignoriert
+		}
+
+		if (!anyDigit) return Float.NaN;
+
+		if (separatorSeen) scale -= digitsSinceSeparator;
+		scale += negativeExponent ? -exponent : exponent;
+
+		double value = mantissa;
+		if (scale < 0) {
+			value = -scale < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-scale] : value * Math.pow(10, scale);
+		}
+		else if (scale > 0) {
+			value = scale < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[scale] : value * Math.pow(10, scale);
+		}
+
+		return (float) (negative ? -value : value);
+	}
+}
@@ -0,0 +1,42 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+
+/**
+ * Prüft, dass {@link Lttb} Endpunkte und Spitzen erhält
+ */
+public final class LttbTest {
+
+	public void testKeepsEndpointsAndSpikes() {
+		final long[] times = new long[1000];
+		final float[] values = new float[1000];
+		for (int i = 0; i < times.length; ++i) {
+			times[i] = 1000L + i;
+			values[i] = i == 250 ? 100 : i == 700 ? -80 : (float) Math.sin(i / 50.0);
+		}
+
+		final int count = Lttb.downsample(times, values, times.length, 50);
+		assertEquals("Punkte", 50, count);
+		assertEquals("erster Punkt", 1000, times[0]);
+		assertEquals("letzter Punkt", 1999, times[count - 1]);
+		assertEquals("letzter Wert", (float) Math.sin(999 / 50.0), values[count - 1], 0);
+
+		boolean positive = false;
+		boolean negative = false;
+		for (int i = 0; i < count; ++i) {
+			if (i > 0) assertTrue("aufsteigend", times[i] > times[i - 1]);
+			if (times[i] == 1250) positive = values[i] == 100;
+			if (times[i] == 1700) negative = values[i] == -80;
+		}
+		assertTrue("positive Spitze", positive);
+		assertTrue("negative Spitze", negative);
+	}
+
+	public void testShortSeriesUnchanged() {
+		final long[] times = { 0, 1, 2 };
+		final float[] values = { 3, 4, 5 };
+		assertEquals("unverändert", 3, Lttb.downsample(times, values, 3, 10));
+		assertEquals("Wert", 4, values[1], 0);
+	}
+}
@@ -0,0 +1,81 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+
+/**
+ * Prüft Stufenwahl und Blockbildung der {@link SampleHistory}
+ */
+public final class SampleHistoryTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Die Zeitstempel einer Abfrage
+	 */
+	private final long[] times = new long[1004];
+
+	/**
+	 * Die Werte einer Abfrage
+	 */
+	private final float[] values = new float[1004];
+
+	public void testQueryUsesCoarserLevelOnceRawRingWraps() {
+		final SampleHistory history = new SampleHistory("AA", 1, 64, 64);
+		addRamp(history, 0, 50);
+		history.query(0, 0, 49 * MS, 1000, times, values);
+		assertEquals("volle Auflösung vor dem Umlauf", 0, history.getLastQueryLevel());
+
+		// Stufe 0 hält nur noch die letzten 64 Messwerte, Stufe 1 reicht bis zum Anfang
+		addRamp(history, 50, 1000);
+		final int count = history.query(0, 0, 999 * MS, 1000, times, values);
+		assertEquals("Blöcke zu 16", 1, history.getLastQueryLevel());
+		assertEquals("ab dem Anfang", 0, times[0]);
+		assertEquals("Punkte", (1000 / SampleHistory.FACTOR + 1) * 2, count);
+
+		history.query(0, 0, 999 * MS, 20, times, values);
+		assertEquals("Blöcke zu 256", 2, history.getLastQueryLevel());
+
+		history.query(0, 950 * MS, 999 * MS, 100, times, values);
+		assertEquals("jüngster Bereich in voller Auflösung", 0, history.getLastQueryLevel());
+	}
+
+	public void testBlocksKeepOrderOfMinimumAndMaximum() {
+		final SampleHistory history = new SampleHistory("AA", 1, SampleHistory.FACTOR, 16);
+		final float[] value = new float[1];
+		for (int i = 0; i < 2 * SampleHistory.FACTOR; ++i) {
+			// Erster Block: Maximum vor Minimum; zweiter Block: Minimum vor Maximum
+			value[0] = i == 3 ? 10 : i == 10 ? -10 : i == 18 ? -5 : i == 28 ? 7 : 0;
+			history.add(i * MS, value);
+		}
+
+		final int count = history.query(0, 0, 31 * MS, 100, times, values);
+		assertEquals("Blöcke", 1, history.getLastQueryLevel());
+		assertEquals("zwei Punkte je Block", 4, count);
+		assertEquals("Maximum zuerst", 10, values[0], 0);
+		assertEquals("dann Minimum", -10, values[1], 0);
+		assertEquals("Minimum zuerst", -5, values[2], 0);
+		assertEquals("dann Maximum", 7, values[3], 0);
+		assertEquals("Beginn", 0, times[0]);
+		assertEquals("Ende", 15 * MS, times[1]);
+		assertEquals("Beginn", 16 * MS, times[2]);
+		assertEquals("Ende", 31 * MS, times[3]);
+	}
+
+	/**
+	 * Fügt eine Rampe mit einem Messwert je Millisekunde hinzu
+	 *
+	 * @param history Der Verlauf
+	 * @param from Der erste Messwert
+	 * @param to Das Ende (exklusiv)
+	 */
+	private static void addRamp(SampleHistory history, int from, int to) {
+		final float[] value = new float[1];
+		for (int i = from; i < to; ++i) {
+			value[0] = i;
+			history.add(i * MS, value);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+import static de.widemeadows.android.bluetoothspptest.Assert.fail;
+
+/**
+ * Prüft Reihenfolge und Verspätung im {@link StreamAggregator} mit zwei Geräten,
+ * deren Uhren weit voneinander und vom Host abweichen
+ */
+public final class StreamAggregatorTest {
+
+	/**
+	 * Eine Millisekunde in Nanosekunden
+	 */
+	private static final long MS = 1000000L;
+
+	/**
+	 * Die längste Wartezeit auf den Zusammenführungsthread in Millisekunden
+	 */
+	private static final long TIMEOUT_MS = 5000;
+
+	/**
+	 * Die Uhr des ersten Gerätes geht 1000 s vor
+	 */
+	private static final long OFFSET_A = 1000000 * MS;
+
+	/**
+	 * Die Uhr des zweiten Gerätes geht 300 s vor
+	 */
+	private static final long OFFSET_B = 300000 * MS;
+
+	/**
+	 * Sammelt den zusammengeführten Strom; wird vom Zusammenführungsthread befüllt
+	 */
+	private static final class MergedCollector implements IMergedSampleListener {
+
+		/**
+		 * Die Adressen
+		 */
+		final List<String> addresses = new ArrayList<String>();
+
+		/**
+		 * Die Zeitstempel
+		 */
+		final List<Long> timestamps = new ArrayList<Long>();
+
+		@Override
+		public synchronized void mergedSampleReceived(@NotNull String address, long timestamp, @NotNull float[] values, int channelCount) {
+			addresses.add(address);
+			timestamps.add(timestamp);
+		}
+	}
+
+	/**
+	 * Der Empfänger des zusammengeführten Stroms
+	 */
+	private final MergedCollector collector = new MergedCollector();
+
+	/**
+	 * Der Aggregator; wartet höchstens 20 ms auf eine Quelle
+	 */
+	private final StreamAggregator aggregator = new StreamAggregator(20 * MS, collector);
+
+	public void testOrdersOffsetClocksAndCountsLateSamples() throws Exception {
+		final ISampleReceiver a = aggregator.createReceiver("a");
+		final ISampleReceiver b = aggregator.createReceiver("b");
+		a.syncReceived("a", "AA");
+		b.syncReceived("b", "BB");
+		aggregator.start();
+		try {
+			final float[] value = new float[1];
+			int delivered = 0;
+
+			// Beide Geräte liefern gleichzeitig
+			for (int i = 0; i < 100; ++i) {
+				final long now = System.nanoTime();
+				a.sampleReceived(now + OFFSET_A, value, 1);
+				b.sampleReceived(now + OFFSET_B, value, 1);
+				delivered += 2;
+				Thread.sleep(1);
+			}
+
+			// Das zweite Gerät hängt 100 ms und liefert dann alles auf einmal
+			final long[] withheld = new long[50];
+			for (int i = 0; i < withheld.length; ++i) {
+				final long now = System.nanoTime();
+				a.sampleReceived(now + OFFSET_A, value, 1);
+				withheld[i] = now + OFFSET_B;
+				++delivered;
+				Thread.sleep(2);
+			}
+			for (int i = 0; i < withheld.length; ++i) {
+				b.sampleReceived(withheld[i], value, 1);
+				++delivered;
+			}
+
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+			while (aggregator.getMergedSamples() + aggregator.getLateSamples() < delivered) {
+				if (System.currentTimeMillis() > deadline) fail("nicht alle Messwerte zusammengeführt");
+				Thread.sleep(5);
+			}
+			assertTrue("verspätet", aggregator.getLateSamples() >= withheld.length / 2);
+			assertTrue("höchstens die zurückgehaltenen verspätet", aggregator.getLateSamples() <= withheld.length);
+		} finally {
+			aggregator.close();
+		}
+
+		synchronized (collector) {
+			assertEquals("ausgegeben", aggregator.getMergedSamples(), collector.timestamps.size());
+
+			// Trotz 700 s Abstand der Uhren wechseln sich die Geräte ab
+			int switches = 0;
+			for (int i = 1; i < collector.timestamps.size(); ++i) {
+				assertTrue("zeitlich geordnet bei " + i, collector.timestamps.get(i) >= collector.timestamps.get(i - 1));
+				if (!collector.addresses.get(i).equals(collector.addresses.get(i - 1))) ++switches;
+			}
+			assertTrue("abwechselnd", switches > 50);
+
+			// Auf die Uhr des Hosts umgerechnet
+			final long epoch = System.currentTimeMillis() * MS;
+			for (int i = 0; i < collector.timestamps.size(); ++i) {
+				assertTrue("Zeit des Hosts", Math.abs(epoch - collector.timestamps.get(i)) < TIMEOUT_MS * 2 * MS);
+			}
+		}
+	}
+}
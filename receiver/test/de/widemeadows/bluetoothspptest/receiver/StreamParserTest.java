@@ -0,0 +1,378 @@
+package de.widemeadows.bluetoothspptest.receiver;
+
+import de.widemeadows.android.bluetoothspptest.stream.BinarySampleEncoder;
+import de.widemeadows.android.bluetoothspptest.stream.CsvSampleEncoder;
+import de.widemeadows.android.bluetoothspptest.stream.Quantizer;
+import de.widemeadows.android.bluetoothspptest.stream.StreamProtocol;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static de.widemeadows.android.bluetoothspptest.Assert.assertArrayEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertEquals;
+import static de.widemeadows.android.bluetoothspptest.Assert.assertTrue;
+
+/**
+ * Prüft den {@link StreamParser} an Textzeilen, Binärrahmen und quantisierten Rahmen der App
+ */
+public final class StreamParserTest {
+
+	/**
+	 * Der Zeichensatz des Stroms
+	 */
+	@NotNull
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Sammelt die empfangenen Messwerte
+	 */
+	static class SampleCollector implements ISampleReceiver, IBulkDataListener, IControlLineListener {
+
+		/**
+		 * Die Zeitstempel
+		 */
+		final List<Long> timestamps = new ArrayList<Long>();
+
+		/**
+		 * Kopien der Werte
+		 */
+		final List<float[]> samples = new ArrayList<float[]>();
+
+		/**
+		 * Die empfangenen Sync-Nachrichten als <code>name|adresse</code>
+		 */
+		final List<String> syncs = new ArrayList<String>();
+
+		/**
+		 * Die empfangenen Steuerzeilen
+		 */
+		final List<String> controlLines = new ArrayList<String>();
+
+		/**
+		 * Die empfangenen Massendaten
+		 */
+		final ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+
+		@Override
+		public void syncReceived(@NotNull String name, @NotNull String address) {
+			syncs.add(name + "|" + address);
+		}
+
+		@Override
+		public void sampleReceived(long timestamp, @NotNull float[] values, int channelCount) {
+			timestamps.add(timestamp);
+			final float[] copy = new float[channelCount];
+			System.arraycopy(values, 0, copy, 0, channelCount);
+			samples.add(copy);
+		}
+
+		@Override
+		public void blockComplete() {
+		}
+
+		@Override
+		public void streamClosed() {
+		}
+
+		@Override
+		public void bulkDataReceived(@NotNull ByteBuffer data) {
+			while (data.hasRemaining()) bulk.write(data.get());
+		}
+
+		@Override
+		public void controlLineReceived(@NotNull String line) {
+			controlLines.add(line);
+		}
+	}
+
+	/**
+	 * Der Empfänger der Messwerte
+	 */
+	private final SampleCollector collector = new SampleCollector();
+
+	/**
+	 * Der Parser
+	 */
+	private final StreamParser parser = new StreamParser(collector, collector);
+
+	/**
+	 * Der Strom
+	 */
+	private final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+	public void testFloatFrames() {
+		for (int i = 0; i < 100; ++i) frame(1000L * i, i, -i / 3f, Float.NaN);
+		parseInChunks(1);
+
+		assertEquals("Messwerte", 100, collector.samples.size());
+		assertEquals("Fehler", 0, parser.getErrorCount());
+		for (int i = 0; i < 100; ++i) {
+			assertEquals("Zeitstempel", 1000L * i, (long) collector.timestamps.get(i));
+			assertEquals("Kanal 0", i, collector.samples.get(i)[0], 0);
+			assertEquals("Kanal 1", -i / 3f, collector.samples.get(i)[1], 0);
+			assertEquals("Kanal 2", Float.NaN, collector.samples.get(i)[2], 0);
+		}
+	}
+
+	public void testDecimalFormatLines() {
+		// Deutsches und englisches Gerätelocale samt Tausendertrennzeichen
+		text("1.234,56789;-0,50000;0,00000\r\n");
+		text("1,234.56789;-0.50000;0.00000\r\n");
+		text("12;3e2;-4.5E-1\r\n");
+		parseInChunks(3);
+
+		assertEquals("Fehler", 0, parser.getErrorCount());
+		assertEquals("Messwerte", 3, collector.samples.size());
+		for (int i = 0; i < 2; ++i) {
+			assertEquals("ohne Zeitstempel", StreamParser.NO_TIMESTAMP, (long) collector.timestamps.get(i));
+			assertEquals("Tausender", 1234.56789, collector.samples.get(i)[0], 1e-4);
+			assertEquals("negativ", -0.5, collector.samples.get(i)[1], 0);
+			assertEquals("null", 0, collector.samples.get(i)[2], 0);
+		}
+		assertEquals("Ganzzahl", 12, collector.samples.get(2)[0], 0);
+		assertEquals("Exponent", 300, collector.samples.get(2)[1], 0);
+		assertEquals("negativer Exponent", -0.45, collector.samples.get(2)[2], 1e-6);
+	}
+
+	public void testSyncMessage() {
+		text("SYNC from Galaxy Nexus 00:11:22:33:44:55\r\n");
+		frame(5, 1);
+		parseInChunks(4);
+
+		assertEquals("Sync", 1, collector.syncs.size());
+		assertEquals("Name und Adresse", "Galaxy Nexus|00:11:22:33:44:55", collector.syncs.get(0));
+		assertEquals("Messwerte", 1, collector.samples.size());
+	}
+
+	public void testResynchronizesAfterInvalidInput() {
+		// Unbekannter Rahmentyp und eine zu lange Zeile
+		stream.write(0);
+		stream.write('X');
+		stream.write(2);
+		text("\r\n");
+		final StringBuilder longLine = new StringBuilder();
+		while (longLine.length() <= StreamParser.MAX_LINE_LENGTH) longLine.append("1;");
+		text(longLine + "\r\n");
+		text("1;2\r\n");
+		parseInChunks(stream.size());
+
+		assertEquals("Fehler", 2, parser.getErrorCount());
+		assertEquals("Messwerte", 1, collector.samples.size());
+		assertEquals("Wert", 2, collector.samples.get(0)[1], 0);
+	}
+
+	public void testMultiplexedStream() {
+		// Vor der Umschaltung ist der Strom unverändert
+		frame(1, 1, 2);
+		text(StreamParser.MUX_LINE + "\r\n");
+
+		// Ein Live-Rahmen, über zwei Multiplex-Rahmen verteilt, dazwischen Massendaten und Steuerzeile
+		final byte[] liveFrame = floatFrame(2, 3, 4, 5);
+
+		final byte[] bulk = new byte[700];
+		for (int i = 0; i < bulk.length; ++i) bulk[i] = (byte) (i * 13);
+
+		muxFrame(StreamParser.MUX_CHANNEL_LIVE, liveFrame, 0, 5);
+		muxFrame(StreamParser.MUX_CHANNEL_BULK, bulk, 0, 512);
+		muxFrame(StreamParser.MUX_CHANNEL_CONTROL, "ENC csv\r\n".getBytes(UTF8), 0, 9);
+		muxFrame(StreamParser.MUX_CHANNEL_LIVE, liveFrame, 5, liveFrame.length - 5);
+		muxFrame(StreamParser.MUX_CHANNEL_BULK, bulk, 512, bulk.length - 512);
+		muxFrame(StreamParser.MUX_CHANNEL_LIVE, "6;7\r\n".getBytes(UTF8), 0, 5);
+		parser.setBulkListener(collector);
+		parseInChunks(3);
+
+		assertTrue("gemultiplext", parser.isMultiplexed());
+		assertEquals("Fehler", 0, parser.getErrorCount());
+		assertEquals("Messwerte", 3, parser.getSampleCount());
+		assertEquals("vor der Umschaltung", 2, collector.samples.get(0)[1], 0);
+		assertEquals("zusammengesetzt", 2, (long) collector.timestamps.get(1));
+		assertEquals("zusammengesetzt", 5, collector.samples.get(1)[2], 0);
+		assertEquals("Text im Live-Kanal", 7, collector.samples.get(2)[1], 0);
+		assertEquals("Steuerzeile", "ENC csv", collector.controlLines.get(collector.controlLines.size() - 1));
+		assertEquals("Massendaten gezählt", bulk.length, parser.getBulkBytes());
+		assertArrayEquals("Massendaten", bulk, collector.bulk.toByteArray());
+	}
+
+	public void testQuantizedFramesWithinErrorBound() {
+		final Quantizer quantizer = new Quantizer(4, -40, 40, 0.005f);
+		quantizer.setRange(0, 1, -1, 1, 0.005f);
+		final float[][] values = randomValues(500, 4);
+		for (float[] sample : values) sample[0] /= 40;
+		values[499][0] = Float.NaN;
+		values[499][3] = Float.NaN;
+
+		text(StreamProtocol.scaleMessages(quantizer));
+		for (int i = 0; i < values.length; ++i) quantized(quantizer, 1000L * i, values[i]);
+		parseInChunks(1);
+
+		assertTrue("Tabelle", parser.isQuantized());
+		assertEquals("Fehler", 0, parser.getErrorCount());
+		assertEquals("Messwerte", values.length, collector.samples.size());
+		for (int i = 0; i < values.length; ++i) {
+			assertEquals("Zeitstempel", 1000L * i, (long) collector.timestamps.get(i));
+			for (int c = 0; c < 4; ++c) {
+				assertEquals("Wert " + i + "/" + c, values[i][c], collector.samples.get(i)[c], 0.005 + 1e-4);
+			}
+		}
+	}
+
+	public void testQuantizedFrameWithoutTableIsDropped() {
+		quantized(new Quantizer(4, -40, 40, 0.005f), 0, randomValues(1, 4)[0]);
+
+		// Der Parser findet über das nächste Zeilenende wieder Tritt
+		text(StreamProtocol.LINE_END);
+		frame(1, 1, 2, 3, 4);
+		parseInChunks(stream.size());
+
+		assertEquals("Fehler", 1, parser.getErrorCount());
+		assertEquals("nur der float-Rahmen", 1, collector.samples.size());
+		assertEquals("Zeitstempel", 1, (long) collector.timestamps.get(0));
+	}
+
+	public void testQuantizedTextNeedsTable() {
+		final Quantizer quantizer = new Quantizer(4, -40, 40, 0.005f);
+		final CsvSampleEncoder encoder = new CsvSampleEncoder(DecimalFormatSymbols.getInstance(Locale.US));
+		final float[][] values = randomValues(100, 4);
+		final int[] q = new int[4];
+		final ByteBuffer buffer = ByteBuffer.allocate(encoder.getMaxQuantizedFrameSize(quantizer));
+
+		// Ganzzahlen vor der Tabelle wären falsch skaliert
+		parser.setQuantizationRequested(true);
+		quantizer.quantize(values[0], 4, q);
+		encoder.encodeQuantized(0, q, quantizer, buffer);
+		stream.write(buffer.array(), 0, buffer.position());
+		parseInChunks(stream.size());
+		assertEquals("verworfen", 0, collector.samples.size());
+		assertEquals("Fehler", 1, parser.getErrorCount());
+
+		stream.reset();
+		text(StreamProtocol.scaleMessages(quantizer));
+		for (float[] sample : values) {
+			quantizer.quantize(sample, 4, q);
+			buffer.clear();
+			encoder.encodeQuantized(0, q, quantizer, buffer);
+			stream.write(buffer.array(), 0, buffer.position());
+		}
+		parseInChunks(13);
+
+		assertEquals("Messwerte", values.length, collector.samples.size());
+		for (int i = 0; i < values.length; ++i) {
+			for (int c = 0; c < 4; ++c) {
+				assertEquals("Wert " + i + "/" + c, values[i][c], collector.samples.get(i)[c], 0.005 + 1e-4);
+			}
+		}
+	}
+
+	public void testTextPassesThroughWithoutQuantization() {
+		text("1;2;3\r\n");
+		parseInChunks(stream.size());
+
+		assertEquals("Fehler", 0, parser.getErrorCount());
+		assertEquals("unverändert", 3, collector.samples.get(0)[2], 0);
+	}
+
+	/**
+	 * Hängt einen Multiplex-Rahmen an den Strom an
+	 *
+	 * @param channel Der Kanal
+	 * @param data Die Nutzdaten
+	 * @param offset Der Beginn der Nutzdaten
+	 * @param length Die Länge der Nutzdaten
+	 */
+	private void muxFrame(int channel, @NotNull byte[] data, int offset, int length) {
+		stream.write(StreamParser.MUX_FRAME_START);
+		stream.write(channel);
+		stream.write(length >> 8);
+		stream.write(length);
+		stream.write(data, offset, length);
+	}
+
+	/**
+	 * Hängt einen Binärrahmen an den Strom an
+	 *
+	 * @param timestamp Der Zeitstempel
+	 * @param values Die Werte
+	 */
+	private void frame(long timestamp, float... values) {
+		final byte[] frame = floatFrame(timestamp, values);
+		stream.write(frame, 0, frame.length);
+	}
+
+	/**
+	 * Kodiert einen Binärrahmen
+	 *
+	 * @param timestamp Der Zeitstempel
+	 * @param values Die Werte
+	 * @return Der Rahmen
+	 */
+	@NotNull
+	private static byte[] floatFrame(long timestamp, float... values) {
+		final ByteBuffer buffer = ByteBuffer.allocate(3 + 8 + 4 * values.length);
+		buffer.put(StreamParser.FRAME_START).put(StreamParser.FRAME_TYPE_FLOAT).put((byte) values.length);
+		buffer.putLong(timestamp);
+		for (float value : values) buffer.putFloat(value);
+		return buffer.array();
+	}
+
+	/**
+	 * Quantisiert einen Messwert und hängt ihn als 'Q'-Rahmen an den Strom an
+	 *
+	 * @param quantizer Die Quantisierung
+	 * @param timestamp Der Zeitstempel
+	 * @param values Die Werte
+	 */
+	private void quantized(@NotNull Quantizer quantizer, long timestamp, @NotNull float[] values) {
+		final int[] q = new int[values.length];
+		quantizer.quantize(values, values.length, q);
+		final BinarySampleEncoder encoder = new BinarySampleEncoder();
+		final ByteBuffer buffer = ByteBuffer.allocate(encoder.getMaxQuantizedFrameSize(quantizer));
+		encoder.encodeQuantized(timestamp, q, quantizer, buffer);
+		stream.write(buffer.array(), 0, buffer.position());
+	}
+
+	/**
+	 * Erzeugt reproduzierbare Zufallswerte im Bereich ±40
+	 *
+	 * @param count Die Anzahl der Messwerte
+	 * @param channelCount Die Anzahl der Kanäle
+	 * @return Die Werte, je Messwert die Kanäle
+	 */
+	@NotNull
+	private static float[][] randomValues(int count, int channelCount) {
+		final Random random = new Random(3);
+		final float[][] values = new float[count][channelCount];
+		for (float[] sample : values) {
+			for (int c = 0; c < channelCount; ++c) sample[c] = (random.nextFloat() * 2 - 1) * 40;
+		}
+		return values;
+	}
+
+	/**
+	 * Hängt Text an den Strom an
+	 *
+	 * @param text Der Text
+	 */
+	private void text(@NotNull String text) {
+		final byte[] bytes = text.getBytes(UTF8);
+		stream.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Übergibt den Strom in Stücken gegebener Größe an den Parser
+	 *
+	 * @param chunkSize Die Stückgröße in Bytes
+	 */
+	private void parseInChunks(int chunkSize) {
+		final byte[] data = stream.toByteArray();
+		for (int offset = 0; offset < data.length; offset += chunkSize) {
+			parser.parse(ByteBuffer.wrap(data, offset, Math.min(chunkSize, data.length - offset)));
+		}
+	}
+}
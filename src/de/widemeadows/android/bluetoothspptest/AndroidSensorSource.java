@@ -0,0 +1,294 @@
+package de.widemeadows.android.bluetoothspptest;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSampleListener;
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSource;
+import de.widemeadows.android.bluetoothspptest.sensor.MadgwickFilter;
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import de.widemeadows.android.bluetoothspptest.trace.PlatformTrace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Sensorquelle für Beschleunigung und Lage des Gerätes
+ *
+ * <p/>
+ *
+ * Die Lage wird nicht vom veralteten Orientierungssensor bezogen, sondern mit
+ * einem {@link MadgwickFilter} aus Gyroskop, Beschleunigung und Magnetfeld
+ * geschätzt, jeweils wenn ein neuer Gyroskopwert vorliegt. Fehlt das Gyroskop,
+ * wird mit jedem Beschleunigungswert ohne Drehrate geschätzt.
+ */
+public final class AndroidSensorSource implements ISensorSource, SensorEventListener {
+
+	/**
+	 * Der erste Kanal des Beschleunigungssensors (X, Y, Z)
+	 */
+	public static final int CHANNEL_ACCELEROMETER = 0;
+
+	/**
+	 * Der erste Kanal der Lage als Euler-Winkel in Grad (Gieren, Nicken, Rollen)
+	 */
+	public static final int CHANNEL_ORIENTATION = 3;
+
+	/**
+	 * Die Anzahl der Kanäle des Beschleunigungssensors; die Lage folgt direkt auf sie
+	 */
+	public static final int ACCELEROMETER_CHANNEL_COUNT = CHANNEL_ORIENTATION - CHANNEL_ACCELEROMETER;
+
+	/**
+	 * Der erste Kanal der Lage als Quaternion (W, X, Y, Z); folgt direkt auf die Euler-Winkel
+	 */
+	public static final int CHANNEL_QUATERNION = 6;
+
+	/**
+	 * Die Anzahl der Kanäle
+	 */
+	public static final int CHANNEL_COUNT = 10;
+
+	/**
+	 * Die Anzahl der Lagewerte (Euler-Winkel und Quaternion)
+	 */
+	private static final int FUSION_VALUES = 7;
+
+	/**
+	 * Der längste Zeitschritt der Lageschätzung in Nanosekunden; längere Lücken werden übersprungen
+	 */
+	private static final long MAX_FUSION_STEP = 500000000L;
+
+	/**
+	 * Die Anzahl der Werte je Sensor
+	 */
+	private static final int AXES = 3;
+
+	/**
+	 * Profiler-Abschnitt für die Lageschätzung
+	 */
+	@NotNull
+	private static final PlatformTrace.Section FUSION_SECTION = PlatformTrace.section("AndroidSensorSource.fuse");
+
+	/**
+	 * Der Sensor-Manager
+	 */
+	@NotNull
+	private final SensorManager sensorManager;
+
+	/**
+	 * Der Accelerometer
+	 */
+	@Nullable
+	private final Sensor accelerometer;
+
+	/**
+	 * Das Gyroskop
+	 */
+	@Nullable
+	private final Sensor gyroscope;
+
+	/**
+	 * Der Magnetfeldsensor
+	 */
+	@Nullable
+	private final Sensor magneticField;
+
+	/**
+	 * Die Lageschätzung
+	 */
+	@NotNull
+	private final MadgwickFilter filter = new MadgwickFilter();
+
+	/**
+	 * Die geschätzte Lage (Euler-Winkel, dann Quaternion)
+	 */
+	@NotNull
+	private final float[] fusion = new float[FUSION_VALUES];
+
+	/**
+	 * Die letzte Beschleunigung
+	 */
+	private float ax, ay, az;
+
+	/**
+	 * Die letzte Drehrate
+	 */
+	private float gx, gy, gz;
+
+	/**
+	 * Das letzte Magnetfeld
+	 */
+	private float mx, my, mz;
+
+	/**
+	 * Der Zeitstempel der letzten Lageschätzung oder <code>0</code>
+	 */
+	private long lastFusionTimestamp;
+
+	/**
+	 * Die Abtastrate (<code>SensorManager.SENSOR_DELAY_*</code>)
+	 */
+	private final int rate;
+
+	/**
+	 * Der Empfänger der Werte
+	 */
+	@Nullable
+	private ISensorSampleListener listener;
+
+	/**
+	 * Der Empfänger der Genauigkeitsänderungen
+	 */
+	@Nullable
+	private ISensorAccuracyListener accuracyListener;
+
+	/**
+	 * Der Tracer für die Latenz einzelner Frames oder <code>null</code>
+	 */
+	@Nullable
+	private volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Erzeugt eine neue Quelle
+	 *
+	 * @param sensorManager Der Sensor-Manager
+	 * @param rate Die Abtastrate (<code>SensorManager.SENSOR_DELAY_*</code>)
+	 */
+	public AndroidSensorSource(@NotNull SensorManager sensorManager, int rate) {
+		this.sensorManager = sensorManager;
+		this.rate = rate;
+		this.accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		this.gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+		this.magneticField = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+	}
+
+	/**
+	 * Setzt den Empfänger der Genauigkeitsänderungen
+	 *
+	 * @param accuracyListener Der Empfänger oder <code>null</code>
+	 */
+	public void setAccuracyListener(@Nullable ISensorAccuracyListener accuracyListener) {
+		this.accuracyListener = accuracyListener;
+	}
+
+	/**
+	 * Setzt den Tracer für die Latenz einzelner Frames
+	 *
+	 * @param latencyTracer Der Tracer oder <code>null</code>
+	 */
+	public void setLatencyTracer(@Nullable LatencyTracer latencyTracer) {
+		this.latencyTracer = latencyTracer;
+	}
+
+	@Override
+	public int getChannelCount() {
+		return CHANNEL_COUNT;
+	}
+
+	@Override
+	public void start(@NotNull ISensorSampleListener listener) {
+		this.listener = listener;
+		filter.reset();
+		lastFusionTimestamp = 0;
+		mx = my = mz = 0;
+
+		sensorManager.registerListener(this, accelerometer, rate);
+		if (gyroscope != null) sensorManager.registerListener(this, gyroscope, rate);
+		if (magneticField != null) sensorManager.registerListener(this, magneticField, rate);
+	}
+
+	@Override
+	public void stop() {
+		sensorManager.unregisterListener(this);
+		listener = null;
+	}
+
+	@Override
+	public void onSensorChanged(SensorEvent sensorEvent) {
+		// http://developer.android.com/reference/android/hardware/SensorEvent.html#values
+		final ISensorSampleListener listener = this.listener;
+		if (listener == null) return;
+
+		final LatencyTracer tracer = latencyTracer;
+		if (tracer != null) tracer.sensorCallback(sensorEvent.timestamp);
+
+		final float[] values = sensorEvent.values;
+		switch (sensorEvent.sensor.getType()) {
+			case Sensor.TYPE_ACCELEROMETER:
+				ax = values[0];
+				ay = values[1];
+				az = values[2];
+				listener.sampleAvailable(CHANNEL_ACCELEROMETER, sensorEvent.timestamp, values, AXES);
+				if (gyroscope == null) fuse(listener, tracer, sensorEvent.timestamp);
+				break;
+
+			case Sensor.TYPE_GYROSCOPE:
+				gx = values[0];
+				gy = values[1];
+				gz = values[2];
+				fuse(listener, tracer, sensorEvent.timestamp);
+				break;
+
+			case Sensor.TYPE_MAGNETIC_FIELD:
+				mx = values[0];
+				my = values[1];
+				mz = values[2];
+				break;
+		}
+	}
+
+	/**
+	 * Aktualisiert die Lageschätzung mit den letzten Werten und gibt sie weiter
+	 *
+	 * @param listener Der Empfänger
+	 * @param tracer Der Tracer oder <code>null</code>
+	 * @param timestamp Der Zeitstempel in Nanosekunden
+	 */
+	private void fuse(@NotNull ISensorSampleListener listener, @Nullable LatencyTracer tracer, long timestamp) {
+		final long step = timestamp - lastFusionTimestamp;
+		final boolean first = lastFusionTimestamp == 0;
+		lastFusionTimestamp = timestamp;
+		if (first || step <= 0 || step > MAX_FUSION_STEP) return;
+
+		FUSION_SECTION.begin();
+		filter.update(gx, gy, gz, ax, ay, az, mx, my, mz, step * 1E-9f);
+		filter.getEulerAngles(fusion, 0);
+		filter.getQuaternion(fusion, CHANNEL_QUATERNION - CHANNEL_ORIENTATION);
+		FUSION_SECTION.end();
+		if (tracer != null) tracer.filtered();
+		listener.sampleAvailable(CHANNEL_ORIENTATION, timestamp, fusion, FUSION_VALUES);
+	}
+
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+		final ISensorAccuracyListener accuracyListener = this.accuracyListener;
+		if (accuracyListener == null) return;
+
+		final int firstChannel = getFirstChannel(sensor);
+		if (firstChannel < 0) return;
+
+		accuracyListener.accuracyChanged(firstChannel, accuracy);
+	}
+
+	/**
+	 * Ermittelt den ersten Kanal, dessen Genauigkeit ein Sensor bestimmt
+	 *
+	 * <p/>
+	 *
+	 * Die Genauigkeit der Lage folgt der Kalibrierung des Magnetfeldsensors.
+	 *
+	 * @param sensor Der Sensor
+	 * @return Der Kanal oder <code>-1</code>, wenn der Sensor unbekannt ist
+	 */
+	private static int getFirstChannel(@NotNull Sensor sensor) {
+		switch (sensor.getType()) {
+			case Sensor.TYPE_ACCELEROMETER:
+				return CHANNEL_ACCELEROMETER;
+			case Sensor.TYPE_MAGNETIC_FIELD:
+				return CHANNEL_ORIENTATION;
+			default:
+				return -1;
+		}
+	}
+}
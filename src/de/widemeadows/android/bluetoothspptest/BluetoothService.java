@@ -3,6 +3,7 @@ package de.widemeadows.android.bluetoothspptest;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -11,15 +12,31 @@ import android.content.IntentFilter;
 import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
+import de.widemeadows.android.bluetoothspptest.stream.ChannelMultiplexer;
+import de.widemeadows.android.bluetoothspptest.stream.ControlReader;
+import de.widemeadows.android.bluetoothspptest.stream.FanOutTransport;
+import de.widemeadows.android.bluetoothspptest.stream.IControlMessageListener;
+import de.widemeadows.android.bluetoothspptest.stream.ISampleTransport;
+import de.widemeadows.android.bluetoothspptest.stream.OutputStreamTransport;
+import de.widemeadows.android.bluetoothspptest.stream.SampleEncoders;
+import de.widemeadows.android.bluetoothspptest.stream.StreamProtocol;
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
  * Klasse, welche die Bluetooth-Funktionalität
  * bereitstellt
+ *
+ * <p/>
+ *
+ * Die Verbindung wird entweder mit {@link #connectToDevice(String)} zu einem Gerät aufgebaut
+ * oder mit {@link #listen()} von beliebig vielen Empfängern angenommen, die sich dann
+ * einen gemeinsamen Datenstrom teilen.
  */
 public final class BluetoothService {
 
@@ -35,6 +52,12 @@ public final class BluetoothService {
 	@NotNull
 	private static final UUID uuidSpp = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+	/**
+	 * Der Name des SDP-Eintrags im Server-Betrieb
+	 */
+	@NotNull
+	private static final String SERVICE_NAME = "BluetoothSPP";
+
 	/**
 	 * Der Anwendungskontext
 	 */
@@ -90,10 +113,58 @@ public final class BluetoothService {
 	private static BluetoothSocket connectedSocket;
 
 	/**
-	 * Der Ausgabestream
+	 * Der Transportweg über den Ausgabestream
+	 */
+	@Nullable
+	private static volatile OutputStreamTransport outputTransport;
+
+	/**
+	 * Der Multiplexer der aktuellen Verbindung
+	 */
+	@Nullable
+	private static volatile ChannelMultiplexer multiplexer;
+
+	/**
+	 * Der Server-Socket im Server-Betrieb
+	 */
+	@Nullable
+	private static volatile BluetoothServerSocket serverSocket;
+
+	/**
+	 * Der gemeinsame Transportweg aller angenommenen Verbindungen im Server-Betrieb
 	 */
 	@Nullable
-	private static BufferedOutputStream outputStream;
+	private static volatile FanOutTransport serverTransport;
+
+	/**
+	 * Verwirft die Steuerzeilen angenommener Verbindungen
+	 *
+	 * <p/>
+	 *
+	 * Alle Empfänger teilen sich einen Datenstrom; die Auswahl eines Empfängers
+	 * (<code>USE</code>, <code>QUANT</code>) darf die übrigen nicht umstellen.
+	 */
+	@NotNull
+	private static final IControlMessageListener serverControlListener = new IControlMessageListener() {
+		@Override
+		public void sessionStarted() {
+		}
+
+		@Override
+		public void controlMessageReceived(@NotNull String line) {
+		}
+	};
+
+	/**
+	 * Transportwege je Multiplex-Kanal, die an die jeweils aktuelle Verbindung weiterreichen
+	 */
+	@NotNull
+	private static final ISampleTransport[] transports = new ISampleTransport[StreamProtocol.MUX_CHANNEL_COUNT];
+	static {
+		for (int i = 0; i < transports.length; ++i) {
+			transports[i] = createTransport(i);
+		}
+	}
 
 	/**
 	 * Der Eingabestream
@@ -101,6 +172,23 @@ public final class BluetoothService {
 	@Nullable
 	private static BufferedInputStream inputStream;
 
+	/**
+	 * Der Empfänger der Steuernachrichten des verbundenen Gerätes
+	 */
+	@Nullable
+	private static volatile IControlMessageListener controlMessageListener;
+
+	/**
+	 * Der Tracer für die Frames des Live-Kanals oder <code>null</code>
+	 */
+	@Nullable
+	private static volatile LatencyTracer latencyTracer;
+
+	/**
+	 * Gibt an, ob quantisierte Werte angeboten werden
+	 */
+	private static volatile boolean quantization;
+
 	/**
 	 * Initialisiert Bluetooth.
 	 *
@@ -263,11 +351,33 @@ public final class BluetoothService {
 		});
 	}
 
+	/**
+	 * Wird gerufen, wenn keine Verbindung aufgebaut werden konnte
+	 *
+	 * @param message Die Meldung als String-Ressource
+	 */
+	private static synchronized void onConnectionFailed(final int message) {
+		assert eventReceiver != null;
+		eventReceiverHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				eventReceiver.connectionFailed(message);
+			}
+		});
+	}
+
 	/**
 	 * Verbindet mit dem angegeben Gerät
+	 *
+	 * <p/>
+	 *
+	 * Schlägt der Verbindungsaufbau fehl, wird die halb aufgebaute Verbindung getrennt
+	 * und der Fehler über {@link IBluetoothServiceEventReceiver#connectionFailed(int)} gemeldet.
+	 *
 	 * @param macAddress Die MAC-Adresse
+	 * @return <code>true</code>, wenn die Verbindung aufgebaut wurde
 	 */
-	public static synchronized void connectToDevice(@NotNull final String macAddress) {
+	public static synchronized boolean connectToDevice(@NotNull final String macAddress) {
 		assert eventReceiver != null;
 
 		// Alte Verbindung trennen
@@ -292,8 +402,8 @@ public final class BluetoothService {
 			BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuidSpp);
 			connectedSocket = socket;
 			if (socket == null) {
-				Log.e(TAG, "Konnte Bluetooth-Socket nicht erzeugen!"); // TODO: An UI weitergeben!
-				return;
+				Log.e(TAG, "Konnte Bluetooth-Socket nicht erzeugen!");
+				return connectFailed();
 			}
 
 			// Wenn wir discovern - abbrechen
@@ -301,48 +411,201 @@ public final class BluetoothService {
 
 			// Verbinden
 			try {
-				Log.i(TAG, "Connecting Socket to " + device.getName()); // TODO: An UI weitergeben!
+				Log.i(TAG, "Connecting Socket to " + device.getName());
 				socket.connect();
 			}
 			catch (IOException e) {
-				Log.e(TAG, "Konnte Verbindung nicht herstellen.", e); // TODO: An UI weitergeben!
-				return;
+				Log.e(TAG, "Konnte Verbindung nicht herstellen.", e);
+				return connectFailed();
 			}
 
 			// Ausgabestream besorgen
 			try {
 				InputStream realInputStream = socket.getInputStream();
 				if (realInputStream == null) {
-					Log.e(TAG, "Konnte Input-Stream nicht erzeugen"); // TODO: An UI weitergeben!
-					return;
+					Log.e(TAG, "Konnte Input-Stream nicht erzeugen");
+					return connectFailed();
 				}
 				inputStream = new BufferedInputStream(realInputStream);
 			} catch (IOException e) {
-				Log.e(TAG, "Konnte Input-Stream nicht erzeugen", e); // TODO: An UI weitergeben!
-				return;
+				Log.e(TAG, "Konnte Input-Stream nicht erzeugen", e);
+				return connectFailed();
 			}
 
 			// Ausgabestream besorgen
+			final OutputStreamTransport connectedTransport;
 			try {
 				OutputStream realOutputStream = socket.getOutputStream();
 				if (realOutputStream  == null) {
-					Log.e(TAG, "Konnte Output-Stream nicht erzeugen"); // TODO: An UI weitergeben!
-					return;
+					Log.e(TAG, "Konnte Output-Stream nicht erzeugen");
+					return connectFailed();
 				}
-				outputStream = new BufferedOutputStream(realOutputStream);
+				connectedTransport = new OutputStreamTransport(realOutputStream);
 			} catch (IOException e) {
-				Log.e(TAG, "Konnte Output-Stream nicht erzeugen", e); // TODO: An UI weitergeben!
-				return;
+				Log.e(TAG, "Konnte Output-Stream nicht erzeugen", e);
+				return connectFailed();
 			}
 
-			// Sync senden
-			sendSyncMessage();
+			// Sync senden, bevor Frames auf die Verbindung gelangen können
+			final ChannelMultiplexer connectedMultiplexer = new ChannelMultiplexer(connectedTransport);
+			connectedMultiplexer.setLatencyTracer(latencyTracer);
+			sendSyncMessage(connectedTransport);
+			final IControlMessageListener listener = controlMessageListener;
+			if (listener != null) listener.sessionStarted();
+			multiplexer = connectedMultiplexer;
+			outputTransport = connectedTransport;
+
+			// Steuernachrichten lesen; die Anforderung zum Multiplexen behandelt der Multiplexer
+			new ControlReader(inputStream, connectedMultiplexer.createControlListener(listener)).start();
+			return true;
 
 		} catch (IOException e) {
-			e.printStackTrace(); // TODO: An UI weitergeben!
+			Log.e(TAG, "Konnte Verbindung nicht herstellen.", e);
+			return connectFailed();
 		} catch (NullPointerException e) {
-			Log.e(TAG, "Nullreferenz-Ausnahmefehler!", e); // TODO: An UI weitergeben!
+			Log.e(TAG, "Nullreferenz-Ausnahmefehler!", e);
+			return connectFailed();
+		}
+	}
+
+	/**
+	 * Trennt eine halb aufgebaute Verbindung und meldet den Fehler
+	 *
+	 * @return <code>false</code>
+	 */
+	private static boolean connectFailed() {
+		disconnect();
+		onConnectionFailed(R.string.connect_failed);
+		return false;
+	}
+
+	/**
+	 * Nimmt eingehende Verbindungen beliebig vieler Empfänger an
+	 *
+	 * <p/>
+	 *
+	 * Alle Empfänger erhalten denselben, nur einmal kodierten Datenstrom im
+	 * Standard-Kodierer. Da ein Empfänger den Strom nicht für alle umstellen darf,
+	 * wird nur die Sync-Nachricht ohne Angebot gesendet; Kodiererwahl, Quantisierung
+	 * und Multiplexing gibt es im Server-Betrieb nicht. Später hinzukommende Empfänger
+	 * benötigen damit keinen Zustand des laufenden Stroms.
+	 *
+	 * @return <code>true</code>, wenn der Server-Socket geöffnet wurde; sonst wird der Fehler
+	 *         über {@link IBluetoothServiceEventReceiver#connectionFailed(int)} gemeldet
+	 */
+	public static synchronized boolean listen() {
+		assert eventReceiver != null;
+
+		// Alte Verbindung trennen
+		disconnect();
+
+		final BluetoothServerSocket server;
+		try {
+			server = btAdapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, uuidSpp);
+			if (server == null) {
+				Log.e(TAG, "Konnte Server-Socket nicht erzeugen");
+				onConnectionFailed(R.string.listen_failed);
+				return false;
+			}
+		}
+		catch (IOException e) {
+			Log.e(TAG, "Konnte Server-Socket nicht erzeugen", e);
+			onConnectionFailed(R.string.listen_failed);
+			return false;
 		}
+
+		final FanOutTransport fanOut = new FanOutTransport();
+		serverSocket = server;
+		serverTransport = fanOut;
+
+		// Verbindungen in einem eigenen Thread annehmen
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections(server, fanOut);
+			}
+		}, "BluetoothService accept");
+		thread.setDaemon(true);
+		thread.start();
+
+		Log.i(TAG, "Warte auf Verbindungen");
+		return true;
+	}
+
+	/**
+	 * Nimmt Verbindungen an, bis der Server-Socket geschlossen wird
+	 *
+	 * @param server Der Server-Socket
+	 * @param fanOut Der gemeinsame Transportweg
+	 */
+	private static void acceptConnections(@NotNull BluetoothServerSocket server, @NotNull FanOutTransport fanOut) {
+		while (true) {
+			final BluetoothSocket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (IOException e) {
+				// Server-Socket wurde geschlossen
+				return;
+			}
+			if (socket == null) continue;
+
+			try {
+				acceptPeer(socket, fanOut);
+			}
+			catch (IOException e) {
+				Log.e(TAG, "Konnte Verbindung nicht annehmen", e);
+				try {
+					socket.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nimmt eine Verbindung in den gemeinsamen Datenstrom auf
+	 *
+	 * @param socket Der Socket der Verbindung
+	 * @param fanOut Der gemeinsame Transportweg
+	 * @throws IOException Wenn die Streams nicht geöffnet werden konnten
+	 */
+	private static void acceptPeer(@NotNull BluetoothSocket socket, @NotNull FanOutTransport fanOut) throws IOException {
+		final InputStream peerInputStream = socket.getInputStream();
+		final OutputStream peerOutputStream = socket.getOutputStream();
+		if (peerInputStream == null || peerOutputStream == null) throw new IOException("Keine Streams");
+
+		// Begrüßung ohne Angebot direkt an die Gegenstelle, dann in den gemeinsamen Strom aufnehmen
+		final OutputStreamTransport peer = new OutputStreamTransport(peerOutputStream);
+		final String sync = StreamProtocol.syncMessage(String.valueOf(btAdapter.getName()), String.valueOf(btAdapter.getAddress()));
+		peer.write(new ByteBuffer[] { ByteBuffer.wrap(StreamProtocol.toBytes(sync)) }, 0, 1);
+
+		// Die Sitzung beginnt mit der ersten Gegenstelle; spätere steigen im laufenden Strom ein
+		final IControlMessageListener listener = controlMessageListener;
+		if (listener != null && !fanOut.isConnected()) listener.sessionStarted();
+		fanOut.addPeer(peer);
+		new ControlReader(new BufferedInputStream(peerInputStream), serverControlListener).start();
+
+		// Benachrichtigung senden
+		final BluetoothDevice device = socket.getRemoteDevice();
+		final String deviceName = device != null ? device.getName() : null;
+		final String deviceAddress = device != null ? device.getAddress() : null;
+		Log.i(TAG, "Verbindung angenommen: " + deviceName + "; " + deviceAddress);
+		eventReceiverHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				eventReceiver.connectedTo(deviceName == null ? "unnamed" : deviceName, String.valueOf(deviceAddress));
+			}
+		});
+	}
+
+	/**
+	 * Gibt an, ob eingehende Verbindungen angenommen werden
+	 *
+	 * @return <code>true</code> im Server-Betrieb
+	 */
+	public static boolean isListening() {
+		return serverSocket != null;
 	}
 
 	/**
@@ -350,15 +613,28 @@ public final class BluetoothService {
 	 */
 	public static synchronized void disconnect() {
 
+		// Server beenden
+		if (serverSocket != null) try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		serverSocket = null;
+		if (serverTransport != null) serverTransport.close();
+		serverTransport = null;
+
+		// Multiplexer beenden
+		if (multiplexer != null) multiplexer.close();
+		multiplexer = null;
+
 		// Ausgabestream schließen
-		if (outputStream != null) try {
-			outputStream.flush();
-			outputStream.close();
+		if (outputTransport != null) try {
+			outputTransport.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (NullPointerException e) {
 		}
-		outputStream = null;
+		outputTransport = null;
 
 		// Eingabestream schließen
 		if (inputStream != null) try {
@@ -385,26 +661,156 @@ public final class BluetoothService {
 	}
 
 	/**
-	 * Sendet eine sync-Nachricht
+	 * Setzt den Empfänger der Steuernachrichten
+	 *
+	 * <p/>
+	 *
+	 * Der Empfänger wird bei jedem Verbindungsaufbau nach der Begrüßung benachrichtigt
+	 * und erhält anschließend die Steuerzeilen des verbundenen Gerätes.
+	 *
+	 * @param listener Der Empfänger oder <code>null</code>
 	 */
-	private static synchronized void sendSyncMessage() {
-		assert outputStream != null;
+	public static void setControlMessageListener(@Nullable IControlMessageListener listener) {
+		controlMessageListener = listener;
+	}
 
-		String syncMessage = "SYNC from "+ btAdapter.getName() + " " + btAdapter.getAddress() + "\r\n";
+	/**
+	 * Setzt den Tracer, dem der Multiplexer jeder Verbindung die Schreibstufen des Live-Kanals meldet
+	 *
+	 * @param tracer Der Tracer oder <code>null</code>
+	 * @see ChannelMultiplexer#setLatencyTracer(LatencyTracer)
+	 */
+	public static void setLatencyTracer(@Nullable LatencyTracer tracer) {
+		latencyTracer = tracer;
+		final ChannelMultiplexer connectedMultiplexer = multiplexer;
+		if (connectedMultiplexer != null) connectedMultiplexer.setLatencyTracer(tracer);
+	}
+
+	/**
+	 * Legt fest, ob in der Begrüßung quantisierte Werte angeboten werden
+	 *
+	 * @param enabled <code>true</code>, wenn der Streamer eine Quantisierungstabelle hat
+	 */
+	public static void setQuantization(boolean enabled) {
+		quantization = enabled;
+	}
+
+	/**
+	 * Sendet eine sync-Nachricht, gefolgt von den angebotenen Kodierern
+	 *
+	 * @param target Der Transportweg der neuen Verbindung
+	 */
+	private static synchronized void sendSyncMessage(@NotNull OutputStreamTransport target) {
 		try {
-			outputStream.write(syncMessage.getBytes());
-			outputStream.flush();
+			target.write(new ByteBuffer[] { ByteBuffer.wrap(createSyncMessage()) }, 0, 1);
 		} catch (IOException e) {
 			Log.e(TAG, "Fehler beim Senden der Sync-Nachricht", e);
 		}
 	}
 
+	/**
+	 * Erzeugt die sync-Nachricht mit den angebotenen Kodierern und dem Angebot gemultiplexter Kanäle
+	 *
+	 * @return Die kodierte Nachricht
+	 */
+	@NotNull
+	private static byte[] createSyncMessage() {
+		return StreamProtocol.toBytes(StreamProtocol.greeting(String.valueOf(btAdapter.getName()), String.valueOf(btAdapter.getAddress()), SampleEncoders.getNames(), true, quantization));
+	}
+
 	/**
 	 * Gibt an, ob eine Bluetooth-Verbindung besteht
+	 *
+	 * <p/>
+	 *
+	 * Scheitert das Schreiben auf die Verbindung, schließt sich der Multiplexer und
+	 * die Verbindung gilt als getrennt.
+	 *
 	 * @return <code>true</code>, wenn die Verbindung besteht
 	 */
 	public static boolean isConnected() {
-		return connectedSocket != null && outputStream != null;
+		final FanOutTransport fanOut = serverTransport;
+		final ChannelMultiplexer connectedMultiplexer = multiplexer;
+		return (connectedSocket != null && outputTransport != null && connectedMultiplexer != null && !connectedMultiplexer.isClosed())
+				|| (fanOut != null && fanOut.isConnected());
+	}
+
+	/**
+	 * Liefert den Transportweg für Live-Messwerte zum verbundenen Gerät
+	 *
+	 * <p/>
+	 *
+	 * Der Transportweg bleibt über Verbindungswechsel hinweg gültig und
+	 * schreibt jeweils auf die aktuelle Verbindung bzw. im Server-Betrieb
+	 * auf alle angenommenen Verbindungen.
+	 *
+	 * @return Der Transportweg
+	 */
+	@NotNull
+	public static ISampleTransport getTransport() {
+		return transports[StreamProtocol.MUX_CHANNEL_LIVE];
+	}
+
+	/**
+	 * Liefert den Transportweg eines Multiplex-Kanals zum verbundenen Gerät
+	 *
+	 * <p/>
+	 *
+	 * Der Massendaten-Kanal ist erst verbunden, wenn die Gegenseite dem
+	 * Multiplexen zugestimmt hat.
+	 *
+	 * @param channel Der Kanal, z.B. {@link StreamProtocol#MUX_CHANNEL_BULK}
+	 * @return Der Transportweg
+	 */
+	@NotNull
+	public static ISampleTransport getTransport(int channel) {
+		return transports[channel];
+	}
+
+	/**
+	 * Erzeugt einen Transportweg, der an einen Kanal der jeweils aktuellen Verbindung weiterreicht
+	 *
+	 * @param channel Der Kanal
+	 * @return Der Transportweg
+	 */
+	@NotNull
+	private static ISampleTransport createTransport(final int channel) {
+		return new ISampleTransport() {
+			@Override
+			public boolean isConnected() {
+				final ISampleTransport target = getCurrentTransport(channel);
+				return target != null && target.isConnected();
+			}
+
+			@Override
+			public boolean isDirectBufferPreferred() {
+				return false;
+			}
+
+			@Override
+			public void write(@NotNull ByteBuffer[] buffers, int offset, int length) throws IOException {
+				final ISampleTransport target = getCurrentTransport(channel);
+				if (target == null) throw new IOException("Nicht verbunden");
+				target.write(buffers, offset, length);
+			}
+		};
+	}
+
+	/**
+	 * Liefert den Transportweg eines Kanals der aktuellen Verbindung
+	 *
+	 * @param channel Der Kanal
+	 * @return Der Transportweg oder <code>null</code>, wenn der Kanal nicht verfügbar ist
+	 */
+	@Nullable
+	private static ISampleTransport getCurrentTransport(int channel) {
+		final FanOutTransport fanOut = serverTransport;
+		if (fanOut != null) {
+			return channel != StreamProtocol.MUX_CHANNEL_BULK ? fanOut : null;
+		}
+
+		final ChannelMultiplexer multiplexer = BluetoothService.multiplexer;
+		return multiplexer != null ? multiplexer.getChannel(channel) : null;
 	}
 
 	/**
@@ -413,10 +819,8 @@ public final class BluetoothService {
 	 */
 	public static synchronized void sendToTarget(@NotNull String message) {
 		try {
-			outputStream.write(message.getBytes());
-			outputStream.write('\r');
-			outputStream.write('\n');
-			outputStream.flush();
+			byte[] data = StreamProtocol.toBytes(message + StreamProtocol.LINE_END);
+			transports[StreamProtocol.MUX_CHANNEL_CONTROL].write(new ByteBuffer[] { ByteBuffer.wrap(data) }, 0, 1);
 		} catch (IOException e) {
 		} catch (NullPointerException e) {
 		}
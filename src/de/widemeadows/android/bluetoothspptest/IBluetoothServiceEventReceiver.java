@@ -33,4 +33,10 @@ public interface IBluetoothServiceEventReceiver {
 	 * @param address Die MAC-Adresse des Gerätes
 	 */
 	public void connectedTo(@NotNull final String name, @NotNull final String address);
+
+	/**
+	 * Verbindung konnte nicht aufgebaut oder Server-Socket nicht geöffnet werden
+	 * @param message Die Meldung als String-Ressource
+	 */
+	public void connectionFailed(final int message);
 }
@@ -0,0 +1,15 @@
+package de.widemeadows.android.bluetoothspptest;
+
+/**
+ * Interface für Empfänger von Änderungen der Sensorgenauigkeit
+ */
+public interface ISensorAccuracyListener {
+
+	/**
+	 * Die Genauigkeit eines Sensors hat sich geändert
+	 *
+	 * @param firstChannel Der erste Kanal, den der Sensor belegt
+	 * @param accuracy Die Genauigkeit (<code>SensorManager.SENSOR_STATUS_*</code>)
+	 */
+	public void accuracyChanged(final int firstChannel, final int accuracy);
+}
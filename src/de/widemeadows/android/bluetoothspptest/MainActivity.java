@@ -1,24 +1,24 @@
 package de.widemeadows.android.bluetoothspptest;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.PowerManager;
+import android.os.IBinder;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.TextView;
 import android.widget.Toast;
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSampleListener;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.text.DecimalFormat;
 
-public class MainActivity extends Activity implements SensorEventListener, IBluetoothServiceEventReceiver
+public class MainActivity extends Activity implements ISensorSampleListener, ISensorAccuracyListener, IBluetoothServiceEventReceiver
 {
 	/**
 	 * Ausgabeformat für Dezimalzahlen
@@ -28,22 +28,38 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 	private static final DecimalFormat df = new DecimalFormat(",##0.00000");
 
 	/**
-	 * Der Sensor-Manager
+	 * Schlüssel für {@link #featuresOnly} im gesicherten Zustand
 	 */
 	@NotNull
-	private SensorManager sensorManager;
+	private static final String STATE_FEATURES = "features";
 
 	/**
-	 * Der Accelerometer
+	 * Der gebundene Streaming-Dienst
 	 */
-	@NotNull
-	private Sensor accelerometer;
+	@Nullable
+	private StreamingService streamingService;
+
+	/**
+	 * Gibt an, ob statt der Sensorwerte nur Merkmale gesendet werden
+	 */
+	private boolean featuresOnly;
 
 	/**
-	 * Der Orientierungssensor
+	 * Die Verbindung zum Streaming-Dienst
 	 */
 	@NotNull
-	private Sensor orientation;
+	private final ServiceConnection serviceConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			streamingService = ((StreamingService.LocalBinder) binder).getService();
+			streamingService.setDisplayListener(MainActivity.this, MainActivity.this);
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			streamingService = null;
+		}
+	};
 
 	/**
 	 * {@link TextView} für X-Beschleunigung
@@ -93,12 +109,6 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 	@NotNull
 	private TextView textViewAccuracyOr;
 
-	/**
-	 * Der {@link PowerManager.WakeLock}, der das Handy wach hält
-	 */
-	@NotNull
-	private PowerManager.WakeLock wakeLock;
-
 	/**
 	 * Letzte Beschleunigung in X-Richtung
 	 */
@@ -134,6 +144,9 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
     public void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+	    if (savedInstanceState != null) {
+		    featuresOnly = savedInstanceState.getBoolean(STATE_FEATURES, false);
+	    }
 
 	    // UI-Elemente beziehen
 	    setContentView(R.layout.main);
@@ -146,22 +159,23 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 	    textViewAccuracy = (TextView) findViewById(R.id.textViewAccuracy);
 	    textViewAccuracyOr = (TextView) findViewById(R.id.textViewAccuracyOr);
 
-	    // Sensoren beziehen
-	    sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-	    accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-	    orientation = sensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
-
-	    // Wake lock beziehen
-	    final PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-	    wakeLock = pm.newWakeLock(PowerManager.SCREEN_DIM_WAKE_LOCK | PowerManager.ON_AFTER_RELEASE, "do_not_turn_off");
-
 	    // Bluetooth initialisieren
 	    BluetoothService.initialize(getApplicationContext(), this);
     }
 
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putBoolean(STATE_FEATURES, featuresOnly);
+	}
+
 	@Override
 	protected void onStart() {
 		super.onStart();
+
+		// Zur Anzeige an den Dienst binden; Streaming und Verbindung laufen dort weiter
+		bindService(new Intent(this, StreamingService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+
 		if (!BluetoothService.requestEnableBluetooth(this)) {
 			bluetoothEnabled();
 		}
@@ -170,30 +184,32 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 	@Override
 	protected void onResume() {
 		super.onResume();
-		wakeLock.acquire();
-		sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
-		sensorManager.registerListener(this, orientation, SensorManager.SENSOR_DELAY_GAME);
 		BluetoothService.registerBroadcastReceiver(this);
 	}
 
 	@Override
 	protected void onPause() {
 		super.onPause();
-		wakeLock.release();
-		sensorManager.unregisterListener(this);
 		BluetoothService.unregisterBroadcastReceiver(this);
-		BluetoothService.disconnect();
 	}
 
 	@Override
-	public void onSensorChanged(SensorEvent sensorEvent) {
-		// http://developer.android.com/reference/android/hardware/SensorEvent.html#values
+	protected void onStop() {
+		super.onStop();
+		if (streamingService != null) {
+			streamingService.setDisplayListener(null, null);
+			streamingService = null;
+		}
+		unbindService(serviceConnection);
+	}
 
-		if (sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
+	@Override
+	public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+		if (firstChannel == AndroidSensorSource.CHANNEL_ACCELEROMETER) {
 		
-			final float x = sensorEvent.values[0];
-			final float y = sensorEvent.values[1];
-			final float z = sensorEvent.values[2];
+			final float x = values[0];
+			final float y = values[1];
+			final float z = values[2];
 
 			if (x == lastXAcceleration || y == lastYAcceleration || z == lastZAcceleration) {
 				return;
@@ -210,11 +226,11 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 			textViewZ.setText(df.format(z));
 
 		}
-		else if (sensorEvent.sensor.getType() == Sensor.TYPE_ORIENTATION) {
+		else if (firstChannel == AndroidSensorSource.CHANNEL_ORIENTATION) {
 
-			final float x = sensorEvent.values[0];
-			final float y = sensorEvent.values[1];
-			final float z = sensorEvent.values[2];
+			final float x = values[0];
+			final float y = values[1];
+			final float z = values[2];
 
 			if (x == lastXAcceleration || y == lastYAcceleration || z == lastZAcceleration) {
 				return;
@@ -231,22 +247,15 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 			textViewZOr.setText(df.format(z));
 
 		}
-
-		// an Ziel senden
-		if (BluetoothService.isConnected()) {
-			BluetoothService.sendToTarget(df.format(lastXAcceleration) + "; " + df.format(lastYAcceleration) + "; " + df.format(lastZAcceleration) + "; " +
-										  df.format(lastXOrientation) + "; " + df.format(lastYOrientation) + "; " + df.format(lastZOrientation));
-		}
-
 	}
 
 	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	public void accuracyChanged(int firstChannel, int accuracy) {
 		try {
 			String accuracyString = getResources().getStringArray(R.array.sensor_accuracy)[accuracy];
-			if (sensor.getType() == Sensor.TYPE_ACCELEROMETER)
+			if (firstChannel == AndroidSensorSource.CHANNEL_ACCELEROMETER)
 				textViewAccuracy.setText(accuracyString);
-			else if (sensor.getType() == Sensor.TYPE_ORIENTATION)
+			else if (firstChannel == AndroidSensorSource.CHANNEL_ORIENTATION)
 				textViewAccuracyOr.setText(accuracyString);
 		}
 		catch(Exception e) {
@@ -273,8 +282,10 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 		// Text setzen
 		((TextView) findViewById(R.id.textViewState)).setText(R.string.value_enabled);
 
-		// Gerät suchen
-		startSearchDeviceIntent();
+		// Gerät suchen, sofern nicht bereits gestreamt oder auf Empfänger gewartet wird
+		if (!BluetoothService.isConnected() && !BluetoothService.isListening()) {
+			startSearchDeviceIntent();
+		}
 	}
 
 	/**
@@ -317,6 +328,17 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 		((TextView)findViewById(R.id.textViewTarget)).setText(name + " (" + address + ")");
 	}
 
+	/**
+	 * Verbindung konnte nicht aufgebaut werden
+	 *
+	 * @param message Die Meldung als String-Ressource
+	 */
+	@Override
+	public void connectionFailed(int message) {
+		Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+		((TextView)findViewById(R.id.textViewTarget)).setText(R.string.value_na);
+	}
+
 	@Override
 	protected void onActivityResult(int requestCode, int resultCode, Intent data) {
 		switch (requestCode) {
@@ -332,8 +354,12 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 					// Get the device MAC address
 					String address = data.getExtras().getString(DeviceListActivity.EXTRA_DEVICE_ADDRESS);
 
-					// Und verbinden
-					BluetoothService.connectToDevice(address);
+					// Und im Dienst verbinden
+					Intent connectIntent = new Intent(this, StreamingService.class);
+					connectIntent.setAction(StreamingService.ACTION_CONNECT);
+					connectIntent.putExtra(StreamingService.EXTRA_DEVICE_ADDRESS, address);
+					connectIntent.putExtra(StreamingService.EXTRA_FEATURES, featuresOnly);
+					startService(connectIntent);
 				}
 			}
 
@@ -354,6 +380,18 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 		return super.onCreateOptionsMenu(menu);
 	}
 
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		MenuItem features = menu.findItem(R.id.features);
+		if (features != null) {
+			// Die Betriebsart wird beim Verbinden festgelegt und kann nur ohne laufendes Streaming gewechselt werden
+			final StreamingService service = streamingService;
+			features.setTitle(featuresOnly ? R.string.button_samples : R.string.button_features);
+			features.setEnabled(service == null || !service.isStreaming());
+		}
+		return super.onPrepareOptionsMenu(menu);
+	}
+
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
 		switch (item.getItemId()) {
@@ -367,6 +405,34 @@ public class MainActivity extends Activity implements SensorEventListener, IBlue
 				// Gerät suchen
 				startSearchDeviceIntent();
 				return true;
+
+			case R.id.listen:
+
+				if (!BluetoothService.bluetoothEnabled()) {
+					BluetoothService.requestEnableBluetooth(this);
+					return true;
+				}
+
+				// Auf Empfänger warten
+				Intent listenIntent = new Intent(this, StreamingService.class);
+				listenIntent.setAction(StreamingService.ACTION_LISTEN);
+				listenIntent.putExtra(StreamingService.EXTRA_FEATURES, featuresOnly);
+				startService(listenIntent);
+				return true;
+
+			case R.id.features:
+
+				// Gilt ab der nächsten Verbindung
+				featuresOnly = !featuresOnly;
+				return true;
+
+			case R.id.stop:
+
+				// Streaming beenden
+				Intent stopIntent = new Intent(this, StreamingService.class);
+				stopIntent.setAction(StreamingService.ACTION_STOP);
+				startService(stopIntent);
+				return true;
 		}
 		return false;
 	}
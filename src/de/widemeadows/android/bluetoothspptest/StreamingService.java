@@ -0,0 +1,525 @@
+package de.widemeadows.android.bluetoothspptest;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.SensorManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+import de.widemeadows.android.bluetoothspptest.sensor.FeatureExtractor;
+import de.widemeadows.android.bluetoothspptest.sensor.FrameSynchronizer;
+import de.widemeadows.android.bluetoothspptest.sensor.ISensorSampleListener;
+import de.widemeadows.android.bluetoothspptest.stream.AimdRateController;
+import de.widemeadows.android.bluetoothspptest.stream.Quantizer;
+import de.widemeadows.android.bluetoothspptest.stream.SampleStreamer;
+import de.widemeadows.android.bluetoothspptest.trace.LatencyTracer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Langlebiger Vordergrund-Dienst, der die Sensoren abfragt und an das
+ * verbundene Gerät streamt.
+ *
+ * <p/>
+ *
+ * Der Dienst wird mit {@link #ACTION_CONNECT} oder {@link #ACTION_LISTEN} gestartet und läuft unabhängig
+ * von der Activity weiter, bis er mit {@link #ACTION_STOP} beendet wird. Ein
+ * partieller Wake lock hält die CPU auch bei ausgeschaltetem Bildschirm wach.
+ * Die Activity bindet sich nur zur Anzeige an den Dienst. Verbindungsaufbau und Trennung
+ * blockieren und laufen daher nacheinander in einem eigenen Thread.
+ *
+ * <p/>
+ *
+ * Mit {@link #EXTRA_FEATURES} werden statt der Frames nur Merkmale der Beschleunigung
+ * über die letzten {@value #FEATURE_WINDOW} Frames gesendet, {@value #FEATURE_RATE}-mal je Sekunde.
+ * Ein erneutes {@link #ACTION_CONNECT} oder {@link #ACTION_LISTEN} während des Streamings
+ * übernimmt die Betriebsart; die neue Verbindung handelt Kodierer und Quantisierung mit
+ * dem gewählten Streamer aus.
+ *
+ * <p/>
+ *
+ * Die Latenz jedes {@value #TRACE_INTERVAL}. Frames wird aufgezeichnet und beim Beenden
+ * als CSV in das externe Dateiverzeichnis der App geschrieben.
+ */
+public final class StreamingService extends Service implements ISensorSampleListener, ISensorAccuracyListener {
+
+	/**
+	 * Das Logging-Tag
+	 */
+	@NotNull
+	private static final String TAG = "StreamingService";
+
+	/**
+	 * Intent-Aktion: Mit dem Gerät aus {@link #EXTRA_DEVICE_ADDRESS} verbinden und streamen
+	 */
+	@NotNull
+	public static final String ACTION_CONNECT = "de.widemeadows.android.bluetoothspptest.action.CONNECT";
+
+	/**
+	 * Intent-Aktion: Verbindungen von Empfängern annehmen und an alle streamen
+	 */
+	@NotNull
+	public static final String ACTION_LISTEN = "de.widemeadows.android.bluetoothspptest.action.LISTEN";
+
+	/**
+	 * Intent-Aktion: Streaming beenden und trennen
+	 */
+	@NotNull
+	public static final String ACTION_STOP = "de.widemeadows.android.bluetoothspptest.action.STOP";
+
+	/**
+	 * Intent-Extra: Die MAC-Adresse des Zielgerätes
+	 */
+	@NotNull
+	public static final String EXTRA_DEVICE_ADDRESS = "device_address";
+
+	/**
+	 * Intent-Extra: Nur Merkmale statt aller Frames senden (boolean)
+	 */
+	@NotNull
+	public static final String EXTRA_FEATURES = "features";
+
+	/**
+	 * Die ID der Vordergrund-Benachrichtigung
+	 */
+	private static final int NOTIFICATION_ID = 1;
+
+	/**
+	 * Die kleinste Senderate in Frames je Sekunde
+	 */
+	private static final double MIN_STREAM_RATE = 5;
+
+	/**
+	 * Die Rate der zeitlich ausgerichteten Frames je Sekunde
+	 */
+	private static final double FRAME_RATE = 200;
+
+	/**
+	 * Die größte Senderate in Frames je Sekunde
+	 */
+	private static final double MAX_STREAM_RATE = FRAME_RATE;
+
+	/**
+	 * Die größte Anzahl Frames je Schreibvorgang
+	 */
+	private static final int MAX_BATCH_SIZE = 32;
+
+	/**
+	 * Die Anzahl der Beschleunigungskanäle, aus denen Merkmale bestimmt werden
+	 */
+	private static final int FEATURE_CHANNEL_COUNT = AndroidSensorSource.ACCELEROMETER_CHANNEL_COUNT;
+
+	/**
+	 * Der Messbereich der Beschleunigung in m/s² (±4 g)
+	 */
+	private static final float ACCELERATION_RANGE = 4 * 9.81f;
+
+	/**
+	 * Der größte Fehler der übertragenen Beschleunigung in m/s²
+	 */
+	private static final float ACCELERATION_ERROR = 0.005f;
+
+	/**
+	 * Der größte Fehler der übertragenen Winkel in Grad
+	 */
+	private static final float ANGLE_ERROR = 0.05f;
+
+	/**
+	 * Der größte Fehler der übertragenen Quaternion-Komponenten
+	 */
+	private static final float QUATERNION_ERROR = 0.005f;
+
+	/**
+	 * Die Fensterlänge der Merkmale in Frames
+	 */
+	private static final int FEATURE_WINDOW = 256;
+
+	/**
+	 * Die Anzahl der Frequenzbänder je Kanal
+	 */
+	private static final int FEATURE_BAND_COUNT = 8;
+
+	/**
+	 * Die Rate der Merkmals-Frames je Sekunde
+	 */
+	private static final double FEATURE_RATE = 1;
+
+	/**
+	 * Die Anzahl der Latenz-Aufzeichnungen im Ring
+	 */
+	private static final int TRACE_CAPACITY = 4096;
+
+	/**
+	 * Jeder wievielte Frame aufgezeichnet wird
+	 */
+	private static final int TRACE_INTERVAL = 20;
+
+	/**
+	 * Binder für Clients im selben Prozess
+	 */
+	public final class LocalBinder extends Binder {
+
+		/**
+		 * Liefert den Dienst
+		 *
+		 * @return Der Dienst
+		 */
+		@NotNull
+		public StreamingService getService() {
+			return StreamingService.this;
+		}
+	}
+
+	/**
+	 * Der Binder
+	 */
+	@NotNull
+	private final IBinder binder = new LocalBinder();
+
+	/**
+	 * Die Sensorquelle
+	 */
+	private AndroidSensorSource sensorSource;
+
+	/**
+	 * Der Streamer, der die Sensorwerte an das Ziel sendet
+	 */
+	private SampleStreamer streamer;
+
+	/**
+	 * Verdichtet die Frames zu Merkmalen
+	 */
+	private FeatureExtractor featureExtractor;
+
+	/**
+	 * Der Streamer, der die Merkmale an das Ziel sendet
+	 */
+	private SampleStreamer featureStreamer;
+
+	/**
+	 * Gibt an, ob nur Merkmale gesendet werden
+	 */
+	private volatile boolean featuresOnly;
+
+	/**
+	 * Richtet die Sensorwerte zeitlich aus, bevor sie gestreamt werden
+	 */
+	private FrameSynchronizer synchronizer;
+
+	/**
+	 * Zeichnet die Latenz einzelner Frames auf
+	 */
+	private LatencyTracer latencyTracer;
+
+	/**
+	 * Der partielle Wake lock
+	 */
+	private PowerManager.WakeLock wakeLock;
+
+	/**
+	 * Führt Verbindungsaufbau und Trennung nacheinander außerhalb des Hauptthreads aus
+	 */
+	private ExecutorService connectionExecutor;
+
+	/**
+	 * Handler des Hauptthreads
+	 */
+	private Handler handler;
+
+	/**
+	 * Gibt an, ob gestreamt wird
+	 */
+	private boolean streaming;
+
+	/**
+	 * Der Empfänger der Werte zur Anzeige
+	 */
+	@Nullable
+	private ISensorSampleListener displayListener;
+
+	/**
+	 * Der Empfänger der Genauigkeitsänderungen zur Anzeige
+	 */
+	@Nullable
+	private ISensorAccuracyListener displayAccuracyListener;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		// Sensoren beziehen
+		final SensorManager sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+		sensorSource = new AndroidSensorSource(sensorManager, SensorManager.SENSOR_DELAY_FASTEST);
+		sensorSource.setAccuracyListener(this);
+
+		// Die Senderate folgt dem, was die Verbindung trägt
+		streamer = new SampleStreamer(sensorSource.getChannelCount(), BluetoothService.getTransport());
+		streamer.setRateController(new AimdRateController(MIN_STREAM_RATE, MAX_STREAM_RATE, 1, MAX_BATCH_SIZE));
+		streamer.setQuantizer(createQuantizer());
+		BluetoothService.setControlMessageListener(streamer);
+		streamer.start();
+
+		// Merkmale kommen ohnehin mit niedriger Rate und werden einzeln gesendet
+		featureStreamer = new SampleStreamer(FEATURE_CHANNEL_COUNT * (FeatureExtractor.FEATURE_BANDS + FEATURE_BAND_COUNT), BluetoothService.getTransport());
+		featureExtractor = new FeatureExtractor(AndroidSensorSource.CHANNEL_ACCELEROMETER, FEATURE_CHANNEL_COUNT, FEATURE_WINDOW, FEATURE_BAND_COUNT, FEATURE_RATE, featureStreamer);
+		featureStreamer.start();
+
+		// Latenz vom Sensor bis zum Schreiben aufzeichnen
+		latencyTracer = new LatencyTracer(TRACE_CAPACITY, TRACE_INTERVAL);
+		sensorSource.setLatencyTracer(latencyTracer);
+		streamer.setLatencyTracer(latencyTracer);
+		BluetoothService.setLatencyTracer(latencyTracer);
+
+		// Jeder Frame enthält Werte aller Sensoren zum selben Zeitpunkt
+		synchronizer = new FrameSynchronizer(sensorSource.getChannelCount(), FRAME_RATE, FrameSynchronizer.Mode.INTERPOLATE, new ISensorSampleListener() {
+			@Override
+			public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+				if (featuresOnly) featureExtractor.sampleAvailable(firstChannel, timestamp, values, count);
+				else streamer.sampleAvailable(firstChannel, timestamp, values, count);
+			}
+		});
+		synchronizer.setCircular(AndroidSensorSource.CHANNEL_ORIENTATION, 1, 0, 360);
+		synchronizer.setCircular(AndroidSensorSource.CHANNEL_ORIENTATION + 2, 1, -180, 180);
+
+		// Wake lock beziehen; der Bildschirm darf ausgehen
+		final PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+		wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+		wakeLock.setReferenceCounted(false);
+
+		connectionExecutor = Executors.newSingleThreadExecutor();
+		handler = new Handler();
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		final String action = intent != null ? intent.getAction() : null;
+
+		if (ACTION_CONNECT.equals(action)) {
+			final String address = intent.getStringExtra(EXTRA_DEVICE_ADDRESS);
+			if (address != null) {
+				startStreaming(intent.getBooleanExtra(EXTRA_FEATURES, false));
+				connectionExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (BluetoothService.connectToDevice(address)) return;
+						stopAfterFailure();
+					}
+				});
+			}
+		}
+		else if (ACTION_LISTEN.equals(action)) {
+			startStreaming(intent.getBooleanExtra(EXTRA_FEATURES, false));
+			connectionExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (BluetoothService.listen()) return;
+					stopAfterFailure();
+				}
+			});
+		}
+		else if (ACTION_STOP.equals(action)) {
+			stopStreaming();
+			stopSelf();
+		}
+
+		// Nach einem Abbruch nicht ohne Zielgerät neu starten
+		return START_NOT_STICKY;
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return binder;
+	}
+
+	@Override
+	public void onDestroy() {
+		stopStreaming();
+		BluetoothService.setControlMessageListener(null);
+		BluetoothService.setLatencyTracer(null);
+		streamer.close();
+		featureStreamer.close();
+		connectionExecutor.shutdown();
+		super.onDestroy();
+	}
+
+	/**
+	 * Gibt an, ob gestreamt wird
+	 *
+	 * @return <code>true</code>, wenn die Sensoren laufen
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Setzt die Empfänger für die Anzeige
+	 *
+	 * <p/>
+	 *
+	 * Die Empfänger werden im Hauptthread gerufen.
+	 *
+	 * @param sampleListener Der Empfänger der Werte oder <code>null</code>
+	 * @param accuracyListener Der Empfänger der Genauigkeitsänderungen oder <code>null</code>
+	 */
+	public void setDisplayListener(@Nullable ISensorSampleListener sampleListener, @Nullable ISensorAccuracyListener accuracyListener) {
+		this.displayListener = sampleListener;
+		this.displayAccuracyListener = accuracyListener;
+	}
+
+	/**
+	 * Startet Sensoren und Vordergrundbetrieb oder wechselt die Betriebsart
+	 *
+	 * <p/>
+	 *
+	 * Läuft das Streaming bereits, wird nur die Betriebsart übernommen; die anschließend
+	 * neu aufgebaute Verbindung beginnt damit eine neue Sitzung des gewählten Streamers.
+	 *
+	 * @param features Gibt an, ob nur Merkmale gesendet werden
+	 */
+	private void startStreaming(boolean features) {
+		if (streaming && features == featuresOnly) return;
+		selectMode(features);
+		if (streaming) {
+			Log.i(TAG, features ? "Wechsel zu Merkmalen" : "Wechsel zu Frames");
+			return;
+		}
+		streaming = true;
+
+		Log.i(TAG, features ? "Streaming von Merkmalen gestartet" : "Streaming gestartet");
+		wakeLock.acquire();
+		startForeground(NOTIFICATION_ID, createNotification());
+		synchronizer.reset();
+		latencyTracer.clear();
+		sensorSource.start(this);
+	}
+
+	/**
+	 * Legt fest, welcher Streamer sendet
+	 *
+	 * @param features Gibt an, ob nur Merkmale gesendet werden
+	 */
+	private void selectMode(boolean features) {
+		// Nur der aktive Streamer erfährt von neuen Verbindungen und der Kodiererwahl
+		featuresOnly = features;
+		BluetoothService.setControlMessageListener(features ? featureStreamer : streamer);
+		BluetoothService.setQuantization(!features);
+		featureExtractor.reset();
+	}
+
+	/**
+	 * Beendet Sensoren, Verbindung und Vordergrundbetrieb
+	 */
+	private void stopStreaming() {
+		if (!streaming) return;
+		streaming = false;
+
+		Log.i(TAG, "Streaming beendet");
+		sensorSource.stop();
+		connectionExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				BluetoothService.disconnect();
+			}
+		});
+		exportLatencyTrace();
+		stopForeground(true);
+		wakeLock.release();
+	}
+
+	/**
+	 * Beendet den Dienst, nachdem keine Verbindung aufgebaut werden konnte
+	 *
+	 * <p/>
+	 *
+	 * Wird vom Verbindungsthread gerufen; den Fehler hat der {@link BluetoothService} bereits gemeldet.
+	 */
+	private void stopAfterFailure() {
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				stopStreaming();
+				stopSelf();
+			}
+		});
+	}
+
+	/**
+	 * Schreibt die Latenz-Aufzeichnungen in das externe Dateiverzeichnis
+	 */
+	private void exportLatencyTrace() {
+		if (latencyTracer.getRecordCount() == 0) return;
+
+		final File directory = getExternalFilesDir(null);
+		if (directory == null) {
+			Log.w(TAG, "Kein externer Speicher für die Latenz-Aufzeichnung");
+			return;
+		}
+
+		final File file = new File(directory, "latency-" + System.currentTimeMillis() + ".csv");
+		try {
+			final int count = latencyTracer.exportTo(file);
+			Log.i(TAG, count + " Latenz-Aufzeichnungen geschrieben: " + file);
+		} catch (IOException e) {
+			Log.e(TAG, "Fehler beim Schreiben der Latenz-Aufzeichnung", e);
+		}
+	}
+
+	/**
+	 * Erzeugt die Quantisierungstabelle der Frames
+	 *
+	 * <p/>
+	 *
+	 * Die Fehlergrenzen liegen unter der Auflösung üblicher Sensoren; Beschleunigung und Winkel
+	 * passen damit in 16 Bit, die Quaternion-Komponenten in 8 Bit.
+	 *
+	 * @return Die Tabelle
+	 */
+	@NotNull
+	private Quantizer createQuantizer() {
+		final Quantizer quantizer = new Quantizer(sensorSource.getChannelCount(), -1, 1, QUATERNION_ERROR);
+		quantizer.setRange(AndroidSensorSource.CHANNEL_ACCELEROMETER, AndroidSensorSource.ACCELEROMETER_CHANNEL_COUNT, -ACCELERATION_RANGE, ACCELERATION_RANGE, ACCELERATION_ERROR);
+		quantizer.setRange(AndroidSensorSource.CHANNEL_ORIENTATION, 1, 0, 360, ANGLE_ERROR);
+		quantizer.setRange(AndroidSensorSource.CHANNEL_ORIENTATION + 1, 1, -90, 90, ANGLE_ERROR);
+		quantizer.setRange(AndroidSensorSource.CHANNEL_ORIENTATION + 2, 1, -180, 180, ANGLE_ERROR);
+		return quantizer;
+	}
+
+	/**
+	 * Erzeugt die Benachrichtigung für den Vordergrundbetrieb
+	 *
+	 * @return Die Benachrichtigung
+	 */
+	@NotNull
+	private Notification createNotification() {
+		final CharSequence title = getText(R.string.app_name);
+		final Notification notification = new Notification(R.drawable.app_icon, title, System.currentTimeMillis());
+		final Intent activityIntent = new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+		final PendingIntent contentIntent = PendingIntent.getActivity(this, 0, activityIntent, 0);
+		notification.setLatestEventInfo(this, title, getText(R.string.notification_streaming), contentIntent);
+		return notification;
+	}
+
+	@Override
+	public void sampleAvailable(int firstChannel, long timestamp, @NotNull float[] values, int count) {
+		synchronizer.sampleAvailable(firstChannel, timestamp, values, count);
+
+		final ISensorSampleListener listener = displayListener;
+		if (listener != null) listener.sampleAvailable(firstChannel, timestamp, values, count);
+	}
+
+	@Override
+	public void accuracyChanged(int firstChannel, int accuracy) {
+		final ISensorAccuracyListener listener = displayAccuracyListener;
+		if (listener != null) listener.accuracyChanged(firstChannel, accuracy);
+	}
+}